@@ -0,0 +1,132 @@
+package io.github.ffortier.jasm.asm;
+
+import io.github.ffortier.jasm.runtime.Bootstraps;
+import org.objectweb.asm.Type;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Modifier;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.Optional;
+
+/**
+ * Directory of generated classes, so the modules transpiled by a previous run are not transpiled again.
+ * <p>
+ * Entries are keyed by a hash of the module bytes, the module interface and the version of jasm, so changing any of
+ * them yields another entry. The version includes a hash of the jars of the code generator and of the runtime, so
+ * development builds and other runtimes are invalidated as well. Entries are written to a temporary file and moved in
+ * place, readers never see a partial entry and concurrent writers of the same entry write the same bytes.
+ */
+public final class ClassCache {
+    private static final String VERSION = version();
+
+    private final Path directory;
+
+    public ClassCache(Path directory) throws IOException {
+        this.directory = Files.createDirectories(directory);
+    }
+
+    /**
+     * Key of the class generated for the module bytes and the module interface
+     */
+    public static String key(ByteBuffer module, Class<?> moduleInterface) {
+        final var digest = sha256();
+
+        digest.update(VERSION.getBytes(StandardCharsets.UTF_8));
+        digest.update(module.duplicate());
+        digest.update(moduleInterface.getName().getBytes(StandardCharsets.UTF_8));
+
+        Arrays.stream(moduleInterface.getMethods())
+                .filter(method -> Modifier.isAbstract(method.getModifiers()))
+                .map(method -> method.getName() + Type.getMethodDescriptor(method))
+                .sorted()
+                .forEach(method -> digest.update(method.getBytes(StandardCharsets.UTF_8)));
+
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    public Optional<byte[]> get(String key) throws IOException {
+        try {
+            return Optional.of(Files.readAllBytes(path(key)));
+        } catch (NoSuchFileException e) {
+            return Optional.empty();
+        }
+    }
+
+    public void put(String key, byte[] bytes) throws IOException {
+        final var tmp = Files.createTempFile(directory, key, ".tmp");
+
+        try {
+            Files.write(tmp, bytes);
+            Files.move(tmp, path(key), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private Path path(String key) {
+        return directory.resolve(key + ".class");
+    }
+
+    /**
+     * Versions of the code generator and of the runtime the generated classes link to, each with a hash of the jar or
+     * the directory of its classes
+     */
+    private static String version() {
+        final var version = new StringBuilder();
+
+        for (final var component : new Class<?>[]{ClassCache.class, Bootstraps.class}) {
+            final var digest = sha256();
+
+            try {
+                hash(digest, Path.of(component.getProtectionDomain().getCodeSource().getLocation().toURI()));
+            } catch (IOException | URISyntaxException | RuntimeException e) {
+                // The version alone identifies the component
+            }
+
+            version.append(Optional.ofNullable(component.getPackage().getImplementationVersion()).orElse("dev"))
+                    .append('-')
+                    .append(HexFormat.of().formatHex(digest.digest()))
+                    .append(';');
+        }
+
+        return version.toString();
+    }
+
+    private static void hash(MessageDigest digest, Path classes) throws IOException {
+        if (Files.isRegularFile(classes)) {
+            try (InputStream in = new DigestInputStream(Files.newInputStream(classes), digest)) {
+                in.transferTo(OutputStream.nullOutputStream());
+            }
+
+            return;
+        }
+
+        try (final var files = Files.walk(classes)) {
+            for (final var file : files.filter(Files::isRegularFile).sorted().toList()) {
+                digest.update(classes.relativize(file).toString().getBytes(StandardCharsets.UTF_8));
+                digest.update(Files.readAllBytes(file));
+            }
+        }
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,1885 @@
+package io.github.ffortier.jasm.asm;
+
+import io.github.ffortier.jasm.binary.Func;
+import io.github.ffortier.jasm.binary.FuncType;
+import io.github.ffortier.jasm.binary.Instruction;
+import io.github.ffortier.jasm.binary.PackedExpr;
+import io.github.ffortier.jasm.binary.ValType;
+import io.github.ffortier.jasm.binary.Validator;
+import io.github.ffortier.jasm.runtime.Events;
+import io.github.ffortier.jasm.runtime.Fuel;
+import io.github.ffortier.jasm.runtime.MemInstance;
+import io.github.ffortier.jasm.runtime.Metrics;
+import io.github.ffortier.jasm.runtime.Numerics;
+import io.github.ffortier.jasm.runtime.Simd;
+import io.github.ffortier.jasm.runtime.Trap;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.FrameNode;
+import org.objectweb.asm.tree.MethodNode;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import static io.github.ffortier.jasm.binary.ValType.NumType.F32;
+import static io.github.ffortier.jasm.binary.ValType.NumType.F64;
+import static io.github.ffortier.jasm.binary.ValType.NumType.I32;
+import static io.github.ffortier.jasm.binary.ValType.NumType.I64;
+import static io.github.ffortier.jasm.asm.VectorTypes.SHUFFLE_DESCRIPTOR;
+import static io.github.ffortier.jasm.asm.VectorTypes.SIMD;
+import static io.github.ffortier.jasm.asm.VectorTypes.V128_DESCRIPTOR;
+import static io.github.ffortier.jasm.binary.ValType.VecType.V128;
+import static org.objectweb.asm.Opcodes.*;
+
+/**
+ * Compiles the body of a wasm function into a jvm method. Wasm locals are jvm locals and the wasm operand stack is
+ * the jvm operand stack; the types of the values on the stack are tracked to pick the right jvm instructions.
+ * <p>
+ * The body is validated first, which gives the type of blocks and the height of the stack, so the method gets its
+ * stack map frames and maximum stack size from the compiler rather than from asm recomputing them.
+ * <p>
+ * The method is built as a tree, so functions can be compiled concurrently and added to their class afterward.
+ * <p>
+ * Blocks chosen by the {@link MethodSplitter} are compiled into methods of their own, so huge functions stay within
+ * the size hotspot compiles. The locals they use are passed in a {@code long[]} frame array and copied back when they
+ * exit; a branch out of the block stores the values it keeps in the same array and returns which block it targets.
+ * Functions handling v128 values give every value two elements of the array.
+ * <p>
+ * Metered functions consume the instructions of each basic block from the {@link Fuel} of the instance when they enter
+ * it, a count known at compile time. Blocks end at branches and structured control instructions other than
+ * {@code block}, so the counter is updated once per block and the budget is only checked on entry and at the start of
+ * loops, which every back edge goes through.
+ * <p>
+ * Instrumented functions are compiled into {@code f<idx>$body}, called by a method of the function's name which counts
+ * the call and its time in the {@link Metrics} of the instance, and records traps.
+ */
+final class FunctionCompiler {
+    private static final String NUMERICS = Type.getInternalName(Numerics.class);
+    private static final String TRAP = Type.getInternalName(Trap.class);
+    private static final String MEMORY = Type.getInternalName(MemInstance.class);
+    private static final String FUEL = Type.getInternalName(Fuel.class);
+    private static final String METRICS = Type.getInternalName(Metrics.class);
+
+    private final ModuleCompiler module;
+    private final int funcIdx;
+    private final MethodNode mv;
+    private final Linkage linkage;
+    private final FuncType funcType;
+    private final PackedExpr body;
+    private final List<ValType> localTypes;
+    private final List<Integer> localSlots = new ArrayList<>();
+    private final Object[] frameLocals;
+    private final Validator.Validation validation;
+    private final BitSet outlined;
+    private final List<MethodNode> methods;
+    private final int selfSlot;
+    /**
+     * Slot of the array passing locals and branch values to the methods of outlined blocks, -1 when there are none
+     */
+    private final int frameSlot;
+    private final int scratchSlot;
+    /**
+     * Elements of the frame array per value
+     */
+    private final int frameWidth;
+    private int maxLocals;
+
+    /**
+     * Start of the outlined block compiled by this method, -1 for the function itself
+     */
+    private final int regionStart;
+    /**
+     * Locals written by the outlined block, copied back to the frame array when it exits
+     */
+    private final BitSet written;
+    /**
+     * Statuses returned by the outlined block when it branches out of itself
+     */
+    private final SortedSet<Integer> exits = new TreeSet<>();
+
+    private final List<ValType> stack = new ArrayList<>();
+    private final List<Control> controls = new ArrayList<>();
+    private boolean unreachable;
+    private int deadDepth;
+    /**
+     * Index of the instruction being compiled
+     */
+    private int index;
+
+    /**
+     * @param maxInstructions wasm instructions per method, above which blocks are outlined
+     */
+    FunctionCompiler(ModuleCompiler module, int funcIdx, Func func, Linkage linkage, int maxInstructions) {
+        this.module = module;
+        this.funcIdx = funcIdx;
+        this.linkage = linkage;
+        this.funcType = module.type(func.type().value());
+        this.body = func.body().packed();
+        this.validation = module.validator().validate(func);
+        this.outlined = MethodSplitter.outline(body, validation, maxInstructions);
+        this.methods = new ArrayList<>();
+        this.regionStart = -1;
+        this.written = null;
+        this.frameWidth = validation.vector() ? 2 : 1;
+        this.localTypes = new ArrayList<>(funcType.args());
+
+        for (final var locals : func.locals()) {
+            for (int i = 0; i < locals.n(); i++) {
+                localTypes.add(locals.t());
+            }
+        }
+
+        this.mv = switch (linkage) {
+            case INSTANCE -> new MethodNode(ASM9, ACC_PRIVATE | ACC_STATIC, ModuleCompiler.functionName(funcIdx), Types.instanceDescriptor(funcType), null, null);
+            case INTERPRETER -> new MethodNode(ASM9, ACC_PUBLIC | ACC_STATIC, ModuleCompiler.functionName(funcIdx), Types.descriptor(funcType), null, null);
+        };
+        methods.add(mv);
+
+        final var frameLocals = new ArrayList<>();
+        var slot = 0;
+
+        for (int i = 0; i < funcType.args().size(); i++) {
+            slot = addLocal(frameLocals, i, slot);
+        }
+
+        if (linkage == Linkage.INSTANCE) {
+            selfSlot = slot++;
+            frameLocals.add("java/lang/Object");
+        } else {
+            selfSlot = -1;
+        }
+
+        for (int i = funcType.args().size(); i < localTypes.size(); i++) {
+            slot = addLocal(frameLocals, i, slot);
+        }
+
+        if (outlined.isEmpty()) {
+            frameSlot = -1;
+        } else {
+            frameSlot = slot++;
+            frameLocals.add("[J");
+        }
+
+        this.frameLocals = frameLocals.toArray();
+        this.scratchSlot = slot;
+        this.maxLocals = slot;
+    }
+
+    /**
+     * Compiler of an outlined block, a static method taking the frame array and the instance, returning the exit
+     * status. The locals used by the block are read from the frame array, the others are never initialized.
+     */
+    private FunctionCompiler(FunctionCompiler caller, int start, BitSet used, BitSet written) {
+        this.module = caller.module;
+        this.funcIdx = caller.funcIdx;
+        this.linkage = caller.linkage;
+        this.funcType = caller.funcType;
+        this.body = caller.body;
+        this.validation = caller.validation;
+        this.outlined = caller.outlined;
+        this.methods = caller.methods;
+        this.localTypes = caller.localTypes;
+        this.regionStart = start;
+        this.written = written;
+        this.frameWidth = caller.frameWidth;
+        this.mv = new MethodNode(ASM9, ACC_PRIVATE | ACC_STATIC, ModuleCompiler.functionName(funcIdx) + "$" + start,
+                linkage == Linkage.INSTANCE ? "([JLjava/lang/Object;)I" : "([J)I", null, null);
+        methods.add(mv);
+
+        final var frameLocals = new ArrayList<>();
+        var slot = 0;
+
+        frameSlot = slot++;
+        frameLocals.add("[J");
+
+        if (linkage == Linkage.INSTANCE) {
+            selfSlot = slot++;
+            frameLocals.add("java/lang/Object");
+        } else {
+            selfSlot = -1;
+        }
+
+        for (int i = 0; i < localTypes.size(); i++) {
+            if (used.get(i)) {
+                slot = addLocal(frameLocals, i, slot);
+            } else {
+                localSlots.add(slot);
+
+                for (int j = 0; j < Types.size(localTypes.get(i)); j++) {
+                    frameLocals.add(TOP);
+                    slot++;
+                }
+            }
+        }
+
+        this.frameLocals = frameLocals.toArray();
+        this.scratchSlot = slot;
+        this.maxLocals = slot;
+
+        // Branches out of the block return the index of the target in the controls of the caller, plus one
+        for (int i = 0; i < caller.controls.size(); i++) {
+            controls.add(new Control(caller.controls.get(i).branchTypes(), i + 1));
+        }
+    }
+
+    private int addLocal(List<Object> frameLocals, int idx, int slot) {
+        final var type = localTypes.get(idx);
+
+        localSlots.add(slot);
+        frameLocals.add(Types.frameType(type));
+        slot += Types.size(type);
+
+        if (slot > 0xffff) {
+            throw new UnsupportedOperationException("Too many locals");
+        }
+
+        return slot;
+    }
+
+    /**
+     * Compiles the function, returning its method followed by the methods of its outlined blocks.
+     */
+    List<MethodNode> compile() {
+        mv.visitCode();
+
+        for (int i = funcType.args().size(); i < localTypes.size(); i++) {
+            if (localTypes.get(i) == V128) {
+                mv.visitLdcInsn(VectorTypes.v128Constant(0, 0));
+            } else {
+                mv.visitInsn(Types.zero(localTypes.get(i)));
+            }
+
+            mv.visitVarInsn(Types.store(localTypes.get(i)), localSlots.get(i));
+        }
+
+        if (frameSlot >= 0) {
+            pushInt((localTypes.size() + validation.maxHeight()) * frameWidth);
+            mv.visitIntInsn(NEWARRAY, T_LONG);
+            mv.visitVarInsn(ASTORE, frameSlot);
+        }
+
+        controls.add(new Control(Kind.FUNCTION, List.of(), funcType.rets(), 0));
+        consumeFuel(0, true);
+        instructions(-1, body.size() - 1);
+        end();
+        visitEnd();
+
+        if (module.options().instrumented()) {
+            methods.add(0, instrument());
+        }
+
+        return methods;
+    }
+
+    /**
+     * Renames the method of the function and returns the method taking its place, which calls it between
+     * {@link Metrics#enter} and {@link Metrics#exit}, or {@link Metrics#thrown}.
+     */
+    private MethodNode instrument() {
+        final var wrapper = new MethodNode(ASM9, mv.access, mv.name, mv.desc, null, null);
+        final var paramLocals = Arrays.copyOf(frameLocals, funcType.args().size() + (linkage == Linkage.INSTANCE ? 1 : 0) + 1);
+        var startSlot = linkage == Linkage.INSTANCE ? 1 : 0;
+
+        for (final var arg : funcType.args()) {
+            startSlot += Types.size(arg);
+        }
+
+        final var tryStart = new Label();
+        final var tryEnd = new Label();
+        final var handler = new Label();
+
+        mv.name += "$body";
+        mv.access = ACC_PRIVATE | ACC_STATIC;
+        paramLocals[paramLocals.length - 1] = LONG;
+
+        wrapper.visitCode();
+        wrapper.visitTryCatchBlock(tryStart, tryEnd, handler, null);
+        wrapper.visitLdcInsn(funcIdx);
+        metrics(wrapper);
+        wrapper.visitMethodInsn(INVOKESTATIC, METRICS, "enter", "(I" + ModuleCompiler.METRICS + ")J", false);
+        wrapper.visitVarInsn(LSTORE, startSlot);
+        wrapper.visitLabel(tryStart);
+
+        for (int i = 0; i < funcType.args().size(); i++) {
+            wrapper.visitVarInsn(Types.load(localTypes.get(i)), localSlots.get(i));
+        }
+
+        if (linkage == Linkage.INSTANCE) {
+            wrapper.visitVarInsn(ALOAD, selfSlot);
+        }
+
+        wrapper.visitMethodInsn(INVOKESTATIC, module.className(), mv.name, mv.desc, false);
+        wrapper.visitLabel(tryEnd);
+        wrapper.visitVarInsn(LLOAD, startSlot);
+        wrapper.visitLdcInsn(funcIdx);
+        metrics(wrapper);
+        wrapper.visitMethodInsn(INVOKESTATIC, METRICS, "exit", "(JI" + ModuleCompiler.METRICS + ")V", false);
+        wrapper.visitInsn(funcType.rets().isEmpty() ? RETURN : Types.ret(funcType.rets().get(0)));
+
+        wrapper.visitLabel(handler);
+        wrapper.visitFrame(F_NEW, paramLocals.length, paramLocals, 1, new Object[]{"java/lang/Throwable"});
+        wrapper.visitVarInsn(LLOAD, startSlot);
+        wrapper.visitLdcInsn(funcIdx);
+        metrics(wrapper);
+        wrapper.visitMethodInsn(INVOKESTATIC, METRICS, "thrown", "(Ljava/lang/Throwable;JI" + ModuleCompiler.METRICS + ")Ljava/lang/Throwable;", false);
+        wrapper.visitInsn(ATHROW);
+        wrapper.visitMaxs(Math.max(startSlot, 6), startSlot + 2);
+        wrapper.visitEnd();
+
+        return wrapper;
+    }
+
+    private void compileRegion(int end, BitSet used) {
+        mv.visitCode();
+
+        for (var i = used.nextSetBit(0); i >= 0; i = used.nextSetBit(i + 1)) {
+            fromFrame(i, localTypes.get(i));
+            mv.visitVarInsn(Types.store(localTypes.get(i)), localSlots.get(i));
+        }
+
+        instructions(regionStart - 1, end);
+        exit(0, List.copyOf(stack));
+        visitEnd();
+    }
+
+    private void instructions(int before, int last) {
+        final var cursor = body.cursor();
+
+        cursor.seek(before);
+
+        while (cursor.next()) {
+            index = cursor.index();
+
+            if (unreachable) {
+                skip(cursor);
+            } else {
+                instruction(cursor);
+            }
+
+            if (cursor.index() >= last) {
+                break;
+            }
+        }
+    }
+
+    private void visitEnd() {
+        // Instructions need at most 4 slots above the wasm operands: new trap, dup and message, or a value stored in the
+        // frame array with the array and index
+        mv.visitMaxs(2 * validation.maxHeight() + 4, maxLocals);
+        mv.visitEnd();
+    }
+
+    /**
+     * Skips the instructions following an unconditional branch until the end or else of the current block.
+     */
+    private void skip(PackedExpr.Cursor cursor) {
+        final var opcode = cursor.opcode();
+
+        if (Instruction.isBlockStart(opcode)) {
+            deadDepth++;
+        } else if (opcode == Instruction.End.OPCODE) {
+            if (deadDepth == 0) {
+                end();
+            } else {
+                deadDepth--;
+            }
+        } else if (opcode == Instruction.Else.OPCODE && deadDepth == 0) {
+            elseBranch();
+        }
+    }
+
+    private void instruction(PackedExpr.Cursor c) {
+        if (outlined.get(c.index()) && c.index() != regionStart) {
+            callRegion(c);
+            return;
+        }
+
+        switch (c.opcode()) {
+            case Instruction.Unreachable.OPCODE -> {
+                trap("unreachable");
+                unreachable = true;
+            }
+            case Instruction.Nop.OPCODE -> {
+            }
+            case Instruction.Block.OPCODE -> {
+                final var bt = blockType(c);
+
+                controls.add(new Control(Kind.BLOCK, bt.args(), bt.rets(), stack.size() - bt.args().size()));
+            }
+            case Instruction.Loop.OPCODE -> {
+                final var bt = blockType(c);
+                final var control = new Control(Kind.LOOP, bt.args(), bt.rets(), stack.size() - bt.args().size());
+
+                label(control.label, stack);
+                consumeFuel(c.index() + 1, true);
+                controls.add(control);
+            }
+            case Instruction.If.OPCODE -> {
+                final var bt = blockType(c);
+
+                pop(I32);
+
+                final var control = new Control(Kind.IF, bt.args(), bt.rets(), stack.size() - bt.args().size());
+
+                mv.visitJumpInsn(IFEQ, control.elseLabel);
+                consumeFuel(c.index() + 1, false);
+                controls.add(control);
+            }
+            case Instruction.Else.OPCODE -> elseBranch();
+            case Instruction.End.OPCODE -> end();
+            case Instruction.Br.OPCODE -> {
+                branch(control(c.intImmediate(0)));
+                unreachable = true;
+            }
+            case Instruction.BrIf.OPCODE -> {
+                pop(I32);
+
+                final var target = control(c.intImmediate(0));
+
+                if (needsAdjust(target)) {
+                    final var skip = new Label();
+
+                    mv.visitJumpInsn(IFEQ, skip);
+                    branch(target);
+                    label(skip, stack);
+                } else {
+                    mv.visitJumpInsn(IFNE, target.label);
+                }
+
+                consumeFuel(c.index() + 1, false);
+            }
+            case Instruction.BrTable.OPCODE -> brTable(c);
+            case Instruction.Return.OPCODE -> {
+                branch(controls.get(0));
+                unreachable = true;
+            }
+            case Instruction.CallFunction.OPCODE -> call(c.intImmediate(0));
+            case Instruction.CallIndirect.OPCODE -> callIndirect(c.intImmediate(0), c.intImmediate(1));
+            case Instruction.Drop.OPCODE -> mv.visitInsn(Types.pop(pop()));
+            case Instruction.Select.OPCODE, Instruction.SelectWithType.OPCODE -> select();
+            case Instruction.LocalGet.OPCODE -> {
+                final var idx = c.intImmediate(0);
+
+                mv.visitVarInsn(Types.load(localTypes.get(idx)), localSlots.get(idx));
+                push(localTypes.get(idx));
+            }
+            case Instruction.LocalSet.OPCODE -> {
+                final var idx = c.intImmediate(0);
+
+                pop(localTypes.get(idx));
+                mv.visitVarInsn(Types.store(localTypes.get(idx)), localSlots.get(idx));
+            }
+            case Instruction.LocalTee.OPCODE -> {
+                final var idx = c.intImmediate(0);
+
+                mv.visitInsn(Types.dup(localTypes.get(idx)));
+                mv.visitVarInsn(Types.store(localTypes.get(idx)), localSlots.get(idx));
+            }
+            case Instruction.GlobalGet.OPCODE -> {
+                final var idx = c.intImmediate(0);
+
+                module.getGlobal(mv, idx, linkage, this::self);
+                push(module.globalType(idx).valType());
+            }
+            case Instruction.GlobalSet.OPCODE -> {
+                final var idx = c.intImmediate(0);
+
+                pop(module.globalType(idx).valType());
+                module.setGlobal(mv, idx, linkage, this::self);
+            }
+            case Instruction.I32Const.OPCODE -> {
+                pushInt(c.intImmediate(0));
+                push(I32);
+            }
+            case Instruction.I64Const.OPCODE -> {
+                final var value = c.immediate(0);
+
+                if (value == 0 || value == 1) {
+                    mv.visitInsn(LCONST_0 + (int) value);
+                } else {
+                    mv.visitLdcInsn(value);
+                }
+
+                push(I64);
+            }
+            case Instruction.F32Const.OPCODE -> {
+                mv.visitLdcInsn(Float.intBitsToFloat(c.intImmediate(0)));
+                push(F32);
+            }
+            case Instruction.F64Const.OPCODE -> {
+                mv.visitLdcInsn(Double.longBitsToDouble(c.immediate(0)));
+                push(F64);
+            }
+            case Instruction.I32LoadMem.OPCODE -> load(c, I32, "i32Load");
+            case Instruction.I32LoadMem8S.OPCODE -> load(c, I32, "i32Load8S");
+            case Instruction.I32LoadMem8U.OPCODE -> load(c, I32, "i32Load8U");
+            case Instruction.I32LoadMem16S.OPCODE -> load(c, I32, "i32Load16S");
+            case Instruction.I32LoadMem16U.OPCODE -> load(c, I32, "i32Load16U");
+            case Instruction.I64LoadMem.OPCODE -> load(c, I64, "i64Load");
+            case Instruction.I64LoadMem8S.OPCODE -> load(c, I64, "i64Load8S");
+            case Instruction.I64LoadMem8U.OPCODE -> load(c, I64, "i64Load8U");
+            case Instruction.I64LoadMem16S.OPCODE -> load(c, I64, "i64Load16S");
+            case Instruction.I64LoadMem16U.OPCODE -> load(c, I64, "i64Load16U");
+            case Instruction.I64LoadMem32S.OPCODE -> load(c, I64, "i64Load32S");
+            case Instruction.I64LoadMem32U.OPCODE -> load(c, I64, "i64Load32U");
+            case Instruction.F32LoadMem.OPCODE -> load(c, F32, "f32Load");
+            case Instruction.F64LoadMem.OPCODE -> load(c, F64, "f64Load");
+            case Instruction.I32StoreMem.OPCODE -> store(c, I32, "i32Store");
+            case Instruction.I32StoreMem8.OPCODE -> store(c, I32, "i32Store8");
+            case Instruction.I32StoreMem16.OPCODE -> store(c, I32, "i32Store16");
+            case Instruction.I64StoreMem.OPCODE -> store(c, I64, "i64Store");
+            case Instruction.I64StoreMem8.OPCODE -> store(c, I64, "i64Store8");
+            case Instruction.I64StoreMem16.OPCODE -> store(c, I64, "i64Store16");
+            case Instruction.I64StoreMem32.OPCODE -> store(c, I64, "i64Store32");
+            case Instruction.F32StoreMem.OPCODE -> store(c, F32, "f32Store");
+            case Instruction.F64StoreMem.OPCODE -> store(c, F64, "f64Store");
+            case Instruction.MemorySize.OPCODE -> {
+                memory();
+                mv.visitMethodInsn(INVOKEVIRTUAL, MEMORY, "size", "()I", false);
+                push(I32);
+            }
+            case Instruction.MemoryGrow.OPCODE -> {
+                pop(I32);
+                memory();
+
+                if (module.options().instrumented()) {
+                    mv.visitMethodInsn(INVOKESTATIC, Type.getInternalName(Events.class), "memoryGrow", "(I" + Type.getDescriptor(MemInstance.class) + ")I", false);
+                } else {
+                    mv.visitInsn(SWAP);
+                    mv.visitMethodInsn(INVOKEVIRTUAL, MEMORY, "grow", "(I)I", false);
+                }
+
+                push(I32);
+            }
+            case Instruction.AtomicNotify.OPCODE -> {
+                pop(I32);
+                pop(I32);
+                pushInt(c.intImmediate(1));
+                memory();
+                mv.visitMethodInsn(INVOKESTATIC, MEMORY, "memoryAtomicNotify", "(IIIL%s;)I".formatted(MEMORY), false);
+                push(I32);
+            }
+            case Instruction.I32AtomicWait.OPCODE, Instruction.I64AtomicWait.OPCODE -> {
+                final var type = c.opcode() == Instruction.I32AtomicWait.OPCODE ? I32 : I64;
+
+                pop(I64);
+                pop(type);
+                pop(I32);
+                pushInt(c.intImmediate(1));
+                memory();
+                mv.visitMethodInsn(INVOKESTATIC, MEMORY, type == I32 ? "memoryAtomicWait32" : "memoryAtomicWait64",
+                        "(I%sJIL%s;)I".formatted(Types.type(type).getDescriptor(), MEMORY), false);
+                push(I32);
+            }
+            case Instruction.AtomicFence.OPCODE -> mv.visitMethodInsn(INVOKESTATIC, MEMORY, "atomicFence", "()V", false);
+            default -> {
+                if (c.opcode() >= Instruction.I32AtomicLoad.OPCODE && c.opcode() <= Instruction.I64AtomicCompareExchange32U.OPCODE) {
+                    atomic(c);
+                } else if (c.opcode() >= Instruction.S128LoadMem.OPCODE && c.opcode() <= Instruction.F64x2ConvertLowI32x4U.OPCODE) {
+                    simd(c);
+                } else {
+                    numeric(c.opcode());
+                }
+            }
+        }
+    }
+
+    /**
+     * Pushes the instance, typed as the module class
+     */
+    private void self() {
+        mv.visitVarInsn(ALOAD, selfSlot);
+        mv.visitTypeInsn(CHECKCAST, module.className());
+    }
+
+    /**
+     * Pushes the memory of the instance
+     */
+    private void memory() {
+        if (!module.hasMemory()) {
+            throw new IllegalArgumentException("Module has no memory");
+        }
+
+        switch (linkage) {
+            case INSTANCE -> {
+                self();
+                mv.visitFieldInsn(GETFIELD, module.className(), ModuleCompiler.MEMORY_FIELD, Type.getDescriptor(MemInstance.class));
+            }
+            case INTERPRETER -> mv.visitLdcInsn(ModuleCompiler.MEMORY_CONSTANT);
+        }
+    }
+
+    /**
+     * Pushes the fuel of the instance
+     */
+    private void fuel() {
+        switch (linkage) {
+            case INSTANCE -> {
+                self();
+                mv.visitFieldInsn(GETFIELD, module.className(), ModuleCompiler.FUEL_FIELD, ModuleCompiler.FUEL);
+            }
+            case INTERPRETER -> mv.visitLdcInsn(ModuleCompiler.FUEL_CONSTANT);
+        }
+    }
+
+    /**
+     * Consumes the instructions of the basic block starting at the index when the function is metered, up to the
+     * instruction ending it. {@code block}, {@code else} and {@code end} compile to no code and are free, so blocks made
+     * of them consume nothing.
+     *
+     * @param check whether to trap when the fuel is exhausted
+     */
+    private void consumeFuel(int start, boolean check) {
+        if (!module.options().metered()) {
+            return;
+        }
+
+        final var c = body.cursor();
+        var count = 0L;
+
+        c.seek(start - 1);
+
+        while (c.next()) {
+            final var opcode = c.opcode();
+
+            if (opcode != Instruction.Block.OPCODE && opcode != Instruction.Else.OPCODE && opcode != Instruction.End.OPCODE) {
+                count++;
+            }
+
+            if (endsBasicBlock(opcode)) {
+                break;
+            }
+        }
+
+        if (count == 0 && !check) {
+            return;
+        }
+
+        mv.visitLdcInsn(count);
+        fuel();
+        mv.visitMethodInsn(INVOKESTATIC, FUEL, check ? "check" : "consume", "(J" + ModuleCompiler.FUEL + ")V", false);
+    }
+
+    private static boolean endsBasicBlock(int opcode) {
+        return switch (opcode) {
+            case Instruction.Unreachable.OPCODE, Instruction.Loop.OPCODE, Instruction.If.OPCODE, Instruction.Else.OPCODE,
+                 Instruction.End.OPCODE, Instruction.Br.OPCODE, Instruction.BrIf.OPCODE, Instruction.BrTable.OPCODE,
+                 Instruction.Return.OPCODE -> true;
+            default -> false;
+        };
+    }
+
+    /**
+     * Pushes the metrics of the instance in the given method
+     */
+    private void metrics(MethodNode method) {
+        switch (linkage) {
+            case INSTANCE -> {
+                method.visitVarInsn(ALOAD, selfSlot);
+                method.visitTypeInsn(CHECKCAST, module.className());
+                method.visitFieldInsn(GETFIELD, module.className(), ModuleCompiler.METRICS_FIELD, ModuleCompiler.METRICS);
+            }
+            case INTERPRETER -> method.visitLdcInsn(ModuleCompiler.METRICS_CONSTANT);
+        }
+    }
+
+    /**
+     * Pushes the tables of the instance
+     */
+    private void tables() {
+        switch (linkage) {
+            case INSTANCE -> {
+                self();
+                mv.visitFieldInsn(GETFIELD, module.className(), ModuleCompiler.TABLES_FIELD, ModuleCompiler.TABLES);
+            }
+            case INTERPRETER -> mv.visitLdcInsn(ModuleCompiler.TABLES_CONSTANT);
+        }
+    }
+
+    private void load(PackedExpr.Cursor c, ValType type, String name) {
+        pop(I32);
+        pushInt(c.intImmediate(1));
+        memory();
+        mv.visitMethodInsn(INVOKESTATIC, MEMORY, name, "(IIL%s;)%s".formatted(MEMORY, Types.type(type).getDescriptor()), false);
+        push(type);
+    }
+
+    private void store(PackedExpr.Cursor c, ValType type, String name) {
+        pop(type);
+        pop(I32);
+        pushInt(c.intImmediate(1));
+        memory();
+        mv.visitMethodInsn(INVOKESTATIC, MEMORY, name, "(I%sIL%s;)V".formatted(Types.type(type).getDescriptor(), MEMORY), false);
+    }
+
+    /**
+     * Atomic loads, stores and read-modify-writes come in groups of 7 opcodes, one per access: i32, i64, 8 and 16 bits
+     * of an i32, then 8, 16 and 32 bits of an i64. The read-modify-writes pass their operation to the accessor.
+     */
+    private void atomic(PackedExpr.Cursor c) {
+        final var index = c.opcode() - Instruction.I32AtomicLoad.OPCODE;
+        final var access = index % 7;
+        final var group = index / 7;
+        final var type = access == 0 || access == 2 || access == 3 ? I32 : I64;
+        final var bits = switch (access) {
+            case 0, 1 -> "";
+            case 2, 4 -> "8";
+            case 3, 5 -> "16";
+            default -> "32";
+        };
+        final var operation = switch (group) {
+            case 0 -> "Load";
+            case 1 -> "Store";
+            case 8 -> "Cmpxchg";
+            default -> "Rmw";
+        };
+        // Narrow stores have nothing to extend
+        final var name = (type == I32 ? "i32Atomic" : "i64Atomic") + operation + bits + (bits.isEmpty() || group == 1 ? "" : "U");
+        final var descriptor = Types.type(type).getDescriptor();
+
+        switch (group) {
+            case 0 -> {
+                pop(I32);
+                pushInt(c.intImmediate(1));
+                memory();
+                mv.visitMethodInsn(INVOKESTATIC, MEMORY, name, "(IIL%s;)%s".formatted(MEMORY, descriptor), false);
+                push(type);
+            }
+            case 1 -> {
+                pop(type);
+                pop(I32);
+                pushInt(c.intImmediate(1));
+                memory();
+                mv.visitMethodInsn(INVOKESTATIC, MEMORY, name, "(I%sIL%s;)V".formatted(descriptor, MEMORY), false);
+            }
+            case 8 -> {
+                pop(type);
+                pop(type);
+                pop(I32);
+                pushInt(c.intImmediate(1));
+                memory();
+                mv.visitMethodInsn(INVOKESTATIC, MEMORY, name, "(I%s%sIL%s;)%s".formatted(descriptor, descriptor, MEMORY, descriptor), false);
+                push(type);
+            }
+            default -> {
+                pop(type);
+                pop(I32);
+                pushInt(c.intImmediate(1));
+                pushInt(group - 2);
+                memory();
+                mv.visitMethodInsn(INVOKESTATIC, MEMORY, name, "(I%sIIL%s;)%s".formatted(descriptor, MEMORY, descriptor), false);
+                push(type);
+            }
+        }
+    }
+
+    /**
+     * Vector instructions call the {@link Simd} method named after them, lane indices and shuffles are passed as
+     * constants.
+     */
+    private void simd(PackedExpr.Cursor c) {
+        switch (c.opcode()) {
+            case Instruction.S128LoadMem.OPCODE -> simdLoad(c, "v128Load");
+            case Instruction.S128Load8x8S.OPCODE -> simdLoad(c, "v128Load8x8S");
+            case Instruction.S128Load8x8U.OPCODE -> simdLoad(c, "v128Load8x8U");
+            case Instruction.S128Load16x4S.OPCODE -> simdLoad(c, "v128Load16x4S");
+            case Instruction.S128Load16x4U.OPCODE -> simdLoad(c, "v128Load16x4U");
+            case Instruction.S128Load32x2S.OPCODE -> simdLoad(c, "v128Load32x2S");
+            case Instruction.S128Load32x2U.OPCODE -> simdLoad(c, "v128Load32x2U");
+            case Instruction.S128Load8Splat.OPCODE -> simdLoad(c, "v128Load8Splat");
+            case Instruction.S128Load16Splat.OPCODE -> simdLoad(c, "v128Load16Splat");
+            case Instruction.S128Load32Splat.OPCODE -> simdLoad(c, "v128Load32Splat");
+            case Instruction.S128Load64Splat.OPCODE -> simdLoad(c, "v128Load64Splat");
+            case Instruction.S128Load32Zero.OPCODE -> simdLoad(c, "v128Load32Zero");
+            case Instruction.S128Load64Zero.OPCODE -> simdLoad(c, "v128Load64Zero");
+            case Instruction.S128StoreMem.OPCODE -> {
+                pop(V128);
+                pop(I32);
+                pushInt(c.intImmediate(1));
+                memory();
+                mv.visitMethodInsn(INVOKESTATIC, SIMD, "v128Store", "(I%sIL%s;)V".formatted(V128_DESCRIPTOR, MEMORY), false);
+            }
+            case Instruction.S128Load8Lane.OPCODE -> simdLane(c, "v128Load8Lane", V128_DESCRIPTOR);
+            case Instruction.S128Load16Lane.OPCODE -> simdLane(c, "v128Load16Lane", V128_DESCRIPTOR);
+            case Instruction.S128Load32Lane.OPCODE -> simdLane(c, "v128Load32Lane", V128_DESCRIPTOR);
+            case Instruction.S128Load64Lane.OPCODE -> simdLane(c, "v128Load64Lane", V128_DESCRIPTOR);
+            case Instruction.S128Store8Lane.OPCODE -> simdLane(c, "v128Store8Lane", "V");
+            case Instruction.S128Store16Lane.OPCODE -> simdLane(c, "v128Store16Lane", "V");
+            case Instruction.S128Store32Lane.OPCODE -> simdLane(c, "v128Store32Lane", "V");
+            case Instruction.S128Store64Lane.OPCODE -> simdLane(c, "v128Store64Lane", "V");
+            case Instruction.S128Const.OPCODE -> {
+                mv.visitLdcInsn(VectorTypes.v128Constant(c.immediate(0), c.immediate(1)));
+                push(V128);
+            }
+            case Instruction.I8x16Shuffle.OPCODE -> {
+                pop(V128);
+                pop(V128);
+                mv.visitLdcInsn(VectorTypes.shuffleConstant(c.immediate(0), c.immediate(1)));
+                mv.visitMethodInsn(INVOKESTATIC, SIMD, "i8x16Shuffle", "(%s%s%s)%s".formatted(V128_DESCRIPTOR, V128_DESCRIPTOR,
+                        SHUFFLE_DESCRIPTOR, V128_DESCRIPTOR), false);
+                push(V128);
+            }
+            case Instruction.I8x16Splat.OPCODE -> unary(I32, V128, SIMD, "i8x16Splat", "(I)" + V128_DESCRIPTOR);
+            case Instruction.I16x8Splat.OPCODE -> unary(I32, V128, SIMD, "i16x8Splat", "(I)" + V128_DESCRIPTOR);
+            case Instruction.I32x4Splat.OPCODE -> unary(I32, V128, SIMD, "i32x4Splat", "(I)" + V128_DESCRIPTOR);
+            case Instruction.I64x2Splat.OPCODE -> unary(I64, V128, SIMD, "i64x2Splat", "(J)" + V128_DESCRIPTOR);
+            case Instruction.F32x4Splat.OPCODE -> unary(F32, V128, SIMD, "f32x4Splat", "(F)" + V128_DESCRIPTOR);
+            case Instruction.F64x2Splat.OPCODE -> unary(F64, V128, SIMD, "f64x2Splat", "(D)" + V128_DESCRIPTOR);
+            case Instruction.I8x16ExtractLaneS.OPCODE -> extractLane(c, I32, "i8x16ExtractLaneS");
+            case Instruction.I8x16ExtractLaneU.OPCODE -> extractLane(c, I32, "i8x16ExtractLaneU");
+            case Instruction.I16x8ExtractLaneS.OPCODE -> extractLane(c, I32, "i16x8ExtractLaneS");
+            case Instruction.I16x8ExtractLaneU.OPCODE -> extractLane(c, I32, "i16x8ExtractLaneU");
+            case Instruction.I32x4ExtractLane.OPCODE -> extractLane(c, I32, "i32x4ExtractLane");
+            case Instruction.I64x2ExtractLane.OPCODE -> extractLane(c, I64, "i64x2ExtractLane");
+            case Instruction.F32x4ExtractLane.OPCODE -> extractLane(c, F32, "f32x4ExtractLane");
+            case Instruction.F64x2ExtractLane.OPCODE -> extractLane(c, F64, "f64x2ExtractLane");
+            case Instruction.I8x16ReplaceLane.OPCODE -> replaceLane(c, I32, "i8x16ReplaceLane");
+            case Instruction.I16x8ReplaceLane.OPCODE -> replaceLane(c, I32, "i16x8ReplaceLane");
+            case Instruction.I32x4ReplaceLane.OPCODE -> replaceLane(c, I32, "i32x4ReplaceLane");
+            case Instruction.I64x2ReplaceLane.OPCODE -> replaceLane(c, I64, "i64x2ReplaceLane");
+            case Instruction.F32x4ReplaceLane.OPCODE -> replaceLane(c, F32, "f32x4ReplaceLane");
+            case Instruction.F64x2ReplaceLane.OPCODE -> replaceLane(c, F64, "f64x2ReplaceLane");
+            case Instruction.I8x16Shl.OPCODE -> simdShift("i8x16Shl");
+            case Instruction.I8x16ShrS.OPCODE -> simdShift("i8x16ShrS");
+            case Instruction.I8x16ShrU.OPCODE -> simdShift("i8x16ShrU");
+            case Instruction.I16x8Shl.OPCODE -> simdShift("i16x8Shl");
+            case Instruction.I16x8ShrS.OPCODE -> simdShift("i16x8ShrS");
+            case Instruction.I16x8ShrU.OPCODE -> simdShift("i16x8ShrU");
+            case Instruction.I32x4Shl.OPCODE -> simdShift("i32x4Shl");
+            case Instruction.I32x4ShrS.OPCODE -> simdShift("i32x4ShrS");
+            case Instruction.I32x4ShrU.OPCODE -> simdShift("i32x4ShrU");
+            case Instruction.I64x2Shl.OPCODE -> simdShift("i64x2Shl");
+            case Instruction.I64x2ShrS.OPCODE -> simdShift("i64x2ShrS");
+            case Instruction.I64x2ShrU.OPCODE -> simdShift("i64x2ShrU");
+            case Instruction.S128Select.OPCODE -> {
+                pop(V128);
+                pop(V128);
+                pop(V128);
+                mv.visitMethodInsn(INVOKESTATIC, SIMD, "v128Bitselect", "(%s%s%s)%s".formatted(V128_DESCRIPTOR, V128_DESCRIPTOR,
+                        V128_DESCRIPTOR, V128_DESCRIPTOR), false);
+                push(V128);
+            }
+            case Instruction.I8x16Swizzle.OPCODE -> simdBinary("i8x16Swizzle");
+            case Instruction.I8x16Eq.OPCODE -> simdBinary("i8x16Eq");
+            case Instruction.I8x16Ne.OPCODE -> simdBinary("i8x16Ne");
+            case Instruction.I8x16LtS.OPCODE -> simdBinary("i8x16LtS");
+            case Instruction.I8x16LtU.OPCODE -> simdBinary("i8x16LtU");
+            case Instruction.I8x16GtS.OPCODE -> simdBinary("i8x16GtS");
+            case Instruction.I8x16GtU.OPCODE -> simdBinary("i8x16GtU");
+            case Instruction.I8x16LeS.OPCODE -> simdBinary("i8x16LeS");
+            case Instruction.I8x16LeU.OPCODE -> simdBinary("i8x16LeU");
+            case Instruction.I8x16GeS.OPCODE -> simdBinary("i8x16GeS");
+            case Instruction.I8x16GeU.OPCODE -> simdBinary("i8x16GeU");
+            case Instruction.I16x8Eq.OPCODE -> simdBinary("i16x8Eq");
+            case Instruction.I16x8Ne.OPCODE -> simdBinary("i16x8Ne");
+            case Instruction.I16x8LtS.OPCODE -> simdBinary("i16x8LtS");
+            case Instruction.I16x8LtU.OPCODE -> simdBinary("i16x8LtU");
+            case Instruction.I16x8GtS.OPCODE -> simdBinary("i16x8GtS");
+            case Instruction.I16x8GtU.OPCODE -> simdBinary("i16x8GtU");
+            case Instruction.I16x8LeS.OPCODE -> simdBinary("i16x8LeS");
+            case Instruction.I16x8LeU.OPCODE -> simdBinary("i16x8LeU");
+            case Instruction.I16x8GeS.OPCODE -> simdBinary("i16x8GeS");
+            case Instruction.I16x8GeU.OPCODE -> simdBinary("i16x8GeU");
+            case Instruction.I32x4Eq.OPCODE -> simdBinary("i32x4Eq");
+            case Instruction.I32x4Ne.OPCODE -> simdBinary("i32x4Ne");
+            case Instruction.I32x4LtS.OPCODE -> simdBinary("i32x4LtS");
+            case Instruction.I32x4LtU.OPCODE -> simdBinary("i32x4LtU");
+            case Instruction.I32x4GtS.OPCODE -> simdBinary("i32x4GtS");
+            case Instruction.I32x4GtU.OPCODE -> simdBinary("i32x4GtU");
+            case Instruction.I32x4LeS.OPCODE -> simdBinary("i32x4LeS");
+            case Instruction.I32x4LeU.OPCODE -> simdBinary("i32x4LeU");
+            case Instruction.I32x4GeS.OPCODE -> simdBinary("i32x4GeS");
+            case Instruction.I32x4GeU.OPCODE -> simdBinary("i32x4GeU");
+            case Instruction.F32x4Eq.OPCODE -> simdBinary("f32x4Eq");
+            case Instruction.F32x4Ne.OPCODE -> simdBinary("f32x4Ne");
+            case Instruction.F32x4Lt.OPCODE -> simdBinary("f32x4Lt");
+            case Instruction.F32x4Gt.OPCODE -> simdBinary("f32x4Gt");
+            case Instruction.F32x4Le.OPCODE -> simdBinary("f32x4Le");
+            case Instruction.F32x4Ge.OPCODE -> simdBinary("f32x4Ge");
+            case Instruction.F64x2Eq.OPCODE -> simdBinary("f64x2Eq");
+            case Instruction.F64x2Ne.OPCODE -> simdBinary("f64x2Ne");
+            case Instruction.F64x2Lt.OPCODE -> simdBinary("f64x2Lt");
+            case Instruction.F64x2Gt.OPCODE -> simdBinary("f64x2Gt");
+            case Instruction.F64x2Le.OPCODE -> simdBinary("f64x2Le");
+            case Instruction.F64x2Ge.OPCODE -> simdBinary("f64x2Ge");
+            case Instruction.S128Not.OPCODE -> simdUnary("v128Not");
+            case Instruction.S128And.OPCODE -> simdBinary("v128And");
+            case Instruction.S128AndNot.OPCODE -> simdBinary("v128Andnot");
+            case Instruction.S128Or.OPCODE -> simdBinary("v128Or");
+            case Instruction.S128Xor.OPCODE -> simdBinary("v128Xor");
+            case Instruction.V128AnyTrue.OPCODE -> unary(V128, I32, SIMD, "v128AnyTrue", "(" + V128_DESCRIPTOR + ")I");
+            case Instruction.F32x4DemoteF64x2Zero.OPCODE -> simdUnary("f32x4DemoteF64x2Zero");
+            case Instruction.F64x2PromoteLowF32x4.OPCODE -> simdUnary("f64x2PromoteLowF32x4");
+            case Instruction.I8x16Abs.OPCODE -> simdUnary("i8x16Abs");
+            case Instruction.I8x16Neg.OPCODE -> simdUnary("i8x16Neg");
+            case Instruction.I8x16Popcnt.OPCODE -> simdUnary("i8x16Popcnt");
+            case Instruction.I8x16AllTrue.OPCODE -> unary(V128, I32, SIMD, "i8x16AllTrue", "(" + V128_DESCRIPTOR + ")I");
+            case Instruction.I8x16BitMask.OPCODE -> unary(V128, I32, SIMD, "i8x16Bitmask", "(" + V128_DESCRIPTOR + ")I");
+            case Instruction.I8x16SConvertI16x8.OPCODE -> simdBinary("i8x16NarrowI16x8S");
+            case Instruction.I8x16UConvertI16x8.OPCODE -> simdBinary("i8x16NarrowI16x8U");
+            case Instruction.F32x4Ceil.OPCODE -> simdUnary("f32x4Ceil");
+            case Instruction.F32x4Floor.OPCODE -> simdUnary("f32x4Floor");
+            case Instruction.F32x4Trunc.OPCODE -> simdUnary("f32x4Trunc");
+            case Instruction.F32x4NearestInt.OPCODE -> simdUnary("f32x4Nearest");
+            case Instruction.I8x16Add.OPCODE -> simdBinary("i8x16Add");
+            case Instruction.I8x16AddSatS.OPCODE -> simdBinary("i8x16AddSatS");
+            case Instruction.I8x16AddSatU.OPCODE -> simdBinary("i8x16AddSatU");
+            case Instruction.I8x16Sub.OPCODE -> simdBinary("i8x16Sub");
+            case Instruction.I8x16SubSatS.OPCODE -> simdBinary("i8x16SubSatS");
+            case Instruction.I8x16SubSatU.OPCODE -> simdBinary("i8x16SubSatU");
+            case Instruction.F64x2Ceil.OPCODE -> simdUnary("f64x2Ceil");
+            case Instruction.F64x2Floor.OPCODE -> simdUnary("f64x2Floor");
+            case Instruction.I8x16MinS.OPCODE -> simdBinary("i8x16MinS");
+            case Instruction.I8x16MinU.OPCODE -> simdBinary("i8x16MinU");
+            case Instruction.I8x16MaxS.OPCODE -> simdBinary("i8x16MaxS");
+            case Instruction.I8x16MaxU.OPCODE -> simdBinary("i8x16MaxU");
+            case Instruction.F64x2Trunc.OPCODE -> simdUnary("f64x2Trunc");
+            case Instruction.I8x16RoundingAverageU.OPCODE -> simdBinary("i8x16AvgrU");
+            case Instruction.I16x8ExtAddPairwiseI8x16S.OPCODE -> simdUnary("i16x8ExtaddPairwiseI8x16S");
+            case Instruction.I16x8ExtAddPairwiseI8x16U.OPCODE -> simdUnary("i16x8ExtaddPairwiseI8x16U");
+            case Instruction.I32x4ExtAddPairwiseI16x8S.OPCODE -> simdUnary("i32x4ExtaddPairwiseI16x8S");
+            case Instruction.I32x4ExtAddPairwiseI16x8U.OPCODE -> simdUnary("i32x4ExtaddPairwiseI16x8U");
+            case Instruction.I16x8Abs.OPCODE -> simdUnary("i16x8Abs");
+            case Instruction.I16x8Neg.OPCODE -> simdUnary("i16x8Neg");
+            case Instruction.I16x8Q15MulRSatS.OPCODE -> simdBinary("i16x8Q15mulrSatS");
+            case Instruction.I16x8AllTrue.OPCODE -> unary(V128, I32, SIMD, "i16x8AllTrue", "(" + V128_DESCRIPTOR + ")I");
+            case Instruction.I16x8BitMask.OPCODE -> unary(V128, I32, SIMD, "i16x8Bitmask", "(" + V128_DESCRIPTOR + ")I");
+            case Instruction.I16x8SConvertI32x4.OPCODE -> simdBinary("i16x8NarrowI32x4S");
+            case Instruction.I16x8UConvertI32x4.OPCODE -> simdBinary("i16x8NarrowI32x4U");
+            case Instruction.I16x8SConvertI8x16Low.OPCODE -> simdUnary("i16x8ExtendLowI8x16S");
+            case Instruction.I16x8SConvertI8x16High.OPCODE -> simdUnary("i16x8ExtendHighI8x16S");
+            case Instruction.I16x8UConvertI8x16Low.OPCODE -> simdUnary("i16x8ExtendLowI8x16U");
+            case Instruction.I16x8UConvertI8x16High.OPCODE -> simdUnary("i16x8ExtendHighI8x16U");
+            case Instruction.I16x8Add.OPCODE -> simdBinary("i16x8Add");
+            case Instruction.I16x8AddSatS.OPCODE -> simdBinary("i16x8AddSatS");
+            case Instruction.I16x8AddSatU.OPCODE -> simdBinary("i16x8AddSatU");
+            case Instruction.I16x8Sub.OPCODE -> simdBinary("i16x8Sub");
+            case Instruction.I16x8SubSatS.OPCODE -> simdBinary("i16x8SubSatS");
+            case Instruction.I16x8SubSatU.OPCODE -> simdBinary("i16x8SubSatU");
+            case Instruction.F64x2NearestInt.OPCODE -> simdUnary("f64x2Nearest");
+            case Instruction.I16x8Mul.OPCODE -> simdBinary("i16x8Mul");
+            case Instruction.I16x8MinS.OPCODE -> simdBinary("i16x8MinS");
+            case Instruction.I16x8MinU.OPCODE -> simdBinary("i16x8MinU");
+            case Instruction.I16x8MaxS.OPCODE -> simdBinary("i16x8MaxS");
+            case Instruction.I16x8MaxU.OPCODE -> simdBinary("i16x8MaxU");
+            case Instruction.I16x8RoundingAverageU.OPCODE -> simdBinary("i16x8AvgrU");
+            case Instruction.I16x8ExtMulLowI8x16S.OPCODE -> simdBinary("i16x8ExtmulLowI8x16S");
+            case Instruction.I16x8ExtMulHighI8x16S.OPCODE -> simdBinary("i16x8ExtmulHighI8x16S");
+            case Instruction.I16x8ExtMulLowI8x16U.OPCODE -> simdBinary("i16x8ExtmulLowI8x16U");
+            case Instruction.I16x8ExtMulHighI8x16U.OPCODE -> simdBinary("i16x8ExtmulHighI8x16U");
+            case Instruction.I32x4Abs.OPCODE -> simdUnary("i32x4Abs");
+            case Instruction.I32x4Neg.OPCODE -> simdUnary("i32x4Neg");
+            case Instruction.I32x4AllTrue.OPCODE -> unary(V128, I32, SIMD, "i32x4AllTrue", "(" + V128_DESCRIPTOR + ")I");
+            case Instruction.I32x4BitMask.OPCODE -> unary(V128, I32, SIMD, "i32x4Bitmask", "(" + V128_DESCRIPTOR + ")I");
+            case Instruction.I32x4SConvertI16x8Low.OPCODE -> simdUnary("i32x4ExtendLowI16x8S");
+            case Instruction.I32x4SConvertI16x8High.OPCODE -> simdUnary("i32x4ExtendHighI16x8S");
+            case Instruction.I32x4UConvertI16x8Low.OPCODE -> simdUnary("i32x4ExtendLowI16x8U");
+            case Instruction.I32x4UConvertI16x8High.OPCODE -> simdUnary("i32x4ExtendHighI16x8U");
+            case Instruction.I32x4Add.OPCODE -> simdBinary("i32x4Add");
+            case Instruction.I32x4Sub.OPCODE -> simdBinary("i32x4Sub");
+            case Instruction.I32x4Mul.OPCODE -> simdBinary("i32x4Mul");
+            case Instruction.I32x4MinS.OPCODE -> simdBinary("i32x4MinS");
+            case Instruction.I32x4MinU.OPCODE -> simdBinary("i32x4MinU");
+            case Instruction.I32x4MaxS.OPCODE -> simdBinary("i32x4MaxS");
+            case Instruction.I32x4MaxU.OPCODE -> simdBinary("i32x4MaxU");
+            case Instruction.I32x4DotI16x8S.OPCODE -> simdBinary("i32x4DotI16x8S");
+            case Instruction.I32x4ExtMulLowI16x8S.OPCODE -> simdBinary("i32x4ExtmulLowI16x8S");
+            case Instruction.I32x4ExtMulHighI16x8S.OPCODE -> simdBinary("i32x4ExtmulHighI16x8S");
+            case Instruction.I32x4ExtMulLowI16x8U.OPCODE -> simdBinary("i32x4ExtmulLowI16x8U");
+            case Instruction.I32x4ExtMulHighI16x8U.OPCODE -> simdBinary("i32x4ExtmulHighI16x8U");
+            case Instruction.I64x2Abs.OPCODE -> simdUnary("i64x2Abs");
+            case Instruction.I64x2Neg.OPCODE -> simdUnary("i64x2Neg");
+            case Instruction.I64x2AllTrue.OPCODE -> unary(V128, I32, SIMD, "i64x2AllTrue", "(" + V128_DESCRIPTOR + ")I");
+            case Instruction.I64x2BitMask.OPCODE -> unary(V128, I32, SIMD, "i64x2Bitmask", "(" + V128_DESCRIPTOR + ")I");
+            case Instruction.I64x2SConvertI32x4Low.OPCODE -> simdUnary("i64x2ExtendLowI32x4S");
+            case Instruction.I64x2SConvertI32x4High.OPCODE -> simdUnary("i64x2ExtendHighI32x4S");
+            case Instruction.I64x2UConvertI32x4Low.OPCODE -> simdUnary("i64x2ExtendLowI32x4U");
+            case Instruction.I64x2UConvertI32x4High.OPCODE -> simdUnary("i64x2ExtendHighI32x4U");
+            case Instruction.I64x2Add.OPCODE -> simdBinary("i64x2Add");
+            case Instruction.I64x2Sub.OPCODE -> simdBinary("i64x2Sub");
+            case Instruction.I64x2Mul.OPCODE -> simdBinary("i64x2Mul");
+            case Instruction.I64x2Eq.OPCODE -> simdBinary("i64x2Eq");
+            case Instruction.I64x2Ne.OPCODE -> simdBinary("i64x2Ne");
+            case Instruction.I64x2LtS.OPCODE -> simdBinary("i64x2LtS");
+            case Instruction.I64x2GtS.OPCODE -> simdBinary("i64x2GtS");
+            case Instruction.I64x2LeS.OPCODE -> simdBinary("i64x2LeS");
+            case Instruction.I64x2GeS.OPCODE -> simdBinary("i64x2GeS");
+            case Instruction.I64x2ExtMulLowI32x4S.OPCODE -> simdBinary("i64x2ExtmulLowI32x4S");
+            case Instruction.I64x2ExtMulHighI32x4S.OPCODE -> simdBinary("i64x2ExtmulHighI32x4S");
+            case Instruction.I64x2ExtMulLowI32x4U.OPCODE -> simdBinary("i64x2ExtmulLowI32x4U");
+            case Instruction.I64x2ExtMulHighI32x4U.OPCODE -> simdBinary("i64x2ExtmulHighI32x4U");
+            case Instruction.F32x4Abs.OPCODE -> simdUnary("f32x4Abs");
+            case Instruction.F32x4Neg.OPCODE -> simdUnary("f32x4Neg");
+            case Instruction.F32x4Sqrt.OPCODE -> simdUnary("f32x4Sqrt");
+            case Instruction.F32x4Add.OPCODE -> simdBinary("f32x4Add");
+            case Instruction.F32x4Sub.OPCODE -> simdBinary("f32x4Sub");
+            case Instruction.F32x4Mul.OPCODE -> simdBinary("f32x4Mul");
+            case Instruction.F32x4Div.OPCODE -> simdBinary("f32x4Div");
+            case Instruction.F32x4Min.OPCODE -> simdBinary("f32x4Min");
+            case Instruction.F32x4Max.OPCODE -> simdBinary("f32x4Max");
+            case Instruction.F32x4Pmin.OPCODE -> simdBinary("f32x4Pmin");
+            case Instruction.F32x4Pmax.OPCODE -> simdBinary("f32x4Pmax");
+            case Instruction.F64x2Abs.OPCODE -> simdUnary("f64x2Abs");
+            case Instruction.F64x2Neg.OPCODE -> simdUnary("f64x2Neg");
+            case Instruction.F64x2Sqrt.OPCODE -> simdUnary("f64x2Sqrt");
+            case Instruction.F64x2Add.OPCODE -> simdBinary("f64x2Add");
+            case Instruction.F64x2Sub.OPCODE -> simdBinary("f64x2Sub");
+            case Instruction.F64x2Mul.OPCODE -> simdBinary("f64x2Mul");
+            case Instruction.F64x2Div.OPCODE -> simdBinary("f64x2Div");
+            case Instruction.F64x2Min.OPCODE -> simdBinary("f64x2Min");
+            case Instruction.F64x2Max.OPCODE -> simdBinary("f64x2Max");
+            case Instruction.F64x2Pmin.OPCODE -> simdBinary("f64x2Pmin");
+            case Instruction.F64x2Pmax.OPCODE -> simdBinary("f64x2Pmax");
+            case Instruction.I32x4SConvertF32x4.OPCODE -> simdUnary("i32x4TruncSatF32x4S");
+            case Instruction.I32x4UConvertF32x4.OPCODE -> simdUnary("i32x4TruncSatF32x4U");
+            case Instruction.F32x4SConvertI32x4.OPCODE -> simdUnary("f32x4ConvertI32x4S");
+            case Instruction.F32x4UConvertI32x4.OPCODE -> simdUnary("f32x4ConvertI32x4U");
+            case Instruction.I32x4TruncSatF64x2SZero.OPCODE -> simdUnary("i32x4TruncSatF64x2SZero");
+            case Instruction.I32x4TruncSatF64x2UZero.OPCODE -> simdUnary("i32x4TruncSatF64x2UZero");
+            case Instruction.F64x2ConvertLowI32x4S.OPCODE -> simdUnary("f64x2ConvertLowI32x4S");
+            case Instruction.F64x2ConvertLowI32x4U.OPCODE -> simdUnary("f64x2ConvertLowI32x4U");
+            default -> throw new UnsupportedOperationException("Opcode not supported yet %04x".formatted(c.opcode()));
+        }
+    }
+
+    private void simdLoad(PackedExpr.Cursor c, String name) {
+        pop(I32);
+        pushInt(c.intImmediate(1));
+        memory();
+        mv.visitMethodInsn(INVOKESTATIC, SIMD, name, "(IIL%s;)%s".formatted(MEMORY, V128_DESCRIPTOR), false);
+        push(V128);
+    }
+
+    /**
+     * Loads a lane into the vector, or stores it, the immediates are the memarg followed by the lane
+     */
+    private void simdLane(PackedExpr.Cursor c, String name, String returnDescriptor) {
+        pop(V128);
+        pop(I32);
+        pushInt(c.intImmediate(2));
+        pushInt(c.intImmediate(1));
+        memory();
+        mv.visitMethodInsn(INVOKESTATIC, SIMD, name, "(I%sIIL%s;)%s".formatted(V128_DESCRIPTOR, MEMORY, returnDescriptor), false);
+
+        if (!returnDescriptor.equals("V")) {
+            push(V128);
+        }
+    }
+
+    private void extractLane(PackedExpr.Cursor c, ValType type, String name) {
+        pop(V128);
+        pushInt(c.intImmediate(0));
+        mv.visitMethodInsn(INVOKESTATIC, SIMD, name, "(%sI)%s".formatted(V128_DESCRIPTOR, Types.type(type).getDescriptor()), false);
+        push(type);
+    }
+
+    private void replaceLane(PackedExpr.Cursor c, ValType type, String name) {
+        pop(type);
+        pop(V128);
+        pushInt(c.intImmediate(0));
+        mv.visitMethodInsn(INVOKESTATIC, SIMD, name, "(%s%sI)%s".formatted(V128_DESCRIPTOR, Types.type(type).getDescriptor(), V128_DESCRIPTOR), false);
+        push(V128);
+    }
+
+    private void simdShift(String name) {
+        pop(I32);
+        pop(V128);
+        mv.visitMethodInsn(INVOKESTATIC, SIMD, name, "(%sI)%s".formatted(V128_DESCRIPTOR, V128_DESCRIPTOR), false);
+        push(V128);
+    }
+
+    private void simdUnary(String name) {
+        unary(V128, V128, SIMD, name, "(%s)%s".formatted(V128_DESCRIPTOR, V128_DESCRIPTOR));
+    }
+
+    private void simdBinary(String name) {
+        binary(V128, SIMD, name, "(%s%s)%s".formatted(V128_DESCRIPTOR, V128_DESCRIPTOR, V128_DESCRIPTOR));
+    }
+
+    private void numeric(int opcode) {
+        switch (opcode) {
+            case Instruction.I32Eqz.OPCODE -> test(I32, IFEQ);
+            case Instruction.I32Eq.OPCODE -> compare(I32, IF_ICMPEQ);
+            case Instruction.I32Ne.OPCODE -> compare(I32, IF_ICMPNE);
+            case Instruction.I32LtS.OPCODE -> compare(I32, IF_ICMPLT);
+            case Instruction.I32LtU.OPCODE -> compareUnsigned(I32, IFLT);
+            case Instruction.I32GtS.OPCODE -> compare(I32, IF_ICMPGT);
+            case Instruction.I32GtU.OPCODE -> compareUnsigned(I32, IFGT);
+            case Instruction.I32LeS.OPCODE -> compare(I32, IF_ICMPLE);
+            case Instruction.I32LeU.OPCODE -> compareUnsigned(I32, IFLE);
+            case Instruction.I32GeS.OPCODE -> compare(I32, IF_ICMPGE);
+            case Instruction.I32GeU.OPCODE -> compareUnsigned(I32, IFGE);
+            case Instruction.I64Eqz.OPCODE -> {
+                mv.visitInsn(LCONST_0);
+                mv.visitInsn(LCMP);
+                test(I64, IFEQ);
+            }
+            case Instruction.I64Eq.OPCODE -> compare(I64, LCMP, IFEQ);
+            case Instruction.I64Ne.OPCODE -> compare(I64, LCMP, IFNE);
+            case Instruction.I64LtS.OPCODE -> compare(I64, LCMP, IFLT);
+            case Instruction.I64LtU.OPCODE -> compareUnsigned(I64, IFLT);
+            case Instruction.I64GtS.OPCODE -> compare(I64, LCMP, IFGT);
+            case Instruction.I64GtU.OPCODE -> compareUnsigned(I64, IFGT);
+            case Instruction.I64LeS.OPCODE -> compare(I64, LCMP, IFLE);
+            case Instruction.I64LeU.OPCODE -> compareUnsigned(I64, IFLE);
+            case Instruction.I64GeS.OPCODE -> compare(I64, LCMP, IFGE);
+            case Instruction.I64GeU.OPCODE -> compareUnsigned(I64, IFGE);
+            // fcmpl and fcmpg give 1 or -1 on NaN, whichever makes the comparison false
+            case Instruction.F32Eq.OPCODE -> compare(F32, FCMPL, IFEQ);
+            case Instruction.F32Ne.OPCODE -> compare(F32, FCMPL, IFNE);
+            case Instruction.F32Lt.OPCODE -> compare(F32, FCMPG, IFLT);
+            case Instruction.F32Gt.OPCODE -> compare(F32, FCMPL, IFGT);
+            case Instruction.F32Le.OPCODE -> compare(F32, FCMPG, IFLE);
+            case Instruction.F32Ge.OPCODE -> compare(F32, FCMPL, IFGE);
+            case Instruction.F64Eq.OPCODE -> compare(F64, DCMPL, IFEQ);
+            case Instruction.F64Ne.OPCODE -> compare(F64, DCMPL, IFNE);
+            case Instruction.F64Lt.OPCODE -> compare(F64, DCMPG, IFLT);
+            case Instruction.F64Gt.OPCODE -> compare(F64, DCMPL, IFGT);
+            case Instruction.F64Le.OPCODE -> compare(F64, DCMPG, IFLE);
+            case Instruction.F64Ge.OPCODE -> compare(F64, DCMPL, IFGE);
+
+            case Instruction.I32Clz.OPCODE -> unary(I32, I32, "java/lang/Integer", "numberOfLeadingZeros", "(I)I");
+            case Instruction.I32Ctz.OPCODE -> unary(I32, I32, "java/lang/Integer", "numberOfTrailingZeros", "(I)I");
+            case Instruction.I32Popcnt.OPCODE -> unary(I32, I32, "java/lang/Integer", "bitCount", "(I)I");
+            case Instruction.I32Add.OPCODE -> binary(I32, IADD);
+            case Instruction.I32Sub.OPCODE -> binary(I32, ISUB);
+            case Instruction.I32Mul.OPCODE -> binary(I32, IMUL);
+            case Instruction.I32DivS.OPCODE -> binary(I32, NUMERICS, "i32DivS", "(II)I");
+            case Instruction.I32DivU.OPCODE -> binary(I32, NUMERICS, "i32DivU", "(II)I");
+            case Instruction.I32RemS.OPCODE -> binary(I32, NUMERICS, "i32RemS", "(II)I");
+            case Instruction.I32RemU.OPCODE -> binary(I32, NUMERICS, "i32RemU", "(II)I");
+            case Instruction.I32And.OPCODE -> binary(I32, IAND);
+            case Instruction.I32Ior.OPCODE -> binary(I32, IOR);
+            case Instruction.I32Xor.OPCODE -> binary(I32, IXOR);
+            // jvm shifts mask the shift count like wasm does
+            case Instruction.I32Shl.OPCODE -> binary(I32, ISHL);
+            case Instruction.I32ShrS.OPCODE -> binary(I32, ISHR);
+            case Instruction.I32ShrU.OPCODE -> binary(I32, IUSHR);
+            case Instruction.I32Rol.OPCODE -> binary(I32, "java/lang/Integer", "rotateLeft", "(II)I");
+            case Instruction.I32Ror.OPCODE -> binary(I32, "java/lang/Integer", "rotateRight", "(II)I");
+
+            case Instruction.I64Clz.OPCODE -> {
+                unary(I64, I64, "java/lang/Long", "numberOfLeadingZeros", "(J)I");
+                mv.visitInsn(I2L);
+            }
+            case Instruction.I64Ctz.OPCODE -> {
+                unary(I64, I64, "java/lang/Long", "numberOfTrailingZeros", "(J)I");
+                mv.visitInsn(I2L);
+            }
+            case Instruction.I64Popcnt.OPCODE -> {
+                unary(I64, I64, "java/lang/Long", "bitCount", "(J)I");
+                mv.visitInsn(I2L);
+            }
+            case Instruction.I64Add.OPCODE -> binary(I64, LADD);
+            case Instruction.I64Sub.OPCODE -> binary(I64, LSUB);
+            case Instruction.I64Mul.OPCODE -> binary(I64, LMUL);
+            case Instruction.I64DivS.OPCODE -> binary(I64, NUMERICS, "i64DivS", "(JJ)J");
+            case Instruction.I64DivU.OPCODE -> binary(I64, NUMERICS, "i64DivU", "(JJ)J");
+            case Instruction.I64RemS.OPCODE -> binary(I64, NUMERICS, "i64RemS", "(JJ)J");
+            case Instruction.I64RemU.OPCODE -> binary(I64, NUMERICS, "i64RemU", "(JJ)J");
+            case Instruction.I64And.OPCODE -> binary(I64, LAND);
+            case Instruction.I64Ior.OPCODE -> binary(I64, LOR);
+            case Instruction.I64Xor.OPCODE -> binary(I64, LXOR);
+            case Instruction.I64Shl.OPCODE -> shift(LSHL);
+            case Instruction.I64ShrS.OPCODE -> shift(LSHR);
+            case Instruction.I64ShrU.OPCODE -> shift(LUSHR);
+            case Instruction.I64Rol.OPCODE -> {
+                mv.visitInsn(L2I);
+                binary(I64, "java/lang/Long", "rotateLeft", "(JI)J");
+            }
+            case Instruction.I64Ror.OPCODE -> {
+                mv.visitInsn(L2I);
+                binary(I64, "java/lang/Long", "rotateRight", "(JI)J");
+            }
+
+            case Instruction.F32Abs.OPCODE -> unary(F32, F32, "java/lang/Math", "abs", "(F)F");
+            case Instruction.F32Neg.OPCODE -> unary(F32, F32, FNEG);
+            case Instruction.F32Ceil.OPCODE -> {
+                mv.visitInsn(F2D);
+                unary(F32, F32, "java/lang/Math", "ceil", "(D)D");
+                mv.visitInsn(D2F);
+            }
+            case Instruction.F32Floor.OPCODE -> {
+                mv.visitInsn(F2D);
+                unary(F32, F32, "java/lang/Math", "floor", "(D)D");
+                mv.visitInsn(D2F);
+            }
+            case Instruction.F32Trunc.OPCODE -> unary(F32, F32, NUMERICS, "f32Trunc", "(F)F");
+            case Instruction.F32NearestInt.OPCODE -> {
+                mv.visitInsn(F2D);
+                unary(F32, F32, "java/lang/Math", "rint", "(D)D");
+                mv.visitInsn(D2F);
+            }
+            case Instruction.F32Sqrt.OPCODE -> {
+                // Rounding the double square root to float is exact
+                mv.visitInsn(F2D);
+                unary(F32, F32, "java/lang/Math", "sqrt", "(D)D");
+                mv.visitInsn(D2F);
+            }
+            case Instruction.F32Add.OPCODE -> binary(F32, FADD);
+            case Instruction.F32Sub.OPCODE -> binary(F32, FSUB);
+            case Instruction.F32Mul.OPCODE -> binary(F32, FMUL);
+            case Instruction.F32Div.OPCODE -> binary(F32, FDIV);
+            case Instruction.F32Min.OPCODE -> binary(F32, "java/lang/Math", "min", "(FF)F");
+            case Instruction.F32Max.OPCODE -> binary(F32, "java/lang/Math", "max", "(FF)F");
+            case Instruction.F32CopySign.OPCODE -> binary(F32, "java/lang/Math", "copySign", "(FF)F");
+
+            case Instruction.F64Abs.OPCODE -> unary(F64, F64, "java/lang/Math", "abs", "(D)D");
+            case Instruction.F64Neg.OPCODE -> unary(F64, F64, DNEG);
+            case Instruction.F64Ceil.OPCODE -> unary(F64, F64, "java/lang/Math", "ceil", "(D)D");
+            case Instruction.F64Floor.OPCODE -> unary(F64, F64, "java/lang/Math", "floor", "(D)D");
+            case Instruction.F64Trunc.OPCODE -> unary(F64, F64, NUMERICS, "f64Trunc", "(D)D");
+            case Instruction.F64NearestInt.OPCODE -> unary(F64, F64, "java/lang/Math", "rint", "(D)D");
+            case Instruction.F64Sqrt.OPCODE -> unary(F64, F64, "java/lang/Math", "sqrt", "(D)D");
+            case Instruction.F64Add.OPCODE -> binary(F64, DADD);
+            case Instruction.F64Sub.OPCODE -> binary(F64, DSUB);
+            case Instruction.F64Mul.OPCODE -> binary(F64, DMUL);
+            case Instruction.F64Div.OPCODE -> binary(F64, DDIV);
+            case Instruction.F64Min.OPCODE -> binary(F64, "java/lang/Math", "min", "(DD)D");
+            case Instruction.F64Max.OPCODE -> binary(F64, "java/lang/Math", "max", "(DD)D");
+            case Instruction.F64CopySign.OPCODE -> binary(F64, "java/lang/Math", "copySign", "(DD)D");
+
+            case Instruction.I32ConvertI64.OPCODE -> unary(I64, I32, L2I);
+            case Instruction.I32SConvertF32.OPCODE -> {
+                mv.visitInsn(F2D);
+                unary(F32, I32, NUMERICS, "i32TruncS", "(D)I");
+            }
+            case Instruction.I32UConvertF32.OPCODE -> {
+                mv.visitInsn(F2D);
+                unary(F32, I32, NUMERICS, "i32TruncU", "(D)I");
+            }
+            case Instruction.I32SConvertF64.OPCODE -> unary(F64, I32, NUMERICS, "i32TruncS", "(D)I");
+            case Instruction.I32UConvertF64.OPCODE -> unary(F64, I32, NUMERICS, "i32TruncU", "(D)I");
+            case Instruction.I64SConvertI32.OPCODE -> unary(I32, I64, I2L);
+            case Instruction.I64UConvertI32.OPCODE -> unary(I32, I64, "java/lang/Integer", "toUnsignedLong", "(I)J");
+            case Instruction.I64SConvertF32.OPCODE -> {
+                mv.visitInsn(F2D);
+                unary(F32, I64, NUMERICS, "i64TruncS", "(D)J");
+            }
+            case Instruction.I64UConvertF32.OPCODE -> {
+                mv.visitInsn(F2D);
+                unary(F32, I64, NUMERICS, "i64TruncU", "(D)J");
+            }
+            case Instruction.I64SConvertF64.OPCODE -> unary(F64, I64, NUMERICS, "i64TruncS", "(D)J");
+            case Instruction.I64UConvertF64.OPCODE -> unary(F64, I64, NUMERICS, "i64TruncU", "(D)J");
+            case Instruction.F32SConvertI32.OPCODE -> unary(I32, F32, I2F);
+            case Instruction.F32UConvertI32.OPCODE -> unary(I32, F32, NUMERICS, "f32ConvertI32U", "(I)F");
+            case Instruction.F32SConvertI64.OPCODE -> unary(I64, F32, L2F);
+            case Instruction.F32UConvertI64.OPCODE -> unary(I64, F32, NUMERICS, "f32ConvertI64U", "(J)F");
+            case Instruction.F32ConvertF64.OPCODE -> unary(F64, F32, D2F);
+            case Instruction.F64SConvertI32.OPCODE -> unary(I32, F64, I2D);
+            case Instruction.F64UConvertI32.OPCODE -> unary(I32, F64, NUMERICS, "f64ConvertI32U", "(I)D");
+            case Instruction.F64SConvertI64.OPCODE -> unary(I64, F64, L2D);
+            case Instruction.F64UConvertI64.OPCODE -> unary(I64, F64, NUMERICS, "f64ConvertI64U", "(J)D");
+            case Instruction.F64ConvertF32.OPCODE -> unary(F32, F64, F2D);
+            case Instruction.I32ReinterpretF32.OPCODE -> unary(F32, I32, "java/lang/Float", "floatToRawIntBits", "(F)I");
+            case Instruction.I64ReinterpretF64.OPCODE -> unary(F64, I64, "java/lang/Double", "doubleToRawLongBits", "(D)J");
+            case Instruction.F32ReinterpretI32.OPCODE -> unary(I32, F32, "java/lang/Float", "intBitsToFloat", "(I)F");
+            case Instruction.F64ReinterpretI64.OPCODE -> unary(I64, F64, "java/lang/Double", "longBitsToDouble", "(J)D");
+            case Instruction.I32SExtendI8.OPCODE -> unary(I32, I32, I2B);
+            case Instruction.I32SExtendI16.OPCODE -> unary(I32, I32, I2S);
+            case Instruction.I64SExtendI8.OPCODE -> {
+                mv.visitInsn(L2I);
+                mv.visitInsn(I2B);
+                unary(I64, I64, I2L);
+            }
+            case Instruction.I64SExtendI16.OPCODE -> {
+                mv.visitInsn(L2I);
+                mv.visitInsn(I2S);
+                unary(I64, I64, I2L);
+            }
+            case Instruction.I64SExtendI32.OPCODE -> {
+                mv.visitInsn(L2I);
+                unary(I64, I64, I2L);
+            }
+            default -> throw new UnsupportedOperationException("Opcode not supported yet %04x".formatted(opcode));
+        }
+    }
+
+    private FuncType blockType(PackedExpr.Cursor c) {
+        return validation.blockTypes()[c.index()];
+    }
+
+    private Control control(int depth) {
+        return controls.get(controls.size() - 1 - depth);
+    }
+
+    private void elseBranch() {
+        final var control = control(0);
+
+        if (!unreachable) {
+            mv.visitJumpInsn(GOTO, control.endLabel);
+        }
+
+        control.hasElse = true;
+        resetStack(control, control.args);
+        label(control.elseLabel, stack);
+        consumeFuel(index + 1, false);
+    }
+
+    private void end() {
+        final var control = controls.remove(controls.size() - 1);
+        final var wasUnreachable = unreachable;
+
+        if (control.kind == Kind.FUNCTION && !unreachable) {
+            returnValue();
+        }
+
+        resetStack(control, control.rets);
+
+        switch (control.kind) {
+            case FUNCTION -> {
+            }
+            case IF -> {
+                // Without else, the if has the same arguments and results
+                if (!control.hasElse) {
+                    label(control.elseLabel, stack);
+                }
+
+                label(control.endLabel, stack);
+            }
+            case BLOCK -> label(control.endLabel, stack);
+            case LOOP -> {
+                // Branches target the start of the loop, the code following an unconditional branch still needs a frame
+                if (wasUnreachable) {
+                    label(control.endLabel, stack);
+                }
+            }
+        }
+
+        if (control.kind != Kind.FUNCTION) {
+            consumeFuel(index + 1, false);
+        }
+    }
+
+    /**
+     * Visits a label with the stack map frame of the wasm locals and the given stack. Labels at the same offset always
+     * have the same stack in valid code, the frame is only visited once.
+     */
+    private void label(Label label, List<ValType> stackTypes) {
+        mv.visitLabel(label);
+
+        // Labels and frames are not instructions, a frame found before the previous instruction is at the same offset
+        for (var node = mv.instructions.getLast(); node != null && node.getOpcode() < 0; node = node.getPrevious()) {
+            if (node instanceof FrameNode) {
+                return;
+            }
+        }
+
+        final var frameStack = new Object[stackTypes.size()];
+
+        for (int i = 0; i < frameStack.length; i++) {
+            frameStack[i] = Types.frameType(stackTypes.get(i));
+        }
+
+        mv.visitFrame(F_NEW, frameLocals.length, frameLocals, frameStack.length, frameStack);
+    }
+
+    private void resetStack(Control control, List<ValType> types) {
+        stack.subList(control.height, stack.size()).clear();
+        stack.addAll(types);
+        unreachable = false;
+    }
+
+    private void returnValue() {
+        if (funcType.rets().isEmpty()) {
+            mv.visitInsn(RETURN);
+        } else {
+            mv.visitInsn(Types.ret(funcType.rets().get(0)));
+        }
+    }
+
+    /**
+     * Values that are not consumed by the branch must be dropped to match the stack at the target, and branching to the
+     * function returns.
+     */
+    private boolean needsAdjust(Control target) {
+        return target.kind == Kind.FUNCTION || target.kind == Kind.OUTER || stack.size() - target.height != target.branchTypes().size();
+    }
+
+    /**
+     * Branches to the target, keeping only the values it expects on top of the stack. The tracked stack is left
+     * untouched, callers decide what follows the branch.
+     */
+    private void branch(Control target) {
+        if (target.kind == Kind.FUNCTION) {
+            returnValue();
+            return;
+        }
+
+        if (target.kind == Kind.OUTER) {
+            exit(target.status, target.branchTypes());
+            return;
+        }
+
+        final var kept = target.branchTypes();
+
+        if (stack.size() - target.height != kept.size()) {
+            // Spill the kept values, drop the others and reload the kept values
+            var slot = scratchSlot;
+            final var slots = new int[kept.size()];
+
+            for (int i = kept.size() - 1; i >= 0; i--) {
+                slots[i] = slot;
+                mv.visitVarInsn(Types.store(kept.get(i)), slot);
+                slot += Types.size(kept.get(i));
+            }
+
+            for (int i = stack.size() - kept.size() - 1; i >= target.height; i--) {
+                mv.visitInsn(Types.pop(stack.get(i)));
+            }
+
+            for (int i = 0; i < kept.size(); i++) {
+                mv.visitVarInsn(Types.load(kept.get(i)), slots[i]);
+            }
+
+            maxLocals = Math.max(maxLocals, slot);
+        }
+
+        mv.visitJumpInsn(GOTO, target.label);
+    }
+
+    /**
+     * Returns from the method of an outlined block, storing the kept values on top of the stack after the locals in the
+     * frame array, followed by the locals written by the block.
+     */
+    private void exit(int status, List<ValType> kept) {
+        for (int i = kept.size() - 1; i >= 0; i--) {
+            mv.visitVarInsn(Types.store(kept.get(i)), scratchSlot);
+            toFrame(localTypes.size() + i, kept.get(i), scratchSlot);
+        }
+
+        maxLocals = Math.max(maxLocals, scratchSlot + 2);
+
+        for (var i = written.nextSetBit(0); i >= 0; i = written.nextSetBit(i + 1)) {
+            toFrame(i, localTypes.get(i), localSlots.get(i));
+        }
+
+        pushInt(status);
+        mv.visitInsn(IRETURN);
+
+        if (status != 0) {
+            exits.add(status);
+        }
+    }
+
+    /**
+     * Compiles the outlined block starting at the cursor into a method of its own and calls it, then follows the branch
+     * it took out of the block. The cursor is left on the end of the block.
+     */
+    private void callRegion(PackedExpr.Cursor c) {
+        final var start = c.index();
+        final var end = validation.ends()[start];
+        final var used = new BitSet();
+        final var written = new BitSet();
+        final var scan = body.cursor();
+
+        scan.seek(start);
+
+        while (scan.next() && scan.index() < end) {
+            switch (scan.opcode()) {
+                case Instruction.LocalGet.OPCODE -> used.set(scan.intImmediate(0));
+                case Instruction.LocalSet.OPCODE, Instruction.LocalTee.OPCODE -> {
+                    used.set(scan.intImmediate(0));
+                    written.set(scan.intImmediate(0));
+                }
+                default -> {
+                }
+            }
+        }
+
+        final var region = new FunctionCompiler(this, start, used, written);
+
+        region.compileRegion(end, used);
+
+        for (var i = used.nextSetBit(0); i >= 0; i = used.nextSetBit(i + 1)) {
+            toFrame(i, localTypes.get(i), localSlots.get(i));
+        }
+
+        mv.visitVarInsn(ALOAD, frameSlot);
+
+        if (linkage == Linkage.INSTANCE) {
+            mv.visitVarInsn(ALOAD, selfSlot);
+        }
+
+        mv.visitMethodInsn(INVOKESTATIC, module.className(), region.mv.name, region.mv.desc, false);
+
+        for (var i = written.nextSetBit(0); i >= 0; i = written.nextSetBit(i + 1)) {
+            fromFrame(i, localTypes.get(i));
+            mv.visitVarInsn(Types.store(localTypes.get(i)), localSlots.get(i));
+        }
+
+        if (region.exits.isEmpty()) {
+            mv.visitInsn(POP);
+        } else {
+            final var statuses = region.exits.stream().mapToInt(Integer::intValue).toArray();
+            final var stubs = new Label[statuses.length];
+            final var fallThrough = new Label();
+
+            for (int i = 0; i < stubs.length; i++) {
+                stubs[i] = new Label();
+            }
+
+            mv.visitLookupSwitchInsn(fallThrough, statuses, stubs);
+
+            for (int i = 0; i < stubs.length; i++) {
+                final var target = controls.get(statuses[i] - 1);
+                final var kept = target.branchTypes();
+
+                label(stubs[i], stack);
+
+                for (int j = 0; j < kept.size(); j++) {
+                    fromFrame(localTypes.size() + j, kept.get(j));
+                    push(kept.get(j));
+                }
+
+                branch(target);
+                stack.subList(stack.size() - kept.size(), stack.size()).clear();
+            }
+
+            label(fallThrough, stack);
+        }
+
+        final var rets = validation.blockTypes()[start].rets();
+
+        for (int i = 0; i < rets.size(); i++) {
+            fromFrame(localTypes.size() + i, rets.get(i));
+            push(rets.get(i));
+        }
+
+        c.seek(end);
+    }
+
+    /**
+     * Stores the local or spilled value in the given slot into the frame array, as its bits
+     */
+    private void toFrame(int index, ValType type, int slot) {
+        if (type == V128) {
+            mv.visitVarInsn(ALOAD, frameSlot);
+            pushInt(index * frameWidth);
+            mv.visitVarInsn(ALOAD, slot);
+            mv.visitMethodInsn(INVOKESTATIC, SIMD, "low", "(%s)J".formatted(V128_DESCRIPTOR), false);
+            mv.visitInsn(LASTORE);
+            mv.visitVarInsn(ALOAD, frameSlot);
+            pushInt(index * frameWidth + 1);
+            mv.visitVarInsn(ALOAD, slot);
+            mv.visitMethodInsn(INVOKESTATIC, SIMD, "high", "(%s)J".formatted(V128_DESCRIPTOR), false);
+            mv.visitInsn(LASTORE);
+
+            return;
+        }
+
+        mv.visitVarInsn(ALOAD, frameSlot);
+        pushInt(index * frameWidth);
+        mv.visitVarInsn(Types.load(type), slot);
+        Types.toBits(mv, type);
+        mv.visitInsn(LASTORE);
+    }
+
+    /**
+     * Pushes a value stored into the frame array by {@link #toFrame(int, ValType, int)}
+     */
+    private void fromFrame(int index, ValType type) {
+        mv.visitVarInsn(ALOAD, frameSlot);
+        pushInt(index * frameWidth);
+        mv.visitInsn(LALOAD);
+
+        if (type == V128) {
+            mv.visitVarInsn(ALOAD, frameSlot);
+            pushInt(index * frameWidth + 1);
+            mv.visitInsn(LALOAD);
+            mv.visitMethodInsn(INVOKESTATIC, SIMD, "v128", "(JJ)" + V128_DESCRIPTOR, false);
+        } else {
+            Types.fromBits(mv, type);
+        }
+    }
+
+    private void brTable(PackedExpr.Cursor c) {
+        pop(I32);
+
+        final var count = c.intImmediate(0);
+        final var defaultDepth = c.intImmediate(count + 1);
+
+        if (count == 0) {
+            mv.visitInsn(POP);
+            branch(control(defaultDepth));
+            unreachable = true;
+            return;
+        }
+
+        // One stub per distinct target, adjusting the stack for that target
+        final var depths = new ArrayList<Integer>();
+        final var depthStubs = new ArrayList<Label>();
+        final var stubs = new Label[count];
+
+        for (int i = 0; i <= count; i++) {
+            final var depth = c.intImmediate(i + 1);
+
+            if (!depths.contains(depth)) {
+                depths.add(depth);
+                depthStubs.add(new Label());
+            }
+
+            if (i < count) {
+                stubs[i] = depthStubs.get(depths.indexOf(depth));
+            }
+        }
+
+        mv.visitTableSwitchInsn(0, count - 1, depthStubs.get(depths.indexOf(defaultDepth)), stubs);
+
+        for (int i = 0; i < depths.size(); i++) {
+            label(depthStubs.get(i), stack);
+            branch(control(depths.get(i)));
+        }
+
+        unreachable = true;
+    }
+
+    private void call(int funcIdx) {
+        final var callee = module.funcType(funcIdx);
+
+        for (int i = callee.args().size() - 1; i >= 0; i--) {
+            pop(callee.args().get(i));
+        }
+
+        switch (linkage) {
+            case INSTANCE -> {
+                mv.visitVarInsn(ALOAD, selfSlot);
+                mv.visitMethodInsn(INVOKESTATIC, module.className(), ModuleCompiler.functionName(funcIdx), Types.instanceDescriptor(callee), false);
+            }
+            case INTERPRETER -> ModuleCompiler.invokeFunction(mv, funcIdx, callee);
+        }
+
+        if (callee.rets().size() > 1) {
+            throw new UnsupportedOperationException("Multiple return values not supported yet %s".formatted(callee));
+        }
+
+        callee.rets().forEach(this::push);
+    }
+
+    private void callIndirect(int typeIdx, int tableIdx) {
+        final var callee = module.type(typeIdx);
+
+        pop(I32);
+
+        for (int i = callee.args().size() - 1; i >= 0; i--) {
+            pop(callee.args().get(i));
+        }
+
+        tables();
+        pushInt(tableIdx);
+        mv.visitInsn(AALOAD);
+        ModuleCompiler.invokeIndirect(mv, callee);
+
+        if (callee.rets().size() > 1) {
+            throw new UnsupportedOperationException("Multiple return values not supported yet %s".formatted(callee));
+        }
+
+        callee.rets().forEach(this::push);
+    }
+
+    private void select() {
+        pop(I32);
+
+        final var type = pop();
+        final var second = new Label();
+        final var end = new Label();
+
+        pop(type);
+
+        mv.visitJumpInsn(IFEQ, second);
+        mv.visitInsn(Types.pop(type));
+        mv.visitJumpInsn(GOTO, end);
+        label(second, withTypes(type, type));
+
+        if (Types.size(type) == 2) {
+            mv.visitInsn(DUP2_X2);
+            mv.visitInsn(POP2);
+            mv.visitInsn(POP2);
+        } else {
+            mv.visitInsn(SWAP);
+            mv.visitInsn(POP);
+        }
+
+        label(end, withTypes(type));
+        push(type);
+    }
+
+    private void trap(String message) {
+        mv.visitTypeInsn(NEW, TRAP);
+        mv.visitInsn(DUP);
+        mv.visitLdcInsn(message);
+        mv.visitMethodInsn(INVOKESPECIAL, TRAP, "<init>", "(Ljava/lang/String;)V", false);
+        mv.visitInsn(ATHROW);
+    }
+
+    private void pushInt(int value) {
+        if (value >= -1 && value <= 5) {
+            mv.visitInsn(ICONST_0 + value);
+        } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+            mv.visitIntInsn(BIPUSH, value);
+        } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+            mv.visitIntInsn(SIPUSH, value);
+        } else {
+            mv.visitLdcInsn(value);
+        }
+    }
+
+    /**
+     * Turns the jvm conditional jump into a 0 or 1 i32
+     */
+    private void condition(int ifOpcode) {
+        final var isTrue = new Label();
+        final var end = new Label();
+
+        mv.visitJumpInsn(ifOpcode, isTrue);
+        mv.visitInsn(ICONST_0);
+        mv.visitJumpInsn(GOTO, end);
+        label(isTrue, stack);
+        mv.visitInsn(ICONST_1);
+        label(end, withTypes(I32));
+    }
+
+    private void test(ValType operand, int ifOpcode) {
+        pop(operand);
+        condition(ifOpcode);
+        push(I32);
+    }
+
+    private void compare(ValType operand, int ifOpcode) {
+        pop(operand);
+        test(operand, ifOpcode);
+    }
+
+    private void compare(ValType operand, int cmpOpcode, int ifOpcode) {
+        mv.visitInsn(cmpOpcode);
+        compare(operand, ifOpcode);
+    }
+
+    private void compareUnsigned(ValType operand, int ifOpcode) {
+        if (operand == I32) {
+            mv.visitMethodInsn(INVOKESTATIC, "java/lang/Integer", "compareUnsigned", "(II)I", false);
+        } else {
+            mv.visitMethodInsn(INVOKESTATIC, "java/lang/Long", "compareUnsigned", "(JJ)I", false);
+        }
+
+        compare(operand, ifOpcode);
+    }
+
+    private void unary(ValType operand, ValType result, int opcode) {
+        pop(operand);
+        mv.visitInsn(opcode);
+        push(result);
+    }
+
+    private void unary(ValType operand, ValType result, String owner, String name, String descriptor) {
+        pop(operand);
+        mv.visitMethodInsn(INVOKESTATIC, owner, name, descriptor, false);
+        push(result);
+    }
+
+    private void binary(ValType type, int opcode) {
+        pop(type);
+        unary(type, type, opcode);
+    }
+
+    private void binary(ValType type, String owner, String name, String descriptor) {
+        pop(type);
+        unary(type, type, owner, name, descriptor);
+    }
+
+    /**
+     * i64 shift counts are longs in wasm but ints on the jvm
+     */
+    private void shift(int opcode) {
+        mv.visitInsn(L2I);
+        binary(I64, opcode);
+    }
+
+    /**
+     * The tracked stack followed by values not tracked yet
+     */
+    private List<ValType> withTypes(ValType... types) {
+        final var withTypes = new ArrayList<>(stack);
+
+        withTypes.addAll(List.of(types));
+
+        return withTypes;
+    }
+
+    private void push(ValType type) {
+        stack.add(type);
+    }
+
+    private ValType pop() {
+        return stack.remove(stack.size() - 1);
+    }
+
+    private void pop(ValType expected) {
+        final var actual = pop();
+
+        if (actual != expected) {
+            throw new IllegalStateException("Expected %s on the stack but got %s".formatted(expected, actual));
+        }
+    }
+
+    private enum Kind {
+        FUNCTION,
+        BLOCK,
+        LOOP,
+        IF,
+        /**
+         * A block enclosing an outlined block, reached by returning from its method
+         */
+        OUTER
+    }
+
+    private static final class Control {
+        private final Kind kind;
+        private final List<ValType> args;
+        private final List<ValType> rets;
+        /**
+         * Height of the stack below the block arguments
+         */
+        private final int height;
+        private final Label label;
+        private final Label elseLabel = new Label();
+        private final Label endLabel;
+        /**
+         * Status returned by the method of an outlined block to branch to this outer block
+         */
+        private final int status;
+        private boolean hasElse;
+
+        private Control(Kind kind, List<ValType> args, List<ValType> rets, int height) {
+            this.kind = kind;
+            this.args = args;
+            this.rets = rets;
+            this.height = height;
+            this.endLabel = new Label();
+            this.label = kind == Kind.LOOP ? new Label() : endLabel;
+            this.status = 0;
+        }
+
+        private Control(List<ValType> branchTypes, int status) {
+            this.kind = Kind.OUTER;
+            this.args = branchTypes;
+            this.rets = branchTypes;
+            this.height = 0;
+            this.endLabel = new Label();
+            this.label = endLabel;
+            this.status = status;
+        }
+
+        /**
+         * Branching to a loop restarts it with its arguments, branching to other blocks leaves them with their results
+         */
+        private List<ValType> branchTypes() {
+            return kind == Kind.LOOP ? args : rets;
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package io.github.ffortier.jasm.asm;
+
+/**
+ * How compiled functions reach the memory and the other functions of their instance.
+ */
+enum Linkage {
+    /**
+     * Static methods of the module class taking the instance last, calling each other directly.
+     */
+    INSTANCE,
+    /**
+     * Static methods of hidden classes whose class data is the {@link io.github.ffortier.jasm.runtime.Interpreter},
+     * calling the other functions through its call sites.
+     */
+    INTERPRETER
+}
@@ -0,0 +1,176 @@
+package io.github.ffortier.jasm.asm;
+
+import io.github.ffortier.jasm.binary.Instruction;
+import io.github.ffortier.jasm.binary.PackedExpr;
+import io.github.ffortier.jasm.binary.Validator;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodTooLargeException;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.LookupSwitchInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.TableSwitchInsnNode;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.List;
+
+import static org.objectweb.asm.Opcodes.ACC_FINAL;
+import static org.objectweb.asm.Opcodes.ACC_PUBLIC;
+import static org.objectweb.asm.Opcodes.ACC_SUPER;
+import static org.objectweb.asm.Opcodes.V17;
+
+/**
+ * Chooses the blocks of a large function to compile in methods of their own, so no method goes over the 64 KB limit of
+ * the jvm or over the size hotspot refuses to compile ({@code -XX:-DontCompileHugeMethods}, 8000 bytes).
+ * <p>
+ * Sizes are counted in wasm instructions. Blocks are visited innermost first: when the instructions left in a block
+ * after outlining its children go over the limit, its largest children are outlined until they don't. Only blocks and
+ * loops without parameters are outlined, the code between them is never split.
+ * <p>
+ * Since the count is only an estimate, the size of the methods actually emitted is checked with {@link #checkSize}, and
+ * functions are compiled again with a lower limit when one of them is too large.
+ */
+final class MethodSplitter {
+    /**
+     * Wasm instructions per method. They compile to about 6 bytes each, memory accesses and constants to more.
+     */
+    static final int MAX_INSTRUCTIONS = 600;
+
+    /**
+     * Lowest limit functions are compiled with before giving up on them
+     */
+    static final int MIN_INSTRUCTIONS = 32;
+
+    /**
+     * Code size limit of the jvm
+     */
+    private static final int MAX_CODE_SIZE = 65535;
+
+    /**
+     * Instructions counted for the call replacing an outlined block, plus two per local it uses
+     */
+    private static final int CALL_SIZE = 8;
+
+    private MethodSplitter() {
+    }
+
+    /**
+     * Start indices of the blocks to outline, empty when the function is small enough
+     */
+    static BitSet outline(PackedExpr code, Validator.Validation validation, int maxInstructions) {
+        final var outlined = new BitSet();
+
+        if (code.size() <= maxInstructions) {
+            return outlined;
+        }
+
+        final var open = new ArrayList<Node>();
+        final var c = code.cursor();
+
+        open.add(new Node(-1, false));
+
+        while (c.next()) {
+            final var node = open.get(open.size() - 1);
+
+            if (Instruction.isBlockStart(c.opcode())) {
+                final var start = c.index();
+                final var outlinable = c.opcode() != Instruction.If.OPCODE && validation.blockTypes()[start].args().isEmpty();
+
+                open.add(new Node(start, outlinable));
+            } else if (c.opcode() == Instruction.End.OPCODE) {
+                final var parent = open.get(open.size() - 2);
+
+                open.remove(open.size() - 1);
+                node.size++;
+                node.split(outlined, maxInstructions);
+                parent.children.add(node);
+                parent.locals.or(node.locals);
+                continue;
+            } else if (c.opcode() == Instruction.LocalGet.OPCODE || c.opcode() == Instruction.LocalSet.OPCODE || c.opcode() == Instruction.LocalTee.OPCODE) {
+                node.locals.set(c.intImmediate(0));
+            }
+
+            node.size++;
+        }
+
+        open.get(0).split(outlined, maxInstructions);
+
+        return outlined;
+    }
+
+    /**
+     * Checks the code of a method fits in the 64 KB limit of the jvm. Methods whose instructions are surely small enough
+     * are not written.
+     *
+     * @throws MethodTooLargeException when the code is too large
+     */
+    static void checkSize(String className, MethodNode method) {
+        if (maxCodeSize(method) <= MAX_CODE_SIZE) {
+            return;
+        }
+
+        final var cw = new ClassWriter(0);
+
+        cw.visit(V17, ACC_PUBLIC | ACC_FINAL | ACC_SUPER, className, null, "java/lang/Object", null);
+        method.accept(cw);
+        cw.visitEnd();
+        cw.toByteArray();
+    }
+
+    /**
+     * Upper bound of the code size of a method, switches being padded and jumps possibly widened
+     */
+    private static long maxCodeSize(MethodNode method) {
+        long size = 0;
+
+        for (final var insn : method.instructions) {
+            size += switch (insn) {
+                case TableSwitchInsnNode tableSwitch -> 16 + 4L * tableSwitch.labels.size();
+                case LookupSwitchInsnNode lookupSwitch -> 12 + 8L * lookupSwitch.labels.size();
+                default -> insn.getOpcode() < 0 ? 0 : insn.getType() == AbstractInsnNode.JUMP_INSN ? 8 : 6;
+            };
+        }
+
+        return size;
+    }
+
+    private static final class Node {
+        private final int start;
+        private final boolean outlinable;
+        private final List<Node> children = new ArrayList<>();
+        private final BitSet locals = new BitSet();
+        /**
+         * Instructions of the block not in its children, then instructions left in the block once split
+         */
+        private int size;
+
+        private Node(int start, boolean outlinable) {
+            this.start = start;
+            this.outlinable = outlinable;
+        }
+
+        private void split(BitSet outlined, int maxInstructions) {
+            children.sort(Comparator.comparingInt((Node child) -> child.size).reversed());
+
+            for (final var child : children) {
+                size += child.size;
+            }
+
+            for (final var child : children) {
+                final var callSize = CALL_SIZE + 2 * child.locals.cardinality();
+
+                if (size <= maxInstructions) {
+                    break;
+                }
+
+                if (child.outlinable && child.size > callSize) {
+                    outlined.set(child.start);
+                    size -= child.size - callSize;
+                }
+            }
+
+            children.clear();
+        }
+    }
+}
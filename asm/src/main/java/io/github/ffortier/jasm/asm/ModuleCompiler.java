@@ -0,0 +1,685 @@
+package io.github.ffortier.jasm.asm;
+
+import io.github.ffortier.jasm.binary.ExportDesc;
+import io.github.ffortier.jasm.binary.Expr;
+import io.github.ffortier.jasm.binary.Func;
+import io.github.ffortier.jasm.binary.FuncType;
+import io.github.ffortier.jasm.binary.Global;
+import io.github.ffortier.jasm.binary.GlobalType;
+import io.github.ffortier.jasm.binary.Import;
+import io.github.ffortier.jasm.binary.ImportDesc;
+import io.github.ffortier.jasm.binary.Instruction;
+import io.github.ffortier.jasm.binary.Limits;
+import io.github.ffortier.jasm.binary.Module;
+import io.github.ffortier.jasm.binary.Validator;
+import io.github.ffortier.jasm.runtime.Bootstraps;
+import io.github.ffortier.jasm.runtime.Fuel;
+import io.github.ffortier.jasm.runtime.GlobalInstance;
+import io.github.ffortier.jasm.runtime.MemInstance;
+import io.github.ffortier.jasm.runtime.Metrics;
+import io.github.ffortier.jasm.runtime.TableInstance;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.ConstantDynamic;
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.MethodTooLargeException;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.MethodNode;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.objectweb.asm.Opcodes.*;
+
+/**
+ * Generates the class of a module. Every function of the module, imported or not, is a static method {@code f<idx>}
+ * taking the wasm arguments followed by the module instance. Imported functions call the host through an
+ * invokedynamic linked to a constant call site, whose method handle is taken from the class data, so the jit inlines
+ * host functions like any java call. The methods of the module interface call the exported functions. The memory,
+ * imported or not, the tables, the fuel of metered modules and the metrics of instrumented modules are fields of the
+ * instance. {@code call_indirect} goes through an invokedynamic whose call site caches the functions it calls.
+ * <p>
+ * Precompiled classes are ordinary named classes written at build time, without class data: their host functions are
+ * a field of the instance instead, called through {@code invokeExact}.
+ * <p>
+ * Immutable globals initialized by a constant are constants of the code reading them, which the jit folds. The other
+ * globals are fields {@code g<idx>} of the instance holding their value, but for imported mutable globals, shared with
+ * the host through a {@link GlobalInstance}.
+ * <p>
+ * When the module runs in the {@link io.github.ffortier.jasm.runtime.Interpreter}, hot functions are compiled one by
+ * one into their own class instead, and calls go through the call sites of the interpreter.
+ * <p>
+ * Classes are written without asm computing frames or maximums: function bodies get theirs from validation, and the
+ * other methods have no branches but the handler timing instrumented functions.
+ */
+final class ModuleCompiler {
+    static final String MEMORY_FIELD = "memory";
+    static final String TABLES_FIELD = "tables";
+    static final String FUEL_FIELD = "fuel";
+    static final String METRICS_FIELD = "metrics";
+    static final String TABLES = Type.getDescriptor(TableInstance[].class);
+    static final String FUEL = Type.getDescriptor(Fuel.class);
+    static final String METRICS = Type.getDescriptor(Metrics.class);
+    static final String GLOBAL = Type.getInternalName(GlobalInstance.class);
+    static final String IMPORTS_FIELD = "imports";
+    static final String IMPORTS = Type.getDescriptor(MethodHandle[].class);
+
+    private static final String MEMORY = Type.getDescriptor(MemInstance.class);
+    private static final String BOOTSTRAPS = Type.getInternalName(Bootstraps.class);
+    private static final Handle FUNCTION_BOOTSTRAP = new Handle(H_INVOKESTATIC, BOOTSTRAPS, "function",
+            MethodType.methodType(CallSite.class, MethodHandles.Lookup.class, String.class, MethodType.class, int.class).descriptorString(), false);
+    private static final Handle IMPORT_BOOTSTRAP = new Handle(H_INVOKESTATIC, BOOTSTRAPS, "importFunction",
+            MethodType.methodType(CallSite.class, MethodHandles.Lookup.class, String.class, MethodType.class, int.class).descriptorString(), false);
+    private static final Handle CALL_INDIRECT_BOOTSTRAP = new Handle(H_INVOKESTATIC, BOOTSTRAPS, "callIndirect",
+            MethodType.methodType(CallSite.class, MethodHandles.Lookup.class, String.class, MethodType.class).descriptorString(), false);
+    static final ConstantDynamic TABLES_CONSTANT = new ConstantDynamic(TABLES_FIELD, TABLES, new Handle(H_INVOKESTATIC, BOOTSTRAPS, "tables",
+            MethodType.methodType(TableInstance[].class, MethodHandles.Lookup.class, String.class, Class.class).descriptorString(), false));
+    static final ConstantDynamic MEMORY_CONSTANT = new ConstantDynamic(MEMORY_FIELD, MEMORY, new Handle(H_INVOKESTATIC, BOOTSTRAPS, "memory",
+            MethodType.methodType(MemInstance.class, MethodHandles.Lookup.class, String.class, Class.class).descriptorString(), false));
+    static final ConstantDynamic GLOBALS_CONSTANT = new ConstantDynamic("globals", Type.getDescriptor(GlobalInstance[].class), new Handle(H_INVOKESTATIC, BOOTSTRAPS, "globals",
+            MethodType.methodType(GlobalInstance[].class, MethodHandles.Lookup.class, String.class, Class.class).descriptorString(), false));
+    static final ConstantDynamic FUEL_CONSTANT = new ConstantDynamic(FUEL_FIELD, FUEL, new Handle(H_INVOKESTATIC, BOOTSTRAPS, "fuel",
+            MethodType.methodType(Fuel.class, MethodHandles.Lookup.class, String.class, Class.class).descriptorString(), false));
+    static final ConstantDynamic METRICS_CONSTANT = new ConstantDynamic(METRICS_FIELD, METRICS, new Handle(H_INVOKESTATIC, BOOTSTRAPS, "metrics",
+            MethodType.methodType(Metrics.class, MethodHandles.Lookup.class, String.class, Class.class).descriptorString(), false));
+
+    private final Module module;
+    private final Validator validator;
+    private final String className;
+    private final List<List<MethodNode>> methods;
+    private final Options options;
+    private final List<Import> funcImports = new ArrayList<>();
+    private final List<FuncType> funcTypes = new ArrayList<>();
+    private final List<Import> globalImports = new ArrayList<>();
+    private final List<GlobalType> globalTypes = new ArrayList<>();
+    private Import memoryImport;
+    private Limits memoryLimits;
+
+    /**
+     * @param metered      whether functions consume the {@link Fuel} of the instance
+     * @param instrumented whether functions update the {@link Metrics} of the instance and record JFR events
+     * @param precompiled  whether the class is precompiled, its constructor taking the host functions last
+     */
+    record Options(boolean metered, boolean instrumented, boolean precompiled) {
+    }
+
+    ModuleCompiler(Module module, String className, Options options) {
+        this(module, className, null, options);
+    }
+
+    /**
+     * @param methods functions compiled already by {@link #compileMethod(int, Func)}, by index in the code section. The
+     *                missing ones are compiled with the class.
+     */
+    ModuleCompiler(Module module, String className, List<List<MethodNode>> methods, Options options) {
+        this.module = module;
+        this.validator = new Validator(module);
+        this.className = className;
+        this.methods = methods;
+        this.options = options;
+
+        for (final var imp : orEmpty(module.imports())) {
+            if (imp.desc() instanceof ImportDesc.Func func) {
+                funcImports.add(imp);
+                funcTypes.add(type(func.idx().value()));
+            } else if (imp.desc() instanceof ImportDesc.Mem mem) {
+                memoryImport = imp;
+                memoryLimits = mem.memType().lib();
+            } else if (imp.desc() instanceof ImportDesc.Global global) {
+                globalImports.add(imp);
+                globalTypes.add(global.global());
+            }
+        }
+
+        for (final var func : orEmpty(module.funcs())) {
+            funcTypes.add(type(func.type().value()));
+        }
+
+        for (final var global : orEmpty(module.globals())) {
+            globalTypes.add(global.type());
+        }
+
+        if (memoryLimits == null && !orEmpty(module.memories()).isEmpty()) {
+            memoryLimits = module.memories().get(0).limits();
+        }
+    }
+
+    static <T> List<T> orEmpty(List<T> list) {
+        return list == null ? List.of() : list;
+    }
+
+    static String functionName(int funcIdx) {
+        return "f" + funcIdx;
+    }
+
+    /**
+     * Calls a function through its call site in the interpreter
+     */
+    static void invokeFunction(MethodVisitor mv, int funcIdx, FuncType funcType) {
+        mv.visitInvokeDynamicInsn(functionName(funcIdx), Types.descriptor(funcType), FUNCTION_BOOTSTRAP, funcIdx);
+    }
+
+    /**
+     * Calls the element of a table, the element index and the table are on the stack after the arguments
+     */
+    static void invokeIndirect(MethodVisitor mv, FuncType funcType) {
+        final var args = new ArrayList<>(List.of(Types.argumentTypes(funcType.args())));
+
+        args.add(Type.INT_TYPE);
+        args.add(Type.getType(TableInstance.class));
+        mv.visitInvokeDynamicInsn("callIndirect", Type.getMethodDescriptor(Types.returnType(funcType), args.toArray(Type[]::new)), CALL_INDIRECT_BOOTSTRAP);
+    }
+
+    static String globalName(int globalIdx) {
+        return "g" + globalIdx;
+    }
+
+    /**
+     * Pushes the value of a global
+     *
+     * @param self pushes the instance, for the globals in its fields
+     */
+    void getGlobal(MethodVisitor mv, int globalIdx, Linkage linkage, Runnable self) {
+        final var constant = globalConstant(globalIdx);
+        final var type = globalTypes.get(globalIdx).valType();
+
+        if (constant != null) {
+            mv.visitLdcInsn(constant);
+            return;
+        }
+
+        switch (linkage) {
+            case INSTANCE -> {
+                self.run();
+                mv.visitFieldInsn(GETFIELD, className, globalName(globalIdx), globalDescriptor(globalIdx));
+
+                if (!sharedGlobal(globalIdx)) {
+                    return;
+                }
+            }
+            case INTERPRETER -> {
+                mv.visitLdcInsn(GLOBALS_CONSTANT);
+                mv.visitLdcInsn(globalIdx);
+                mv.visitInsn(AALOAD);
+            }
+        }
+
+        mv.visitMethodInsn(INVOKESTATIC, GLOBAL, "get", "(L%s;)J".formatted(GLOBAL), false);
+        Types.fromBits(mv, type);
+    }
+
+    /**
+     * Stores the value on the stack into a mutable global
+     *
+     * @param self pushes the instance, for the globals in its fields
+     */
+    void setGlobal(MethodVisitor mv, int globalIdx, Linkage linkage, Runnable self) {
+        final var type = globalTypes.get(globalIdx).valType();
+
+        if (linkage == Linkage.INSTANCE && !sharedGlobal(globalIdx)) {
+            self.run();
+
+            if (Types.size(type) == 2) {
+                mv.visitInsn(DUP_X2);
+                mv.visitInsn(POP);
+            } else {
+                mv.visitInsn(SWAP);
+            }
+
+            mv.visitFieldInsn(PUTFIELD, className, globalName(globalIdx), globalDescriptor(globalIdx));
+            return;
+        }
+
+        Types.toBits(mv, type);
+
+        switch (linkage) {
+            case INSTANCE -> {
+                self.run();
+                mv.visitFieldInsn(GETFIELD, className, globalName(globalIdx), globalDescriptor(globalIdx));
+            }
+            case INTERPRETER -> {
+                mv.visitLdcInsn(GLOBALS_CONSTANT);
+                mv.visitLdcInsn(globalIdx);
+                mv.visitInsn(AALOAD);
+            }
+        }
+
+        mv.visitMethodInsn(INVOKESTATIC, GLOBAL, "set", "(JL%s;)V".formatted(GLOBAL), false);
+    }
+
+    /**
+     * The value of an immutable global defined by the module and initialized by a constant, null for other globals
+     */
+    Object globalConstant(int globalIdx) {
+        if (globalIdx < globalImports.size() || globalTypes.get(globalIdx).mut()) {
+            return null;
+        }
+
+        final var init = module.globals().get(globalIdx - globalImports.size()).init().instructions();
+
+        if (init.size() != 1) {
+            return null;
+        }
+
+        return switch (init.get(0)) {
+            case Instruction.I32Const c -> c.value();
+            case Instruction.I64Const c -> c.value();
+            case Instruction.F32Const c -> c.value();
+            case Instruction.F64Const c -> c.value();
+            case Instruction.S128Const c -> v128Constant(c.low(), c.high());
+            default -> null;
+        };
+    }
+
+    /**
+     * Whether the global is imported and mutable, so the instance holds the {@link GlobalInstance} shared with the
+     * host rather than the value
+     */
+    private boolean sharedGlobal(int globalIdx) {
+        return globalIdx < globalImports.size() && globalTypes.get(globalIdx).mut();
+    }
+
+    private String globalDescriptor(int globalIdx) {
+        return sharedGlobal(globalIdx) ? Type.getDescriptor(GlobalInstance.class) : Types.type(globalTypes.get(globalIdx).valType()).getDescriptor();
+    }
+
+    String className() {
+        return className;
+    }
+
+    Validator validator() {
+        return validator;
+    }
+
+    FuncType type(int typeIdx) {
+        return module.types().get(typeIdx);
+    }
+
+    FuncType funcType(int funcIdx) {
+        return funcTypes.get(funcIdx);
+    }
+
+    /**
+     * Number of functions, imported or not
+     */
+    int funcCount() {
+        return funcTypes.size();
+    }
+
+    /**
+     * Imported functions, in the order of the method handles expected in the class data
+     */
+    List<Import> funcImports() {
+        return funcImports;
+    }
+
+    boolean hasMemory() {
+        return memoryLimits != null;
+    }
+
+    /**
+     * The imported memory, null when the memory is defined by the module
+     */
+    Import memoryImport() {
+        return memoryImport;
+    }
+
+    Limits memoryLimits() {
+        return memoryLimits;
+    }
+
+    /**
+     * Imported globals, in the order of the global instances given to the constructor
+     */
+    List<Import> globalImports() {
+        return globalImports;
+    }
+
+    GlobalType globalType(int globalIdx) {
+        return globalTypes.get(globalIdx);
+    }
+
+    /**
+     * Number of globals, imported or not
+     */
+    int globalCount() {
+        return globalTypes.size();
+    }
+
+    /**
+     * Whether the module defines mutable globals, which are reset by {@code resetGlobals}
+     */
+    boolean hasMutableGlobals() {
+        return orEmpty(module.globals()).stream().anyMatch(global -> global.type().mut());
+    }
+
+    Options options() {
+        return options;
+    }
+
+    byte[] compile(Class<?> moduleInterface) {
+        final var cw = new ClassWriter(0);
+
+        cw.visit(V17, ACC_PUBLIC | ACC_FINAL | ACC_SUPER, className, null, "java/lang/Object", new String[]{Type.getInternalName(moduleInterface)});
+
+        cw.visitField(ACC_PRIVATE | ACC_FINAL, MEMORY_FIELD, MEMORY, null, null).visitEnd();
+        cw.visitField(ACC_PRIVATE | ACC_FINAL, TABLES_FIELD, TABLES, null, null).visitEnd();
+        cw.visitField(ACC_PRIVATE | ACC_FINAL, FUEL_FIELD, FUEL, null, null).visitEnd();
+        cw.visitField(ACC_PRIVATE | ACC_FINAL, METRICS_FIELD, METRICS, null, null).visitEnd();
+
+        if (options.precompiled()) {
+            cw.visitField(ACC_PRIVATE | ACC_FINAL, IMPORTS_FIELD, IMPORTS, null, null).visitEnd();
+        }
+
+        for (int i = 0; i < globalTypes.size(); i++) {
+            if (globalConstant(i) == null) {
+                final var access = globalTypes.get(i).mut() && i >= globalImports.size() ? ACC_PRIVATE : ACC_PRIVATE | ACC_FINAL;
+
+                cw.visitField(access, globalName(i), globalDescriptor(i), null, null).visitEnd();
+            }
+        }
+
+        compileConstructor(cw);
+        compileResetGlobals(cw);
+
+        for (int i = 0; i < funcImports.size(); i++) {
+            compileImport(cw, i);
+        }
+
+        final var funcs = orEmpty(module.funcs());
+
+        for (int i = 0; i < funcs.size(); i++) {
+            final var funcMethods = methods != null && methods.get(i) != null ? methods.get(i) : compileMethod(funcImports.size() + i, funcs.get(i));
+
+            funcMethods.forEach(method -> method.accept(cw));
+        }
+
+        compileExports(cw, moduleInterface, Linkage.INSTANCE);
+        cw.visitEnd();
+
+        return cw.toByteArray();
+    }
+
+    /**
+     * Compiles a function of the module class. Only the types, imports, function types, tables and memories of the
+     * module are used, so functions can be compiled while the rest of the module is read. Compiling functions
+     * concurrently is safe.
+     *
+     * @return the method of the function followed by the methods of its outlined blocks
+     * @throws MethodTooLargeException when a method of the function is too large for the jvm
+     */
+    List<MethodNode> compileMethod(int funcIdx, Func func) {
+        return compileMethods(funcIdx, func, Linkage.INSTANCE);
+    }
+
+    /**
+     * Compiles the class implementing the module interface for a module running in the interpreter, with a constructor
+     * taking no argument.
+     */
+    byte[] compileInterpreted(Class<?> moduleInterface) {
+        final var cw = new ClassWriter(0);
+
+        cw.visit(V17, ACC_PUBLIC | ACC_FINAL | ACC_SUPER, className, null, "java/lang/Object", new String[]{Type.getInternalName(moduleInterface)});
+
+        final var mv = cw.visitMethod(ACC_PUBLIC, "<init>", "()V", null, null);
+
+        mv.visitCode();
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitMethodInsn(INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false);
+        mv.visitInsn(RETURN);
+        mv.visitMaxs(1, 1);
+        mv.visitEnd();
+
+        compileExports(cw, moduleInterface, Linkage.INTERPRETER);
+        cw.visitEnd();
+
+        return cw.toByteArray();
+    }
+
+    /**
+     * Compiles a hot function of a module running in the interpreter into a class with a static method, followed by the
+     * methods of its outlined blocks.
+     *
+     * @throws MethodTooLargeException when a method of the function is too large for the jvm
+     */
+    byte[] compileFunction(int funcIdx) {
+        final var cw = new ClassWriter(0);
+        final var func = module.funcs().get(funcIdx - funcImports.size());
+
+        cw.visit(V17, ACC_PUBLIC | ACC_FINAL | ACC_SUPER, className, null, "java/lang/Object", null);
+
+        for (final var method : compileMethods(funcIdx, func, Linkage.INTERPRETER)) {
+            method.accept(cw);
+        }
+
+        cw.visitEnd();
+
+        return cw.toByteArray();
+    }
+
+    /**
+     * Compiles a function, outlining smaller blocks while one of its methods is too large. Straight-line code and the
+     * arms of ifs are never split, so this may not be enough.
+     */
+    private List<MethodNode> compileMethods(int funcIdx, Func func, Linkage linkage) {
+        for (var maxInstructions = MethodSplitter.MAX_INSTRUCTIONS; ; maxInstructions /= 4) {
+            final var methods = new FunctionCompiler(this, funcIdx, func, linkage, maxInstructions).compile();
+
+            try {
+                methods.forEach(method -> MethodSplitter.checkSize(className, method));
+
+                return methods;
+            } catch (MethodTooLargeException e) {
+                if (maxInstructions / 4 < MethodSplitter.MIN_INSTRUCTIONS) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    private void compileExports(ClassWriter cw, Class<?> moduleInterface, Linkage linkage) {
+        for (final var method : moduleInterface.getMethods()) {
+            if (Modifier.isAbstract(method.getModifiers())) {
+                compileExport(cw, method, linkage);
+            }
+        }
+    }
+
+    /**
+     * The constructor takes the memory, the tables, the imported globals, the fuel and the metrics of the instance,
+     * followed by the host functions of precompiled classes. It initializes the immutable globals which are not
+     * constants, then calls {@code resetGlobals}.
+     */
+    private void compileConstructor(ClassWriter cw) {
+        final var mv = cw.visitMethod(ACC_PUBLIC, "<init>", constructorType(options).descriptorString(), null, null);
+
+        mv.visitCode();
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitMethodInsn(INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false);
+
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitVarInsn(ALOAD, 1);
+        mv.visitFieldInsn(PUTFIELD, className, MEMORY_FIELD, MEMORY);
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitVarInsn(ALOAD, 2);
+        mv.visitFieldInsn(PUTFIELD, className, TABLES_FIELD, TABLES);
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitVarInsn(ALOAD, 4);
+        mv.visitFieldInsn(PUTFIELD, className, FUEL_FIELD, FUEL);
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitVarInsn(ALOAD, 5);
+        mv.visitFieldInsn(PUTFIELD, className, METRICS_FIELD, METRICS);
+
+        if (options.precompiled()) {
+            mv.visitVarInsn(ALOAD, 0);
+            mv.visitVarInsn(ALOAD, 6);
+            mv.visitFieldInsn(PUTFIELD, className, IMPORTS_FIELD, IMPORTS);
+        }
+
+        for (int i = 0; i < globalImports.size(); i++) {
+            mv.visitVarInsn(ALOAD, 0);
+            mv.visitVarInsn(ALOAD, 3);
+            mv.visitLdcInsn(i);
+            mv.visitInsn(AALOAD);
+
+            if (!sharedGlobal(i)) {
+                mv.visitMethodInsn(INVOKESTATIC, GLOBAL, "get", "(L%s;)J".formatted(GLOBAL), false);
+                Types.fromBits(mv, globalTypes.get(i).valType());
+            }
+
+            mv.visitFieldInsn(PUTFIELD, className, globalName(i), globalDescriptor(i));
+        }
+
+        final var globals = orEmpty(module.globals());
+
+        for (int i = 0; i < globals.size(); i++) {
+            final var globalIdx = globalImports.size() + i;
+
+            if (!globals.get(i).type().mut() && globalConstant(globalIdx) == null) {
+                initializeGlobal(mv, globalIdx, globals.get(i));
+            }
+        }
+
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitMethodInsn(INVOKESPECIAL, className, "resetGlobals", "()V", false);
+        mv.visitInsn(RETURN);
+        mv.visitMaxs(4, 7);
+        mv.visitEnd();
+    }
+
+    /**
+     * Type of the constructor of module classes compiled with the options
+     */
+    static MethodType constructorType(Options options) {
+        final var type = MethodType.methodType(void.class, MemInstance.class, TableInstance[].class, GlobalInstance[].class, Fuel.class, Metrics.class);
+
+        return options.precompiled() ? type.appendParameterTypes(MethodHandle[].class) : type;
+    }
+
+    /**
+     * Sets the mutable globals defined by the module to their initial value, when the instance is created and when it
+     * is reset
+     */
+    private void compileResetGlobals(ClassWriter cw) {
+        final var mv = cw.visitMethod(ACC_PRIVATE, "resetGlobals", "()V", null, null);
+        final var globals = orEmpty(module.globals());
+
+        mv.visitCode();
+
+        for (int i = 0; i < globals.size(); i++) {
+            if (globals.get(i).type().mut()) {
+                initializeGlobal(mv, globalImports.size() + i, globals.get(i));
+            }
+        }
+
+        mv.visitInsn(RETURN);
+        mv.visitMaxs(3, 1);
+        mv.visitEnd();
+    }
+
+    /**
+     * Stores the value of the constant expression initializing a global into its field, the instance being in slot 0
+     */
+    private void initializeGlobal(MethodVisitor mv, int globalIdx, Global global) {
+        mv.visitVarInsn(ALOAD, 0);
+        pushConstant(mv, global.init());
+        mv.visitFieldInsn(PUTFIELD, className, globalName(globalIdx), globalDescriptor(globalIdx));
+    }
+
+    /**
+     * Pushes the value of a constant expression, a constant or an imported global
+     */
+    private void pushConstant(MethodVisitor mv, Expr expr) {
+        final var init = expr.instructions();
+
+        switch (init.size() == 1 ? init.get(0) : null) {
+            case Instruction.I32Const c -> mv.visitLdcInsn(c.value());
+            case Instruction.I64Const c -> mv.visitLdcInsn(c.value());
+            case Instruction.F32Const c -> mv.visitLdcInsn(c.value());
+            case Instruction.F64Const c -> mv.visitLdcInsn(c.value());
+            case Instruction.S128Const c -> mv.visitLdcInsn(v128Constant(c.low(), c.high()));
+            case Instruction.GlobalGet g when g.x() < globalImports.size() -> getGlobal(mv, g.x(), Linkage.INSTANCE, () -> mv.visitVarInsn(ALOAD, 0));
+            case null, default -> throw new UnsupportedOperationException("Constant expression not supported yet %s".formatted(init));
+        }
+    }
+
+    private void compileImport(ClassWriter cw, int funcIdx) {
+        final var funcType = funcType(funcIdx);
+        final var mv = cw.visitMethod(ACC_STATIC | ACC_PRIVATE, functionName(funcIdx), Types.instanceDescriptor(funcType), null, null);
+        var slot = 0;
+
+        mv.visitCode();
+
+        if (options.precompiled()) {
+            mv.visitVarInsn(ALOAD, Arrays.stream(Types.argumentTypes(funcType.args())).mapToInt(Type::getSize).sum());
+            mv.visitTypeInsn(CHECKCAST, className);
+            mv.visitFieldInsn(GETFIELD, className, IMPORTS_FIELD, IMPORTS);
+            mv.visitLdcInsn(funcIdx);
+            mv.visitInsn(AALOAD);
+        }
+
+        for (final var arg : Types.argumentTypes(funcType.args())) {
+            mv.visitVarInsn(arg.getOpcode(ILOAD), slot);
+            slot += arg.getSize();
+        }
+
+        if (options.precompiled()) {
+            mv.visitMethodInsn(INVOKEVIRTUAL, Type.getInternalName(MethodHandle.class), "invokeExact", Types.descriptor(funcType), false);
+        } else {
+            mv.visitInvokeDynamicInsn("import" + funcIdx, Types.descriptor(funcType), IMPORT_BOOTSTRAP, funcIdx);
+        }
+
+        mv.visitInsn(Types.returnType(funcType).getOpcode(IRETURN));
+        mv.visitMaxs(Math.max(slot + 2, Types.returnType(funcType).getSize()), slot + 1);
+        mv.visitEnd();
+    }
+
+    private void compileExport(ClassWriter cw, Method method, Linkage linkage) {
+        final var funcIdx = exportedFunction(method.getName());
+        final var funcType = funcType(funcIdx);
+        final var descriptor = Type.getMethodDescriptor(method);
+
+        if (!descriptor.equals(Types.descriptor(funcType))) {
+            throw new IllegalArgumentException("Method %s%s does not match the type of the exported function %s".formatted(method.getName(), descriptor, funcType));
+        }
+
+        final var mv = cw.visitMethod(ACC_PUBLIC | ACC_FINAL, method.getName(), descriptor, null, null);
+        var slot = 1;
+
+        mv.visitCode();
+
+        for (final var arg : Type.getArgumentTypes(method)) {
+            mv.visitVarInsn(arg.getOpcode(ILOAD), slot);
+            slot += arg.getSize();
+        }
+
+        switch (linkage) {
+            case INSTANCE -> {
+                mv.visitVarInsn(ALOAD, 0);
+                mv.visitMethodInsn(INVOKESTATIC, className, functionName(funcIdx), Types.instanceDescriptor(funcType), false);
+            }
+            case INTERPRETER -> invokeFunction(mv, funcIdx, funcType);
+        }
+
+        mv.visitInsn(Type.getReturnType(method).getOpcode(IRETURN));
+        mv.visitMaxs(Math.max(slot, Type.getReturnType(method).getSize()), slot);
+        mv.visitEnd();
+    }
+
+    private int exportedFunction(String name) {
+        for (final var export : orEmpty(module.exports())) {
+            if (export.nm().equals(name) && export.desc() instanceof ExportDesc.Func func) {
+                return func.idx().value();
+            }
+        }
+
+        throw new IllegalArgumentException("No function exported as %s".formatted(name));
+    }
+}
@@ -0,0 +1,103 @@
+package io.github.ffortier.jasm.asm;
+
+import io.github.ffortier.jasm.binary.Code;
+import io.github.ffortier.jasm.binary.Func;
+import io.github.ffortier.jasm.binary.FuncType;
+import io.github.ffortier.jasm.binary.FunctionBodyVisitor;
+import io.github.ffortier.jasm.binary.Global;
+import io.github.ffortier.jasm.binary.Import;
+import io.github.ffortier.jasm.binary.ImportDesc;
+import io.github.ffortier.jasm.binary.Index;
+import io.github.ffortier.jasm.binary.Memory;
+import io.github.ffortier.jasm.binary.Module;
+import io.github.ffortier.jasm.binary.ModuleVisitor;
+import io.github.ffortier.jasm.binary.Table;
+import org.objectweb.asm.tree.MethodNode;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+/**
+ * Compiles the functions of a module while it is read: the sections preceding the code section are enough to compile a
+ * function, so each function is compiled on the executor as soon as its code entry has arrived.
+ */
+final class StreamingCompiler extends ModuleVisitor {
+    private final String className;
+    private final Executor executor;
+    private final ModuleCompiler.Options options;
+    private final List<FuncType> types = new ArrayList<>();
+    private final List<Import> imports = new ArrayList<>();
+    private final List<Func> funcs = new ArrayList<>();
+    private final List<Table> tables = new ArrayList<>();
+    private final List<Memory> memories = new ArrayList<>();
+    private final List<Global> globals = new ArrayList<>();
+    private final List<CompletableFuture<List<MethodNode>>> methods = new ArrayList<>();
+    private ModuleCompiler compiler;
+    private int funcImportCount;
+
+    StreamingCompiler(String className, Executor executor, ModuleCompiler.Options options) {
+        this.className = className;
+        this.executor = executor;
+        this.options = options;
+    }
+
+    @Override public void visitType(FuncType type) {
+        types.add(type);
+    }
+
+    @Override public void visitImport(String mod, String nm, ImportDesc desc) {
+        imports.add(new Import(mod, nm, desc));
+
+        if (desc instanceof ImportDesc.Func) {
+            funcImportCount++;
+        }
+    }
+
+    @Override public void visitFunction(int typeIdx) {
+        // The body is not known yet
+        funcs.add(new Func(new Index.TypeIdx(typeIdx), List.of(), null));
+    }
+
+    @Override public void visitTable(Table table) {
+        tables.add(table);
+    }
+
+    @Override public void visitMemory(Memory memory) {
+        memories.add(memory);
+    }
+
+    @Override public void visitGlobal(Global global) {
+        globals.add(global);
+    }
+
+    @Override public FunctionBodyVisitor visitCode(int codeIdx, Code code) {
+        if (compiler == null) {
+            compiler = new ModuleCompiler(new Module(types, funcs, tables, memories, globals, null, null, null, imports, null, null), className, options);
+        }
+
+        final var func = new Func(funcs.get(codeIdx).type(), code.locals(), code.body());
+        final var funcIdx = funcImportCount + codeIdx;
+
+        methods.add(CompletableFuture.supplyAsync(() -> compiler.compileMethod(funcIdx, func), executor));
+
+        return null;
+    }
+
+    /**
+     * Waits for the functions to be compiled, by index in the code section
+     */
+    List<List<MethodNode>> methods() {
+        try {
+            return methods.stream().map(CompletableFuture::join).toList();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+
+            throw e;
+        }
+    }
+}
@@ -1,13 +1,801 @@
 package io.github.ffortier.jasm.asm;
 
+import io.github.ffortier.jasm.binary.Data;
+import io.github.ffortier.jasm.binary.Element;
+import io.github.ffortier.jasm.binary.ImportDesc;
+import io.github.ffortier.jasm.binary.Instruction;
 import io.github.ffortier.jasm.binary.Module;
+import io.github.ffortier.jasm.binary.ValType;
+import io.github.ffortier.jasm.binary.WebAssembly;
+import io.github.ffortier.jasm.runtime.Events;
+import io.github.ffortier.jasm.runtime.Fuel;
+import io.github.ffortier.jasm.runtime.GlobalInstance;
+import io.github.ffortier.jasm.runtime.InstancePool;
+import io.github.ffortier.jasm.runtime.Interpreter;
+import io.github.ffortier.jasm.runtime.MemInstance;
+import io.github.ffortier.jasm.runtime.Metrics;
+import io.github.ffortier.jasm.runtime.ModuleInstance;
+import io.github.ffortier.jasm.runtime.TableInstance;
+import io.github.ffortier.jasm.runtime.Trap;
+import io.github.ffortier.jasm.runtime.Values;
+import org.objectweb.asm.MethodTooLargeException;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.MethodNode;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandleProxies;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
+
+/**
+ * Compiles wasm modules into jvm classes. Each function becomes a jvm method of a hidden class implementing the module
+ * interface, whose methods call the exported functions of the same name.
+ * <p>
+ * Modules can also be transpiled at build time by {@link #precompile} into named classes, which are loaded like any
+ * other class and can thus be archived by AppCDS. {@link #load} instantiates them without generating any bytecode.
+ * <p>
+ * The code of a module is kept apart from the state of its instances: the class of a module is defined once, and its
+ * functions take the instance, holding the memory, the tables and the globals, as their last argument. Instantiating a
+ * module {@link #transpile(Module, Class) transpiled} or {@link #load loaded} already only allocates that state, and
+ * all the instances share the jit profile of the code. The transpiler keeps the code until the module is
+ * {@link #release(Module) released}, or the transpiler linked or configured again, or dropped.
+ */
 public class Transpiler {
+    private static final String CLASS_NAME = Transpiler.class.getPackageName().replace('.', '/') + "/WasmModule";
+    private static final ModuleCompiler.Options PRECOMPILED = new ModuleCompiler.Options(false, false, true);
+    /**
+     * Marks the functions too large to compile, which stay interpreted
+     */
+    private static final byte[] TOO_LARGE = {};
+
+    private final Map<String, Host> modules = new HashMap<>();
+    /**
+     * Instantiators by module or precompiled class, then module interface. They reference their module, so weak keys
+     * would never be cleared: entries are held until released.
+     */
+    private final Map<Object, Map<Class<?>, Supplier<?>>> code = new IdentityHashMap<>();
+    private final Executor tierUpExecutor;
+    private final int hotThreshold;
+    private final Executor streamingExecutor;
+    private ClassCache cache;
+    private Supplier<Fuel> fuel;
+    private boolean instrumented;
+
+    /**
+     * Compiles every function of a module when it is transpiled. A module with a function too large for the jvm, even
+     * once split, starts in the interpreter instead and compiles its functions on their first call.
+     */
+    public Transpiler() {
+        this(null, 0);
+    }
+
+    /**
+     * Starts modules in the {@link Interpreter}, compiling a function with the executor once it has been called or has
+     * looped {@code hotThreshold} times.
+     */
+    public Transpiler(Executor tierUpExecutor, int hotThreshold) {
+        this(tierUpExecutor, hotThreshold, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param streamingExecutor compiles the functions of the modules read from a channel
+     */
+    Transpiler(Executor tierUpExecutor, int hotThreshold, Executor streamingExecutor) {
+        this.tierUpExecutor = tierUpExecutor;
+        this.hotThreshold = hotThreshold;
+        this.streamingExecutor = streamingExecutor;
+    }
+
+    /**
+     * Makes the public methods of the object available to modules importing functions from the given module name. A
+     * memory is imported by calling the public method of the same name returning a {@link MemInstance}, and a global
+     * by calling the one returning a {@link GlobalInstance}. When the class of the object is not public, as for lambdas,
+     * its methods are found through the public superclasses and interfaces declaring them.
+     * <p>
+     * Wasm threads are instances of a module importing the same shared memory, each called from its own platform or
+     * virtual thread.
+     */
     public void linkModule(String name, Object module) {
+        linkModule(name, module, MethodHandles.publicLookup());
+    }
+
+    /**
+     * Makes the methods of the object the lookup has access to available to modules, see
+     * {@link #linkModule(String, Object)}. Passing {@link MethodHandles#lookup()} links objects of classes which are not
+     * public.
+     */
+    public void linkModule(String name, Object module, MethodHandles.Lookup lookup) {
+        modules.put(name, new Host(module, lookup));
+        forgetCode();
+    }
+
+    /**
+     * Reuses the classes generated by previous runs for the modules transpiled from their bytes.
+     */
+    public void cacheClasses(ClassCache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * Meters the modules transpiled afterward: every instance consumes the {@link Fuel} supplied when it is created,
+     * and traps once it is exhausted. The supplier may give each instance a budget of its own or share one between
+     * the instances of a tenant. Pooled instances refill their fuel to its budget when released. Metered classes are not
+     * cached.
+     */
+    public void meterFuel(Supplier<Fuel> fuel) {
+        this.fuel = fuel;
+        forgetCode();
+    }
+
+    /**
+     * Instruments the modules transpiled afterward: calls to host functions, {@code memory.grow} and traps record JFR
+     * events, and every instance counts the calls and time of its functions in the {@link Metrics} of its
+     * {@link ModuleInstance}, named after the {@code name} section. Instrumented classes are not cached.
+     */
+    public void instrument(boolean instrumented) {
+        this.instrumented = instrumented;
+        forgetCode();
+    }
+
+    public <T> T transpile(Path path, Class<T> moduleInterface) throws IOException {
+        try (final var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return transpile(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), moduleInterface);
+        }
+    }
+
+    /**
+     * Transpiles the module read from the bytes. Function bodies are decoded only when the generated class is not
+     * cached.
+     */
+    public <T> T transpile(ByteBuffer bytes, Class<T> moduleInterface) throws IOException {
+        final var module = new WebAssembly().compile(bytes.duplicate());
 
+        return transpile(module, moduleInterface, cache == null || tierUpExecutor != null || fuel != null || instrumented ? null : ClassCache.key(bytes, moduleInterface));
     }
 
+    /**
+     * Transpiles the module while it is read from the stream, see {@link #transpile(ReadableByteChannel, Class)}. The
+     * stream is closed.
+     */
+    public <T> T transpile(InputStream in, Class<T> moduleInterface) throws IOException {
+        try (in) {
+            return transpile(Channels.newChannel(in), moduleInterface);
+        }
+    }
+
+    /**
+     * Transpiles the module while it is read from the channel: every function is compiled on the common pool as soon
+     * as its body has arrived, overlapping the transfer of the module with its compilation. Modules starting in the
+     * interpreter are only read. The generated class is not cached, its key needs the whole module. The channel is not
+     * closed.
+     */
+    public <T> T transpile(ReadableByteChannel channel, Class<T> moduleInterface) throws IOException {
+        if (tierUpExecutor != null) {
+            return transpile(new WebAssembly().compile(channel), moduleInterface);
+        }
+
+        final var streaming = new StreamingCompiler(CLASS_NAME, streamingExecutor, options());
+        final var module = new WebAssembly().compile(channel, streaming);
+        List<List<MethodNode>> methods;
+
+        try {
+            methods = streaming.methods();
+        } catch (MethodTooLargeException e) {
+            // Falls back to the interpreter
+            methods = null;
+        }
+
+        return instantiator(module, moduleInterface, null, methods).get().exports();
+    }
+
+    /**
+     * Transpiles the module the first time, then only instantiates it again.
+     */
     public <T> T transpile(Module module, Class<T> moduleInterface) {
-        return null;
+        return instantiator(module, moduleInterface).get().exports();
+    }
+
+    /**
+     * Transpiles and instantiates the module, giving access to the {@link ModuleInstance} along with the exports.
+     */
+    public <T> InstancePool.Pooled<T> instantiate(Module module, Class<T> moduleInterface) {
+        return instantiator(module, moduleInterface).get();
+    }
+
+    /**
+     * Keeps {@code size} instances of the module ready to run, reset to their initial state when released. The module
+     * is transpiled once for all the instances. A module importing its memory must be given a new memory for each
+     * instance, instances sharing one are rejected.
+     */
+    public <T> InstancePool<T> pool(Module module, Class<T> moduleInterface, int size) {
+        return new InstancePool<>(size, instantiator(module, moduleInterface));
+    }
+
+    private <T> T transpile(Module module, Class<T> moduleInterface, String cacheKey) {
+        return instantiator(module, moduleInterface, cacheKey, null).get().exports();
+    }
+
+    /**
+     * Transpiles the module into a class of the given binary name, to be written to a jar along the module bytes with
+     * {@link #moduleResource}. Precompiled classes are neither metered nor instrumented.
+     *
+     * @throws MethodTooLargeException when a function is too large for the jvm, even once split
+     */
+    public static byte[] precompile(Module module, Class<?> moduleInterface, String className) {
+        if (!moduleInterface.isInterface()) {
+            throw new IllegalArgumentException("%s is not an interface".formatted(moduleInterface.getName()));
+        }
+
+        return new ModuleCompiler(module, className.replace('.', '/'), PRECOMPILED).compile(moduleInterface);
+    }
+
+    /**
+     * Name of the resource holding the bytes of the module of a precompiled class, next to the class
+     */
+    public static String moduleResource(String className) {
+        return className.replace('.', '/') + ".wasm";
+    }
+
+    /**
+     * Instantiates a class written by {@link #precompile}, linked to the modules of this transpiler. The module is read
+     * from its resource for its imports and segments, its function bodies are not decoded.
+     */
+    public <T> T load(Class<?> moduleClass, Class<T> moduleInterface) throws IOException {
+        return instantiator(moduleClass, moduleInterface).get().exports();
+    }
+
+    /**
+     * Keeps {@code size} instances of a precompiled class ready to run, see {@link #pool(Module, Class, int)}
+     */
+    public <T> InstancePool<T> pool(Class<?> moduleClass, Class<T> moduleInterface, int size) throws IOException {
+        return new InstancePool<>(size, instantiator(moduleClass, moduleInterface));
+    }
+
+    /**
+     * Instantiates the module with the code transpiled the first time it was
+     */
+    @SuppressWarnings("unchecked")
+    private synchronized <T> Supplier<InstancePool.Pooled<T>> instantiator(Module module, Class<T> moduleInterface) {
+        return (Supplier<InstancePool.Pooled<T>>) code.computeIfAbsent(module, key -> new HashMap<>())
+                .computeIfAbsent(moduleInterface, key -> instantiator(module, moduleInterface, null, null));
+    }
+
+    /**
+     * Instantiates the precompiled class, whose module is read the first time it is loaded
+     */
+    @SuppressWarnings("unchecked")
+    private synchronized <T> Supplier<InstancePool.Pooled<T>> instantiator(Class<?> moduleClass, Class<T> moduleInterface) throws IOException {
+        final var instantiators = code.computeIfAbsent(moduleClass, key -> new HashMap<>());
+
+        if (!instantiators.containsKey(moduleInterface)) {
+            instantiators.put(moduleInterface, precompiledInstantiator(moduleClass, moduleInterface));
+        }
+
+        return (Supplier<InstancePool.Pooled<T>>) instantiators.get(moduleInterface);
+    }
+
+    /**
+     * Drops the code of the module, which is transpiled again if the module is instantiated again. The instances and
+     * pools of the module keep the code they run.
+     */
+    public synchronized void release(Module module) {
+        code.remove(module);
+    }
+
+    /**
+     * Drops the instantiators of the precompiled class, see {@link #release(Module)}
+     */
+    public synchronized void release(Class<?> moduleClass) {
+        code.remove(moduleClass);
+    }
+
+    private synchronized void forgetCode() {
+        code.clear();
+    }
+
+    /**
+     * Transpiles the module and links its imports, the supplier instantiates the module.
+     *
+     * @param methods functions compiled already, null when none is
+     */
+    private <T> Supplier<InstancePool.Pooled<T>> instantiator(Module module, Class<T> moduleInterface, String cacheKey, List<List<MethodNode>> methods) {
+        if (!moduleInterface.isInterface()) {
+            throw new IllegalArgumentException("%s is not an interface".formatted(moduleInterface.getName()));
+        }
+
+        final var compiler = new ModuleCompiler(module, CLASS_NAME, methods, options());
+        final var names = instrumented ? functionNames(module, compiler) : null;
+        final var imports = importFunctions(module, compiler);
+
+        if (tierUpExecutor != null) {
+            return interpretedInstantiator(module, compiler, moduleInterface, imports, names, tierUpExecutor, hotThreshold);
+        }
+
+        try {
+            return instantiator(module, compiler, moduleInterface, defineModuleClass(compiler, moduleInterface, List.of(imports), cacheKey), null, names);
+        } catch (MethodTooLargeException e) {
+            // Functions compile on their first call instead, the ones still too large stay interpreted
+            return interpretedInstantiator(module, compiler, moduleInterface, imports, names, Runnable::run, 1);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException("Cannot define module class", e);
+        }
+    }
+
+    /**
+     * Instantiates the module in the {@link Interpreter}, compiling its functions with the executor once they are hot
+     */
+    private <T> Supplier<InstancePool.Pooled<T>> interpretedInstantiator(Module module, ModuleCompiler compiler, Class<T> moduleInterface, MethodHandle[] imports, String[] names, Executor executor, int threshold) {
+        final var fuel = this.fuel;
+        final var exports = compiler.compileInterpreted(moduleInterface);
+        final var compiled = new AtomicReferenceArray<byte[]>(compiler.funcCount());
+
+        return () -> {
+            final var globals = globals(module, compiler);
+            final var memory = instantiateMemory(module, compiler, globals);
+            final var tables = tables(module);
+            final var metrics = names == null ? null : new Metrics(names);
+            final var instanceFuel = fuel == null ? null : fuel.get();
+            final var interpreter = new Interpreter(module, imports, memory, tables, globals, instanceFuel, metrics, (i, funcIdx) -> compileFunction(compiler, compiled, i, funcIdx), executor, threshold);
+            final Runnable resetGlobals = compiler.hasMutableGlobals() ? () -> resetGlobals(module, compiler, globals) : null;
+
+            // Functions are reached through the call sites of the interpreter of the instance
+            initializeTables(module, compiler, tables, globals, funcIdx -> MethodHandles.dropArguments(interpreter.function(funcIdx).dynamicInvoker(),
+                    compiler.funcType(funcIdx).args().size(), Object.class), null);
+
+            return new InstancePool.Pooled<>(construct(moduleInterface, exports, interpreter), new ModuleInstance(memory, instanceFuel, metrics, resetGlobals));
+        };
+    }
+
+    private <T> Supplier<InstancePool.Pooled<T>> precompiledInstantiator(Class<?> moduleClass, Class<T> moduleInterface) throws IOException {
+        if (!moduleInterface.isAssignableFrom(moduleClass)) {
+            throw new IllegalArgumentException("%s does not implement %s".formatted(moduleClass.getName(), moduleInterface.getName()));
+        }
+
+        if (fuel != null || instrumented) {
+            throw new IllegalStateException("Precompiled classes are neither metered nor instrumented");
+        }
+
+        final byte[] bytes;
+
+        try (final var in = moduleClass.getClassLoader().getResourceAsStream(moduleResource(moduleClass.getName()))) {
+            if (in == null) {
+                throw new IllegalArgumentException("No module bytes for %s".formatted(moduleClass.getName()));
+            }
+
+            bytes = in.readAllBytes();
+        }
+
+        final var module = new WebAssembly().compile(ByteBuffer.wrap(bytes));
+        final var compiler = new ModuleCompiler(module, Type.getInternalName(moduleClass), PRECOMPILED);
+
+        try {
+            return instantiator(module, compiler, moduleInterface, MethodHandles.privateLookupIn(moduleClass, MethodHandles.lookup()), importFunctions(module, compiler), null);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException("Cannot access %s".formatted(moduleClass.getName()), e);
+        }
+    }
+
+    /**
+     * Instantiates the module class of the lookup
+     *
+     * @param imports the host functions given to the constructor of precompiled classes, null for the others
+     */
+    private <T> Supplier<InstancePool.Pooled<T>> instantiator(Module module, ModuleCompiler compiler, Class<T> moduleInterface, MethodHandles.Lookup lookup, MethodHandle[] imports, String[] names) {
+        final var fuel = this.fuel;
+        final MethodHandle constructor;
+        final MethodHandle resetGlobals;
+        final var functions = new MethodHandle[compiler.funcCount()];
+
+        try {
+            constructor = lookup.findConstructor(lookup.lookupClass(), ModuleCompiler.constructorType(compiler.options()));
+            resetGlobals = compiler.hasMutableGlobals() ? lookup.findVirtual(lookup.lookupClass(), "resetGlobals", MethodType.methodType(void.class)) : null;
+
+            for (final var funcIdx : elementFunctions(module)) {
+                final var type = Values.methodType(compiler.funcType(funcIdx)).appendParameterTypes(Object.class);
+
+                functions[funcIdx] = lookup.findStatic(lookup.lookupClass(), ModuleCompiler.functionName(funcIdx), type);
+            }
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            throw new IllegalStateException("Cannot define module class", e);
+        }
+
+        return () -> {
+            final var globals = importGlobals(compiler);
+            final var memory = instantiateMemory(module, compiler, globals);
+            final var tables = tables(module);
+            final var metrics = names == null ? null : new Metrics(names);
+            final var instanceFuel = fuel == null ? null : fuel.get();
+            final var exports = imports == null
+                    ? construct(moduleInterface, constructor, memory, tables, globals, instanceFuel, metrics)
+                    : construct(moduleInterface, constructor, memory, tables, globals, null, null, imports);
+
+            initializeTables(module, compiler, tables, globals, funcIdx -> functions[funcIdx], exports);
+
+            return new InstancePool.Pooled<>(exports, new ModuleInstance(memory, instanceFuel, metrics,
+                    resetGlobals == null ? null : MethodHandleProxies.asInterfaceInstance(Runnable.class, resetGlobals.bindTo(exports))));
+        };
+    }
+
+    /**
+     * An object linked as a module, with the lookup finding its methods
+     */
+    private record Host(Object module, MethodHandles.Lookup lookup) {
+    }
+
+    private ModuleCompiler.Options options() {
+        return new ModuleCompiler.Options(fuel != null, instrumented, false);
+    }
+
+    /**
+     * Resolves the host functions imported by the module, typed like {@link Values#methodType}
+     */
+    private MethodHandle[] importFunctions(Module module, ModuleCompiler compiler) {
+        final var imports = new MethodHandle[compiler.funcImports().size()];
+
+        for (int i = 0; i < imports.length; i++) {
+            final var imp = compiler.funcImports().get(i);
+            final var funcType = module.types().get(((ImportDesc.Func) imp.desc()).idx().value());
+
+            imports[i] = resolveImport(imp.mod(), imp.nm(), Values.methodType(funcType));
+
+            if (instrumented) {
+                imports[i] = Events.hostCall(imports[i], imp.mod(), imp.nm());
+            }
+        }
+
+        return imports;
+    }
+
+    /**
+     * Names of the functions from the name section, {@code <module>.<name>} for imports without one
+     */
+    private static String[] functionNames(Module module, ModuleCompiler compiler) {
+        final var names = new String[compiler.funcCount()];
+
+        for (int i = 0; i < names.length; i++) {
+            if (module.names() != null && module.names().functions().containsKey(i)) {
+                names[i] = module.names().function(i);
+            } else if (i < compiler.funcImports().size()) {
+                names[i] = compiler.funcImports().get(i).mod() + "." + compiler.funcImports().get(i).nm();
+            } else {
+                names[i] = ModuleCompiler.functionName(i);
+            }
+        }
+
+        return names;
+    }
+
+    private static <T> T construct(Class<T> moduleInterface, byte[] bytes, Interpreter interpreter) {
+        try {
+            final var lookup = MethodHandles.lookup().defineHiddenClassWithClassData(bytes, interpreter, true);
+
+            return construct(moduleInterface, lookup.findConstructor(lookup.lookupClass(), MethodType.methodType(void.class)));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            throw new IllegalStateException("Cannot define module class", e);
+        }
+    }
+
+    private static <T> T construct(Class<T> moduleInterface, MethodHandle constructor, Object... args) {
+        try {
+            return moduleInterface.cast(constructor.invokeWithArguments(args));
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException("Cannot instantiate module", e);
+        }
+    }
+
+    /**
+     * Imports the globals of the module, in the order of {@link ModuleCompiler#globalImports()}
+     */
+    private GlobalInstance[] importGlobals(ModuleCompiler compiler) {
+        final var globals = new GlobalInstance[compiler.globalImports().size()];
+
+        for (int i = 0; i < globals.length; i++) {
+            final var imp = compiler.globalImports().get(i);
+            final var type = ((ImportDesc.Global) imp.desc()).global();
+
+            try {
+                globals[i] = (GlobalInstance) resolveImport(imp.mod(), imp.nm(), MethodType.methodType(GlobalInstance.class)).invokeExact();
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new IllegalStateException("Cannot import global %s.%s".formatted(imp.mod(), imp.nm()), e);
+            }
+
+            if (globals[i] == null || !globals[i].type().equals(type)) {
+                throw new IllegalArgumentException("Cannot link %s.%s, expected a global of type %s".formatted(imp.mod(), imp.nm(), type));
+            }
+        }
+
+        return globals;
+    }
+
+    /**
+     * Imports the globals of a module running in the interpreter and creates the ones it defines. v128 constants are
+     * left null, only compiled code reads them.
+     */
+    private GlobalInstance[] globals(Module module, ModuleCompiler compiler) {
+        final var globals = Arrays.copyOf(importGlobals(compiler), compiler.globalCount());
+        final var defined = ModuleCompiler.orEmpty(module.globals());
+
+        for (int i = 0; i < defined.size(); i++) {
+            final var type = defined.get(i).type();
+
+            if (type.valType() instanceof ValType.NumType) {
+                final var bits = constant(defined.get(i).init().instructions(), globals);
+
+                globals[compiler.globalImports().size() + i] = new GlobalInstance(type, Values.box(type.valType(), bits));
+            } else if (type.mut()) {
+                throw new UnsupportedOperationException("Mutable v128 globals are not supported in the interpreter");
+            }
+        }
+
+        return globals;
+    }
+
+    private static void resetGlobals(Module module, ModuleCompiler compiler, GlobalInstance[] globals) {
+        final var defined = module.globals();
+
+        for (int i = 0; i < defined.size(); i++) {
+            if (defined.get(i).type().mut()) {
+                GlobalInstance.set(constant(defined.get(i).init().instructions(), globals), globals[compiler.globalImports().size() + i]);
+            }
+        }
+    }
+
+    /**
+     * Creates or imports the memory and initializes it with the data segments
+     */
+    private MemInstance instantiateMemory(Module module, ModuleCompiler compiler, GlobalInstance[] globals) {
+        if (!compiler.hasMemory()) {
+            return null;
+        }
+
+        final var memory = memory(compiler);
+
+        for (final var data : ModuleCompiler.orEmpty(module.data())) {
+            if (data.mode() == Data.Mode.ACTIVE) {
+                memory.write((int) constant(data.offset().instructions(), globals), data.initialBytes());
+            }
+        }
+
+        return memory;
+    }
+
+    /**
+     * Creates the tables of the module, empty until {@link #initializeTables}
+     */
+    private static TableInstance[] tables(Module module) {
+        for (final var imp : ModuleCompiler.orEmpty(module.imports())) {
+            if (imp.desc() instanceof ImportDesc.Table) {
+                throw new UnsupportedOperationException("Table imports not supported yet %s.%s".formatted(imp.mod(), imp.nm()));
+            }
+        }
+
+        return ModuleCompiler.orEmpty(module.tables()).stream()
+                .map(table -> new TableInstance(table.lim().min(), table.lim().max()))
+                .toArray(TableInstance[]::new);
+    }
+
+    /**
+     * Copies the active element segments to the tables. The code of compiled functions is the static method of the
+     * module class, shared by its instances, so the inline caches of {@code call_indirect} recognize a function whatever
+     * the instance and the element it was read from.
+     *
+     * @param code     code of a function, typed like {@link Values#methodType} followed by the instance
+     * @param instance the instance passed to the code
+     */
+    private static void initializeTables(Module module, ModuleCompiler compiler, TableInstance[] tables, GlobalInstance[] globals, IntFunction<MethodHandle> code, Object instance) {
+        final var handles = new MethodHandle[compiler.funcCount()];
+
+        for (final var element : ModuleCompiler.orEmpty(module.elements())) {
+            if (element.mode() != Element.Mode.ACTIVE) {
+                continue;
+            }
+
+            final var table = tables[element.table().value()];
+            final var offset = (int) constant(element.offset().instructions(), globals);
+
+            if (Integer.toUnsignedLong(offset) + element.init().size() > table.size()) {
+                throw new Trap("out of bounds table access");
+            }
+
+            for (int i = 0; i < element.init().size(); i++) {
+                final var init = element.init().get(i).instructions();
+
+                if (init.size() == 1 && init.get(0) instanceof Instruction.RefFunc ref) {
+                    if (handles[ref.x()] == null) {
+                        handles[ref.x()] = code.apply(ref.x());
+                    }
+
+                    table.set(offset + i, compiler.funcType(ref.x()), handles[ref.x()], instance);
+                } else if (!(init.size() == 1 && init.get(0) instanceof Instruction.RefNull)) {
+                    throw new UnsupportedOperationException("Element expression not supported yet %s".formatted(init));
+                }
+            }
+        }
+    }
+
+    /**
+     * Functions referenced by the element segments
+     */
+    private static int[] elementFunctions(Module module) {
+        return ModuleCompiler.orEmpty(module.elements()).stream()
+                .flatMap(element -> element.init().stream())
+                .flatMap(init -> init.instructions().stream())
+                .filter(Instruction.RefFunc.class::isInstance)
+                .mapToInt(ref -> ((Instruction.RefFunc) ref).x())
+                .distinct()
+                .toArray();
+    }
+
+    /**
+     * Defines the module class, from the cache when possible. The cache only saves time: entries that cannot be read
+     * or written are transpiled again, unusable entries are replaced.
+     */
+    private MethodHandles.Lookup defineModuleClass(ModuleCompiler compiler, Class<?> moduleInterface, List<MethodHandle> imports, String cacheKey) throws IllegalAccessException {
+        if (cacheKey != null) {
+            try {
+                final var cached = cache.get(cacheKey);
+
+                if (cached.isPresent()) {
+                    return MethodHandles.lookup().defineHiddenClassWithClassData(cached.get(), imports, true);
+                }
+            } catch (IOException | ClassFormatError | VerifyError e) {
+                // transpile again
+            }
+        }
+
+        final var bytes = compiler.compile(moduleInterface);
+
+        if (cacheKey != null) {
+            try {
+                cache.put(cacheKey, bytes);
+            } catch (IOException e) {
+                // the next run transpiles again
+            }
+        }
+
+        return MethodHandles.lookup().defineHiddenClassWithClassData(bytes, imports, true);
+    }
+
+    /**
+     * Compiles a hot function for an instance. The bytecode is generated by the first instance finding the function
+     * hot, the others only define their class.
+     *
+     * @param compiled bytecode of the functions generated already, by function index
+     * @return null when the function is too large for the jvm
+     */
+    private static MethodHandle compileFunction(ModuleCompiler compiler, AtomicReferenceArray<byte[]> compiled, Interpreter interpreter, int funcIdx) {
+        var bytes = compiled.get(funcIdx);
+
+        if (bytes == null) {
+            try {
+                bytes = compiler.compileFunction(funcIdx);
+            } catch (MethodTooLargeException e) {
+                bytes = TOO_LARGE;
+            }
+
+            compiled.set(funcIdx, bytes);
+        }
+
+        if (bytes == TOO_LARGE) {
+            return null;
+        }
+
+        try {
+            final var lookup = MethodHandles.lookup().defineHiddenClassWithClassData(bytes, interpreter, true);
+
+            return lookup.findStatic(lookup.lookupClass(), ModuleCompiler.functionName(funcIdx), interpreter.function(funcIdx).type());
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            throw new IllegalStateException("Cannot compile function %d".formatted(funcIdx), e);
+        }
+    }
+
+    private MemInstance memory(ModuleCompiler compiler) {
+        final var limits = compiler.memoryLimits();
+        final var imp = compiler.memoryImport();
+
+        if (imp == null) {
+            return new MemInstance(limits.min(), limits.max(), limits.shared());
+        }
+
+        final MemInstance memory;
+
+        try {
+            memory = (MemInstance) resolveImport(imp.mod(), imp.nm(), MethodType.methodType(MemInstance.class)).invokeExact();
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException("Cannot import memory %s.%s".formatted(imp.mod(), imp.nm()), e);
+        }
+
+        if (memory == null || Integer.compareUnsigned(memory.size(), limits.min()) < 0) {
+            throw new IllegalArgumentException("Cannot link %s.%s, expected at least %d pages".formatted(imp.mod(), imp.nm(), limits.min()));
+        }
+
+        if (memory.isShared() != limits.shared()) {
+            throw new IllegalArgumentException("Cannot link %s.%s, expected %s memory".formatted(imp.mod(), imp.nm(), limits.shared() ? "a shared" : "an unshared"));
+        }
+
+        return memory;
+    }
+
+    /**
+     * Value of a constant expression as its raw bits, reading the globals it gets from the given ones
+     */
+    private static long constant(List<Instruction> expr, GlobalInstance[] globals) {
+        return switch (expr.size() == 1 ? expr.get(0) : null) {
+            case Instruction.I32Const c -> c.value();
+            case Instruction.I64Const c -> c.value();
+            case Instruction.F32Const c -> Float.floatToRawIntBits(c.value());
+            case Instruction.F64Const c -> Double.doubleToRawLongBits(c.value());
+            case Instruction.GlobalGet g when g.x() < globals.length && globals[g.x()] != null -> GlobalInstance.get(globals[g.x()]);
+            case null, default -> throw new UnsupportedOperationException("Constant expression not supported yet %s".formatted(expr));
+        };
+    }
+
+    private MethodHandle resolveImport(String mod, String nm, MethodType type) {
+        final var host = modules.get(mod);
+
+        if (host == null) {
+            throw new IllegalArgumentException("Module %s is not linked".formatted(mod));
+        }
+
+        try {
+            return host.lookup().findVirtual(host.module().getClass(), nm, type).bindTo(host.module());
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            // Lambdas and other classes which are not public implement the method for a public supertype
+            for (final var supertype : supertypes(host.module().getClass())) {
+                try {
+                    return host.lookup().findVirtual(supertype, nm, type).bindTo(host.module());
+                } catch (NoSuchMethodException | IllegalAccessException ignored) {
+                    // try the next one
+                }
+            }
+
+            throw new IllegalArgumentException("Cannot link %s.%s%s".formatted(mod, nm, type), e);
+        }
+    }
+
+    /**
+     * Superclasses of the class, then the interfaces it implements, nearest first
+     */
+    private static List<Class<?>> supertypes(Class<?> c) {
+        final var supertypes = new ArrayList<Class<?>>();
+
+        for (var superclass = c.getSuperclass(); superclass != null; superclass = superclass.getSuperclass()) {
+            supertypes.add(superclass);
+        }
+
+        for (int i = -1; i < supertypes.size(); i++) {
+            for (final var superinterface : (i < 0 ? c : supertypes.get(i)).getInterfaces()) {
+                if (!supertypes.contains(superinterface)) {
+                    supertypes.add(superinterface);
+                }
+            }
+        }
+
+        return supertypes;
     }
 }
@@ -0,0 +1,146 @@
+package io.github.ffortier.jasm.asm;
+
+import io.github.ffortier.jasm.binary.FuncType;
+import io.github.ffortier.jasm.binary.ValType;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+
+import java.util.List;
+
+/**
+ * Mapping of wasm types to jvm types: i32, i64, f32 and f64 are int, long, float and double, v128 is a
+ * {@code ByteVector} of 128 bits, named by {@link VectorTypes}.
+ */
+final class Types {
+    private static final Type OBJECT = Type.getType(Object.class);
+
+    private Types() {
+    }
+
+    static Type type(ValType valType) {
+        return switch (valType) {
+            case ValType.NumType.I32 -> Type.INT_TYPE;
+            case ValType.NumType.I64 -> Type.LONG_TYPE;
+            case ValType.NumType.F32 -> Type.FLOAT_TYPE;
+            case ValType.NumType.F64 -> Type.DOUBLE_TYPE;
+            case ValType.VecType.V128 -> VectorTypes.V128;
+            default -> throw new UnsupportedOperationException("Value type not supported yet %s".formatted(valType));
+        };
+    }
+
+    static Type returnType(FuncType funcType) {
+        return switch (funcType.rets().size()) {
+            case 0 -> Type.VOID_TYPE;
+            case 1 -> type(funcType.rets().get(0));
+            default -> throw new UnsupportedOperationException("Multiple return values not supported yet %s".formatted(funcType));
+        };
+    }
+
+    static Type[] argumentTypes(List<ValType> args) {
+        return args.stream().map(Types::type).toArray(Type[]::new);
+    }
+
+    /**
+     * Descriptor of the method as seen from java
+     */
+    static String descriptor(FuncType funcType) {
+        return Type.getMethodDescriptor(returnType(funcType), argumentTypes(funcType.args()));
+    }
+
+    /**
+     * Descriptor of a compiled function, the instance is passed after the wasm arguments so calls can push it last. The
+     * instance is typed as {@link Object} because a hidden class cannot name itself in its own descriptors.
+     */
+    static String instanceDescriptor(FuncType funcType) {
+        final var args = argumentTypes(funcType.args());
+        final var withInstance = new Type[args.length + 1];
+
+        System.arraycopy(args, 0, withInstance, 0, args.length);
+        withInstance[args.length] = OBJECT;
+
+        return Type.getMethodDescriptor(returnType(funcType), withInstance);
+    }
+
+    static int size(ValType valType) {
+        return type(valType).getSize();
+    }
+
+    static int load(ValType valType) {
+        return type(valType).getOpcode(Opcodes.ILOAD);
+    }
+
+    static int store(ValType valType) {
+        return type(valType).getOpcode(Opcodes.ISTORE);
+    }
+
+    static int ret(ValType valType) {
+        return type(valType).getOpcode(Opcodes.IRETURN);
+    }
+
+    static int pop(ValType valType) {
+        return size(valType) == 2 ? Opcodes.POP2 : Opcodes.POP;
+    }
+
+    static int dup(ValType valType) {
+        return size(valType) == 2 ? Opcodes.DUP2 : Opcodes.DUP;
+    }
+
+    /**
+     * Type of the value in stack map frames
+     */
+    static Object frameType(ValType valType) {
+        return switch (valType) {
+            case ValType.NumType.I32 -> Opcodes.INTEGER;
+            case ValType.NumType.I64 -> Opcodes.LONG;
+            case ValType.NumType.F32 -> Opcodes.FLOAT;
+            case ValType.NumType.F64 -> Opcodes.DOUBLE;
+            case ValType.VecType.V128 -> VectorTypes.V128.getInternalName();
+            default -> throw new UnsupportedOperationException("Value type not supported yet %s".formatted(valType));
+        };
+    }
+
+    /**
+     * Converts the value on the stack to its raw bits in a long, i32 sign extended
+     */
+    static void toBits(MethodVisitor mv, ValType valType) {
+        switch (valType) {
+            case ValType.NumType.I32 -> mv.visitInsn(Opcodes.I2L);
+            case ValType.NumType.I64 -> {
+            }
+            case ValType.NumType.F32 -> {
+                mv.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/Float", "floatToRawIntBits", "(F)I", false);
+                mv.visitInsn(Opcodes.I2L);
+            }
+            case ValType.NumType.F64 -> mv.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/Double", "doubleToRawLongBits", "(D)J", false);
+            default -> throw new UnsupportedOperationException("Value type not supported yet %s".formatted(valType));
+        }
+    }
+
+    /**
+     * Converts the raw bits on the stack back to the value, the reverse of {@link #toBits(MethodVisitor, ValType)}
+     */
+    static void fromBits(MethodVisitor mv, ValType valType) {
+        switch (valType) {
+            case ValType.NumType.I32 -> mv.visitInsn(Opcodes.L2I);
+            case ValType.NumType.I64 -> {
+            }
+            case ValType.NumType.F32 -> {
+                mv.visitInsn(Opcodes.L2I);
+                mv.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/Float", "intBitsToFloat", "(I)F", false);
+            }
+            case ValType.NumType.F64 -> mv.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/Double", "longBitsToDouble", "(J)D", false);
+            default -> throw new UnsupportedOperationException("Value type not supported yet %s".formatted(valType));
+        }
+    }
+
+    static int zero(ValType valType) {
+        return switch (valType) {
+            case ValType.NumType.I32 -> Opcodes.ICONST_0;
+            case ValType.NumType.I64 -> Opcodes.LCONST_0;
+            case ValType.NumType.F32 -> Opcodes.FCONST_0;
+            case ValType.NumType.F64 -> Opcodes.DCONST_0;
+            default -> throw new UnsupportedOperationException("Value type not supported yet %s".formatted(valType));
+        };
+    }
+}
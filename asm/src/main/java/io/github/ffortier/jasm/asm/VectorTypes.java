@@ -0,0 +1,47 @@
+package io.github.ffortier.jasm.asm;
+
+import io.github.ffortier.jasm.runtime.Simd;
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.VectorShuffle;
+import org.objectweb.asm.ConstantDynamic;
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.Type;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+import static org.objectweb.asm.Opcodes.H_INVOKESTATIC;
+
+/**
+ * Types and constants of v128 code. The vector api is an incubator module, only resolved when the jvm runs with
+ * {@code --add-modules jdk.incubator.vector}, so it is only named here: this class is initialized by the first function
+ * handling v128 values, and modules without any compile on any jvm.
+ */
+final class VectorTypes {
+    static final Type V128 = Type.getType(ByteVector.class);
+    static final String V128_DESCRIPTOR = V128.getDescriptor();
+    static final String SHUFFLE_DESCRIPTOR = Type.getDescriptor(VectorShuffle.class);
+    static final String SIMD = Type.getInternalName(Simd.class);
+
+    private static final Handle V128_BOOTSTRAP = new Handle(H_INVOKESTATIC, SIMD, "v128",
+            MethodType.methodType(ByteVector.class, MethodHandles.Lookup.class, String.class, Class.class, long.class, long.class).descriptorString(), false);
+    private static final Handle SHUFFLE_BOOTSTRAP = new Handle(H_INVOKESTATIC, SIMD, "shuffle",
+            MethodType.methodType(VectorShuffle.class, MethodHandles.Lookup.class, String.class, Class.class, long.class, long.class).descriptorString(), false);
+
+    private VectorTypes() {
+    }
+
+    /**
+     * Constant v128 of the given bits, created once per constant
+     */
+    static ConstantDynamic v128Constant(long low, long high) {
+        return new ConstantDynamic("v128", V128_DESCRIPTOR, V128_BOOTSTRAP, low, high);
+    }
+
+    /**
+     * Constant lanes of a shuffle, so the jit sees the permutation it compiles
+     */
+    static ConstantDynamic shuffleConstant(long low, long high) {
+        return new ConstantDynamic("shuffle", SHUFFLE_DESCRIPTOR, SHUFFLE_BOOTSTRAP, low, high);
+    }
+}
@@ -1,36 +1,826 @@
 package io.github.ffortier.jasm.asm;
 
 import io.github.ffortier.jasm.binary.Module;
+import io.github.ffortier.jasm.binary.Validator;
 import io.github.ffortier.jasm.binary.WebAssembly;
+import io.github.ffortier.jasm.runtime.Fuel;
+import io.github.ffortier.jasm.runtime.MemInstance;
+import io.github.ffortier.jasm.runtime.Trap;
+import org.assertj.core.api.WithAssertions;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.objectweb.asm.MethodTooLargeException;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.foreign.ValueLayout;
+import java.lang.invoke.MethodHandles;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Field;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
 
-public class TranspilerTest {
+public class TranspilerTest implements WithAssertions {
 
     @Test
     public void transpile() throws IOException {
+        assertThat(helloWorld(new Transpiler(), 1)).containsExactly("Hello World from WebAssembly!");
+    }
+
+    @Test
+    public void tierUp() throws IOException {
+        final var tierUps = new ArrayList<Runnable>();
+
+        // The first call runs in the interpreter and the function is compiled once it gets hot
+        final var logs = helloWorld(new Transpiler(r -> {
+            tierUps.add(r);
+            r.run();
+        }, 2), 3);
+
+        assertThat(tierUps).hasSize(1);
+        assertThat(logs).hasSize(3).containsOnly("Hello World from WebAssembly!");
+    }
+
+    @Test
+    public void cacheClasses(@TempDir Path cacheDir) throws IOException {
+        for (int i = 0; i < 2; i++) {
+            final var transpiler = new Transpiler();
+            final var js = new Js();
+            final var console = new Console(js.memory);
+
+            transpiler.cacheClasses(new ClassCache(cacheDir));
+            transpiler.linkModule("console", console);
+            transpiler.linkModule("js", js);
+            transpiler.transpile(Path.of(System.getenv("TEST_HELLO_WASM")), Hello.class).helloWorld();
+
+            assertThat(console.logs).containsExactly("Hello World from WebAssembly!");
+        }
+
+        try (final var entries = Files.list(cacheDir)) {
+            assertThat(entries).singleElement().satisfies(entry -> assertThat(entry.toString()).endsWith(".class"));
+        }
+    }
+
+    @Test
+    public void transpileStreaming() throws IOException {
+        final var bytes = Files.readAllBytes(Path.of(System.getenv("TEST_HELLO_WASM")));
+        final var pause = firstCodeEntryEnd(bytes);
+        final var submitted = new CountDownLatch(1);
+        final var transpiler = new Transpiler(null, 0, command -> {
+            submitted.countDown();
+            ForkJoinPool.commonPool().execute(command);
+        });
+        final var channel = new PausingChannel(bytes, pause, submitted);
+        final var js = new Js();
+        final var console = new Console(js.memory);
+
+        transpiler.linkModule("console", console);
+        transpiler.linkModule("js", js);
+        transpiler.transpile(channel, Hello.class).helloWorld();
+
+        // The data section follows the code section, the function was compiled before it arrived
+        assertThat(pause).isLessThan(bytes.length);
+        assertThat(channel.resumedOnSubmission).isTrue();
+        assertThat(console.logs).containsExactly("Hello World from WebAssembly!");
+    }
+
+    /**
+     * Offset of the end of the first entry of the code section
+     */
+    private static int firstCodeEntryEnd(byte[] module) {
+        final var bb = ByteBuffer.wrap(module, 8, module.length - 8);
+
+        while (true) {
+            final var sectionId = bb.get();
+            final var size = leb128(bb);
+
+            if (sectionId == 10) {
+                leb128(bb);
+
+                final var entrySize = leb128(bb);
+
+                return bb.position() + entrySize;
+            }
+
+            bb.position(bb.position() + size);
+        }
+    }
+
+    private static int leb128(ByteBuffer bb) {
+        int result = 0;
+        int shift = 0;
+
+        while (true) {
+            final var b = bb.get();
+
+            result |= (b & 0x7f) << shift;
+
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+
+            shift += 7;
+        }
+    }
+
+    /**
+     * Delivers the bytes up to the pause, then waits for the latch before delivering the rest, as a slow network would
+     */
+    private static final class PausingChannel implements ReadableByteChannel {
+        private final ByteBuffer bytes;
+        private final int pause;
+        private final CountDownLatch latch;
+        /**
+         * Whether the latch was released while the channel was paused
+         */
+        private boolean resumedOnSubmission;
+
+        private PausingChannel(byte[] bytes, int pause, CountDownLatch latch) {
+            this.bytes = ByteBuffer.wrap(bytes);
+            this.pause = pause;
+            this.latch = latch;
+        }
+
+        @Override public int read(ByteBuffer dst) throws IOException {
+            if (!bytes.hasRemaining()) {
+                return -1;
+            }
+
+            if (bytes.position() == pause) {
+                try {
+                    resumedOnSubmission = latch.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException();
+                }
+            }
+
+            final var end = bytes.position() < pause ? pause : bytes.limit();
+            final var n = Math.min(dst.remaining(), end - bytes.position());
+
+            dst.put(bytes.slice(bytes.position(), n));
+            bytes.position(bytes.position() + n);
+
+            return n;
+        }
+
+        @Override public boolean isOpen() {
+            return true;
+        }
+
+        @Override public void close() {
+        }
+    }
+
+    @Test
+    public void linkNonPublicHosts() throws IOException {
+        final var module = new WebAssembly().compile(Path.of(System.getenv("TEST_HELLO_WASM")));
+        final var transpiler = new Transpiler();
+        // An anonymous class, whose methods are found in Js
+        final var js = new Js() {
+        };
+        final var console = new Console(js.memory);
+
+        // A lambda, whose method is found in its interface
+        transpiler.linkModule("console", (Log) console::log);
+        transpiler.linkModule("js", js);
+        transpiler.transpile(module, Hello.class).helloWorld();
+
+        // A private class, whose methods are found with a lookup having access to it
+        transpiler.linkModule("console", new PrivateConsole(console));
+        assertThatThrownBy(() -> transpiler.transpile(module, Hello.class)).isInstanceOf(IllegalArgumentException.class).hasMessageContaining("console.log");
+
+        transpiler.linkModule("console", new PrivateConsole(console), MethodHandles.lookup());
+        transpiler.transpile(module, Hello.class).helloWorld();
+
+        assertThat(console.logs).containsExactly("Hello World from WebAssembly!", "Hello World from WebAssembly!");
+    }
+
+    @Test
+    public void pool() throws IOException {
+        final var module = new WebAssembly().compile(Path.of(System.getenv("TEST_MEMORY_WASM")));
+
+        for (final var transpiler : List.of(new Transpiler(), new Transpiler(Runnable::run, 1_000))) {
+            final var pool = transpiler.pool(module, Memory.class, 1);
+
+            try (final var lease = pool.acquire()) {
+                lease.get().store(0, 42);
+                lease.get().grow(1);
+                lease.get().store(MemInstance.PAGE_SIZE, 7);
+
+                assertThat(lease.get().load(0)).isEqualTo(42);
+            }
+
+            // The stores of the guest and its growth are rolled back
+            try (final var lease = pool.acquire()) {
+                assertThat(lease.get().load(0)).isZero();
+                assertThat(lease.get().size()).isEqualTo(1);
+                assertThat(lease.get().grow(1)).isEqualTo(1);
+                assertThat(lease.get().load(MemInstance.PAGE_SIZE)).isZero();
+            }
+        }
+    }
+
+    @Test
+    public void rejectPoolSharingImportedMemory() throws IOException {
+        final var transpiler = new Transpiler();
+        final var js = new Js();
+
+        transpiler.linkModule("console", new Console(js.memory));
+        transpiler.linkModule("js", js);
+
+        // Every instance imports the same memory, which resetting one of them would roll back under the others
+        assertThatThrownBy(() -> transpiler.pool(new WebAssembly().compile(Path.of(System.getenv("TEST_HELLO_WASM"))), Hello.class, 2))
+                .isInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    public void shareCode() throws IOException {
+        final var transpiler = new Transpiler();
+        final var js = new Js();
+        final var module = new WebAssembly().compile(Path.of(System.getenv("TEST_HELLO_WASM")));
+
+        transpiler.linkModule("console", new Console(js.memory));
+        transpiler.linkModule("js", js);
+
+        final var first = transpiler.transpile(module, Hello.class);
+        final var second = transpiler.transpile(module, Hello.class);
+
+        assertThat(second).isNotSameAs(first).hasSameClassAs(first);
+
+        // Released modules are transpiled again
+        transpiler.release(module);
+
+        assertThat(transpiler.transpile(module, Hello.class)).doesNotHaveSameClassAs(first);
+
+        // Linking other modules transpiles again
+        transpiler.linkModule("console", new Console(js.memory));
+
+        assertThat(transpiler.transpile(module, Hello.class)).doesNotHaveSameClassAs(first);
+    }
+
+    @Test
+    public void meterFuel() throws IOException {
+        final var fuel = new Fuel(1_000);
+        final var transpiler = new Transpiler();
+
+        transpiler.meterFuel(() -> fuel);
+
+        assertThat(helloWorld(transpiler, 1)).containsExactly("Hello World from WebAssembly!");
+        assertThat(fuel.remaining()).isBetween(0L, 999L);
+
+        final var exhausted = new Transpiler();
+
+        exhausted.meterFuel(() -> new Fuel(1));
+
+        assertThatThrownBy(() -> helloWorld(exhausted, 1)).isInstanceOf(Trap.class).hasMessage("out of fuel");
+    }
+
+    @Test
+    public void meterLoops() throws IOException {
+        final var module = new WebAssembly().compile(Path.of(System.getenv("TEST_FUEL_WASM")));
+
+        for (final var transpiler : List.of(new Transpiler(), new Transpiler(Runnable::run, 1_000))) {
+            final var fuel = new Fuel(100);
+
+            transpiler.meterFuel(() -> fuel);
+
+            final var spin = transpiler.transpile(module, Spin.class);
+
+            // loop, 10 iterations and the final local.get
+            assertThat(spin.spin(10)).isEqualTo(10);
+            assertThat(fuel.remaining()).isEqualTo(28);
+
+            fuel.refill();
+
+            // The entry check passes, the budget runs out at the back-edge of the 15th iteration
+            assertThatThrownBy(() -> spin.spin(1_000_000)).isInstanceOf(Trap.class).hasMessage("out of fuel");
+            assertThat(fuel.remaining()).isBetween(-7L, -1L);
+        }
+    }
+
+    @Test
+    public void meterPooledFuel() throws IOException {
+        final var module = new WebAssembly().compile(Path.of(System.getenv("TEST_MEMORY_WASM")));
+
+        for (final var transpiler : List.of(new Transpiler(), new Transpiler(Runnable::run, 1_000))) {
+            transpiler.meterFuel(() -> new Fuel(20));
+
+            final var pool = transpiler.pool(module, Memory.class, 1);
+
+            // Each lease stores 5 times, 3 instructions each, which the budget only allows once
+            for (int i = 0; i < 3; i++) {
+                try (final var lease = pool.acquire()) {
+                    for (int j = 0; j < 5; j++) {
+                        lease.get().store(4 * j, j);
+                    }
+
+                    assertThat(lease.instance().fuel().remaining()).isEqualTo(5);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void instrument() throws IOException {
+        final var transpiler = new Transpiler();
+        final var js = new Js();
+        final var console = new Console(js.memory);
+
+        transpiler.instrument(true);
+        transpiler.linkModule("console", console);
+        transpiler.linkModule("js", js);
+
+        final var instance = transpiler.instantiate(new WebAssembly().compile(Path.of(System.getenv("TEST_HELLO_WASM"))), Hello.class);
+
+        instance.exports().helloWorld();
+        instance.exports().helloWorld();
+
+        assertThat(console.logs).hasSize(2);
+        assertThat(instance.instance().metrics().functions()).singleElement().satisfies(function -> assertThat(function.calls()).isEqualTo(2));
+    }
+
+    @Test
+    public void precompile(@TempDir Path classDir) throws IOException, ReflectiveOperationException {
+        final var bytes = Files.readAllBytes(Path.of(System.getenv("TEST_HELLO_WASM")));
+        final var module = new WebAssembly().compile(ByteBuffer.wrap(bytes));
+
+        Files.createDirectories(classDir.resolve("hello"));
+        Files.write(classDir.resolve("hello/PrecompiledHello.class"), Transpiler.precompile(module, Hello.class, "hello.PrecompiledHello"));
+        Files.write(classDir.resolve(Transpiler.moduleResource("hello.PrecompiledHello")), bytes);
+
+        try (final var loader = new URLClassLoader(new URL[]{classDir.toUri().toURL()}, getClass().getClassLoader())) {
+            final var transpiler = new Transpiler();
+            final var js = new Js();
+            final var console = new Console(js.memory);
+
+            transpiler.linkModule("console", console);
+            transpiler.linkModule("js", js);
+            transpiler.load(loader.loadClass("hello.PrecompiledHello"), Hello.class).helloWorld();
+
+            assertThat(console.logs).containsExactly("Hello World from WebAssembly!");
+        }
+    }
+
+    @Test
+    public void growMemory() throws IOException {
+        final var module = new WebAssembly().compile(Path.of(System.getenv("TEST_MEMORY_WASM")));
+
+        for (final var transpiler : List.of(new Transpiler(), new Transpiler(Runnable::run, 1_000))) {
+            final var memory = transpiler.transpile(module, Memory.class);
+
+            memory.store(0, 42);
+            memory.store(MemInstance.PAGE_SIZE - 4, 7);
+
+            assertThatThrownBy(() -> memory.load(MemInstance.PAGE_SIZE - 3)).isInstanceOf(Trap.class).hasMessage("out of bounds memory access");
+            assertThatThrownBy(() -> memory.store(-1, 0)).isInstanceOf(Trap.class).hasMessage("out of bounds memory access");
+            assertThat(memory.grow(1)).isEqualTo(1);
+            assertThat(memory.size()).isEqualTo(2);
+            assertThat(memory.load(0)).isEqualTo(42);
+            assertThat(memory.load(MemInstance.PAGE_SIZE - 4)).isEqualTo(7);
+            assertThat(memory.load(MemInstance.PAGE_SIZE)).isZero();
+
+            // Past the maximum of 3 pages
+            assertThat(memory.grow(2)).isEqualTo(-1);
+            assertThat(memory.grow(-1)).isEqualTo(-1);
+            assertThat(memory.size()).isEqualTo(2);
+            assertThat(memory.grow(1)).isEqualTo(2);
+            assertThat(memory.grow(0)).isEqualTo(3);
+
+            memory.store(3 * MemInstance.PAGE_SIZE - 4, 9);
+
+            assertThat(memory.load(3 * MemInstance.PAGE_SIZE - 4)).isEqualTo(9);
+            assertThatThrownBy(() -> memory.load(3 * MemInstance.PAGE_SIZE - 3)).isInstanceOf(Trap.class).hasMessage("out of bounds memory access");
+        }
+    }
+
+    @Test
+    public void runKernels() throws IOException {
+        final var module = new WebAssembly().compile(Path.of(System.getenv("TEST_KERNELS_WASM")));
+
+        for (final var transpiler : List.of(new Transpiler(), new Transpiler(Runnable::run, 1_000))) {
+            final var instance = transpiler.instantiate(module, Kernels.class);
+            final var kernels = instance.exports();
+            final var memory = instance.instance().memory();
+
+            assertThat(kernels.fib(20)).isEqualTo(6765);
+
+            // A and B are 2 x 2 matrices at 0 and 16, C is written at 32
+            final var ab = new int[]{1, 2, 3, 4, 5, 6, 7, 8};
+
+            for (int i = 0; i < ab.length; i++) {
+                MemInstance.i32Store(4 * i, ab[i], 0, memory);
+            }
+
+            kernels.matmul(2);
+
+            assertThat(MemInstance.i32Load(32, 0, memory)).isEqualTo(19);
+            assertThat(MemInstance.i32Load(36, 0, memory)).isEqualTo(22);
+            assertThat(MemInstance.i32Load(40, 0, memory)).isEqualTo(43);
+            assertThat(MemInstance.i32Load(44, 0, memory)).isEqualTo(50);
+
+            kernels.memcpy(100, 32, 16);
+
+            assertThat(MemInstance.i32Load(112, 0, memory)).isEqualTo(50);
+            assertThatThrownBy(() -> kernels.memcpy(0, MemInstance.PAGE_SIZE - 1, 2)).isInstanceOf(Trap.class).hasMessage("out of bounds memory access");
+        }
+    }
+
+    @Test
+    public void collectInstances() throws IOException, InterruptedException {
         final var transpiler = new Transpiler();
+        final var module = new WebAssembly().compile(Path.of(System.getenv("TEST_KERNELS_WASM")));
+        final var memories = new ArrayList<WeakReference<MemInstance>>();
+
+        for (int i = 0; i < 1_000; i++) {
+            final var instance = transpiler.instantiate(module, Kernels.class);
+
+            instance.exports().memcpy(0, 16, 16);
+            memories.add(new WeakReference<>(instance.instance().memory()));
+        }
+
+        // Every instance allocated its page off-heap, which is freed along with the instance
+        for (int i = 0; i < 100 && memories.stream().anyMatch(memory -> memory.get() != null); i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+
+        assertThat(memories).allMatch(memory -> memory.get() == null);
+    }
+
+    @Test
+    public void globals() throws IOException {
+        final var module = new WebAssembly().compile(Path.of(System.getenv("TEST_GLOBALS_WASM")));
+
+        for (final var transpiler : List.of(new Transpiler(), new Transpiler(Runnable::run, 1_000))) {
+            final var pool = transpiler.pool(module, Globals.class, 1);
+
+            try (final var lease = pool.acquire()) {
+                assertThat(lease.get().getAnswer()).isEqualTo(42);
+                assertThat(lease.get().increment()).isEqualTo(1);
+                assertThat(lease.get().increment()).isEqualTo(2);
+            }
+
+            // The pool reset the mutable global of its only instance
+            try (final var lease = pool.acquire()) {
+                assertThat(lease.get().increment()).isEqualTo(1);
+            }
+        }
+
+        // The immutable global is a constant, the mutable one a field of the instance
+        final var fields = Arrays.stream(new Transpiler().transpile(module, Globals.class).getClass().getDeclaredFields())
+                .map(Field::getName)
+                .toList();
+
+        assertThat(fields).contains(ModuleCompiler.globalName(1)).doesNotContain(ModuleCompiler.globalName(0));
+    }
+
+    @Test
+    public void callIndirect() throws IOException {
+        final var module = new WebAssembly().compile(Path.of(System.getenv("TEST_TABLE_WASM")));
+
+        // The instances share the code of the module, and the interpreter runs functions of its own
+        for (final var transpiler : List.of(new Transpiler(), new Transpiler(Runnable::run, 1_000))) {
+            for (int i = 0; i < 10; i++) {
+                final var table = transpiler.instantiate(module, Table.class).exports();
+
+                assertThat(table.apply(0, 5, 3)).isEqualTo(8);
+                assertThat(table.apply(1, 5, 3)).isEqualTo(2);
+                assertThatThrownBy(() -> table.apply(2, 5, 3)).isInstanceOf(Trap.class).hasMessage("indirect call type mismatch");
+                assertThatThrownBy(() -> table.apply(3, 5, 3)).isInstanceOf(Trap.class).hasMessage("uninitialized element 3");
+                assertThatThrownBy(() -> table.apply(4, 5, 3)).isInstanceOf(Trap.class).hasMessage("undefined element 4");
+                assertThatThrownBy(() -> table.apply(-1, 5, 3)).isInstanceOf(Trap.class).hasMessage("undefined element 4294967295");
+            }
+        }
+    }
+
+    @Test
+    public void simd() throws IOException {
+        final var simd = new Transpiler().transpile(Path.of(System.getenv("TEST_SIMD_WASM")), Simd.class);
+
+        assertThat(simd.addSat(5, 7)).isEqualTo(12);
+        assertThat(simd.addSat(100, 100)).isEqualTo(127);
+        assertThat(simd.addSat(-100, -100)).isEqualTo(-128);
+        assertThat(simd.swizzle(3)).isEqualTo(0x13);
+        assertThat(simd.swizzle(16)).isEqualTo(0);
+        assertThat(simd.swizzle(-1)).isEqualTo(0);
+        assertThat(simd.shuffle()).isEqualTo(0x13031202);
+        assertThat(simd.narrow(-5)).isEqualTo(-5);
+        assertThat(simd.narrow(300)).isEqualTo(127);
+        assertThat(simd.narrow(-300)).isEqualTo(-128);
+        assertThat(simd.narrow(0x1_0005)).isEqualTo(5);
+    }
+
+    @Test
+    public void outlineHugeFunction() throws IOException {
+        final var module = new WebAssembly().compile(ByteBuffer.wrap(hugeModule()));
+        final var func = module.funcs().get(0);
+
+        assertThat(func.body().packed().size()).isGreaterThan(MethodSplitter.MAX_INSTRUCTIONS);
+        assertThat(MethodSplitter.outline(func.body().packed(), new Validator(module).validate(func), MethodSplitter.MAX_INSTRUCTIONS)).isNotEmpty();
+
+        // The interpreter runs the body as is, the compiled function calls the methods of its outlined blocks
+        for (final var transpiler : List.of(new Transpiler(), new Transpiler(Runnable::run, 1_000))) {
+            final var huge = transpiler.instantiate(module, Huge.class).exports();
+
+            for (final var n : new int[]{0, 1, 2, 3, 10, 100}) {
+                assertThat(huge.mix(n)).as("mix(%d)", n).isEqualTo(mix(n));
+            }
+        }
+    }
+
+    private static final int HUGE_BLOCKS = 8;
+    private static final int HUGE_REPEATS = 20;
+
+    /**
+     * A module exporting {@code mix}, a loop of {@link #HUGE_BLOCKS} blocks hashing a local, too large for a single
+     * method. The blocks branch to the end of the loop, out of the loop and out of the function with a value.
+     */
+    private static byte[] hugeModule() {
+        final var body = new ByteArrayOutputStream();
+
+        // block $found (result i32), block $done, loop $next
+        body.writeBytes(new byte[]{0x02, 0x7f, 0x02, 0x40, 0x03, 0x40});
+
+        for (int k = 0; k < HUGE_BLOCKS; k++) {
+            body.writeBytes(new byte[]{0x02, 0x40});
+
+            for (int j = 0; j < HUGE_REPEATS; j++) {
+                // acc = (acc ^ c) * 31
+                body.writeBytes(new byte[]{0x20, 0x01, 0x41, (byte) ((j + k) % 64), 0x73, 0x41, 0x1f, 0x6c, 0x21, 0x01});
+            }
+
+            if (k == 0) {
+                // br_if $done when n == 0
+                body.writeBytes(new byte[]{0x20, 0x00, 0x45, 0x0d, 0x02});
+            }
+
+            // br_if $found with acc when i >= n
+            body.writeBytes(new byte[]{0x20, 0x01, 0x20, 0x02, 0x20, 0x00, 0x4f, 0x0d, 0x03, 0x1a});
+            // br_if 0 when i % 3 == 0, then acc += k
+            body.writeBytes(new byte[]{0x20, 0x02, 0x41, 0x03, 0x70, 0x45, 0x0d, 0x00});
+            body.writeBytes(new byte[]{0x20, 0x01, 0x41, (byte) k, 0x6a, 0x21, 0x01, 0x0b});
+        }
+
+        // i++, br $next, end $next, end $done, -1, end $found, end
+        body.writeBytes(new byte[]{0x20, 0x02, 0x41, 0x01, 0x6a, 0x21, 0x02, 0x0c, 0x00, 0x0b, 0x0b, 0x41, 0x7f, 0x0b, 0x0b});
+
+        final var func = new ByteArrayOutputStream();
+
+        // Two i32 locals, $acc and $i, after the parameter $n
+        func.writeBytes(new byte[]{0x01, 0x02, 0x7f});
+        func.writeBytes(body.toByteArray());
+
+        return functionModule("mix", func.toByteArray());
+    }
+
+    /**
+     * What the {@code mix} function of {@link #hugeModule()} computes
+     */
+    private static int mix(int n) {
+        var acc = 0;
+
+        for (int i = 0; ; i++) {
+            for (int k = 0; k < HUGE_BLOCKS; k++) {
+                for (int j = 0; j < HUGE_REPEATS; j++) {
+                    acc = (acc ^ ((j + k) % 64)) * 31;
+                }
+
+                if (k == 0 && n == 0) {
+                    return -1;
+                }
+
+                if (Integer.compareUnsigned(i, n) >= 0) {
+                    return acc;
+                }
+
+                if (Integer.remainderUnsigned(i, 3) != 0) {
+                    acc += k;
+                }
+            }
+        }
+    }
+
+    @Test
+    public void interpretTooLargeFunction() throws IOException {
+        final var module = new WebAssembly().compile(ByteBuffer.wrap(flatModule()));
+
+        assertThatThrownBy(() -> Transpiler.precompile(module, Flat.class, "test.Flat")).isInstanceOf(MethodTooLargeException.class);
+
+        // Straight-line code is never split, the function stays interpreted
+        for (final var transpiler : List.of(new Transpiler(), new Transpiler(Runnable::run, 1))) {
+            final var flat = transpiler.instantiate(module, Flat.class).exports();
+
+            for (final var n : new int[]{0, 1, -1, 12345}) {
+                assertThat(flat.hash(n)).as("hash(%d)", n).isEqualTo(hash(n));
+            }
+        }
+    }
+
+    private static final int FLAT_REPEATS = 12_000;
+
+    /**
+     * A module exporting {@code hash}, {@link #FLAT_REPEATS} steps hashing its parameter without any block, compiling
+     * to more than 64 KB of bytecode
+     */
+    private static byte[] flatModule() {
+        final var func = new ByteArrayOutputStream();
 
+        func.write(0x00);
+
+        for (int j = 0; j < FLAT_REPEATS; j++) {
+            // n = (n ^ c) * 31
+            func.writeBytes(new byte[]{0x20, 0x00, 0x41, (byte) (j % 64), 0x73, 0x41, 0x1f, 0x6c, 0x21, 0x00});
+        }
+
+        func.writeBytes(new byte[]{0x20, 0x00, 0x0b});
+
+        return functionModule("hash", func.toByteArray());
+    }
+
+    /**
+     * What the {@code hash} function of {@link #flatModule()} computes
+     */
+    private static int hash(int n) {
+        for (int j = 0; j < FLAT_REPEATS; j++) {
+            n = (n ^ (j % 64)) * 31;
+        }
+
+        return n;
+    }
+
+    /**
+     * A module of a single function of type {@code [i32] -> [i32]}, exported under the name
+     *
+     * @param func the locals and body of the function
+     */
+    private static byte[] functionModule(String name, byte[] func) {
+        final var code = new ByteArrayOutputStream();
+
+        code.write(0x01);
+        code.writeBytes(vector(func));
+
+        final var export = new ByteArrayOutputStream();
+
+        export.write(0x01);
+        export.writeBytes(vector(name.getBytes(StandardCharsets.UTF_8)));
+        export.writeBytes(new byte[]{0x00, 0x00});
+
+        final var module = new ByteArrayOutputStream();
+
+        module.writeBytes(new byte[]{0x00, 0x61, 0x73, 0x6d, 0x01, 0x00, 0x00, 0x00});
+        section(module, 1, new byte[]{0x01, 0x60, 0x01, 0x7f, 0x01, 0x7f});
+        section(module, 3, new byte[]{0x01, 0x00});
+        section(module, 7, export.toByteArray());
+        section(module, 10, code.toByteArray());
+
+        return module.toByteArray();
+    }
+
+    private static void section(ByteArrayOutputStream module, int id, byte[] content) {
+        module.write(id);
+        module.writeBytes(vector(content));
+    }
+
+    /**
+     * The bytes prefixed with their unsigned leb128 length
+     */
+    private static byte[] vector(byte[] content) {
+        final var out = new ByteArrayOutputStream();
+        var len = content.length;
+
+        while (len >= 0x80) {
+            out.write((len & 0x7f) | 0x80);
+            len >>>= 7;
+        }
+
+        out.write(len);
+        out.writeBytes(content);
+
+        return out.toByteArray();
+    }
+
+    private static List<String> helloWorld(Transpiler transpiler, int times) throws IOException {
         Module mod;
-        
+
         try (final var in = Files.newInputStream(Path.of(System.getenv("TEST_HELLO_WASM")))) {
             mod = new WebAssembly().compile(in);
         }
 
-        transpiler.linkModule("console", new Console());
+        final var js = new Js();
+        final var console = new Console(js.memory);
+
+        transpiler.linkModule("console", console);
+        transpiler.linkModule("js", js);
 
         final var instance = transpiler.transpile(mod, Hello.class);
+
+        for (int i = 0; i < times; i++) {
+            instance.helloWorld();
+        }
+
+        return console.logs;
     }
 
     public interface Hello {
+        void helloWorld();
+    }
+
+    public interface Kernels {
+        int fib(int n);
+
+        void matmul(int n);
+
+        void memcpy(int dst, int src, int len);
+    }
+
+    public interface Memory {
+        int grow(int delta);
+
+        int size();
+
+        int load(int address);
+
+        void store(int address, int value);
+    }
+
+    public interface Globals {
+        int getAnswer();
+
+        int increment();
+    }
+
+    public interface Spin {
+        int spin(int n);
+    }
+
+    public interface Huge {
+        int mix(int n);
+    }
+
+    public interface Flat {
+        int hash(int n);
+    }
+
+    public interface Simd {
+        int addSat(int a, int b);
+
+        int swizzle(int i);
+
+        int shuffle();
 
+        int narrow(int x);
+    }
+
+    public interface Table {
+        int apply(int f, int a, int b);
+    }
+
+    public static class Js {
+        private final MemInstance memory = new MemInstance(1, -1);
+
+        public MemInstance mem() {
+            return memory;
+        }
+    }
+
+    public interface Log {
+        void log(int offset, int length);
+    }
+
+    private static final class PrivateConsole {
+        private final Console console;
+
+        private PrivateConsole(Console console) {
+            this.console = console;
+        }
+
+        public void log(int offset, int length) {
+            console.log(offset, length);
+        }
     }
 
     public static class Console {
-        public void log() {
+        private final MemInstance memory;
+        private final List<String> logs = new ArrayList<>();
+
+        public Console(MemInstance memory) {
+            this.memory = memory;
+        }
+
+        public void log(int offset, int length) {
+            logs.add(new String(memory.segment().asSlice(offset, length).toArray(ValueLayout.JAVA_BYTE), StandardCharsets.UTF_8));
         }
     }
-}
\ No newline at end of file
+}
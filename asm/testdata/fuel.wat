@@ -0,0 +1,16 @@
+(module
+    ;; Counts up to $n, 7 instructions per iteration
+    (func (export "spin") (param $n i32) (result i32)
+        (local $i i32)
+        loop $again
+            local.get $i
+            i32.const 1
+            i32.add
+            local.tee $i
+            local.get $n
+            i32.lt_u
+            br_if $again
+        end
+        local.get $i
+    )
+)
@@ -0,0 +1,20 @@
+(module
+    ;; Immutable and initialized by a constant, so folded into the code reading it
+    (global $answer (export "answer") i32 (i32.const 42))
+
+    ;; Mutable, so a field of the instance, reset along with it
+    (global $count (export "count") (mut i32) (i32.const 0))
+
+    (func (export "getAnswer") (result i32)
+        global.get $answer
+    )
+
+    ;; Adds one to $count, returning the new count
+    (func (export "increment") (result i32)
+        global.get $count
+        i32.const 1
+        i32.add
+        global.set $count
+        global.get $count
+    )
+)
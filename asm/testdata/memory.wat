@@ -0,0 +1,24 @@
+(module
+    ;; Grows up to 3 pages
+    (memory 1 3)
+
+    (func (export "grow") (param $delta i32) (result i32)
+        local.get $delta
+        memory.grow
+    )
+
+    (func (export "size") (result i32)
+        memory.size
+    )
+
+    (func (export "load") (param $address i32) (result i32)
+        local.get $address
+        i32.load
+    )
+
+    (func (export "store") (param $address i32) (param $value i32)
+        local.get $address
+        local.get $value
+        i32.store
+    )
+)
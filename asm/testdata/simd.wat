@@ -0,0 +1,38 @@
+(module
+    ;; Saturating sum of the i8 lanes of $a and $b, read back from lane 5
+    (func (export "addSat") (param $a i32) (param $b i32) (result i32)
+        local.get $a
+        i8x16.splat
+        local.get $b
+        i8x16.splat
+        i8x16.add_sat_s
+        i8x16.extract_lane_s 5
+    )
+
+    ;; Byte $i of 0x10 to 0x1f, 0 when out of range
+    (func (export "swizzle") (param $i i32) (result i32)
+        v128.const i8x16 0x10 0x11 0x12 0x13 0x14 0x15 0x16 0x17 0x18 0x19 0x1a 0x1b 0x1c 0x1d 0x1e 0x1f
+        local.get $i
+        i8x16.splat
+        i8x16.swizzle
+        i8x16.extract_lane_u 0
+    )
+
+    ;; Bytes 0 to 15 and 16 to 31 interleaved, lanes 4 to 7 read as an i32
+    (func (export "shuffle") (result i32)
+        v128.const i8x16 0 1 2 3 4 5 6 7 8 9 10 11 12 13 14 15
+        v128.const i8x16 16 17 18 19 20 21 22 23 24 25 26 27 28 29 30 31
+        i8x16.shuffle 0 16 1 17 2 18 3 19 4 20 5 21 6 22 7 23
+        i32x4.extract_lane 1
+    )
+
+    ;; $x as an i16 narrowed to an i8, saturating
+    (func (export "narrow") (param $x i32) (result i32)
+        local.get $x
+        i16x8.splat
+        local.get $x
+        i16x8.splat
+        i8x16.narrow_i16x8_s
+        i8x16.extract_lane_s 15
+    )
+)
@@ -0,0 +1,33 @@
+(module
+    (type $binop (func (param i32 i32) (result i32)))
+
+    ;; Element 3 stays uninitialized, element 2 has another type than $binop
+    (table 4 funcref)
+    (elem (i32.const 0) $add $sub $neg)
+
+    (func $add (param $a i32) (param $b i32) (result i32)
+        local.get $a
+        local.get $b
+        i32.add
+    )
+
+    (func $sub (param $a i32) (param $b i32) (result i32)
+        local.get $a
+        local.get $b
+        i32.sub
+    )
+
+    (func $neg (param $a i32) (result i32)
+        i32.const 0
+        local.get $a
+        i32.sub
+    )
+
+    ;; Calls the element $f of the table with $a and $b
+    (func (export "apply") (param $f i32) (param $a i32) (param $b i32) (result i32)
+        local.get $a
+        local.get $b
+        local.get $f
+        call_indirect (type $binop)
+    )
+)
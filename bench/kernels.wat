@@ -0,0 +1,145 @@
+(module
+    ;; Matrices and buffers of the kernels live in the first page
+    (memory 1)
+
+    ;; Recursive fibonacci, dominated by calls
+    (func $fib (export "fib") (param $n i32) (result i32)
+        local.get $n
+        i32.const 2
+        i32.lt_s
+        if (result i32)
+            local.get $n
+        else
+            local.get $n
+            i32.const 1
+            i32.sub
+            call $fib
+            local.get $n
+            i32.const 2
+            i32.sub
+            call $fib
+            i32.add
+        end
+    )
+
+    ;; C = A * B for n x n matrices of i32, A at 0, B and C right after
+    (func (export "matmul") (param $n i32) (local $i i32) (local $j i32) (local $k i32) (local $sum i32) (local $size i32)
+        local.get $n
+        local.get $n
+        i32.mul
+        i32.const 4
+        i32.mul
+        local.set $size
+        block $i_done
+            loop $i_next
+                local.get $i
+                local.get $n
+                i32.ge_u
+                br_if $i_done
+                i32.const 0
+                local.set $j
+                block $j_done
+                    loop $j_next
+                        local.get $j
+                        local.get $n
+                        i32.ge_u
+                        br_if $j_done
+                        i32.const 0
+                        local.set $sum
+                        i32.const 0
+                        local.set $k
+                        block $k_done
+                            loop $k_next
+                                local.get $k
+                                local.get $n
+                                i32.ge_u
+                                br_if $k_done
+                                ;; A[i][k]
+                                local.get $i
+                                local.get $n
+                                i32.mul
+                                local.get $k
+                                i32.add
+                                i32.const 4
+                                i32.mul
+                                i32.load
+                                ;; B[k][j]
+                                local.get $k
+                                local.get $n
+                                i32.mul
+                                local.get $j
+                                i32.add
+                                i32.const 4
+                                i32.mul
+                                local.get $size
+                                i32.add
+                                i32.load
+                                i32.mul
+                                local.get $sum
+                                i32.add
+                                local.set $sum
+                                local.get $k
+                                i32.const 1
+                                i32.add
+                                local.set $k
+                                br $k_next
+                            end
+                        end
+                        ;; C[i][j] = sum
+                        local.get $i
+                        local.get $n
+                        i32.mul
+                        local.get $j
+                        i32.add
+                        i32.const 4
+                        i32.mul
+                        local.get $size
+                        i32.const 2
+                        i32.mul
+                        i32.add
+                        local.get $sum
+                        i32.store
+                        local.get $j
+                        i32.const 1
+                        i32.add
+                        local.set $j
+                        br $j_next
+                    end
+                end
+                local.get $i
+                i32.const 1
+                i32.add
+                local.set $i
+                br $i_next
+            end
+        end
+    )
+
+    ;; Byte by byte copy, dominated by memory accesses
+    (func (export "memcpy") (param $dst i32) (param $src i32) (param $len i32)
+        block $done
+            loop $next
+                local.get $len
+                i32.eqz
+                br_if $done
+                local.get $dst
+                local.get $src
+                i32.load8_u
+                i32.store8
+                local.get $dst
+                i32.const 1
+                i32.add
+                local.set $dst
+                local.get $src
+                i32.const 1
+                i32.add
+                local.set $src
+                local.get $len
+                i32.const 1
+                i32.sub
+                local.set $len
+                br $next
+            end
+        end
+    )
+)
@@ -0,0 +1,221 @@
+# Repeat the functions of a module, each copy calling the functions of its own copy
+from argparse import ArgumentParser
+
+FUNCTION_SECTION = 3
+IMPORT_SECTION = 2
+CODE_SECTION = 10
+
+CALL = 0x10
+REF_FUNC = 0xd2
+
+# Immediates of the opcodes, with the funcidx of call and ref.func handled apart
+BLOCK_TYPE = {0x02, 0x03, 0x04}
+U32 = {0x0c, 0x0d, 0x20, 0x21, 0x22, 0x23, 0x24, 0x25, 0x26}
+MEMARG = set(range(0x28, 0x3f))
+NO_IMMEDIATE = {0x00, 0x01, 0x05, 0x0b, 0x0f, 0x1a, 0x1b, 0xd1} | set(range(0x45, 0xc5))
+
+
+class Reader:
+    def __init__(self, data: bytes, pos: int = 0, end: int | None = None):
+        self.data = data
+        self.pos = pos
+        self.end = len(data) if end is None else end
+
+    def has_remaining(self) -> bool:
+        return self.pos < self.end
+
+    def byte(self) -> int:
+        b = self.data[self.pos]
+        self.pos += 1
+        return b
+
+    def bytes(self, n: int) -> bytes:
+        b = self.data[self.pos:self.pos + n]
+        self.pos += n
+        return b
+
+    def u32(self) -> int:
+        result = 0
+        shift = 0
+
+        while True:
+            b = self.byte()
+            result |= (b & 0x7f) << shift
+            if b & 0x80 == 0:
+                return result
+            shift += 7
+
+    def skip_leb128(self):
+        while self.byte() & 0x80:
+            pass
+
+
+def u32(value: int) -> bytes:
+    out = bytearray()
+
+    while True:
+        b = value & 0x7f
+        value >>= 7
+        if value:
+            out.append(b | 0x80)
+        else:
+            out.append(b)
+            return bytes(out)
+
+
+def imported_functions(r: Reader) -> int:
+    count = 0
+
+    for _ in range(r.u32()):
+        for _ in range(2):
+            r.bytes(r.u32())
+
+        kind = r.byte()
+
+        if kind == 0x00:
+            r.u32()
+            count += 1
+        elif kind == 0x01:
+            r.byte()
+            limits(r)
+        elif kind == 0x02:
+            limits(r)
+        elif kind == 0x03:
+            r.bytes(2)
+        else:
+            raise ValueError("Unknown import kind %d" % kind)
+
+    return count
+
+
+def limits(r: Reader):
+    flags = r.byte()
+    r.u32()
+
+    if flags & 0x01:
+        r.u32()
+
+
+def relocate(body: bytes, imports: int, shift: int) -> bytes:
+    """Shifts the indices of the functions defined by the module, imported ones are left as is."""
+    r = Reader(body)
+    out = bytearray()
+
+    def copy(start: int):
+        out.extend(body[start:r.pos])
+
+    def funcidx():
+        idx = r.u32()
+        out.extend(u32(idx + shift if idx >= imports else idx))
+
+    start = r.pos
+
+    for _ in range(r.u32()):
+        r.u32()
+        r.byte()
+
+    copy(start)
+
+    while r.has_remaining():
+        start = r.pos
+        opcode = r.byte()
+
+        if opcode in (CALL, REF_FUNC):
+            copy(start)
+            funcidx()
+            continue
+
+        if opcode in NO_IMMEDIATE:
+            pass
+        elif opcode in BLOCK_TYPE or opcode in (0x41, 0x42):
+            # Block types are s33, the empty and value types being their single byte negative values
+            r.skip_leb128()
+        elif opcode in U32:
+            r.u32()
+        elif opcode in MEMARG:
+            r.u32()
+            r.u32()
+        elif opcode in (0x3f, 0x40, 0xd0):
+            r.byte()
+        elif opcode == 0x43:
+            r.bytes(4)
+        elif opcode == 0x44:
+            r.bytes(8)
+        elif opcode == 0x0e:
+            for _ in range(r.u32() + 1):
+                r.u32()
+        elif opcode == 0x11:
+            r.u32()
+            r.u32()
+        elif opcode == 0x1c:
+            r.bytes(r.u32())
+        elif opcode == 0xfc:
+            sub = r.u32()
+
+            if sub in (8, 12, 14):
+                r.u32()
+                r.u32()
+            elif sub in (9, 13, 15, 16, 17):
+                r.u32()
+            elif sub == 10:
+                r.bytes(2)
+            elif sub == 11:
+                r.byte()
+            elif sub > 7:
+                raise ValueError("Unknown opcode 0xfc %d" % sub)
+        else:
+            raise ValueError("Unknown opcode 0x%02x" % opcode)
+
+        copy(start)
+
+    return bytes(out)
+
+
+def replicate(input: str, output: str, copies: int):
+    with open(input, "rb") as f:
+        module = f.read()
+
+    r = Reader(module, 8)
+    out = bytearray(module[:8])
+    imports = 0
+
+    while r.has_remaining():
+        section_id = r.byte()
+        size = r.u32()
+        content = Reader(module, r.pos, r.pos + size)
+        r.pos += size
+
+        if section_id == IMPORT_SECTION:
+            imports = imported_functions(Reader(module, content.pos, content.end))
+        elif section_id == FUNCTION_SECTION:
+            types = [content.u32() for _ in range(content.u32())]
+            entries = [u32(t) for t in types] * copies
+            content = Reader(u32(len(entries)) + b"".join(entries))
+        elif section_id == CODE_SECTION:
+            bodies = [content.bytes(content.u32()) for _ in range(content.u32())]
+            entries = []
+
+            for i in range(copies):
+                for body in bodies:
+                    relocated = relocate(body, imports, i * len(bodies))
+                    entries.append(u32(len(relocated)) + relocated)
+
+            content = Reader(u32(len(entries)) + b"".join(entries))
+
+        payload = content.data[content.pos:content.end]
+        out.append(section_id)
+        out.extend(u32(len(payload)))
+        out.extend(payload)
+
+    with open(output, "wb") as f:
+        f.write(out)
+
+
+if __name__ == "__main__":
+    parser = ArgumentParser()
+    parser.add_argument("--output", "-o", required=True)
+    parser.add_argument("--copies", "-n", type=int, required=True)
+    parser.add_argument("input", nargs=1)
+    args = parser.parse_args()
+
+    replicate(args.input[0], args.output, args.copies)
@@ -0,0 +1,111 @@
+package io.github.ffortier.jasm.bench;
+
+import io.github.ffortier.jasm.binary.BinaryReader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoding of LEB128 integers, the immediates of most instructions. Values are spread over every encoded length.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@OperationsPerInvocation(BinaryReaderBenchmark.COUNT)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BinaryReaderBenchmark {
+    static final int COUNT = 1024;
+
+    private ByteBuffer unsigned;
+    private ByteBuffer signed32;
+    private ByteBuffer signed64;
+
+    @Setup
+    public void setup() {
+        final var random = new Random(42);
+
+        unsigned = ByteBuffer.allocate(COUNT * 5);
+        signed32 = ByteBuffer.allocate(COUNT * 5);
+        signed64 = ByteBuffer.allocate(COUNT * 10);
+
+        for (int i = 0; i < COUNT; i++) {
+            writeUnsigned(unsigned, random.nextInt() >>> random.nextInt(32));
+            writeSigned(signed32, random.nextInt() >> random.nextInt(32));
+            writeSigned(signed64, random.nextLong() >> random.nextInt(64));
+        }
+
+        unsigned.flip();
+        signed32.flip();
+        signed64.flip();
+    }
+
+    @Benchmark
+    public void leb128(Blackhole bh) {
+        final var bb = unsigned.duplicate();
+
+        for (int i = 0; i < COUNT; i++) {
+            bh.consume(BinaryReader.leb128(bb));
+        }
+    }
+
+    @Benchmark
+    public void i32(Blackhole bh) {
+        final var bb = signed32.duplicate();
+
+        for (int i = 0; i < COUNT; i++) {
+            bh.consume(BinaryReader.i32(bb));
+        }
+    }
+
+    @Benchmark
+    public void i64(Blackhole bh) {
+        final var bb = signed64.duplicate();
+
+        for (int i = 0; i < COUNT; i++) {
+            bh.consume(BinaryReader.i64(bb));
+        }
+    }
+
+    private static void writeUnsigned(ByteBuffer bb, int value) {
+        var rest = Integer.toUnsignedLong(value);
+
+        do {
+            final var b = (int) (rest & 0x7f);
+
+            rest >>>= 7;
+            bb.put((byte) (rest == 0 ? b : b | 0x80));
+        } while (rest != 0);
+    }
+
+    private static void writeSigned(ByteBuffer bb, long value) {
+        var rest = value;
+
+        while (true) {
+            final var b = (int) (rest & 0x7f);
+
+            rest >>= 7;
+
+            if ((rest == 0 && (b & 0x40) == 0) || (rest == -1 && (b & 0x40) != 0)) {
+                bb.put((byte) b);
+                return;
+            }
+
+            bb.put((byte) (b | 0x80));
+        }
+    }
+}
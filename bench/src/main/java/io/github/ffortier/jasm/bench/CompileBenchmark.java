@@ -0,0 +1,50 @@
+package io.github.ffortier.jasm.bench;
+
+import io.github.ffortier.jasm.binary.Module;
+import io.github.ffortier.jasm.binary.WebAssembly;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing of modules, with function bodies decoded on first access or while compiling.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CompileBenchmark {
+    @Param({Fixtures.KERNELS, Fixtures.LARGE})
+    public String fixture;
+
+    @Param({"false", "true"})
+    public boolean eagerDecoding;
+
+    private ByteBuffer bytes;
+    private WebAssembly webAssembly;
+
+    @Setup
+    public void setup() {
+        bytes = Fixtures.load(fixture);
+        webAssembly = new WebAssembly(eagerDecoding);
+    }
+
+    @Benchmark
+    public Module compile() throws IOException {
+        return webAssembly.compile(bytes.duplicate());
+    }
+}
@@ -0,0 +1,61 @@
+package io.github.ffortier.jasm.bench;
+
+import io.github.ffortier.jasm.asm.Transpiler;
+import io.github.ffortier.jasm.binary.WebAssembly;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Execution of the kernels, compiled to bytecode or interpreted. The interpreted module never gets hot enough to be
+ * compiled.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ExecutionBenchmark {
+    @Param({"compiled", "interpreted"})
+    public String tier;
+
+    private Kernels kernels;
+
+    @Setup
+    public void setup() throws IOException {
+        final var transpiler = switch (tier) {
+            case "compiled" -> new Transpiler();
+            case "interpreted" -> new Transpiler(Runnable::run, Integer.MAX_VALUE);
+            default -> throw new IllegalArgumentException("Unknown tier %s".formatted(tier));
+        };
+
+        kernels = transpiler.transpile(new WebAssembly().compile(Fixtures.load(Fixtures.KERNELS)), Kernels.class);
+    }
+
+    @Benchmark
+    public int fib() {
+        return kernels.fib(20);
+    }
+
+    @Benchmark
+    public void matmul() {
+        kernels.matmul(32);
+    }
+
+    @Benchmark
+    public void memcpy() {
+        kernels.memcpy(0x8000, 0x4000, 0x4000);
+    }
+}
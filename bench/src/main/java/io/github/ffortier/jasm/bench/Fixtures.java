@@ -0,0 +1,31 @@
+package io.github.ffortier.jasm.bench;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Modules the benchmarks run on, packaged as resources. {@code kernels.wasm} is compiled from {@code kernels.wat} and
+ * {@code large.wasm} is generated from it by {@code replicate.py}: it holds 1000 copies of its functions, each calling
+ * the functions of its own copy, only the first copy being exported.
+ */
+final class Fixtures {
+    static final String KERNELS = "kernels.wasm";
+    static final String LARGE = "large.wasm";
+
+    private Fixtures() {
+    }
+
+    static ByteBuffer load(String name) {
+        try (InputStream in = Fixtures.class.getResourceAsStream("/" + name)) {
+            if (in == null) {
+                throw new IllegalArgumentException("Unknown fixture %s".formatted(name));
+            }
+
+            return ByteBuffer.wrap(in.readAllBytes()).asReadOnlyBuffer();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package io.github.ffortier.jasm.bench;
+
+/**
+ * Exports of the kernels of {@code kernels.wat}
+ */
+public interface Kernels {
+    int fib(int n);
+
+    void matmul(int n);
+
+    void memcpy(int dst, int src, int len);
+}
@@ -0,0 +1,45 @@
+package io.github.ffortier.jasm.bench;
+
+import io.github.ffortier.jasm.asm.Transpiler;
+import io.github.ffortier.jasm.binary.Module;
+import io.github.ffortier.jasm.binary.WebAssembly;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Generation and definition of the module class, from an already decoded module.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TranspileBenchmark {
+    @Param({Fixtures.KERNELS, Fixtures.LARGE})
+    public String fixture;
+
+    private Module module;
+
+    @Setup
+    public void setup() throws IOException {
+        module = new WebAssembly(true).compile(Fixtures.load(fixture));
+    }
+
+    @Benchmark
+    public Kernels transpile() {
+        return new Transpiler().transpile(module, Kernels.class);
+    }
+}
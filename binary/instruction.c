@@ -13,15 +13,99 @@
     FOREACH_SIMPLE_OPCODE(V)    \
     FOREACH_STORE_MEM_OPCODE(V) \
     FOREACH_LOAD_MEM_OPCODE(V)  \
-    FOREACH_MISC_MEM_OPCODE(V)
+    FOREACH_MISC_MEM_OPCODE(V)  \
+    FOREACH_ATOMIC_OPCODE(V)    \
+    FOREACH_ATOMIC_0_OPERAND_OPCODE(V) \
+    FOREACH_SIMD_MVP_0_OPERAND_OPCODE(V) \
+    FOREACH_SIMD_1_OPERAND_OPCODE(V) \
+    FOREACH_SIMD_MASK_OPERAND_OPCODE(V) \
+    FOREACH_SIMD_MEM_OPCODE(V) \
+    FOREACH_SIMD_MEM_1_OPERAND_OPCODE(V) \
+    FOREACH_SIMD_CONST_OPCODE(V)
 
-void print_record_const(const char *variant, int hex, const char *java_type, const char *wasm_type)
+// Layout of the immediates following an opcode
+typedef enum
 {
-    printf("record %s(%s value) implements Instruction {"
-           "public static final int OPCODE = 0x%04x;"
-           "public static %s read(ByteBuffer bb) { return new %s(%s(bb)); }"
-           "}\n",
-           variant, java_type, hex, variant, variant, wasm_type);
+    SHAPE_NONE,
+    SHAPE_CONST,
+    SHAPE_INDEX,
+    SHAPE_CALL_INDIRECT,
+    SHAPE_MEMARG,
+    SHAPE_BLOCK,
+    SHAPE_BR_TABLE,
+    SHAPE_REF_TYPE,
+    SHAPE_SELECT_TYPES,
+    SHAPE_V128,
+    SHAPE_LANE,
+    SHAPE_MEMARG_LANE,
+} shape_t;
+
+typedef struct
+{
+    const char *prefix;
+    const char *java_type;
+    const char *wasm_type;
+    // How the value is stored in a long immediate of the packed representation and read back from it
+    const char *pack;
+    const char *unpack;
+    // Raw bits of the value, read straight from the buffer
+    const char *read_bits;
+} const_type_t;
+
+static const const_type_t CONST_TYPES[] = {
+    {"I32", "int", "i32", "value", "(int) c.immediate(0)", "i32(bb)"},
+    {"I64", "long", "i64", "value", "c.immediate(0)", "i64(bb)"},
+    {"F32", "float", "f32", "Float.floatToRawIntBits(value)", "Float.intBitsToFloat((int) c.immediate(0))", "bb.getInt()"},
+    {"F64", "double", "f64", "Double.doubleToRawLongBits(value)", "Double.longBitsToDouble(c.immediate(0))", "bb.getLong()"},
+};
+
+// The reserved byte of atomic.fence is read like the memory index of memory.size
+static const char *INDEX_VARIANTS[] = {
+    "AtomicFence",
+    "Br",
+    "BrIf",
+    "BrOnNull",
+    "BrOnNonNull",
+    "CallFunction",
+    "CallRef",
+    "Catch",
+    "Delegate",
+    "GlobalGet",
+    "GlobalSet",
+    "LocalGet",
+    "LocalSet",
+    "LocalTee",
+    "MemoryGrow",
+    "MemorySize",
+    "RefFunc",
+    "Rethrow",
+    "ReturnCall",
+    "ReturnCallRef",
+    "TableGet",
+    "TableSet",
+    "Throw",
+    NULL,
+};
+
+static const char *BLOCK_VARIANTS[] = {
+    "Block",
+    "Loop",
+    "If",
+    "Try",
+    NULL,
+};
+
+bool is_one_of(const char *variant, const char **variants)
+{
+    for (const char **v = variants; *v != NULL; v++)
+    {
+        if (strcmp(variant, *v) == 0)
+        {
+            return true;
+        }
+    }
+
+    return false;
 }
 
 bool is_load_mem_instruction(const char *variant, size_t len)
@@ -43,6 +127,12 @@ bool is_load_mem_instruction(const char *variant, size_t len)
     return false;
 }
 
+// Every atomic instruction but the fence takes a memarg, including wait and notify
+bool is_atomic_mem_instruction(const char *variant)
+{
+    return strstr(variant, "Atomic") != NULL && strcmp(variant, "AtomicFence") != 0;
+}
+
 bool is_store_mem_instruction(const char *variant, size_t len)
 {
     if (len > 8 && strncmp(variant + len - 8, "StoreMem", 8) == 0)
@@ -62,66 +152,237 @@ bool is_store_mem_instruction(const char *variant, size_t len)
     return false;
 }
 
-void print_record(const char *variant, int hex)
+// Every simd load and store takes a memarg, the lane variants a lane index after it
+bool is_simd_mem_instruction(const char *variant)
 {
-    size_t len = strlen(variant);
+    return strncmp(variant, "S128Load", 8) == 0 || strncmp(variant, "S128Store", 9) == 0;
+}
+
+bool ends_with(const char *variant, size_t len, const char *suffix)
+{
+    size_t suffix_len = strlen(suffix);
 
-    if (strncmp(variant + len - 5, "Const", 5) == 0)
+    return len > suffix_len && strcmp(variant + len - suffix_len, suffix) == 0;
+}
+
+const const_type_t *get_const_type(const char *variant, int hex)
+{
+    for (size_t i = 0; i < sizeof(CONST_TYPES) / sizeof(CONST_TYPES[0]); i++)
     {
-        if (strncmp(variant, "I32", 3) == 0)
+        if (strncmp(variant, CONST_TYPES[i].prefix, 3) == 0)
         {
-            print_record_const(variant, hex, "int", "i32");
-        }
-        else if (strncmp(variant, "I64", 3) == 0)
-        {
-            print_record_const(variant, hex, "long", "i64");
-        }
-        else if (strncmp(variant, "F32", 3) == 0)
-        {
-            print_record_const(variant, hex, "float", "f32");
-        }
-        else if (strncmp(variant, "F64", 3) == 0)
-        {
-            print_record_const(variant, hex, "double", "f64");
-        }
-        else
-        {
-            fprintf(stderr, "Unknown variant %s 0x%04x", variant, hex);
-            exit(1);
+            return &CONST_TYPES[i];
         }
     }
-    else if (strcmp(variant, "CallFunction") == 0)
+
+    fprintf(stderr, "Unknown variant %s 0x%04x", variant, hex);
+    exit(1);
+}
+
+shape_t get_shape(const char *variant)
+{
+    size_t len = strlen(variant);
+
+    // The 16 bytes of v128.const and of the i8x16.shuffle lanes
+    if (strcmp(variant, "S128Const") == 0 || strcmp(variant, "I8x16Shuffle") == 0)
+    {
+        return SHAPE_V128;
+    }
+    if (is_simd_mem_instruction(variant))
     {
-        printf("record %s(int x) implements Instruction {"
-               "public static final int OPCODE = 0x%04x;"
-               "public static %s read(ByteBuffer bb) { return new %s(leb128(bb)); }"
-               "}\n",
-               variant, hex, variant, variant);
+        return ends_with(variant, len, "Lane") ? SHAPE_MEMARG_LANE : SHAPE_MEMARG;
     }
-    else if (strcmp(variant, "CallIndirect") == 0)
+    if (ends_with(variant, len, "ExtractLane") || ends_with(variant, len, "ExtractLaneS") ||
+        ends_with(variant, len, "ExtractLaneU") || ends_with(variant, len, "ReplaceLane"))
     {
-        printf("record %s(int y, int x) implements Instruction {"
-               "public static final int OPCODE = 0x%04x;"
-               "public static %s read(ByteBuffer bb) { return new %s(leb128(bb),leb128(bb)); }"
-               "}\n",
-               variant, hex, variant, variant);
+        return SHAPE_LANE;
     }
-    else if (is_load_mem_instruction(variant, len) || is_store_mem_instruction(variant, len))
+    if (len > 5 && strncmp(variant + len - 5, "Const", 5) == 0)
     {
-        printf("record %s(Memarg arg) implements Instruction {"
-               "public static final int OPCODE = 0x%04x;"
-               "public static %s read(ByteBuffer bb) { return new %s(Memarg.read(bb)); }"
-               "}\n",
-               variant, hex, variant, variant);
+        return SHAPE_CONST;
     }
-    else
+    if (is_one_of(variant, INDEX_VARIANTS))
+    {
+        return SHAPE_INDEX;
+    }
+    if (strcmp(variant, "CallIndirect") == 0 || strcmp(variant, "ReturnCallIndirect") == 0)
+    {
+        return SHAPE_CALL_INDIRECT;
+    }
+    if (is_load_mem_instruction(variant, len) || is_store_mem_instruction(variant, len) || is_atomic_mem_instruction(variant))
     {
-        printf("record %s() implements Instruction {"
-               "public static final int OPCODE = 0x%04x;"
-               "public static %s read(ByteBuffer bb) { return new %s(); }"
-               "}\n",
-               variant, hex, variant, variant);
+        return SHAPE_MEMARG;
     }
+    if (is_one_of(variant, BLOCK_VARIANTS))
+    {
+        return SHAPE_BLOCK;
+    }
+    if (strcmp(variant, "BrTable") == 0)
+    {
+        return SHAPE_BR_TABLE;
+    }
+    if (strcmp(variant, "RefNull") == 0)
+    {
+        return SHAPE_REF_TYPE;
+    }
+    if (strcmp(variant, "SelectWithType") == 0)
+    {
+        return SHAPE_SELECT_TYPES;
+    }
+
+    return SHAPE_NONE;
+}
+
+void print_record_header(const char *variant, int hex, const char *components)
+{
+    printf("record %s(%s) implements Instruction {"
+           "public static final int OPCODE = 0x%04x;"
+           "@Override public int opcode() { return OPCODE; }",
+           variant, components, hex);
+}
+
+void print_record(const char *variant, int hex)
+{
+    switch (get_shape(variant))
+    {
+    case SHAPE_CONST:
+    {
+        const const_type_t *type = get_const_type(variant, hex);
+        char components[32];
+
+        snprintf(components, sizeof(components), "%s value", type->java_type);
+        print_record_header(variant, hex, components);
+        printf("public static %s read(ByteBuffer bb) { return new %s(%s(bb)); }"
+               "@Override public void pack(InstructionSink sink) { sink.opcode(OPCODE); sink.immediate(%s); }"
+               "public static %s unpack(PackedExpr.Cursor c) { return new %s(%s); }",
+               variant, variant, type->wasm_type, type->pack, variant, variant, type->unpack);
+        break;
+    }
+    case SHAPE_INDEX:
+        print_record_header(variant, hex, "int x");
+        printf("public static %s read(ByteBuffer bb) { return new %s(leb128(bb)); }"
+               "@Override public void pack(InstructionSink sink) { sink.opcode(OPCODE); sink.immediate(x); }"
+               "public static %s unpack(PackedExpr.Cursor c) { return new %s((int) c.immediate(0)); }",
+               variant, variant, variant, variant);
+        break;
+    case SHAPE_CALL_INDIRECT:
+        print_record_header(variant, hex, "int y, int x");
+        printf("public static %s read(ByteBuffer bb) { return new %s(leb128(bb),leb128(bb)); }"
+               "@Override public void pack(InstructionSink sink) { sink.opcode(OPCODE); sink.immediate(y); sink.immediate(x); }"
+               "public static %s unpack(PackedExpr.Cursor c) { return new %s((int) c.immediate(0), (int) c.immediate(1)); }",
+               variant, variant, variant, variant);
+        break;
+    case SHAPE_MEMARG:
+        print_record_header(variant, hex, "Memarg arg");
+        printf("public static %s read(ByteBuffer bb) { return new %s(Memarg.read(bb)); }"
+               "@Override public void pack(InstructionSink sink) { sink.opcode(OPCODE); sink.immediate(arg.align()); sink.immediate(arg.offset()); }"
+               "public static %s unpack(PackedExpr.Cursor c) { return new %s(new Memarg((int) c.immediate(0), (int) c.immediate(1))); }",
+               variant, variant, variant, variant);
+        break;
+    case SHAPE_BLOCK:
+        print_record_header(variant, hex, "BlockType bt");
+        printf("public static %s read(ByteBuffer bb) { return new %s(BlockType.read(bb)); }"
+               "@Override public void pack(InstructionSink sink) { sink.opcode(OPCODE); sink.immediate(bt.encode()); }"
+               "public static %s unpack(PackedExpr.Cursor c) { return new %s(BlockType.of((int) c.immediate(0))); }",
+               variant, variant, variant, variant);
+        break;
+    case SHAPE_BR_TABLE:
+        print_record_header(variant, hex, "int[] labels, int defaultLabel");
+        printf("public static %s read(ByteBuffer bb) { return new %s(indices(bb), leb128(bb)); }"
+               "@Override public void pack(InstructionSink sink) { sink.opcode(OPCODE); sink.immediate(labels.length); for (final var l : labels) { sink.immediate(l); } sink.immediate(defaultLabel); }"
+               "public static %s unpack(PackedExpr.Cursor c) { final var labels = new int[(int) c.immediate(0)]; for (int i = 0; i < labels.length; i++) { labels[i] = (int) c.immediate(i + 1); } return new %s(labels, (int) c.immediate(labels.length + 1)); }",
+               variant, variant, variant, variant);
+        break;
+    case SHAPE_REF_TYPE:
+        print_record_header(variant, hex, "int t");
+        printf("public static %s read(ByteBuffer bb) { return new %s(Byte.toUnsignedInt(bb.get())); }"
+               "@Override public void pack(InstructionSink sink) { sink.opcode(OPCODE); sink.immediate(t); }"
+               "public static %s unpack(PackedExpr.Cursor c) { return new %s((int) c.immediate(0)); }",
+               variant, variant, variant, variant);
+        break;
+    case SHAPE_SELECT_TYPES:
+        print_record_header(variant, hex, "int[] types");
+        printf("public static %s read(ByteBuffer bb) { return new %s(indices(bb)); }"
+               "@Override public void pack(InstructionSink sink) { sink.opcode(OPCODE); sink.immediate(types.length); for (final var t : types) { sink.immediate(t); } }"
+               "public static %s unpack(PackedExpr.Cursor c) { final var types = new int[(int) c.immediate(0)]; for (int i = 0; i < types.length; i++) { types[i] = (int) c.immediate(i + 1); } return new %s(types); }",
+               variant, variant, variant, variant);
+        break;
+    case SHAPE_V128:
+        print_record_header(variant, hex, "long low, long high");
+        printf("public static %s read(ByteBuffer bb) { return new %s(bb.getLong(), bb.getLong()); }"
+               "@Override public void pack(InstructionSink sink) { sink.opcode(OPCODE); sink.immediate(low); sink.immediate(high); }"
+               "public static %s unpack(PackedExpr.Cursor c) { return new %s(c.immediate(0), c.immediate(1)); }",
+               variant, variant, variant, variant);
+        break;
+    case SHAPE_LANE:
+        print_record_header(variant, hex, "int lane");
+        printf("public static %s read(ByteBuffer bb) { return new %s(Byte.toUnsignedInt(bb.get())); }"
+               "@Override public void pack(InstructionSink sink) { sink.opcode(OPCODE); sink.immediate(lane); }"
+               "public static %s unpack(PackedExpr.Cursor c) { return new %s((int) c.immediate(0)); }",
+               variant, variant, variant, variant);
+        break;
+    case SHAPE_MEMARG_LANE:
+        print_record_header(variant, hex, "Memarg arg, int lane");
+        printf("public static %s read(ByteBuffer bb) { return new %s(Memarg.read(bb), Byte.toUnsignedInt(bb.get())); }"
+               "@Override public void pack(InstructionSink sink) { sink.opcode(OPCODE); sink.immediate(arg.align()); sink.immediate(arg.offset()); sink.immediate(lane); }"
+               "public static %s unpack(PackedExpr.Cursor c) { return new %s(new Memarg((int) c.immediate(0), (int) c.immediate(1)), (int) c.immediate(2)); }",
+               variant, variant, variant, variant);
+        break;
+    case SHAPE_NONE:
+        print_record_header(variant, hex, "");
+        printf("public static %s read(ByteBuffer bb) { return new %s(); }"
+               "@Override public void pack(InstructionSink sink) { sink.opcode(OPCODE); }"
+               "public static %s unpack(PackedExpr.Cursor c) { return new %s(); }",
+               variant, variant, variant, variant);
+        break;
+    }
+
+    printf("}\n");
+}
+
+// Decodes the immediates straight into the sink, without allocating the record
+void print_sink_case(const char *variant, int hex)
+{
+    printf("      case Instruction.%s.OPCODE -> { ", variant);
+
+    switch (get_shape(variant))
+    {
+    case SHAPE_CONST:
+        printf("sink.immediate(%s);", get_const_type(variant, hex)->read_bits);
+        break;
+    case SHAPE_INDEX:
+        printf("sink.immediate(leb128(bb));");
+        break;
+    case SHAPE_CALL_INDIRECT:
+    case SHAPE_MEMARG:
+        printf("sink.immediate(leb128(bb)); sink.immediate(leb128(bb));");
+        break;
+    case SHAPE_BLOCK:
+        printf("sink.immediate(BlockType.read(bb).encode());");
+        break;
+    case SHAPE_BR_TABLE:
+        printf("final var n = leb128(bb); sink.immediate(n); for (int i = 0; i <= n; i++) { sink.immediate(leb128(bb)); }");
+        break;
+    case SHAPE_REF_TYPE:
+        printf("sink.immediate(Byte.toUnsignedInt(bb.get()));");
+        break;
+    case SHAPE_SELECT_TYPES:
+        printf("final var n = leb128(bb); sink.immediate(n); for (int i = 0; i < n; i++) { sink.immediate(leb128(bb)); }");
+        break;
+    case SHAPE_V128:
+        printf("sink.immediate(bb.getLong()); sink.immediate(bb.getLong());");
+        break;
+    case SHAPE_LANE:
+        printf("sink.immediate(Byte.toUnsignedInt(bb.get()));");
+        break;
+    case SHAPE_MEMARG_LANE:
+        printf("sink.immediate(leb128(bb)); sink.immediate(leb128(bb)); sink.immediate(Byte.toUnsignedInt(bb.get()));");
+        break;
+    case SHAPE_NONE:
+        break;
+    }
+
+    printf(" }\n");
 }
 
 void print_variant(const char *variant, int hex, bool *first)
@@ -152,6 +413,8 @@ int main(void)
 #undef V
 
     printf("{\n");
+    printf("int opcode();\n");
+    printf("void pack(InstructionSink sink);\n");
 
 #define V(variant, hex, ...) \
     print_record(#variant, hex);
@@ -159,7 +422,7 @@ int main(void)
 #undef V
 
     printf("public static Instruction read(ByteBuffer bb) {\n");
-    printf("  final var opcode = leb128(bb);\n");
+    printf("  final var opcode = BinaryReader.opcode(bb);\n");
     printf("    return switch(opcode) {\n");
 #define V(variant, hex, ...) \
     printf("      case Instruction." #variant ".OPCODE -> Instruction." #variant ".read(bb);\n");
@@ -168,7 +431,43 @@ int main(void)
     printf("      default -> throw new UnsupportedOperationException(\"Opcode not supported yet %%04x\".formatted(opcode));\n");
     printf("    };\n");
     printf("  }\n");
+
+    printf("public static int read(ByteBuffer bb, InstructionSink sink) {\n");
+    printf("  final var opcode = BinaryReader.opcode(bb);\n");
+    printf("    sink.opcode(opcode);\n");
+    printf("    switch(opcode) {\n");
+#define V(variant, hex, ...) \
+    print_sink_case(#variant, hex);
+    FOREACH_JASM_OPCODE(V)
+#undef V
+    printf("      default -> throw new UnsupportedOperationException(\"Opcode not supported yet %%04x\".formatted(opcode));\n");
+    printf("    }\n");
+    printf("    return opcode;\n");
+    printf("  }\n");
+
+    printf("public static Instruction unpack(PackedExpr.Cursor c) {\n");
+    printf("    return switch(c.opcode()) {\n");
+#define V(variant, hex, ...) \
+    printf("      case Instruction." #variant ".OPCODE -> Instruction." #variant ".unpack(c);\n");
+    FOREACH_JASM_OPCODE(V)
+#undef V
+    printf("      default -> throw new UnsupportedOperationException(\"Opcode not supported yet %%04x\".formatted(c.opcode()));\n");
+    printf("    };\n");
+    printf("  }\n");
+
+    printf("public static boolean isBlockStart(int opcode) {\n");
+    printf("    return switch(opcode) {\n");
+#define V(variant, hex, ...)                                                    \
+    if (get_shape(#variant) == SHAPE_BLOCK)                                     \
+    {                                                                           \
+        printf("      case Instruction." #variant ".OPCODE -> true;\n");       \
+    }
+    FOREACH_JASM_OPCODE(V)
+#undef V
+    printf("      default -> false;\n");
+    printf("    };\n");
+    printf("  }\n");
     printf("}\n");
 
     return 0;
-}
\ No newline at end of file
+}
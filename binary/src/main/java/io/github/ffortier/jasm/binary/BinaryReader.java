@@ -42,13 +42,43 @@ public class BinaryReader {
         }
     }
 
+    /**
+     * Decode an opcode. Prefixed opcodes (0xfb to 0xfe) are followed by an unsigned sub opcode and are numbered like
+     * v8 does: 0xfcXX, or 0xfdXXX when the sub opcode doesn't fit in a byte.
+     */
+    public static int opcode(ByteBuffer bb) {
+        final var prefix = Byte.toUnsignedInt(bb.get());
+
+        if (prefix < 0xfb || prefix > 0xfe) {
+            return prefix;
+        }
+
+        final var sub = leb128(bb);
+
+        return sub > 0xff ? prefix << 12 | sub : prefix << 8 | sub;
+    }
+
+    /**
+     * Decode a vector of unsigned integers
+     */
+    public static int[] indices(ByteBuffer bb) {
+        final var len = leb128(bb);
+        final var indices = new int[len];
+
+        for (int i = 0; i < len; i++) {
+            indices[i] = leb128(bb);
+        }
+
+        return indices;
+    }
+
     public static String name(ByteBuffer bb) {
         final var size = leb128(bb);
-        final var bytes = new byte[size];
+        final var bytes = bb.slice(bb.position(), size);
 
-        bb.get(bytes);
+        bb.position(bb.position() + size);
 
-        return StandardCharsets.UTF_8.decode(ByteBuffer.wrap(bytes)).toString();
+        return StandardCharsets.UTF_8.decode(bytes).toString();
     }
 
     public static <T> List<T> vec(ByteBuffer bb, Function<ByteBuffer, T> read) {
@@ -83,11 +113,11 @@ public class BinaryReader {
         int shift = 0;
         while (true) {
             byte b = bb.get();
-            result |= (b & 0x7f) << shift;
+            result |= (long) (b & 0x7f) << shift;
             shift += 7;
             if ((0x80 & b) == 0) {
                 if (shift < 64 && (b & 0x40) != 0) {
-                    return result | (~0 << shift);
+                    return result | (~0L << shift);
                 }
                 return result;
             }
@@ -0,0 +1,52 @@
+package io.github.ffortier.jasm.binary;
+
+import java.nio.ByteBuffer;
+
+import static io.github.ffortier.jasm.binary.BinaryReader.i32;
+
+public sealed interface BlockType permits
+        BlockType.Empty,
+        BlockType.Value,
+        BlockType.Type {
+    int EMPTY = -0x40;
+
+    /**
+     * Block types are encoded as a signed 33 bits integer: negative values are the empty type or a single value type,
+     * positive values are type indices. Type indices never exceed 32 bits in practice.
+     */
+    static BlockType read(ByteBuffer bb) {
+        return of(i32(bb));
+    }
+
+    static BlockType of(int encoded) {
+        if (encoded >= 0) {
+            return new Type(new Index.TypeIdx(encoded));
+        }
+
+        if (encoded == EMPTY) {
+            return new Empty();
+        }
+
+        return new Value(ValType.get(encoded & 0x7f));
+    }
+
+    int encode();
+
+    record Empty() implements BlockType {
+        @Override public int encode() {
+            return EMPTY;
+        }
+    }
+
+    record Value(ValType valType) implements BlockType {
+        @Override public int encode() {
+            return valType.id() | ~0x7f;
+        }
+    }
+
+    record Type(Index.TypeIdx idx) implements BlockType {
+        @Override public int encode() {
+            return idx.value();
+        }
+    }
+}
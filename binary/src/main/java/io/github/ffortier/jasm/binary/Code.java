@@ -1,27 +1,42 @@
 package io.github.ffortier.jasm.binary;
 
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.ArrayList;
 import java.util.List;
 
 import static io.github.ffortier.jasm.binary.BinaryReader.leb128;
 
-public record Code(List<Locals> locals, Expr body) {
+public record Code(List<Locals> locals, LazyExpr body) {
+    /**
+     * Reads the locals of a code entry and keeps its body as an undecoded slice.
+     */
     public static Code read(ByteBuffer bb) {
         final var size = leb128(bb);
-        final var bytes = new byte[size];
+        final var start = bb.position();
+        final var entry = bb.slice(start, size).order(ByteOrder.LITTLE_ENDIAN);
 
-        bb.get(bytes);
+        bb.position(start + size);
 
-        final var bbb = ByteBuffer.wrap(bytes);
-        final var len = leb128(bbb);
+        return read(entry, start);
+    }
+
+    /**
+     * Reads a code entry from a buffer holding only its content, following its size.
+     *
+     * @param start position of the content in the module
+     */
+    static Code read(ByteBuffer entry, int start) {
+        final var len = leb128(entry);
         final var locals = new ArrayList<Locals>();
 
         for (int i = 0; i < len; i++) {
-            locals.add(Locals.read(bbb));
+            locals.add(Locals.read(entry));
         }
 
-        return new Code(locals, Expr.read(bbb));
+        final var body = entry.slice(entry.position(), entry.remaining());
+
+        return new Code(locals, new LazyExpr(body, start + entry.position()));
     }
 
 }
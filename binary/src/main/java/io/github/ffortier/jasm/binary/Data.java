@@ -5,7 +5,11 @@ import java.nio.ByteBuffer;
 import static io.github.ffortier.jasm.binary.BinaryReader.leb128;
 import static java.util.Objects.requireNonNull;
 
-public record Data(Data.Mode mode, Index.MemIdx memory, Expr offset, byte[] initialBytes) {
+/**
+ * A data segment. The initial bytes are a read-only slice of the buffer the module was compiled from, handed out as
+ * a new view every time so readers never share a position.
+ */
+public record Data(Data.Mode mode, Index.MemIdx memory, Expr offset, ByteBuffer initialBytes) {
     public Data {
         switch (mode) {
             case ACTIVE -> {
@@ -19,6 +23,14 @@ public record Data(Data.Mode mode, Index.MemIdx memory, Expr offset, byte[] init
         }
     }
 
+    /**
+     * A new view over the initial bytes, at position 0.
+     */
+    @Override
+    public ByteBuffer initialBytes() {
+        return initialBytes.duplicate();
+    }
+
     public static Data read(ByteBuffer bb) {
         final var bitField = leb128(bb);
 
@@ -30,11 +42,11 @@ public record Data(Data.Mode mode, Index.MemIdx memory, Expr offset, byte[] init
         };
     }
 
-    private static byte[] readBytes(ByteBuffer bb) {
+    private static ByteBuffer readBytes(ByteBuffer bb) {
         final var len = leb128(bb);
-        final var bytes = new byte[len];
+        final var bytes = bb.slice(bb.position(), len).asReadOnlyBuffer();
 
-        bb.get(bytes);
+        bb.position(bb.position() + len);
 
         return bytes;
     }
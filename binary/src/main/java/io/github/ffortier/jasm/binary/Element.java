@@ -1,4 +1,89 @@
 package io.github.ffortier.jasm.binary;
 
-public class Element {
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import static io.github.ffortier.jasm.binary.BinaryReader.leb128;
+import static io.github.ffortier.jasm.binary.BinaryReader.vec;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * An element segment. Segments listing function indices are read as {@code ref.func} expressions, so every segment
+ * initializes its references with constant expressions.
+ */
+public record Element(Element.Mode mode, ValType.RefType type, Index.TableIdx table, Expr offset, List<Expr> init) {
+    public Element {
+        switch (mode) {
+            case ACTIVE -> {
+                requireNonNull(table, "table is required for active element segment");
+                requireNonNull(offset, "offset is required for active element segment");
+            }
+            case PASSIVE, DECLARATIVE -> {
+                requireNull(table, "table is forbidden for %s element segment".formatted(mode));
+                requireNull(offset, "offset is forbidden for %s element segment".formatted(mode));
+            }
+        }
+    }
+
+    public static Element read(ByteBuffer bb) {
+        final var bitField = leb128(bb);
+
+        return switch (bitField) {
+            case 0 -> new Element(Mode.ACTIVE, ValType.RefType.FUNC_REF, new Index.TableIdx(0), Expr.read(bb), funcs(bb));
+            case 1 -> new Element(Mode.PASSIVE, elemKind(bb), null, null, funcs(bb));
+            case 2 -> {
+                final var table = new Index.TableIdx(leb128(bb));
+                final var offset = Expr.read(bb);
+
+                yield new Element(Mode.ACTIVE, elemKind(bb), table, offset, funcs(bb));
+            }
+            case 3 -> new Element(Mode.DECLARATIVE, elemKind(bb), null, null, funcs(bb));
+            case 4 -> new Element(Mode.ACTIVE, ValType.RefType.FUNC_REF, new Index.TableIdx(0), Expr.read(bb), vec(bb, Expr::read));
+            case 5 -> new Element(Mode.PASSIVE, refType(bb), null, null, vec(bb, Expr::read));
+            case 6 -> {
+                final var table = new Index.TableIdx(leb128(bb));
+                final var offset = Expr.read(bb);
+
+                yield new Element(Mode.ACTIVE, refType(bb), table, offset, vec(bb, Expr::read));
+            }
+            case 7 -> new Element(Mode.DECLARATIVE, refType(bb), null, null, vec(bb, Expr::read));
+            default -> throw new UnsupportedOperationException("Unexpected bit field for element %d".formatted(bitField));
+        };
+    }
+
+    private static ValType.RefType elemKind(ByteBuffer bb) {
+        final var elemKind = bb.get();
+
+        if (elemKind != 0x00) {
+            throw new UnsupportedOperationException("Unexpected element kind %02x".formatted(elemKind));
+        }
+
+        return ValType.RefType.FUNC_REF;
+    }
+
+    private static ValType.RefType refType(ByteBuffer bb) {
+        final var valTypeId = Byte.toUnsignedInt(bb.get());
+
+        if (ValType.get(valTypeId) instanceof ValType.RefType refType) {
+            return refType;
+        }
+
+        throw new UnsupportedOperationException("Expected RefType but got %02x".formatted(valTypeId));
+    }
+
+    private static List<Expr> funcs(ByteBuffer bb) {
+        return vec(bb, b -> new Expr(List.of(new Instruction.RefFunc(leb128(b)))));
+    }
+
+    private static void requireNull(Object val, String message) {
+        if (val != null) {
+            throw new IllegalArgumentException(message);
+        }
+    }
+
+    public enum Mode {
+        ACTIVE,
+        PASSIVE,
+        DECLARATIVE
+    }
 }
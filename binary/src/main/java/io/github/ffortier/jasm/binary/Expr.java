@@ -9,14 +9,29 @@ import java.util.List;
 public record Expr(List<Instruction> instructions) {
     public static Expr read(ByteBuffer bb) {
         final var instructions = new ArrayList<Instruction>();
+        var depth = 0;
 
         var instruction = Instruction.read(bb);
 
-        while (!(instruction instanceof Instruction.End)) {
+        while (!(instruction instanceof Instruction.End) || depth-- > 0) {
+            if (Instruction.isBlockStart(instruction.opcode())) {
+                depth++;
+            }
+
             instructions.add(instruction);
             instruction = Instruction.read(bb);
         }
 
         return new Expr(instructions);
     }
+
+    public PackedExpr pack() {
+        final var builder = new PackedExpr.Builder();
+
+        for (final var instruction : instructions) {
+            instruction.pack(builder);
+        }
+
+        return builder.build();
+    }
 }
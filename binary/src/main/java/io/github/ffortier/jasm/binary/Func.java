@@ -5,6 +5,6 @@ import java.util.List;
 public record Func(
         Index.TypeIdx type,
         List<Locals> locals,
-        Expr body
+        LazyExpr body
 ) {
 }
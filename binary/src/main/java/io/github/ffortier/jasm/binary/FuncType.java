@@ -1,28 +1,69 @@
 package io.github.ffortier.jasm.binary;
 
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
 import java.nio.ByteBuffer;
-import java.util.ArrayList;
 import java.util.List;
-
-import static io.github.ffortier.jasm.binary.BinaryReader.leb128;
-import static java.util.Collections.unmodifiableList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 public record FuncType(List<ValType> args, List<ValType> rets) {
+    /**
+     * Interned function types, weakly held so a type is dropped once no module uses it. Keys are equal copies of the
+     * interned types, which would otherwise be kept alive by the map.
+     */
+    private static final ConcurrentMap<FuncType, Interned> INTERNED = new ConcurrentHashMap<>();
+    private static final ReferenceQueue<FuncType> COLLECTED = new ReferenceQueue<>();
+
     public static FuncType read(ByteBuffer data) {
-        final var argLen = leb128(data);
-        final var args = new ArrayList<ValType>();
+        final var args = ValTypeVector.read(data);
+        final var rets = ValTypeVector.read(data);
+
+        return new FuncType(args, rets);
+    }
+
+    /**
+     * The canonical instance of equal function types, shared by every module. Signatures of interned types are
+     * compared with a reference comparison. Types interned already are found without locking.
+     */
+    public static FuncType intern(FuncType funcType) {
+        while (true) {
+            final var interned = INTERNED.get(funcType);
+            final var canonical = interned == null ? null : interned.get();
+
+            if (canonical != null) {
+                return canonical;
+            }
 
-        for (int i = 0; i < argLen; i++) {
-            args.add(ValType.get(data.get()));
+            expungeCollected();
+
+            final var immutable = funcType.args() instanceof ValTypeVector && funcType.rets() instanceof ValTypeVector
+                    ? funcType
+                    : new FuncType(List.copyOf(funcType.args()), List.copyOf(funcType.rets()));
+            final var key = new FuncType(immutable.args(), immutable.rets());
+            final var candidate = new Interned(immutable, key);
+
+            // Another thread may intern an equal type meanwhile, whose instance is then returned
+            if (interned == null ? INTERNED.putIfAbsent(key, candidate) == null : INTERNED.replace(key, interned, candidate)) {
+                return immutable;
+            }
         }
+    }
 
-        final var retLen = leb128(data);
-        final var rets = new ArrayList<ValType>();
+    private static void expungeCollected() {
+        for (var collected = COLLECTED.poll(); collected != null; collected = COLLECTED.poll()) {
+            final var interned = (Interned) collected;
 
-        for (int i = 0; i < retLen; i++) {
-            rets.add(ValType.get(data.get()));
+            INTERNED.remove(interned.key, interned);
         }
+    }
+
+    private static final class Interned extends WeakReference<FuncType> {
+        private final FuncType key;
 
-        return new FuncType(unmodifiableList(args), unmodifiableList(rets));
+        private Interned(FuncType funcType, FuncType key) {
+            super(funcType, COLLECTED);
+            this.key = key;
+        }
     }
 }
@@ -0,0 +1,32 @@
+package io.github.ffortier.jasm.binary;
+
+/**
+ * Receives the instructions of a function body as they are decoded, without allocating {@link Instruction} records.
+ */
+public abstract class FunctionBodyVisitor {
+    protected final FunctionBodyVisitor fv;
+
+    protected FunctionBodyVisitor() {
+        this(null);
+    }
+
+    protected FunctionBodyVisitor(FunctionBodyVisitor fv) {
+        this.fv = fv;
+    }
+
+    /**
+     * Called for each instruction, including the end of nested blocks but not the end of the body. The immediates are
+     * laid out like in a {@link PackedExpr}; the array is reused between calls and only valid during the call.
+     */
+    public void visitInstruction(int opcode, long[] immediates, int immediateCount) {
+        if (fv != null) {
+            fv.visitInstruction(opcode, immediates, immediateCount);
+        }
+    }
+
+    public void visitEnd() {
+        if (fv != null) {
+            fv.visitEnd();
+        }
+    }
+}
@@ -1,4 +1,12 @@
 package io.github.ffortier.jasm.binary;
 
-public class Global {
+import java.nio.ByteBuffer;
+
+/**
+ * A global defined by the module, initialized by a constant expression.
+ */
+public record Global(GlobalType type, Expr init) {
+    public static Global read(ByteBuffer bb) {
+        return new Global(GlobalType.read(bb), Expr.read(bb));
+    }
 }
@@ -0,0 +1,11 @@
+package io.github.ffortier.jasm.binary;
+
+/**
+ * Receives decoded instructions as an opcode followed by its immediates, without allocating {@link Instruction}
+ * records. Floating point constants are given as their raw bits.
+ */
+public interface InstructionSink {
+    void opcode(int opcode);
+
+    void immediate(long value);
+}
@@ -0,0 +1,72 @@
+package io.github.ffortier.jasm.binary;
+
+import java.nio.ByteBuffer;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+
+/**
+ * An immutable vector of unsigned integers, such as indices, backed by an int array so large modules don't allocate one
+ * boxed object per entry. {@link #getInt(int)} reads an entry without boxing.
+ */
+public final class IntVector extends AbstractList<Integer> implements RandomAccess {
+    private static final IntVector EMPTY = new IntVector(new int[0]);
+
+    private final int[] values;
+
+    private IntVector(int[] values) {
+        this.values = values;
+    }
+
+    /**
+     * Decode a vector of unsigned integers
+     */
+    public static IntVector read(ByteBuffer bb) {
+        final var values = BinaryReader.indices(bb);
+
+        return values.length == 0 ? EMPTY : new IntVector(values);
+    }
+
+    public int getInt(int index) {
+        return values[index];
+    }
+
+    @Override public Integer get(int index) {
+        return values[index];
+    }
+
+    @Override public int size() {
+        return values.length;
+    }
+
+    @Override public boolean equals(Object o) {
+        if (o instanceof IntVector other) {
+            return Arrays.equals(values, other.values);
+        }
+
+        return super.equals(o);
+    }
+
+    @Override public int hashCode() {
+        return super.hashCode();
+    }
+
+    static final class Builder {
+        private int[] values = new int[16];
+        private int size;
+
+        Builder add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+
+            values[size++] = value;
+
+            return this;
+        }
+
+        IntVector build() {
+            return size == 0 ? EMPTY : new IntVector(Arrays.copyOf(values, size));
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package io.github.ffortier.jasm.binary;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Instructions of a function body kept as an undecoded slice of the module. The instruction stream is decoded on
+ * first access into a {@link PackedExpr} and cached afterward.
+ */
+public final class LazyExpr {
+    private final ByteBuffer bytes;
+    private final int offset;
+    private volatile PackedExpr packed;
+
+    LazyExpr(ByteBuffer bytes, int offset) {
+        this.bytes = bytes.asReadOnlyBuffer();
+        this.offset = offset;
+    }
+
+    /**
+     * Position of the first instruction in the buffer the module was compiled from.
+     */
+    public int offset() {
+        return offset;
+    }
+
+    /**
+     * Size in bytes of the encoded instructions, including the final end opcode.
+     */
+    public int size() {
+        return bytes.limit();
+    }
+
+    /**
+     * A new view over the encoded instructions.
+     */
+    public ByteBuffer bytes() {
+        return bytes.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    public boolean isDecoded() {
+        return packed != null;
+    }
+
+    public PackedExpr packed() {
+        var result = packed;
+
+        if (result == null) {
+            // Decoding twice on a race is harmless, the expression is immutable
+            final var bb = bytes();
+
+            result = PackedExpr.read(bb);
+
+            if (bb.hasRemaining()) {
+                throw new IllegalArgumentException("%d bytes after the end of the body".formatted(bb.remaining()));
+            }
+
+            packed = result;
+        }
+
+        return result;
+    }
+
+    /**
+     * Record view of the instructions, a new one is built on each call.
+     */
+    public Expr get() {
+        return packed().toExpr();
+    }
+
+    /**
+     * Streams the instructions to the visitor, decoding them from the slice without caching the result.
+     */
+    public void accept(FunctionBodyVisitor visitor) {
+        final var bb = bytes();
+        final var events = new Events(visitor);
+        var depth = 0;
+
+        while (true) {
+            final var opcode = Instruction.read(bb, events);
+
+            if (Instruction.isBlockStart(opcode)) {
+                depth++;
+            } else if (opcode == Instruction.End.OPCODE && depth-- == 0) {
+                visitor.visitEnd();
+
+                return;
+            }
+        }
+    }
+
+    @Override public String toString() {
+        if (packed == null) {
+            return "LazyExpr[offset=%d, size=%d]".formatted(offset, size());
+        }
+
+        return get().toString();
+    }
+
+    /**
+     * Buffers the immediates of the current instruction until the next opcode is decoded.
+     */
+    private static final class Events implements InstructionSink {
+        private final FunctionBodyVisitor visitor;
+        private long[] immediates = new long[8];
+        private int opcode = -1;
+        private int immediateCount;
+
+        private Events(FunctionBodyVisitor visitor) {
+            this.visitor = visitor;
+        }
+
+        @Override public void opcode(int opcode) {
+            if (this.opcode >= 0) {
+                visitor.visitInstruction(this.opcode, immediates, immediateCount);
+            }
+
+            this.opcode = opcode;
+            this.immediateCount = 0;
+        }
+
+        @Override public void immediate(long value) {
+            if (immediateCount == immediates.length) {
+                immediates = Arrays.copyOf(immediates, immediateCount * 2);
+            }
+
+            immediates[immediateCount++] = value;
+        }
+    }
+}
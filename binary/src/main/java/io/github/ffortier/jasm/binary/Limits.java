@@ -4,13 +4,23 @@ import java.nio.ByteBuffer;
 
 import static io.github.ffortier.jasm.binary.BinaryReader.leb128;
 
-public record Limits(int min, int max) {
+/**
+ * @param max    -1 when unbounded
+ * @param shared memory shared between threads, from the threads proposal. Shared memories always have a maximum.
+ */
+public record Limits(int min, int max, boolean shared) {
+    public Limits(int min, int max) {
+        this(min, max, false);
+    }
+
     public static Limits read(ByteBuffer bb) {
         byte flag = bb.get();
 
         return switch (flag) {
             case 0x00 -> new Limits(leb128(bb), -1);
             case 0x01 -> new Limits(leb128(bb), leb128(bb));
+            case 0x02 -> throw new IllegalArgumentException("Shared memory must have a maximum");
+            case 0x03 -> new Limits(leb128(bb), leb128(bb), true);
             default -> throw new UnsupportedOperationException("Unexpected flag for limits %02x".formatted(flag));
         };
     }
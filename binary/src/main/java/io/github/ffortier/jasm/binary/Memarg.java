@@ -2,8 +2,17 @@ package io.github.ffortier.jasm.binary;
 
 import java.nio.ByteBuffer;
 
-public record Memarg() {
+import static io.github.ffortier.jasm.binary.BinaryReader.leb128;
+
+/**
+ * @param align  alignment hint, as a power of 2
+ * @param offset static offset added to the address operand, unsigned
+ */
+public record Memarg(int align, int offset) {
     public static Memarg read(ByteBuffer bb) {
-        throw new UnsupportedOperationException("not implemented");
+        final var align = leb128(bb);
+        final var offset = leb128(bb);
+
+        return new Memarg(align, offset);
     }
-}
\ No newline at end of file
+}
@@ -15,7 +15,8 @@ public record Module(
         List<Data> data,
         Start start,
         List<Import> imports,
-        List<Export> exports
+        List<Export> exports,
+        Names names
 ) {
 
 }
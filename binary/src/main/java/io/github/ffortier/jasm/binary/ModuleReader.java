@@ -0,0 +1,286 @@
+package io.github.ffortier.jasm.binary;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SelectableChannel;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import static io.github.ffortier.jasm.binary.BinaryReader.leb128;
+import static io.github.ffortier.jasm.binary.BinaryReader.name;
+
+/**
+ * Reads a module and reports its content to a {@link ModuleVisitor} as it goes, entries of the sections are not
+ * collected in lists and function bodies are only decoded when the visitor asks for them.
+ * <p>
+ * A module read from a channel is reported while it arrives: sections are buffered one at a time, except the code
+ * section whose entries are reported as soon as each of them has been read.
+ */
+public class ModuleReader {
+    private static final byte[] WASM_HEADER = {0x00, 0x61, 0x73, 0x6d, 0x01, 0x00, 0x00, 0x00};
+    private static final int CODE_SECTION = 10;
+
+    private final ByteBuffer buffer;
+    private final ReadableByteChannel channel;
+
+    /**
+     * The module keeps references to slices of the buffer, so its content must not be modified afterward.
+     */
+    public ModuleReader(ByteBuffer buffer) {
+        this.buffer = buffer.slice().order(ByteOrder.LITTLE_ENDIAN);
+        this.channel = null;
+    }
+
+    /**
+     * Reads the module from the channel when accepting a visitor, the channel is not closed. The channel must be in
+     * blocking mode, reads returning no bytes are rejected.
+     */
+    public ModuleReader(ReadableByteChannel channel) {
+        if (channel instanceof SelectableChannel selectable && !selectable.isBlocking()) {
+            throw new IllegalArgumentException("Non-blocking channels are not supported");
+        }
+
+        this.buffer = null;
+        this.channel = channel;
+    }
+
+    private static void readWasmHeader(ByteBuffer bb) throws IOException {
+        if (bb.remaining() < WASM_HEADER.length) {
+            throw new IOException("invalid wasm header");
+        }
+
+        for (final var b : WASM_HEADER) {
+            if (bb.get() != b) {
+                throw new IOException("invalid wasm header");
+            }
+        }
+    }
+
+    private static <T> void forEach(ByteBuffer bb, Function<ByteBuffer, T> read, Consumer<T> visit) {
+        final var len = leb128(bb);
+
+        for (int i = 0; i < len; i++) {
+            visit.accept(read.apply(bb));
+        }
+    }
+
+    public void accept(ModuleVisitor visitor) throws IOException {
+        if (channel != null) {
+            accept(new ChannelInput(channel), visitor);
+            return;
+        }
+
+        final var bb = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+
+        readWasmHeader(bb);
+
+        while (bb.hasRemaining()) {
+            final var sectionId = Byte.toUnsignedInt(bb.get());
+            final var size = leb128(bb);
+            final var start = bb.position();
+            final var section = bb.duplicate().order(ByteOrder.LITTLE_ENDIAN).limit(start + size);
+
+            visitor.visitSection(sectionId, start, size);
+            readSection(sectionId, section, visitor);
+            bb.position(start + size);
+        }
+
+        visitor.visitEnd();
+    }
+
+    private void accept(ChannelInput in, ModuleVisitor visitor) throws IOException {
+        readWasmHeader(in.read(WASM_HEADER.length));
+
+        while (in.hasRemaining()) {
+            final var sectionId = in.get();
+            final var size = in.leb128();
+            final var start = in.position();
+
+            visitor.visitSection(sectionId, start, size);
+
+            if (sectionId == CODE_SECTION) {
+                readCodeSection(in, visitor);
+            } else {
+                readSection(sectionId, in.read(size), visitor);
+            }
+
+            if (in.position() != start + size) {
+                throw new IOException("Section %d ends at %d instead of %d".formatted(sectionId, in.position(), start + size));
+            }
+        }
+
+        visitor.visitEnd();
+    }
+
+    private static void readCodeSection(ChannelInput in, ModuleVisitor visitor) throws IOException {
+        final var len = in.leb128();
+
+        for (int i = 0; i < len; i++) {
+            final var size = in.leb128();
+            final var start = in.position();
+            final var code = Code.read(in.read(size), start);
+            final var bodyVisitor = visitor.visitCode(i, code);
+
+            if (bodyVisitor != null) {
+                code.body().accept(bodyVisitor);
+            }
+        }
+    }
+
+    private void readSection(int sectionId, ByteBuffer bb, ModuleVisitor visitor) {
+        switch (sectionId) {
+            case 0 -> {
+                final var nm = name(bb);
+
+                visitor.visitCustomSection(nm, bb.slice().order(ByteOrder.LITTLE_ENDIAN));
+            }
+            case 1 -> forEach(bb, Section.TypeSection::readEntry, visitor::visitType);
+            case 2 -> {
+                final var len = leb128(bb);
+
+                for (int i = 0; i < len; i++) {
+                    final var mod = name(bb);
+                    final var nm = name(bb);
+
+                    visitor.visitImport(mod, nm, ImportDesc.read(bb));
+                }
+            }
+            case 3 -> {
+                final var len = leb128(bb);
+
+                for (int i = 0; i < len; i++) {
+                    visitor.visitFunction(leb128(bb));
+                }
+            }
+            case 4 -> forEach(bb, Table::read, visitor::visitTable);
+            case 5 -> forEach(bb, Memory::read, visitor::visitMemory);
+            case 6 -> Section.GlobalSection.read(bb).globals().forEach(visitor::visitGlobal);
+            case 7 -> {
+                final var len = leb128(bb);
+
+                for (int i = 0; i < len; i++) {
+                    final var nm = name(bb);
+
+                    visitor.visitExport(nm, ExportDesc.read(bb));
+                }
+            }
+            case 8 -> visitor.visitStart(Section.StartSection.read(bb).start());
+            case 9 -> Section.ElementSection.read(bb).elements().forEach(visitor::visitElement);
+            case CODE_SECTION -> {
+                final var len = leb128(bb);
+
+                for (int i = 0; i < len; i++) {
+                    final var code = Code.read(bb);
+                    final var bodyVisitor = visitor.visitCode(i, code);
+
+                    if (bodyVisitor != null) {
+                        code.body().accept(bodyVisitor);
+                    }
+                }
+            }
+            case 11 -> forEach(bb, Data::read, visitor::visitData);
+            case 12 -> Section.DataCountSection.read(bb);
+            default -> throw new UnsupportedOperationException("Unknown section id %d".formatted(sectionId));
+        }
+    }
+
+    /**
+     * Reads a channel through a buffer, sections and code entries are copied into buffers of their own so the module
+     * can keep slices of them.
+     */
+    private static final class ChannelInput {
+        private static final int BUFFER_SIZE = 64 * 1024;
+
+        private final ReadableByteChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE).flip();
+        private int position;
+
+        private ChannelInput(ReadableByteChannel channel) {
+            this.channel = channel;
+        }
+
+        /**
+         * Number of bytes read so far
+         */
+        int position() {
+            return position;
+        }
+
+        boolean hasRemaining() throws IOException {
+            return buffer.hasRemaining() || fill();
+        }
+
+        int get() throws IOException {
+            if (!hasRemaining()) {
+                throw new EOFException();
+            }
+
+            position++;
+
+            return Byte.toUnsignedInt(buffer.get());
+        }
+
+        int leb128() throws IOException {
+            int result = 0;
+            int shift = 0;
+
+            while (true) {
+                int b = get();
+                result |= (b & 0b0111_1111) << shift;
+                if ((b & 0b1000_0000) == 0)
+                    return result;
+                shift += 7;
+            }
+        }
+
+        ByteBuffer read(int size) throws IOException {
+            final var bytes = ByteBuffer.allocate(size);
+
+            while (bytes.hasRemaining()) {
+                if (buffer.hasRemaining()) {
+                    final var n = Math.min(buffer.remaining(), bytes.remaining());
+
+                    bytes.put(buffer.slice(buffer.position(), n));
+                    buffer.position(buffer.position() + n);
+                } else if (bytes.remaining() >= BUFFER_SIZE) {
+                    // Large entries skip the buffer
+                    if (read(bytes) < 0) {
+                        throw new EOFException();
+                    }
+                } else if (!fill()) {
+                    throw new EOFException();
+                }
+            }
+
+            position += size;
+
+            return bytes.flip().order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        private boolean fill() throws IOException {
+            buffer.clear();
+
+            final var n = read(buffer);
+
+            buffer.flip();
+
+            return n > 0;
+        }
+
+        /**
+         * A blocking channel reads at least one byte until its end, anything else would spin.
+         */
+        private int read(ByteBuffer dst) throws IOException {
+            final var n = channel.read(dst);
+
+            if (n == 0) {
+                throw new IOException("Channel returned no bytes, non-blocking channels are not supported");
+            }
+
+            return n;
+        }
+    }
+}
@@ -0,0 +1,236 @@
+package io.github.ffortier.jasm.binary;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+import static java.util.Collections.unmodifiableList;
+
+/**
+ * Collects the content reported by a {@link ModuleReader} into a {@link Module}, and passes it on to the next visitor
+ * if any.
+ * <p>
+ * Function bodies are handed to the decoder as they are visited, by batches, so a module read from a channel is
+ * decoded while the rest of it arrives.
+ */
+class ModuleTreeBuilder extends ModuleVisitor {
+    /**
+     * Bodies are decoded by batches of roughly that many bytes, small functions are not worth a task each.
+     */
+    private static final int DECODE_BATCH_SIZE = 64 * 1024;
+
+    private final Executor decoder;
+    private final List<CompletableFuture<Void>> decoding = new ArrayList<>();
+    private List<Code> batch = new ArrayList<>();
+    private int batchSize;
+    private final ModuleBuilder moduleBuilder = ModuleBuilder.builder();
+
+    private List<FuncType> types;
+    private List<Import> imports;
+    private IntVector.Builder typeIndices;
+    private List<Table> tables;
+    private List<Memory> memories;
+    private List<Global> globals;
+    private List<Export> exports;
+    private List<Element> elements;
+    private List<Code> codes;
+    private List<Data> data;
+    private Module module;
+
+    /**
+     * @param decoder executor decoding every function body once the module is read, null to keep them undecoded
+     */
+    ModuleTreeBuilder(Executor decoder) {
+        this(decoder, null);
+    }
+
+    /**
+     * @param next visitor receiving the content of the module too
+     */
+    ModuleTreeBuilder(Executor decoder, ModuleVisitor next) {
+        super(next);
+        this.decoder = decoder;
+    }
+
+    @Override public void visitSection(int id, int offset, int size) {
+        super.visitSection(id, offset, size);
+
+        switch (id) {
+            case 1 -> types = new ArrayList<>();
+            case 2 -> imports = new ArrayList<>();
+            case 3 -> typeIndices = new IntVector.Builder();
+            case 4 -> tables = new ArrayList<>();
+            case 5 -> memories = new ArrayList<>();
+            case 6 -> globals = new ArrayList<>();
+            case 7 -> exports = new ArrayList<>();
+            case 9 -> elements = new ArrayList<>();
+            case 10 -> codes = new ArrayList<>();
+            case 11 -> data = new ArrayList<>();
+            default -> {
+                // nothing collected
+            }
+        }
+    }
+
+    /**
+     * Keeps the names of the {@code name} section. A malformed custom section does not invalidate the module, it is
+     * ignored.
+     */
+    @Override public void visitCustomSection(String name, ByteBuffer content) {
+        super.visitCustomSection(name, content.duplicate().order(ByteOrder.LITTLE_ENDIAN));
+
+        if (name.equals(Names.SECTION_NAME)) {
+            try {
+                moduleBuilder.names(Names.read(content));
+            } catch (RuntimeException e) {
+                // names are for debugging only
+            }
+        }
+    }
+
+    @Override public void visitType(FuncType type) {
+        super.visitType(type);
+        types.add(type);
+    }
+
+    @Override public void visitImport(String mod, String nm, ImportDesc desc) {
+        super.visitImport(mod, nm, desc);
+        imports.add(new Import(mod, nm, desc));
+    }
+
+    @Override public void visitFunction(int typeIdx) {
+        super.visitFunction(typeIdx);
+        typeIndices.add(typeIdx);
+    }
+
+    @Override public void visitTable(Table table) {
+        super.visitTable(table);
+        tables.add(table);
+    }
+
+    @Override public void visitMemory(Memory memory) {
+        super.visitMemory(memory);
+        memories.add(memory);
+    }
+
+    @Override public void visitGlobal(Global global) {
+        super.visitGlobal(global);
+        globals.add(global);
+    }
+
+    @Override public void visitExport(String nm, ExportDesc desc) {
+        super.visitExport(nm, desc);
+        exports.add(new Export(nm, desc));
+    }
+
+    @Override public void visitStart(Start start) {
+        super.visitStart(start);
+        moduleBuilder.start(start);
+    }
+
+    @Override public void visitElement(Element element) {
+        super.visitElement(element);
+        elements.add(element);
+    }
+
+    @Override public FunctionBodyVisitor visitCode(int codeIdx, Code code) {
+        codes.add(code);
+
+        if (decoder != null) {
+            batch.add(code);
+            batchSize += code.body().size();
+
+            if (batchSize >= DECODE_BATCH_SIZE) {
+                decodeBatch();
+            }
+        }
+
+        return super.visitCode(codeIdx, code);
+    }
+
+    private void decodeBatch() {
+        final var codes = batch;
+
+        decoding.add(CompletableFuture.runAsync(() -> codes.forEach(code -> code.body().packed()), decoder));
+        batch = new ArrayList<>();
+        batchSize = 0;
+    }
+
+    @Override public void visitData(Data data) {
+        super.visitData(data);
+        this.data.add(data);
+    }
+
+    @Override public void visitEnd() {
+        if (!batch.isEmpty()) {
+            decodeBatch();
+        }
+
+        try {
+            CompletableFuture.allOf(decoding.toArray(CompletableFuture[]::new)).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+
+            throw e;
+        }
+
+        if (typeIndices != null && codes != null) {
+            moduleBuilder.funcs(buildFuncs(new Section.CodeSection(codes), new Section.FunctionSection(typeIndices.build())));
+        }
+
+        module = moduleBuilder
+                .types(unmodifiable(types))
+                .imports(unmodifiable(imports))
+                .tables(unmodifiable(tables))
+                .memories(unmodifiable(memories))
+                .globals(unmodifiable(globals))
+                .exports(unmodifiable(exports))
+                .elements(unmodifiable(elements))
+                .data(unmodifiable(data))
+                .build();
+
+        super.visitEnd();
+    }
+
+    private static <T> List<T> unmodifiable(List<T> list) {
+        return list == null ? null : unmodifiableList(list);
+    }
+
+    Module module() {
+        return module;
+    }
+
+    private List<Func> buildFuncs(Section.CodeSection codeSection, Section.FunctionSection functionSection) {
+        if (codeSection.codes().size() != functionSection.typeIndices().size()) {
+            throw new IllegalStateException("Expected code section and function section to contain the same number of elements");
+        }
+
+        final var count = codeSection.codes().size();
+        final var funcs = new ArrayList<Func>(count);
+        // Functions of the same type share their index
+        final var typeIdxs = new Index.TypeIdx[types == null ? 0 : types.size()];
+
+        for (int i = 0; i < count; i++) {
+            final var code = codeSection.codes().get(i);
+            final var typeIdx = functionSection.typeIndices().getInt(i);
+
+            if (Integer.compareUnsigned(typeIdx, typeIdxs.length) >= 0) {
+                throw new IllegalStateException("Unknown type %d of function %d".formatted(typeIdx, i));
+            }
+
+            if (typeIdxs[typeIdx] == null) {
+                typeIdxs[typeIdx] = new Index.TypeIdx(typeIdx);
+            }
+
+            funcs.add(new Func(typeIdxs[typeIdx], code.locals(), code.body()));
+        }
+
+        return funcs;
+    }
+}
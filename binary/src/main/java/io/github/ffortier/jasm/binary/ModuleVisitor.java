@@ -0,0 +1,125 @@
+package io.github.ffortier.jasm.binary;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Receives the content of a module as it is read by a {@link ModuleReader}, in the order of the binary format. Every
+ * method delegates to the next visitor when there is one, so visitors can be chained like ASM class visitors.
+ */
+public abstract class ModuleVisitor {
+    protected final ModuleVisitor mv;
+
+    protected ModuleVisitor() {
+        this(null);
+    }
+
+    protected ModuleVisitor(ModuleVisitor mv) {
+        this.mv = mv;
+    }
+
+    /**
+     * Called before the content of each section.
+     *
+     * @param offset position of the section content in the module
+     */
+    public void visitSection(int id, int offset, int size) {
+        if (mv != null) {
+            mv.visitSection(id, offset, size);
+        }
+    }
+
+    /**
+     * @param content the section content following the name
+     */
+    public void visitCustomSection(String name, ByteBuffer content) {
+        if (mv != null) {
+            mv.visitCustomSection(name, content);
+        }
+    }
+
+    public void visitType(FuncType type) {
+        if (mv != null) {
+            mv.visitType(type);
+        }
+    }
+
+    public void visitImport(String mod, String nm, ImportDesc desc) {
+        if (mv != null) {
+            mv.visitImport(mod, nm, desc);
+        }
+    }
+
+    /**
+     * Called for each entry of the function section, with the type index of the function.
+     */
+    public void visitFunction(int typeIdx) {
+        if (mv != null) {
+            mv.visitFunction(typeIdx);
+        }
+    }
+
+    public void visitTable(Table table) {
+        if (mv != null) {
+            mv.visitTable(table);
+        }
+    }
+
+    public void visitMemory(Memory memory) {
+        if (mv != null) {
+            mv.visitMemory(memory);
+        }
+    }
+
+    public void visitGlobal(Global global) {
+        if (mv != null) {
+            mv.visitGlobal(global);
+        }
+    }
+
+    public void visitExport(String nm, ExportDesc desc) {
+        if (mv != null) {
+            mv.visitExport(nm, desc);
+        }
+    }
+
+    public void visitStart(Start start) {
+        if (mv != null) {
+            mv.visitStart(start);
+        }
+    }
+
+    public void visitElement(Element element) {
+        if (mv != null) {
+            mv.visitElement(element);
+        }
+    }
+
+    /**
+     * Called for each entry of the code section. The body of the code is still undecoded, returning a visitor streams
+     * its instructions to it, returning null skips them.
+     *
+     * @param codeIdx index of the entry in the code section
+     */
+    public FunctionBodyVisitor visitCode(int codeIdx, Code code) {
+        if (mv != null) {
+            return mv.visitCode(codeIdx, code);
+        }
+
+        return null;
+    }
+
+    public void visitData(Data data) {
+        if (mv != null) {
+            mv.visitData(data);
+        }
+    }
+
+    /**
+     * Called once the whole module has been read.
+     */
+    public void visitEnd() {
+        if (mv != null) {
+            mv.visitEnd();
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package io.github.ffortier.jasm.binary;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+import static io.github.ffortier.jasm.binary.BinaryReader.leb128;
+import static io.github.ffortier.jasm.binary.BinaryReader.name;
+import static java.util.Collections.unmodifiableMap;
+
+/**
+ * Debug names of the {@code name} custom section. Only the module and function names are read, the other subsections
+ * are skipped.
+ *
+ * @param module    null when the section has none
+ * @param functions names by function index, imports included
+ */
+public record Names(String module, Map<Integer, String> functions) {
+    public static final String SECTION_NAME = "name";
+
+    /**
+     * Reads the content of the section following its name
+     */
+    public static Names read(ByteBuffer bb) {
+        String module = null;
+        final var functions = new HashMap<Integer, String>();
+
+        while (bb.hasRemaining()) {
+            final var id = bb.get();
+            final var size = leb128(bb);
+            final var end = bb.position() + size;
+
+            switch (id) {
+                case 0 -> module = name(bb);
+                case 1 -> {
+                    final var len = leb128(bb);
+
+                    for (int i = 0; i < len; i++) {
+                        final var idx = leb128(bb);
+
+                        functions.put(idx, name(bb));
+                    }
+                }
+                default -> {
+                    // local, label and type names are not used
+                }
+            }
+
+            bb.position(end);
+        }
+
+        return new Names(module, unmodifiableMap(functions));
+    }
+
+    /**
+     * Name of the function, {@code f<idx>} when it has none
+     */
+    public String function(int funcIdx) {
+        return functions.getOrDefault(funcIdx, "f" + funcIdx);
+    }
+}
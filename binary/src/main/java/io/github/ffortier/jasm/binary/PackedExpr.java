@@ -0,0 +1,161 @@
+package io.github.ffortier.jasm.binary;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Compact representation of an expression. Opcodes and immediates are kept in primitive arrays instead of one
+ * {@link Instruction} record per instruction, and are walked with a {@link Cursor}. Immediates of instruction
+ * {@code i} are {@code immediates[immediateStart[i]]} to {@code immediates[immediateStart[i + 1] - 1]}.
+ * <p>
+ * The final end opcode of the expression is not kept, like in {@link Expr}.
+ */
+public final class PackedExpr {
+    private final int[] opcodes;
+    private final int[] immediateStart;
+    private final long[] immediates;
+
+    private PackedExpr(int[] opcodes, int[] immediateStart, long[] immediates) {
+        this.opcodes = opcodes;
+        this.immediateStart = immediateStart;
+        this.immediates = immediates;
+    }
+
+    public static PackedExpr read(ByteBuffer bb) {
+        final var builder = new Builder();
+        var depth = 0;
+
+        while (true) {
+            if (!bb.hasRemaining()) {
+                throw new IllegalArgumentException("Missing end of %d blocks".formatted(depth + 1));
+            }
+
+            final var opcode = Instruction.read(bb, builder);
+
+            if (Instruction.isBlockStart(opcode)) {
+                depth++;
+            } else if (opcode == Instruction.End.OPCODE && depth-- == 0) {
+                builder.dropLast();
+
+                return builder.build();
+            }
+        }
+    }
+
+    /**
+     * Number of instructions
+     */
+    public int size() {
+        return opcodes.length;
+    }
+
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * Record view of the expression, allocates one record per instruction.
+     */
+    public Expr toExpr() {
+        final var instructions = new ArrayList<Instruction>(opcodes.length);
+        final var cursor = cursor();
+
+        while (cursor.next()) {
+            instructions.add(cursor.instruction());
+        }
+
+        return new Expr(instructions);
+    }
+
+    public final class Cursor {
+        private int index = -1;
+
+        private Cursor() {
+        }
+
+        /**
+         * Moves to the next instruction, returns false when there is none.
+         */
+        public boolean next() {
+            return ++index < opcodes.length;
+        }
+
+        /**
+         * Index of the current instruction
+         */
+        public int index() {
+            return index;
+        }
+
+        /**
+         * Moves the cursor to the instruction at the index, {@link #next()} then moves past it.
+         */
+        public void seek(int index) {
+            this.index = index;
+        }
+
+        public int opcode() {
+            return opcodes[index];
+        }
+
+        public int immediateCount() {
+            return immediateStart[index + 1] - immediateStart[index];
+        }
+
+        public long immediate(int i) {
+            return immediates[immediateStart[index] + i];
+        }
+
+        public int intImmediate(int i) {
+            return (int) immediate(i);
+        }
+
+        /**
+         * Record view of the current instruction
+         */
+        public Instruction instruction() {
+            return Instruction.unpack(this);
+        }
+    }
+
+    public static final class Builder implements InstructionSink {
+        private int[] opcodes = new int[16];
+        private int[] immediateStart = new int[17];
+        private long[] immediates = new long[16];
+        private int size;
+        private int immediateSize;
+
+        @Override public void opcode(int opcode) {
+            if (size == opcodes.length) {
+                opcodes = Arrays.copyOf(opcodes, size * 2);
+                immediateStart = Arrays.copyOf(immediateStart, size * 2 + 1);
+            }
+
+            opcodes[size++] = opcode;
+            immediateStart[size] = immediateSize;
+        }
+
+        @Override public void immediate(long value) {
+            if (immediateSize == immediates.length) {
+                immediates = Arrays.copyOf(immediates, immediateSize * 2);
+            }
+
+            immediates[immediateSize++] = value;
+            immediateStart[size] = immediateSize;
+        }
+
+        private void dropLast() {
+            size--;
+            immediateSize = immediateStart[size];
+        }
+
+        public PackedExpr build() {
+            return new PackedExpr(
+                    Arrays.copyOf(opcodes, size),
+                    Arrays.copyOf(immediateStart, size + 1),
+                    Arrays.copyOf(immediates, immediateSize)
+            );
+        }
+    }
+}
@@ -1,13 +1,9 @@
 package io.github.ffortier.jasm.binary;
 
-import java.io.BufferedInputStream;
-import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.util.List;
-import java.util.Optional;
 
-import static io.github.ffortier.jasm.binary.BinaryReader.leb128;
 import static io.github.ffortier.jasm.binary.BinaryReader.vec;
 
 public sealed interface Section permits
@@ -24,59 +20,34 @@ public sealed interface Section permits
         Section.CodeSection,
         Section.DataSection,
         Section.DataCountSection {
-    static Optional<Section> read(BufferedInputStream in) throws IOException {
-        var sectionId = in.read();
-
-        if (sectionId < 0) {
-            return Optional.empty();
-        }
-
-        final var size = leb128(in);
-        final var bb = ByteBuffer
-                .wrap(in.readNBytes(size))
-                .order(ByteOrder.LITTLE_ENDIAN);
-
-        final var section = switch (sectionId) {
-            case 0 -> CustomSection.read(bb);
-            case 1 -> TypeSection.read(bb);
-            case 2 -> ImportSection.read(bb);
-            case 3 -> FunctionSection.read(bb);
-            case 4 -> TableSection.read(bb);
-            case 5 -> MemorySection.read(bb);
-            case 6 -> GlobalSection.read(bb);
-            case 7 -> ExportSection.read(bb);
-            case 8 -> StartSection.read(bb);
-            case 9 -> ElementSection.read(bb);
-            case 10 -> CodeSection.read(bb);
-            case 11 -> DataSection.read(bb);
-            case 12 -> DataCountSection.read(bb);
-            default -> throw new UnsupportedOperationException("Unknown section id %d".formatted(sectionId));
-        };
-
-        return Optional.of(section);
-    }
-
     private static <T extends Section> T notImplemented(Class<T> sectionType) {
         throw new UnsupportedOperationException("Not implemented %s".formatted(sectionType.getName()));
     }
 
-    record CustomSection() implements Section {
+    /**
+     * @param content the content following the name, a view of the module
+     */
+    record CustomSection(String name, ByteBuffer content) implements Section {
         public static CustomSection read(ByteBuffer bb) {
-            return notImplemented(CustomSection.class);
+            final var name = BinaryReader.name(bb);
+
+            return new CustomSection(name, bb.slice().order(ByteOrder.LITTLE_ENDIAN));
         }
     }
 
     record TypeSection(List<FuncType> types) implements Section {
         public static TypeSection read(ByteBuffer bb) {
-            return new TypeSection(vec(bb, bbb -> {
-                final var typeId = bb.get();
+            return new TypeSection(vec(bb, TypeSection::readEntry));
+        }
+
+        static FuncType readEntry(ByteBuffer bb) {
+            final var typeId = bb.get();
 
-                if (typeId != 0x60) {
-                    throw new UnsupportedOperationException("Unsupported type with id %02x".formatted(typeId));
-                }
+            if (typeId != 0x60) {
+                throw new UnsupportedOperationException("Unsupported type with id %02x".formatted(typeId));
+            }
 
-                return FuncType.read(bb);
-            }));
+            return FuncType.intern(FuncType.read(bb));
         }
     }
 
@@ -86,9 +57,9 @@ public sealed interface Section permits
         }
     }
 
-    record FunctionSection(List<Index.TypeIdx> typeIndices) implements Section {
+    record FunctionSection(IntVector typeIndices) implements Section {
         public static FunctionSection read(ByteBuffer bb) {
-            return new FunctionSection(vec(bb, bbb -> new Index.TypeIdx(leb128(bbb))));
+            return new FunctionSection(IntVector.read(bb));
         }
     }
 
@@ -106,7 +77,7 @@ public sealed interface Section permits
 
     record GlobalSection(List<Global> globals) implements Section {
         public static GlobalSection read(ByteBuffer bb) {
-            return Section.notImplemented(GlobalSection.class);
+            return new GlobalSection(vec(bb, Global::read));
         }
     }
 
@@ -124,11 +95,14 @@ public sealed interface Section permits
 
     record ElementSection(List<Element> elements) implements Section {
         public static ElementSection read(ByteBuffer bb) {
-            return notImplemented(ElementSection.class);
+            return new ElementSection(vec(bb, Element::read));
         }
     }
 
     record CodeSection(List<Code> codes) implements Section {
+        /**
+         * Reads the boundaries of every code entry, bodies are left undecoded.
+         */
         public static CodeSection read(ByteBuffer bb) {
             return new CodeSection(vec(bb, Code::read));
         }
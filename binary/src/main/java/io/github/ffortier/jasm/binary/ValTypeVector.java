@@ -0,0 +1,72 @@
+package io.github.ffortier.jasm.binary;
+
+import java.nio.ByteBuffer;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+import static io.github.ffortier.jasm.binary.BinaryReader.leb128;
+
+/**
+ * An immutable vector of value types backed by their one byte ids, the parameters and results of function types are
+ * read into these so a signature costs a byte per value.
+ */
+public final class ValTypeVector extends AbstractList<ValType> implements RandomAccess {
+    private static final ValType[] BY_ID = new ValType[0x80];
+
+    static {
+        for (final var valType : ValType.values()) {
+            BY_ID[valType.id()] = valType;
+        }
+    }
+
+    private final byte[] ids;
+
+    private ValTypeVector(byte[] ids) {
+        this.ids = ids;
+    }
+
+    /**
+     * Decode a vector of value types, empty vectors are shared
+     */
+    public static List<ValType> read(ByteBuffer bb) {
+        final var len = leb128(bb);
+
+        if (len == 0) {
+            return List.of();
+        }
+
+        final var ids = new byte[len];
+
+        bb.get(ids);
+
+        for (final var id : ids) {
+            if (id < 0 || BY_ID[id] == null) {
+                throw new IllegalArgumentException("Unknown ValType id %02x".formatted(id));
+            }
+        }
+
+        return new ValTypeVector(ids);
+    }
+
+    @Override public ValType get(int index) {
+        return BY_ID[ids[index]];
+    }
+
+    @Override public int size() {
+        return ids.length;
+    }
+
+    @Override public boolean equals(Object o) {
+        if (o instanceof ValTypeVector other) {
+            return Arrays.equals(ids, other.ids);
+        }
+
+        return super.equals(o);
+    }
+
+    @Override public int hashCode() {
+        return super.hashCode();
+    }
+}
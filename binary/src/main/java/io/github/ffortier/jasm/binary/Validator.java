@@ -0,0 +1,725 @@
+package io.github.ffortier.jasm.binary;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static io.github.ffortier.jasm.binary.ValType.NumType.F32;
+import static io.github.ffortier.jasm.binary.ValType.NumType.F64;
+import static io.github.ffortier.jasm.binary.ValType.NumType.I32;
+import static io.github.ffortier.jasm.binary.ValType.NumType.I64;
+import static io.github.ffortier.jasm.binary.ValType.VecType.V128;
+
+/**
+ * Checks the type rules of function bodies in a single pass over their packed instructions, following the validation
+ * algorithm of the specification appendix. The operand stack is modelled by its types; after an unconditional branch
+ * it is polymorphic and unknown values, modelled by null, match any type.
+ * <p>
+ * Along the way the validator records what compilers otherwise compute again: the maximum height of the operand
+ * stack, and for every block its type, the types of the stack below it, and the index of its else and end.
+ */
+public final class Validator {
+    private static final FuncType EMPTY = new FuncType(List.of(), List.of());
+
+    private final Module module;
+    private final List<FuncType> funcTypes = new ArrayList<>();
+    private final List<GlobalType> globalTypes = new ArrayList<>();
+    private final int tableCount;
+    private final boolean hasMemory;
+
+    public Validator(Module module) {
+        this.module = module;
+
+        var tableCount = orEmpty(module.tables()).size();
+        var hasMemory = !orEmpty(module.memories()).isEmpty();
+
+        for (final var imp : orEmpty(module.imports())) {
+            switch (imp.desc()) {
+                case ImportDesc.Func func -> funcTypes.add(type(func.idx().value()));
+                case ImportDesc.Table table -> tableCount++;
+                case ImportDesc.Mem mem -> hasMemory = true;
+                case ImportDesc.Global global -> globalTypes.add(global.global());
+            }
+        }
+
+        for (final var func : orEmpty(module.funcs())) {
+            funcTypes.add(type(func.type().value()));
+        }
+
+        for (final var global : orEmpty(module.globals())) {
+            globalTypes.add(global.type());
+        }
+
+        this.tableCount = tableCount;
+        this.hasMemory = hasMemory;
+    }
+
+    /**
+     * Validates the body of a function defined by the module.
+     *
+     * @throws IllegalArgumentException when the body is not valid
+     */
+    public Validation validate(Func func) {
+        final var funcType = type(func.type().value());
+        final var locals = new ArrayList<>(funcType.args());
+
+        for (final var entry : func.locals()) {
+            locals.addAll(Collections.nCopies(entry.n(), entry.t()));
+        }
+
+        return new Pass(func.body().packed(), funcType, locals).run();
+    }
+
+    private FuncType type(int typeIdx) {
+        if (Integer.compareUnsigned(typeIdx, module.types().size()) >= 0) {
+            throw new IllegalArgumentException("Unknown type %d".formatted(typeIdx));
+        }
+
+        return module.types().get(typeIdx);
+    }
+
+    private static <T> List<T> orEmpty(List<T> list) {
+        return list == null ? List.of() : list;
+    }
+
+    /**
+     * What validation learned about a function body. Blocks are identified by the index of their first instruction.
+     *
+     * @param maxHeight   maximum number of values on the operand stack
+     * @param maxDepth    maximum number of nested blocks, the function body included
+     * @param ends        index of the matching end of blocks and elses
+     * @param elses       index of the else of ifs, -1 when the if has none
+     * @param blockTypes  type of blocks
+     * @param blockStacks types of the stack below the parameters of blocks when they start, null in unreachable code
+     * @param vector      whether the function handles v128 values, in its signature, locals or operand stack
+     */
+    public record Validation(int maxHeight, int maxDepth, int[] ends, int[] elses, FuncType[] blockTypes, ValType[][] blockStacks, boolean vector) {
+        /**
+         * Types of the values a branch to the block expects: the parameters of a loop, the results of other blocks
+         */
+        public List<ValType> labelTypes(int start, int opcode) {
+            return opcode == Instruction.Loop.OPCODE ? blockTypes[start].args() : blockTypes[start].rets();
+        }
+    }
+
+    private static final class Control {
+        private final int opcode;
+        private final int start;
+        private final FuncType type;
+        private final int height;
+        private boolean unreachable;
+
+        private Control(int opcode, int start, FuncType type, int height) {
+            this.opcode = opcode;
+            this.start = start;
+            this.type = type;
+            this.height = height;
+        }
+
+        private List<ValType> labelTypes() {
+            return opcode == Instruction.Loop.OPCODE ? type.args() : type.rets();
+        }
+    }
+
+    private final class Pass {
+        private final PackedExpr code;
+        private final PackedExpr.Cursor c;
+        private final FuncType funcType;
+        private final List<ValType> locals;
+        private final List<ValType> vals = new ArrayList<>();
+        private final List<Control> ctrls = new ArrayList<>();
+        private final int[] ends;
+        private final int[] elses;
+        private final FuncType[] blockTypes;
+        private final ValType[][] blockStacks;
+        private int maxHeight;
+        private int maxDepth;
+        private boolean vector;
+
+        private Pass(PackedExpr code, FuncType funcType, List<ValType> locals) {
+            this.code = code;
+            this.c = code.cursor();
+            this.funcType = funcType;
+            this.locals = locals;
+            this.ends = new int[code.size()];
+            this.elses = new int[code.size()];
+            this.blockTypes = new FuncType[code.size()];
+            this.blockStacks = new ValType[code.size()][];
+            this.vector = locals.contains(V128) || funcType.rets().contains(V128);
+
+            Arrays.fill(elses, -1);
+        }
+
+        private Validation run() {
+            pushCtrl(Instruction.Block.OPCODE, -1, new FuncType(List.of(), funcType.rets()));
+
+            while (c.next()) {
+                try {
+                    instruction();
+                } catch (IllegalArgumentException e) {
+                    throw new IllegalArgumentException("Invalid instruction %d %s: %s".formatted(c.index(), c.instruction(), e.getMessage()), e);
+                }
+            }
+
+            popCtrl();
+
+            if (!ctrls.isEmpty()) {
+                throw new IllegalArgumentException("Missing end of %d blocks".formatted(ctrls.size()));
+            }
+
+            return new Validation(maxHeight, maxDepth, ends, elses, blockTypes, blockStacks, vector);
+        }
+
+        private void instruction() {
+            final var opcode = c.opcode();
+
+            switch (opcode) {
+                case Instruction.Unreachable.OPCODE -> unreachable();
+                case Instruction.Nop.OPCODE -> {
+                }
+                case Instruction.Block.OPCODE, Instruction.Loop.OPCODE -> {
+                    final var type = blockType(c.intImmediate(0));
+
+                    popVals(type.args());
+                    pushCtrl(opcode, c.index(), type);
+                }
+                case Instruction.If.OPCODE -> {
+                    final var type = blockType(c.intImmediate(0));
+
+                    popVal(I32);
+                    popVals(type.args());
+                    pushCtrl(opcode, c.index(), type);
+                }
+                case Instruction.Else.OPCODE -> {
+                    final var ctrl = popCtrl();
+
+                    if (ctrl.opcode != Instruction.If.OPCODE || elses[ctrl.start] >= 0) {
+                        throw new IllegalArgumentException("else without if");
+                    }
+
+                    elses[ctrl.start] = c.index();
+                    pushCtrl(Instruction.Else.OPCODE, ctrl.start, ctrl.type);
+                }
+                case Instruction.End.OPCODE -> {
+                    final var ctrl = popCtrl();
+
+                    if (ctrl.opcode == Instruction.If.OPCODE && !ctrl.type.args().equals(ctrl.type.rets())) {
+                        throw new IllegalArgumentException("if without else must have the same parameters and results");
+                    }
+
+                    ends[ctrl.start] = c.index();
+
+                    if (elses[ctrl.start] >= 0) {
+                        ends[elses[ctrl.start]] = c.index();
+                    }
+
+                    pushVals(ctrl.type.rets());
+                }
+                case Instruction.Br.OPCODE -> {
+                    popVals(label(c.intImmediate(0)).labelTypes());
+                    unreachable();
+                }
+                case Instruction.BrIf.OPCODE -> {
+                    final var types = label(c.intImmediate(0)).labelTypes();
+
+                    popVal(I32);
+                    popVals(types);
+                    pushVals(types);
+                }
+                case Instruction.BrTable.OPCODE -> {
+                    final var count = c.intImmediate(0);
+                    final var arity = label(c.intImmediate(count + 1)).labelTypes().size();
+
+                    popVal(I32);
+
+                    for (int i = 0; i <= count; i++) {
+                        final var types = label(c.intImmediate(i + 1)).labelTypes();
+
+                        if (types.size() != arity) {
+                            throw new IllegalArgumentException("br_table targets of different arities");
+                        }
+
+                        pushVals(popVals(types));
+                    }
+
+                    popVals(label(c.intImmediate(count + 1)).labelTypes());
+                    unreachable();
+                }
+                case Instruction.Return.OPCODE -> {
+                    popVals(funcType.rets());
+                    unreachable();
+                }
+                case Instruction.CallFunction.OPCODE -> {
+                    final var funcIdx = c.intImmediate(0);
+
+                    if (Integer.compareUnsigned(funcIdx, funcTypes.size()) >= 0) {
+                        throw new IllegalArgumentException("Unknown function %d".formatted(funcIdx));
+                    }
+
+                    call(funcTypes.get(funcIdx));
+                }
+                case Instruction.CallIndirect.OPCODE -> {
+                    if (Integer.compareUnsigned(c.intImmediate(1), tableCount) >= 0) {
+                        throw new IllegalArgumentException("Unknown table %d".formatted(c.intImmediate(1)));
+                    }
+
+                    popVal(I32);
+                    call(type(c.intImmediate(0)));
+                }
+                case Instruction.Drop.OPCODE -> popVal();
+                case Instruction.Select.OPCODE -> {
+                    popVal(I32);
+
+                    final var t1 = popVal();
+                    final var t2 = popVal();
+
+                    if (t1 != null && t2 != null && t1 != t2) {
+                        throw new IllegalArgumentException("select of %s and %s".formatted(t1, t2));
+                    }
+
+                    pushVal(t1 == null ? t2 : t1);
+                }
+                case Instruction.SelectWithType.OPCODE -> {
+                    if (c.intImmediate(0) != 1) {
+                        throw new IllegalArgumentException("select must have a single type");
+                    }
+
+                    final var t = ValType.get(c.intImmediate(1));
+
+                    popVal(I32);
+                    popVal(t);
+                    popVal(t);
+                    pushVal(t);
+                }
+                case Instruction.LocalGet.OPCODE -> pushVal(local(c.intImmediate(0)));
+                case Instruction.LocalSet.OPCODE -> popVal(local(c.intImmediate(0)));
+                case Instruction.LocalTee.OPCODE -> {
+                    final var t = local(c.intImmediate(0));
+
+                    popVal(t);
+                    pushVal(t);
+                }
+                case Instruction.GlobalGet.OPCODE -> pushVal(global(c.intImmediate(0)).valType());
+                case Instruction.GlobalSet.OPCODE -> {
+                    final var global = global(c.intImmediate(0));
+
+                    if (!global.mut()) {
+                        throw new IllegalArgumentException("Global %d is immutable".formatted(c.intImmediate(0)));
+                    }
+
+                    popVal(global.valType());
+                }
+                case Instruction.I32Const.OPCODE -> pushVal(I32);
+                case Instruction.I64Const.OPCODE -> pushVal(I64);
+                case Instruction.F32Const.OPCODE -> pushVal(F32);
+                case Instruction.F64Const.OPCODE -> pushVal(F64);
+                case Instruction.I32LoadMem.OPCODE, Instruction.F32LoadMem.OPCODE -> load(2, opcode == Instruction.I32LoadMem.OPCODE ? I32 : F32);
+                case Instruction.I64LoadMem.OPCODE, Instruction.F64LoadMem.OPCODE -> load(3, opcode == Instruction.I64LoadMem.OPCODE ? I64 : F64);
+                case Instruction.I32LoadMem8S.OPCODE, Instruction.I32LoadMem8U.OPCODE -> load(0, I32);
+                case Instruction.I32LoadMem16S.OPCODE, Instruction.I32LoadMem16U.OPCODE -> load(1, I32);
+                case Instruction.I64LoadMem8S.OPCODE, Instruction.I64LoadMem8U.OPCODE -> load(0, I64);
+                case Instruction.I64LoadMem16S.OPCODE, Instruction.I64LoadMem16U.OPCODE -> load(1, I64);
+                case Instruction.I64LoadMem32S.OPCODE, Instruction.I64LoadMem32U.OPCODE -> load(2, I64);
+                case Instruction.I32StoreMem.OPCODE -> store(2, I32);
+                case Instruction.I64StoreMem.OPCODE -> store(3, I64);
+                case Instruction.F32StoreMem.OPCODE -> store(2, F32);
+                case Instruction.F64StoreMem.OPCODE -> store(3, F64);
+                case Instruction.I32StoreMem8.OPCODE -> store(0, I32);
+                case Instruction.I32StoreMem16.OPCODE -> store(1, I32);
+                case Instruction.I64StoreMem8.OPCODE -> store(0, I64);
+                case Instruction.I64StoreMem16.OPCODE -> store(1, I64);
+                case Instruction.I64StoreMem32.OPCODE -> store(2, I64);
+                case Instruction.MemorySize.OPCODE -> {
+                    memory();
+                    pushVal(I32);
+                }
+                case Instruction.MemoryGrow.OPCODE -> {
+                    memory();
+                    popVal(I32);
+                    pushVal(I32);
+                }
+                case Instruction.AtomicNotify.OPCODE -> call(atomic(2, new FuncType(List.of(I32, I32), List.of(I32))));
+                case Instruction.I32AtomicWait.OPCODE -> call(atomic(2, new FuncType(List.of(I32, I32, I64), List.of(I32))));
+                case Instruction.I64AtomicWait.OPCODE -> call(atomic(3, new FuncType(List.of(I32, I64, I64), List.of(I32))));
+                case Instruction.AtomicFence.OPCODE -> {
+                }
+                case Instruction.S128Const.OPCODE -> pushVal(V128);
+                case Instruction.I8x16Shuffle.OPCODE -> {
+                    for (int i = 0; i < 16; i++) {
+                        if ((c.immediate(i / 8) >>> 8 * (i % 8) & 0xff) >= 32) {
+                            throw new IllegalArgumentException("Invalid lane index");
+                        }
+                    }
+
+                    call(V128_V128_V128);
+                }
+                case Instruction.S128LoadMem.OPCODE -> load(4, V128);
+                case Instruction.S128Load8x8S.OPCODE, Instruction.S128Load8x8U.OPCODE, Instruction.S128Load16x4S.OPCODE,
+                     Instruction.S128Load16x4U.OPCODE, Instruction.S128Load32x2S.OPCODE, Instruction.S128Load32x2U.OPCODE,
+                     Instruction.S128Load64Splat.OPCODE, Instruction.S128Load64Zero.OPCODE -> load(3, V128);
+                case Instruction.S128Load8Splat.OPCODE -> load(0, V128);
+                case Instruction.S128Load16Splat.OPCODE -> load(1, V128);
+                case Instruction.S128Load32Splat.OPCODE, Instruction.S128Load32Zero.OPCODE -> load(2, V128);
+                case Instruction.S128StoreMem.OPCODE -> store(4, V128);
+                case Instruction.S128Load8Lane.OPCODE, Instruction.S128Load16Lane.OPCODE, Instruction.S128Load32Lane.OPCODE,
+                     Instruction.S128Load64Lane.OPCODE -> {
+                    memoryLane(opcode - Instruction.S128Load8Lane.OPCODE);
+                    pushVal(V128);
+                }
+                case Instruction.S128Store8Lane.OPCODE, Instruction.S128Store16Lane.OPCODE, Instruction.S128Store32Lane.OPCODE,
+                     Instruction.S128Store64Lane.OPCODE -> memoryLane(opcode - Instruction.S128Store8Lane.OPCODE);
+                case Instruction.I8x16ExtractLaneS.OPCODE, Instruction.I8x16ExtractLaneU.OPCODE -> extractLane(16, I32);
+                case Instruction.I16x8ExtractLaneS.OPCODE, Instruction.I16x8ExtractLaneU.OPCODE -> extractLane(8, I32);
+                case Instruction.I32x4ExtractLane.OPCODE -> extractLane(4, I32);
+                case Instruction.I64x2ExtractLane.OPCODE -> extractLane(2, I64);
+                case Instruction.F32x4ExtractLane.OPCODE -> extractLane(4, F32);
+                case Instruction.F64x2ExtractLane.OPCODE -> extractLane(2, F64);
+                case Instruction.I8x16ReplaceLane.OPCODE -> replaceLane(16, I32);
+                case Instruction.I16x8ReplaceLane.OPCODE -> replaceLane(8, I32);
+                case Instruction.I32x4ReplaceLane.OPCODE -> replaceLane(4, I32);
+                case Instruction.I64x2ReplaceLane.OPCODE -> replaceLane(2, I64);
+                case Instruction.F32x4ReplaceLane.OPCODE -> replaceLane(4, F32);
+                case Instruction.F64x2ReplaceLane.OPCODE -> replaceLane(2, F64);
+                default -> {
+                    final FuncType type;
+
+                    if (opcode >= Instruction.I32AtomicLoad.OPCODE && opcode <= Instruction.I64AtomicCompareExchange32U.OPCODE) {
+                        type = atomicAccess(opcode - Instruction.I32AtomicLoad.OPCODE);
+                    } else if (opcode >= Instruction.S128LoadMem.OPCODE && opcode <= Instruction.F64x2ConvertLowI32x4U.OPCODE) {
+                        type = simd(opcode);
+                    } else {
+                        type = numeric(opcode);
+                    }
+
+                    if (type == null) {
+                        throw new UnsupportedOperationException("Opcode not supported yet %04x".formatted(opcode));
+                    }
+
+                    call(type);
+                }
+            }
+        }
+
+        private void call(FuncType type) {
+            popVals(type.args());
+            pushVals(type.rets());
+        }
+
+        private void load(int maxAlign, ValType type) {
+            memory();
+            align(maxAlign);
+            popVal(I32);
+            pushVal(type);
+        }
+
+        private void store(int maxAlign, ValType type) {
+            memory();
+            align(maxAlign);
+            popVal(type);
+            popVal(I32);
+        }
+
+        /**
+         * Type of atomic loads, stores and read-modify-writes. They come in groups of 7 opcodes, one per access: i32,
+         * i64, 8 and 16 bits of an i32, then 8, 16 and 32 bits of an i64.
+         */
+        private FuncType atomicAccess(int index) {
+            final var access = index % 7;
+            final var type = access == 0 || access == 2 || access == 3 ? I32 : I64;
+            final var align = switch (access) {
+                case 0, 6 -> 2;
+                case 1 -> 3;
+                case 2, 4 -> 0;
+                default -> 1;
+            };
+
+            return atomic(align, switch (index / 7) {
+                case 0 -> new FuncType(List.of(I32), List.of(type));
+                case 1 -> new FuncType(List.of(I32, type), List.of());
+                case 8 -> new FuncType(List.of(I32, type, type), List.of(type));
+                default -> new FuncType(List.of(I32, type), List.of(type));
+            });
+        }
+
+        private FuncType atomic(int align, FuncType type) {
+            memory();
+
+            if (c.intImmediate(0) != align) {
+                throw new IllegalArgumentException("Alignment of atomic instructions must be natural");
+            }
+
+            return type;
+        }
+
+        /**
+         * Loads and stores of a lane, of 8 bits shifted left by the size
+         */
+        private void memoryLane(int size) {
+            memory();
+            align(size);
+            lane(c.intImmediate(2), 16 >> size);
+            popVal(V128);
+            popVal(I32);
+        }
+
+        private void extractLane(int lanes, ValType type) {
+            lane(c.intImmediate(0), lanes);
+            popVal(V128);
+            pushVal(type);
+        }
+
+        private void replaceLane(int lanes, ValType type) {
+            lane(c.intImmediate(0), lanes);
+            popVal(type);
+            popVal(V128);
+            pushVal(V128);
+        }
+
+        private void lane(int lane, int lanes) {
+            if (lane >= lanes) {
+                throw new IllegalArgumentException("Invalid lane index");
+            }
+        }
+
+        private void memory() {
+            if (!hasMemory) {
+                throw new IllegalArgumentException("Module has no memory");
+            }
+        }
+
+        private void align(int maxAlign) {
+            if (Integer.compareUnsigned(c.intImmediate(0), maxAlign) > 0) {
+                throw new IllegalArgumentException("Alignment must not be larger than natural");
+            }
+        }
+
+        private ValType local(int idx) {
+            if (Integer.compareUnsigned(idx, locals.size()) >= 0) {
+                throw new IllegalArgumentException("Unknown local %d".formatted(idx));
+            }
+
+            return locals.get(idx);
+        }
+
+        private GlobalType global(int idx) {
+            if (Integer.compareUnsigned(idx, globalTypes.size()) >= 0) {
+                throw new IllegalArgumentException("Unknown global %d".formatted(idx));
+            }
+
+            return globalTypes.get(idx);
+        }
+
+        private FuncType blockType(int encoded) {
+            return switch (BlockType.of(encoded)) {
+                case BlockType.Empty empty -> EMPTY;
+                case BlockType.Value value -> new FuncType(List.of(), List.of(value.valType()));
+                case BlockType.Type type -> type(type.idx().value());
+            };
+        }
+
+        private Control label(int depth) {
+            if (Integer.compareUnsigned(depth, ctrls.size()) >= 0) {
+                throw new IllegalArgumentException("Unknown label %d".formatted(depth));
+            }
+
+            return ctrls.get(ctrls.size() - 1 - depth);
+        }
+
+        private void pushVal(ValType type) {
+            vector |= type == V128;
+            vals.add(type);
+            maxHeight = Math.max(maxHeight, vals.size());
+        }
+
+        private void pushVals(List<ValType> types) {
+            types.forEach(this::pushVal);
+        }
+
+        /**
+         * Pops a value of any type, null when unknown
+         */
+        private ValType popVal() {
+            final var ctrl = ctrls.get(ctrls.size() - 1);
+
+            if (vals.size() == ctrl.height) {
+                if (ctrl.unreachable) {
+                    return null;
+                }
+
+                throw new IllegalArgumentException("Missing operand");
+            }
+
+            return vals.remove(vals.size() - 1);
+        }
+
+        private ValType popVal(ValType expected) {
+            final var actual = popVal();
+
+            if (actual != null && actual != expected) {
+                throw new IllegalArgumentException("Expected %s on the stack but got %s".formatted(expected, actual));
+            }
+
+            return actual == null ? expected : actual;
+        }
+
+        private List<ValType> popVals(List<ValType> types) {
+            final var popped = new ValType[types.size()];
+
+            for (int i = types.size() - 1; i >= 0; i--) {
+                popped[i] = popVal(types.get(i));
+            }
+
+            return List.of(popped);
+        }
+
+        private void pushCtrl(int opcode, int start, FuncType type) {
+            final var ctrl = new Control(opcode, start, type, vals.size());
+
+            if (start >= 0 && opcode != Instruction.Else.OPCODE) {
+                blockTypes[start] = type;
+                blockStacks[start] = ctrls.isEmpty() || !ctrls.get(ctrls.size() - 1).unreachable ? vals.toArray(ValType[]::new) : null;
+            }
+
+            ctrls.add(ctrl);
+            maxDepth = Math.max(maxDepth, ctrls.size());
+            pushVals(type.args());
+        }
+
+        private Control popCtrl() {
+            if (ctrls.isEmpty()) {
+                throw new IllegalArgumentException("end without block");
+            }
+
+            final var ctrl = ctrls.get(ctrls.size() - 1);
+
+            popVals(ctrl.type.rets());
+
+            if (vals.size() != ctrl.height) {
+                throw new IllegalArgumentException("%d values left at the end of the block".formatted(vals.size() - ctrl.height));
+            }
+
+            return ctrls.remove(ctrls.size() - 1);
+        }
+
+        private void unreachable() {
+            final var ctrl = ctrls.get(ctrls.size() - 1);
+
+            vals.subList(ctrl.height, vals.size()).clear();
+            ctrl.unreachable = true;
+        }
+    }
+
+    private static final FuncType I32_I32 = new FuncType(List.of(I32), List.of(I32));
+    private static final FuncType I32_I32_I32 = new FuncType(List.of(I32, I32), List.of(I32));
+    private static final FuncType I64_I32 = new FuncType(List.of(I64), List.of(I32));
+    private static final FuncType I64_I64_I32 = new FuncType(List.of(I64, I64), List.of(I32));
+    private static final FuncType F32_F32_I32 = new FuncType(List.of(F32, F32), List.of(I32));
+    private static final FuncType F64_F64_I32 = new FuncType(List.of(F64, F64), List.of(I32));
+    private static final FuncType I64_I64 = new FuncType(List.of(I64), List.of(I64));
+    private static final FuncType I64_I64_I64 = new FuncType(List.of(I64, I64), List.of(I64));
+    private static final FuncType F32_F32 = new FuncType(List.of(F32), List.of(F32));
+    private static final FuncType F32_F32_F32 = new FuncType(List.of(F32, F32), List.of(F32));
+    private static final FuncType F64_F64 = new FuncType(List.of(F64), List.of(F64));
+    private static final FuncType F64_F64_F64 = new FuncType(List.of(F64, F64), List.of(F64));
+    private static final FuncType I32_V128 = new FuncType(List.of(I32), List.of(V128));
+    private static final FuncType I64_V128 = new FuncType(List.of(I64), List.of(V128));
+    private static final FuncType F32_V128 = new FuncType(List.of(F32), List.of(V128));
+    private static final FuncType F64_V128 = new FuncType(List.of(F64), List.of(V128));
+    private static final FuncType V128_I32 = new FuncType(List.of(V128), List.of(I32));
+    private static final FuncType V128_V128 = new FuncType(List.of(V128), List.of(V128));
+    private static final FuncType V128_I32_V128 = new FuncType(List.of(V128, I32), List.of(V128));
+    private static final FuncType V128_V128_V128 = new FuncType(List.of(V128, V128), List.of(V128));
+    private static final FuncType V128_V128_V128_V128 = new FuncType(List.of(V128, V128, V128), List.of(V128));
+
+    /**
+     * Type of numeric instructions, null for other opcodes. Opcodes are grouped by type in the binary format.
+     */
+    private static FuncType numeric(int opcode) {
+        if (opcode == Instruction.I32Eqz.OPCODE) {
+            return I32_I32;
+        } else if (opcode >= Instruction.I32Eq.OPCODE && opcode <= Instruction.I32GeU.OPCODE) {
+            return I32_I32_I32;
+        } else if (opcode == Instruction.I64Eqz.OPCODE) {
+            return I64_I32;
+        } else if (opcode >= Instruction.I64Eq.OPCODE && opcode <= Instruction.I64GeU.OPCODE) {
+            return I64_I64_I32;
+        } else if (opcode >= Instruction.F32Eq.OPCODE && opcode <= Instruction.F32Ge.OPCODE) {
+            return F32_F32_I32;
+        } else if (opcode >= Instruction.F64Eq.OPCODE && opcode <= Instruction.F64Ge.OPCODE) {
+            return F64_F64_I32;
+        } else if (opcode >= Instruction.I32Clz.OPCODE && opcode <= Instruction.I32Popcnt.OPCODE) {
+            return I32_I32;
+        } else if (opcode >= Instruction.I32Add.OPCODE && opcode <= Instruction.I32Ror.OPCODE) {
+            return I32_I32_I32;
+        } else if (opcode >= Instruction.I64Clz.OPCODE && opcode <= Instruction.I64Popcnt.OPCODE) {
+            return I64_I64;
+        } else if (opcode >= Instruction.I64Add.OPCODE && opcode <= Instruction.I64Ror.OPCODE) {
+            return I64_I64_I64;
+        } else if (opcode >= Instruction.F32Abs.OPCODE && opcode <= Instruction.F32Sqrt.OPCODE) {
+            return F32_F32;
+        } else if (opcode >= Instruction.F32Add.OPCODE && opcode <= Instruction.F32CopySign.OPCODE) {
+            return F32_F32_F32;
+        } else if (opcode >= Instruction.F64Abs.OPCODE && opcode <= Instruction.F64Sqrt.OPCODE) {
+            return F64_F64;
+        } else if (opcode >= Instruction.F64Add.OPCODE && opcode <= Instruction.F64CopySign.OPCODE) {
+            return F64_F64_F64;
+        }
+
+        return switch (opcode) {
+            case Instruction.I32ConvertI64.OPCODE -> new FuncType(List.of(I64), List.of(I32));
+            case Instruction.I32SConvertF32.OPCODE, Instruction.I32UConvertF32.OPCODE, Instruction.I32ReinterpretF32.OPCODE -> new FuncType(List.of(F32), List.of(I32));
+            case Instruction.I32SConvertF64.OPCODE, Instruction.I32UConvertF64.OPCODE -> new FuncType(List.of(F64), List.of(I32));
+            case Instruction.I64SConvertI32.OPCODE, Instruction.I64UConvertI32.OPCODE -> new FuncType(List.of(I32), List.of(I64));
+            case Instruction.I64SConvertF32.OPCODE, Instruction.I64UConvertF32.OPCODE -> new FuncType(List.of(F32), List.of(I64));
+            case Instruction.I64SConvertF64.OPCODE, Instruction.I64UConvertF64.OPCODE, Instruction.I64ReinterpretF64.OPCODE -> new FuncType(List.of(F64), List.of(I64));
+            case Instruction.F32SConvertI32.OPCODE, Instruction.F32UConvertI32.OPCODE, Instruction.F32ReinterpretI32.OPCODE -> new FuncType(List.of(I32), List.of(F32));
+            case Instruction.F32SConvertI64.OPCODE, Instruction.F32UConvertI64.OPCODE -> new FuncType(List.of(I64), List.of(F32));
+            case Instruction.F32ConvertF64.OPCODE -> new FuncType(List.of(F64), List.of(F32));
+            case Instruction.F64SConvertI32.OPCODE, Instruction.F64UConvertI32.OPCODE -> new FuncType(List.of(I32), List.of(F64));
+            case Instruction.F64SConvertI64.OPCODE, Instruction.F64UConvertI64.OPCODE, Instruction.F64ReinterpretI64.OPCODE -> new FuncType(List.of(I64), List.of(F64));
+            case Instruction.F64ConvertF32.OPCODE -> new FuncType(List.of(F32), List.of(F64));
+            case Instruction.I32SExtendI8.OPCODE, Instruction.I32SExtendI16.OPCODE -> I32_I32;
+            case Instruction.I64SExtendI8.OPCODE, Instruction.I64SExtendI16.OPCODE, Instruction.I64SExtendI32.OPCODE -> I64_I64;
+            default -> null;
+        };
+    }
+
+    /**
+     * Type of v128 instructions without immediates. Those not listed are binary operations of two v128.
+     */
+    private static FuncType simd(int opcode) {
+        return switch (opcode) {
+            case Instruction.I8x16Splat.OPCODE, Instruction.I16x8Splat.OPCODE, Instruction.I32x4Splat.OPCODE -> I32_V128;
+            case Instruction.I64x2Splat.OPCODE -> I64_V128;
+            case Instruction.F32x4Splat.OPCODE -> F32_V128;
+            case Instruction.F64x2Splat.OPCODE -> F64_V128;
+            case Instruction.V128AnyTrue.OPCODE, Instruction.I8x16AllTrue.OPCODE, Instruction.I8x16BitMask.OPCODE,
+                 Instruction.I16x8AllTrue.OPCODE, Instruction.I16x8BitMask.OPCODE, Instruction.I32x4AllTrue.OPCODE,
+                 Instruction.I32x4BitMask.OPCODE, Instruction.I64x2AllTrue.OPCODE, Instruction.I64x2BitMask.OPCODE -> V128_I32;
+            case Instruction.I8x16Shl.OPCODE, Instruction.I8x16ShrS.OPCODE, Instruction.I8x16ShrU.OPCODE,
+                 Instruction.I16x8Shl.OPCODE, Instruction.I16x8ShrS.OPCODE, Instruction.I16x8ShrU.OPCODE,
+                 Instruction.I32x4Shl.OPCODE, Instruction.I32x4ShrS.OPCODE, Instruction.I32x4ShrU.OPCODE,
+                 Instruction.I64x2Shl.OPCODE, Instruction.I64x2ShrS.OPCODE, Instruction.I64x2ShrU.OPCODE -> V128_I32_V128;
+            case Instruction.S128Select.OPCODE -> V128_V128_V128_V128;
+            case Instruction.S128Not.OPCODE, Instruction.F32x4DemoteF64x2Zero.OPCODE, Instruction.F64x2PromoteLowF32x4.OPCODE,
+                 Instruction.I8x16Abs.OPCODE, Instruction.I8x16Neg.OPCODE, Instruction.I8x16Popcnt.OPCODE,
+                 Instruction.F32x4Ceil.OPCODE, Instruction.F32x4Floor.OPCODE, Instruction.F32x4Trunc.OPCODE,
+                 Instruction.F32x4NearestInt.OPCODE, Instruction.F64x2Ceil.OPCODE, Instruction.F64x2Floor.OPCODE,
+                 Instruction.F64x2Trunc.OPCODE, Instruction.I16x8ExtAddPairwiseI8x16S.OPCODE, Instruction.I16x8ExtAddPairwiseI8x16U.OPCODE,
+                 Instruction.I32x4ExtAddPairwiseI16x8S.OPCODE, Instruction.I32x4ExtAddPairwiseI16x8U.OPCODE, Instruction.I16x8Abs.OPCODE,
+                 Instruction.I16x8Neg.OPCODE, Instruction.I16x8SConvertI8x16Low.OPCODE, Instruction.I16x8SConvertI8x16High.OPCODE,
+                 Instruction.I16x8UConvertI8x16Low.OPCODE, Instruction.I16x8UConvertI8x16High.OPCODE, Instruction.F64x2NearestInt.OPCODE,
+                 Instruction.I32x4Abs.OPCODE, Instruction.I32x4Neg.OPCODE, Instruction.I32x4SConvertI16x8Low.OPCODE,
+                 Instruction.I32x4SConvertI16x8High.OPCODE, Instruction.I32x4UConvertI16x8Low.OPCODE, Instruction.I32x4UConvertI16x8High.OPCODE,
+                 Instruction.I64x2Abs.OPCODE, Instruction.I64x2Neg.OPCODE, Instruction.I64x2SConvertI32x4Low.OPCODE,
+                 Instruction.I64x2SConvertI32x4High.OPCODE, Instruction.I64x2UConvertI32x4Low.OPCODE, Instruction.I64x2UConvertI32x4High.OPCODE,
+                 Instruction.F32x4Abs.OPCODE, Instruction.F32x4Neg.OPCODE, Instruction.F32x4Sqrt.OPCODE,
+                 Instruction.F64x2Abs.OPCODE, Instruction.F64x2Neg.OPCODE, Instruction.F64x2Sqrt.OPCODE,
+                 Instruction.I32x4SConvertF32x4.OPCODE, Instruction.I32x4UConvertF32x4.OPCODE, Instruction.F32x4SConvertI32x4.OPCODE,
+                 Instruction.F32x4UConvertI32x4.OPCODE, Instruction.I32x4TruncSatF64x2SZero.OPCODE, Instruction.I32x4TruncSatF64x2UZero.OPCODE,
+                 Instruction.F64x2ConvertLowI32x4S.OPCODE, Instruction.F64x2ConvertLowI32x4U.OPCODE -> V128_V128;
+            default -> V128_V128_V128;
+        };
+    }
+}
@@ -1,104 +1,97 @@
 package io.github.ffortier.jasm.binary;
 
-import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.List;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Executor;
+
+import static java.util.Objects.requireNonNull;
 
 public class WebAssembly {
-    private static final byte[] WASM_HEADER = {0x00, 0x61, 0x73, 0x6d, 0x01, 0x00, 0x00, 0x00};
+    private final Executor decoder;
 
-    private static void readWasmHeader(BufferedInputStream in) throws IOException {
-        byte[] buf = in.readNBytes(WASM_HEADER.length);
+    public WebAssembly() {
+        this.decoder = null;
+    }
 
-        if (!Arrays.equals(WASM_HEADER, buf)) {
-            throw new IOException("invalid wasm header");
-        }
+    /**
+     * @param eagerDecoding decode every function body while compiling, for ahead-of-time use. Otherwise bodies are
+     *                      decoded on first access.
+     */
+    public WebAssembly(boolean eagerDecoding) {
+        this.decoder = eagerDecoding ? Runnable::run : null;
     }
 
+    /**
+     * Decode every function body while compiling, in parallel on the given executor (e.g. a {@link
+     * java.util.concurrent.ForkJoinPool}).
+     */
+    public WebAssembly(Executor decoder) {
+        this.decoder = requireNonNull(decoder, "decoder");
+    }
+
+    /**
+     * Compiles the module while it is read from the stream, see {@link #compile(ReadableByteChannel)}. The stream is
+     * closed.
+     */
     public Module compile(InputStream in) throws IOException {
-        try (final var buffered = new BufferedInputStream(in)) {
-            return compile(buffered);
+        try (in) {
+            return compile(Channels.newChannel(in));
         }
     }
 
-    public Module compile(BufferedInputStream in) throws IOException {
-        readWasmHeader(in);
-
-        final var moduleBuilder = ModuleBuilder.builder();
-
-        Section.FunctionSection functionSection = null;
-        Section.CodeSection codeSection = null;
-
-        while (true) {
-            switch (Section.read(in).orElse(null)) {
-                case null -> {
-                    if (functionSection != null && codeSection != null) {
-                        moduleBuilder.funcs(buildFuncs(codeSection, functionSection));
-                    }
-
-                    return moduleBuilder.build();
-                }
-                case Section.CodeSection _codeSection -> {
-                    codeSection = _codeSection;
-                }
-                case Section.DataSection dataSection -> {
-                    moduleBuilder.data(dataSection.data());
-                }
-                case Section.ElementSection elementSection -> {
-                    moduleBuilder.elements(elementSection.elements());
-                }
-                case Section.ExportSection exportSection -> {
-                    moduleBuilder.exports(exportSection.exports());
-                }
-                case Section.FunctionSection _functionSection -> {
-                    functionSection = _functionSection;
-                }
-                case Section.GlobalSection globalSection -> {
-                    moduleBuilder.globals(globalSection.globals());
-                }
-                case Section.ImportSection importSection -> {
-                    moduleBuilder.imports(importSection.imports());
-                }
-                case Section.MemorySection memorySection -> {
-                    moduleBuilder.memories(memorySection.memories());
-                }
-                case Section.StartSection startSection -> {
-                    moduleBuilder.start(startSection.start());
-                }
-                case Section.TableSection tableSection -> {
-                    moduleBuilder.tables(tableSection.tables());
-                }
-                case Section.TypeSection typeSection -> {
-                    moduleBuilder.types(typeSection.types());
-                }
-                case Section.CustomSection customSection -> {
-                    // ignored
-                }
-                case Section.DataCountSection dataCountSection -> {
-                    // ignored
-                }
-            }
-        }
+    /**
+     * Compiles the module while it is read from the channel, rather than once it has been read whole. Function bodies
+     * are handed to the decoder as soon as they arrive, so decoding overlaps the transfer of the rest of the module.
+     * The channel must be in blocking mode and is not closed.
+     */
+    public Module compile(ReadableByteChannel channel) throws IOException {
+        return compile(channel, null);
     }
 
-    private List<Func> buildFuncs(Section.CodeSection codeSection, Section.FunctionSection functionSection) {
-        if (codeSection.codes().size() != functionSection.typeIndices().size()) {
-            throw new IllegalStateException("Expected code section and function section to contain the same number of elements");
-        }
+    /**
+     * Compiles the module while it is read from the channel, reporting its content to the listener as it arrives. The
+     * sections preceding the code section are known to the listener when it visits the first code entry.
+     */
+    public Module compile(ReadableByteChannel channel, ModuleVisitor listener) throws IOException {
+        final var builder = new ModuleTreeBuilder(decoder, listener);
 
-        final var count = codeSection.codes().size();
-        final var funcs = new ArrayList<Func>(count);
+        new ModuleReader(channel).accept(builder);
 
-        for (int i = 0; i < count; i++) {
-            final var code = codeSection.codes().get(i);
-            final var funcType = functionSection.typeIndices().get(i);
+        return builder.module();
+    }
 
-            funcs.add(new Func(funcType, code.locals(), code.body()));
+    /**
+     * Maps the file in memory and compiles it. Sections, code bodies and data segments of the resulting module are
+     * slices of the mapping, the file content is never copied on the heap.
+     */
+    public Module compile(Path path) throws IOException {
+        try (final var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return compile(channel);
         }
+    }
+
+    /**
+     * Maps the whole channel in memory and compiles it. The mapping stays valid after the channel is closed.
+     */
+    public Module compile(FileChannel channel) throws IOException {
+        return compile(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+    }
+
+    /**
+     * Compiles the remaining bytes of the buffer. The module keeps references to slices of the buffer, so its content
+     * must not be modified afterward.
+     */
+    public Module compile(ByteBuffer buffer) throws IOException {
+        final var builder = new ModuleTreeBuilder(decoder);
+
+        new ModuleReader(buffer).accept(builder);
 
-        return funcs;
+        return builder.module();
     }
 }
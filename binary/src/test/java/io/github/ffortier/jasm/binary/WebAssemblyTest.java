@@ -4,8 +4,18 @@ import org.assertj.core.api.WithAssertions;
 import org.junit.jupiter.api.Test;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.Pipe;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
 
 public class WebAssemblyTest implements WithAssertions {
     private final WebAssembly parser = new WebAssembly();
@@ -20,4 +30,246 @@ public class WebAssemblyTest implements WithAssertions {
 //        assertThat(mod.sections().size()).isGreaterThan(0);
     }
 
+    @Test
+    public void compileMapped() throws IOException {
+        final var mod = parser.compile(Path.of(System.getenv("TEST_HELLO_WASM")));
+        final var data = mod.data().get(0).initialBytes();
+        final var bytes = new byte[data.remaining()];
+
+        data.get(bytes);
+
+        assertThat(new String(bytes, StandardCharsets.UTF_8)).isEqualTo("Hello World from WebAssembly!");
+        assertThat(mod.data().get(0).initialBytes().position()).isZero();
+        assertThat(mod.data().get(0).initialBytes().remaining()).isEqualTo(bytes.length);
+        assertThat(mod.funcs()).hasSize(1);
+    }
+
+    @Test
+    public void decodeBodiesLazily() throws IOException {
+        final var body = parser.compile(Path.of(System.getenv("TEST_HELLO_WASM"))).funcs().get(0).body();
+
+        assertThat(body.isDecoded()).isFalse();
+        assertThat(body.get().instructions()).hasSize(3);
+        assertThat(body.isDecoded()).isTrue();
+
+        final var eager = new WebAssembly(true).compile(Path.of(System.getenv("TEST_HELLO_WASM")));
+
+        assertThat(eager.funcs().get(0).body().isDecoded()).isTrue();
+    }
+
+    @Test
+    public void decodeBodiesInParallel() throws IOException {
+        final var mod = new WebAssembly(ForkJoinPool.commonPool()).compile(Path.of(System.getenv("TEST_HELLO_WASM")));
+
+        assertThat(mod.funcs()).allMatch(func -> func.body().isDecoded());
+    }
+
+    @Test
+    public void packedBody() throws IOException {
+        final var body = parser.compile(Path.of(System.getenv("TEST_HELLO_WASM"))).funcs().get(0).body();
+        final var cursor = body.packed().cursor();
+
+        assertThat(cursor.next()).isTrue();
+        assertThat(cursor.opcode()).isEqualTo(Instruction.I32Const.OPCODE);
+        assertThat(cursor.intImmediate(0)).isEqualTo(0);
+        assertThat(cursor.next()).isTrue();
+        assertThat(cursor.intImmediate(0)).isEqualTo(29);
+        assertThat(cursor.next()).isTrue();
+        assertThat(cursor.opcode()).isEqualTo(Instruction.CallFunction.OPCODE);
+        assertThat(cursor.next()).isFalse();
+
+        assertThat(body.get().pack().toExpr()).isEqualTo(body.get());
+    }
+
+    @Test
+    public void packedSimdBody() {
+        // v128.const of the bytes 0 to 15, i8x16.extract_lane_u 9, end
+        final var bytes = ByteBuffer.allocate(22).order(ByteOrder.LITTLE_ENDIAN);
+
+        bytes.put((byte) 0xfd).put((byte) 0x0c);
+
+        for (int i = 0; i < 16; i++) {
+            bytes.put((byte) i);
+        }
+
+        bytes.put((byte) 0xfd).put((byte) 0x16).put((byte) 9).put((byte) 0x0b).flip();
+
+        final var cursor = PackedExpr.read(bytes).cursor();
+
+        assertThat(cursor.next()).isTrue();
+        assertThat(cursor.opcode()).isEqualTo(Instruction.S128Const.OPCODE);
+        assertThat(cursor.immediate(0)).isEqualTo(0x0706050403020100L);
+        assertThat(cursor.immediate(1)).isEqualTo(0x0f0e0d0c0b0a0908L);
+        assertThat(cursor.next()).isTrue();
+        assertThat(cursor.instruction()).isEqualTo(new Instruction.I8x16ExtractLaneU(9));
+        assertThat(cursor.next()).isFalse();
+    }
+
+    @Test
+    public void validateBody() throws IOException {
+        final var mod = parser.compile(Path.of(System.getenv("TEST_HELLO_WASM")));
+        final var validation = new Validator(mod).validate(mod.funcs().get(0));
+
+        assertThat(validation.maxHeight()).isEqualTo(2);
+        assertThat(validation.maxDepth()).isEqualTo(1);
+    }
+
+    @Test
+    public void rejectInvalidBodies() throws IOException {
+        final var mod = parser.compile(Path.of(System.getenv("TEST_HELLO_WASM")));
+
+        // i32.const 1, i64.const 2, i32.add
+        assertThatIllegalArgumentException().isThrownBy(() -> validate(mod, 0x41, 0x01, 0x42, 0x02, 0x6a, 0x1a, 0x0b))
+                .withMessageContaining("Expected I32 on the stack but got I64");
+        // block (result i32), i64.const 0, end, drop
+        assertThatIllegalArgumentException().isThrownBy(() -> validate(mod, 0x02, 0x7f, 0x42, 0x00, 0x0b, 0x1a, 0x0b))
+                .withMessageContaining("Expected I32 on the stack but got I64");
+        // i32.const 1 left in a function without results
+        assertThatIllegalArgumentException().isThrownBy(() -> validate(mod, 0x41, 0x01, 0x0b))
+                .withMessageContaining("1 values left at the end of the block");
+    }
+
+    @Test
+    public void rejectUnbalancedBlocks() throws IOException {
+        final var mod = parser.compile(Path.of(System.getenv("TEST_HELLO_WASM")));
+
+        // block, else, end
+        assertThatIllegalArgumentException().isThrownBy(() -> validate(mod, 0x02, 0x40, 0x05, 0x0b, 0x0b))
+                .withMessageContaining("else without if");
+        // block, end of the block but not of the function
+        assertThatIllegalArgumentException().isThrownBy(() -> validate(mod, 0x02, 0x40, 0x0b))
+                .withMessageContaining("Missing end of 1 blocks");
+        // end of the function, then another end
+        assertThatIllegalArgumentException().isThrownBy(() -> validate(mod, 0x0b, 0x0b))
+                .withMessageContaining("1 bytes after the end of the body");
+    }
+
+    @Test
+    public void rejectBadBranches() throws IOException {
+        final var mod = parser.compile(Path.of(System.getenv("TEST_HELLO_WASM")));
+
+        // br 1 out of the function
+        assertThatIllegalArgumentException().isThrownBy(() -> validate(mod, 0x0c, 0x01, 0x0b))
+                .withMessageContaining("Unknown label 1");
+        // block, i32.const 0, br_if 2, end
+        assertThatIllegalArgumentException().isThrownBy(() -> validate(mod, 0x02, 0x40, 0x41, 0x00, 0x0d, 0x02, 0x0b, 0x0b))
+                .withMessageContaining("Unknown label 2");
+        // i32.const 0, br_table 0 default 3
+        assertThatIllegalArgumentException().isThrownBy(() -> validate(mod, 0x41, 0x00, 0x0e, 0x01, 0x00, 0x03, 0x0b))
+                .withMessageContaining("Unknown label 3");
+        // block (result i32), br 0 without the value, end, drop
+        assertThatIllegalArgumentException().isThrownBy(() -> validate(mod, 0x02, 0x7f, 0x0c, 0x00, 0x0b, 0x1a, 0x0b))
+                .withMessageContaining("Missing operand");
+    }
+
+    /**
+     * Validates a function of the module without parameters nor results, of the given body
+     */
+    private static Validator.Validation validate(Module mod, int... body) {
+        final var bytes = new byte[body.length];
+
+        for (int i = 0; i < body.length; i++) {
+            bytes[i] = (byte) body[i];
+        }
+
+        final var type = mod.types().indexOf(new FuncType(List.of(), List.of()));
+        final var func = new Func(new Index.TypeIdx(type), List.of(), new LazyExpr(ByteBuffer.wrap(bytes), 0));
+
+        return new Validator(mod).validate(func);
+    }
+
+    @Test
+    public void internTypes() throws IOException {
+        final var first = parser.compile(Path.of(System.getenv("TEST_HELLO_WASM")));
+        final var second = parser.compile(Path.of(System.getenv("TEST_HELLO_WASM")));
+
+        assertThat(second.types().get(0)).isSameAs(first.types().get(0));
+        assertThat(FuncType.intern(new FuncType(first.types().get(0).args(), first.types().get(0).rets()))).isSameAs(first.types().get(0));
+    }
+
+    @Test
+    public void internTypesConcurrently() {
+        final var interned = IntStream.range(0, 10_000).parallel()
+                .mapToObj(i -> FuncType.intern(new FuncType(List.of(ValType.NumType.F64, ValType.NumType.I64, ValType.NumType.F64), List.of(ValType.NumType.F32))))
+                .toList();
+
+        assertThat(interned).allSatisfy(funcType -> assertThat(funcType).isSameAs(interned.get(0)));
+    }
+
+    @Test
+    public void readSharedLimits() {
+        assertThat(Limits.read(ByteBuffer.wrap(new byte[]{0x03, 0x01, 0x02}))).isEqualTo(new Limits(1, 2, true));
+        assertThat(Limits.read(ByteBuffer.wrap(new byte[]{0x01, 0x01, 0x02})).shared()).isFalse();
+        assertThatIllegalArgumentException().isThrownBy(() -> Limits.read(ByteBuffer.wrap(new byte[]{0x02, 0x01})));
+    }
+
+    @Test
+    public void readGlobal() {
+        final var global = Global.read(ByteBuffer.wrap(new byte[]{0x7f, 0x00, 0x41, 0x2a, 0x0b}));
+
+        assertThat(global.type()).isEqualTo(new GlobalType(ValType.NumType.I32, false));
+        assertThat(global.init().instructions()).containsExactly(new Instruction.I32Const(42));
+    }
+
+    @Test
+    public void readNames() {
+        // module name "m", function 1 named "f", then local names which are skipped
+        final var names = Names.read(ByteBuffer.wrap(new byte[]{0x00, 0x02, 0x01, 'm', 0x01, 0x04, 0x01, 0x01, 0x01, 'f', 0x02, 0x01, 0x00}));
+
+        assertThat(names.module()).isEqualTo("m");
+        assertThat(names.function(1)).isEqualTo("f");
+        assertThat(names.function(2)).isEqualTo("f2");
+    }
+
+    @Test
+    public void visitModule() throws IOException {
+        final var opcodes = new ArrayList<Integer>();
+        final var imports = new ArrayList<String>();
+
+        try (final var channel = FileChannel.open(Path.of(System.getenv("TEST_HELLO_WASM")))) {
+            new ModuleReader(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size())).accept(new ModuleVisitor() {
+                @Override public void visitImport(String mod, String nm, ImportDesc desc) {
+                    imports.add(mod + "." + nm);
+                }
+
+                @Override public FunctionBodyVisitor visitCode(int codeIdx, Code code) {
+                    return new FunctionBodyVisitor() {
+                        @Override public void visitInstruction(int opcode, long[] immediates, int immediateCount) {
+                            opcodes.add(opcode);
+                        }
+                    };
+                }
+            });
+        }
+
+        assertThat(imports).containsExactly("console.log", "js.mem");
+        assertThat(opcodes).containsExactly(Instruction.I32Const.OPCODE, Instruction.I32Const.OPCODE, Instruction.CallFunction.OPCODE);
+    }
+
+    @Test
+    public void rejectNonBlockingChannels() throws IOException {
+        final var pipe = Pipe.open();
+
+        try (final var source = pipe.source(); final var sink = pipe.sink()) {
+            source.configureBlocking(false);
+
+            assertThatThrownBy(() -> parser.compile(source)).isInstanceOf(IllegalArgumentException.class);
+        }
+
+        // A channel that never makes progress fails instead of spinning
+        final ReadableByteChannel idle = new ReadableByteChannel() {
+            @Override public int read(ByteBuffer dst) {
+                return 0;
+            }
+
+            @Override public boolean isOpen() {
+                return true;
+            }
+
+            @Override public void close() {
+            }
+        };
+
+        assertThatThrownBy(() -> parser.compile(idle)).isInstanceOf(IOException.class);
+    }
 }
@@ -0,0 +1,39 @@
+"""Transpiles wasm modules at build time, see io.github.ffortier.jasm.cli.Precompiler."""
+
+load("@rules_java//java:defs.bzl", "java_import")
+
+def precompiled_module(name, src, module_interface, class_name, deps, visibility = None):
+    """Transpiles a wasm module into a jar holding a named class of the module and the module bytes.
+
+    The class is loaded with Transpiler.load, so the binary depends on //jasm/asm as well, and can be archived by
+    AppCDS along the other classes of the binary.
+
+    Args:
+      name: name of the java_import of the jar, depended on like a java_library.
+      src: the wasm module.
+      module_interface: binary name of the module interface.
+      class_name: binary name of the class of the module.
+      deps: java targets providing the module interface.
+      visibility: visibility of the java_import.
+    """
+    classpath = " ".join(["$(locations %s)" % dep for dep in deps])
+
+    native.genrule(
+        name = name + "_precompile",
+        srcs = [src] + deps,
+        outs = [name + ".jar"],
+        cmd = "$(location //jasm/cli:precompiler) --interface %s --class %s --classpath $$(echo %s | tr ' ' ':') --output $@ $(location %s)" % (
+            module_interface,
+            class_name,
+            classpath,
+            src,
+        ),
+        tools = ["//jasm/cli:precompiler"],
+    )
+
+    java_import(
+        name = name,
+        jars = [name + ".jar"],
+        visibility = visibility,
+        deps = deps,
+    )
@@ -0,0 +1,122 @@
+package io.github.ffortier.jasm.cli;
+
+import io.github.ffortier.jasm.asm.Transpiler;
+import io.github.ffortier.jasm.binary.WebAssembly;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+/**
+ * Transpiles a wasm module at build time into a jar holding the class of the module, see
+ * {@link Transpiler#precompile}, and the module bytes. At runtime, {@link Transpiler#load} instantiates the class
+ * without generating any bytecode, and the class can be archived by AppCDS like the other classes of the application:
+ * <pre>
+ * java -XX:ArchiveClassesAtExit=app.jsa -cp app.jar:module.jar ...
+ * java -XX:SharedArchiveFile=app.jsa -cp app.jar:module.jar ...
+ * </pre>
+ * Usage: {@code precompiler --interface <name> --class <name> [--classpath <path>] --output <jar> <module.wasm>}, the
+ * module interface being loaded from the classpath. Entries are written with a fixed time, so the jar only changes with
+ * its content.
+ */
+public final class Precompiler {
+    private static final String USAGE = "Usage: precompiler --interface <name> --class <name> [--classpath <path>] --output <jar> <module.wasm>";
+    private static final long ENTRY_TIME = 315532800000L;
+
+    private Precompiler() {
+    }
+
+    public static void main(String[] args) throws IOException, ClassNotFoundException {
+        String moduleInterface = null;
+        String className = null;
+        String classpath = "";
+        Path output = null;
+        Path input = null;
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--interface" -> moduleInterface = argument(args, ++i);
+                case "--class" -> className = argument(args, ++i);
+                case "--classpath" -> classpath = argument(args, ++i);
+                case "--output" -> output = Path.of(argument(args, ++i));
+                default -> input = input == null ? Path.of(args[i]) : usage();
+            }
+        }
+
+        if (moduleInterface == null || className == null || output == null || input == null) {
+            usage();
+        }
+
+        final var bytes = Files.readAllBytes(input);
+        final var module = new WebAssembly().compile(ByteBuffer.wrap(bytes));
+
+        try (final var loader = new URLClassLoader(urls(classpath), Precompiler.class.getClassLoader())) {
+            final var classBytes = Transpiler.precompile(module, Class.forName(moduleInterface, false, loader), className);
+
+            write(output, className, classBytes, bytes);
+        }
+    }
+
+    private static void write(Path output, String className, byte[] classBytes, byte[] moduleBytes) throws IOException {
+        final var manifest = new Manifest();
+
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+
+        try (final var jar = new JarOutputStream(Files.newOutputStream(output))) {
+            entry(jar, "META-INF/MANIFEST.MF").write(manifestBytes(manifest));
+            entry(jar, className.replace('.', '/') + ".class").write(classBytes);
+            entry(jar, Transpiler.moduleResource(className)).write(moduleBytes);
+        }
+    }
+
+    private static OutputStream entry(JarOutputStream jar, String name) throws IOException {
+        final var entry = new JarEntry(name);
+
+        entry.setTime(ENTRY_TIME);
+        jar.putNextEntry(entry);
+
+        return jar;
+    }
+
+    private static byte[] manifestBytes(Manifest manifest) throws IOException {
+        final var out = new ByteArrayOutputStream();
+
+        manifest.write(out);
+
+        return out.toByteArray();
+    }
+
+    private static URL[] urls(String classpath) throws IOException {
+        final var urls = new ArrayList<URL>();
+
+        for (final var path : classpath.split(File.pathSeparator)) {
+            if (!path.isEmpty()) {
+                urls.add(Path.of(path).toUri().toURL());
+            }
+        }
+
+        return urls.toArray(URL[]::new);
+    }
+
+    private static String argument(String[] args, int i) {
+        return i < args.length ? args[i] : usage();
+    }
+
+    private static <T> T usage() {
+        System.err.println(USAGE);
+        System.exit(2);
+
+        return null;
+    }
+}
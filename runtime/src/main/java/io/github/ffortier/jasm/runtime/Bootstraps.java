@@ -0,0 +1,60 @@
+package io.github.ffortier.jasm.runtime;
+
+import java.lang.constant.ConstantDescs;
+import java.lang.invoke.CallSite;
+import java.lang.invoke.ConstantCallSite;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+/**
+ * Bootstrap methods of compiled code. The class data of code compiled for the {@link Interpreter} is the interpreter,
+ * functions are called through its call sites. The class data of a module class is the list of its host functions,
+ * bound once to constant call sites.
+ * <p>
+ * The constants of v128 code are bootstrapped by {@link Simd}, so modules without v128 values never load the vector
+ * api.
+ */
+public final class Bootstraps {
+    private Bootstraps() {
+    }
+
+    public static CallSite function(MethodHandles.Lookup lookup, String name, MethodType type, int funcIdx) throws IllegalAccessException {
+        return interpreter(lookup).function(funcIdx);
+    }
+
+    public static CallSite importFunction(MethodHandles.Lookup lookup, String name, MethodType type, int funcIdx) throws IllegalAccessException {
+        return new ConstantCallSite(MethodHandles.classDataAt(lookup, ConstantDescs.DEFAULT_NAME, MethodHandle.class, funcIdx).asType(type));
+    }
+
+    /**
+     * Call site of a {@code call_indirect}, of the type of the function followed by the element index and the table
+     */
+    public static CallSite callIndirect(MethodHandles.Lookup lookup, String name, MethodType type) {
+        return new IndirectCallSite(type);
+    }
+
+    public static MemInstance memory(MethodHandles.Lookup lookup, String name, Class<?> type) throws IllegalAccessException {
+        return interpreter(lookup).memory();
+    }
+
+    public static TableInstance[] tables(MethodHandles.Lookup lookup, String name, Class<?> type) throws IllegalAccessException {
+        return interpreter(lookup).tables();
+    }
+
+    public static GlobalInstance[] globals(MethodHandles.Lookup lookup, String name, Class<?> type) throws IllegalAccessException {
+        return interpreter(lookup).globals();
+    }
+
+    public static Fuel fuel(MethodHandles.Lookup lookup, String name, Class<?> type) throws IllegalAccessException {
+        return interpreter(lookup).fuel();
+    }
+
+    public static Metrics metrics(MethodHandles.Lookup lookup, String name, Class<?> type) throws IllegalAccessException {
+        return interpreter(lookup).metrics();
+    }
+
+    private static Interpreter interpreter(MethodHandles.Lookup lookup) throws IllegalAccessException {
+        return MethodHandles.classData(lookup, ConstantDescs.DEFAULT_NAME, Interpreter.class);
+    }
+}
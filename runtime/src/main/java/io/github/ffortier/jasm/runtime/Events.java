@@ -0,0 +1,136 @@
+package io.github.ffortier.jasm.runtime;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+/**
+ * JFR events of instrumented modules, for host calls, {@code memory.grow} and traps. Events cost a check of whether
+ * they are enabled when no recording asks for them.
+ */
+public final class Events {
+    private static final MethodHandle BEGIN_HOST_CALL;
+    private static final MethodHandle END_HOST_CALL;
+
+    static {
+        try {
+            final var lookup = MethodHandles.lookup();
+
+            BEGIN_HOST_CALL = lookup.findStatic(Events.class, "beginHostCall", MethodType.methodType(HostCallEvent.class));
+            END_HOST_CALL = lookup.findStatic(Events.class, "endHostCall", MethodType.methodType(void.class, HostCallEvent.class, String.class, String.class));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private Events() {
+    }
+
+    /**
+     * Wraps an imported function into a handle of the same type recording a host call event around each call, thrown
+     * exceptions included.
+     */
+    public static MethodHandle hostCall(MethodHandle function, String module, String name) {
+        final var returnType = function.type().returnType();
+        final var end = MethodHandles.insertArguments(END_HOST_CALL, 1, module, name);
+        // (Throwable, result, event) or (Throwable, event) for void functions, returning the result
+        final var cleanup = returnType == void.class
+                ? MethodHandles.dropArguments(end, 0, Throwable.class)
+                : MethodHandles.foldArguments(MethodHandles.dropArguments(MethodHandles.dropArguments(MethodHandles.identity(returnType), 0, Throwable.class), 2, HostCallEvent.class), 2, end);
+        final var body = MethodHandles.tryFinally(MethodHandles.dropArguments(function, 0, HostCallEvent.class), cleanup);
+
+        return MethodHandles.foldArguments(body, BEGIN_HOST_CALL);
+    }
+
+    /**
+     * Grows the memory like {@link MemInstance#grow(int)}, recording a memory grow event
+     */
+    public static int memoryGrow(int delta, MemInstance memory) {
+        final var event = new MemoryGrowEvent();
+
+        event.begin();
+
+        final var previous = memory.grow(delta);
+
+        event.end();
+
+        if (event.shouldCommit()) {
+            event.delta = Integer.toUnsignedLong(delta);
+            event.previousPages = previous;
+            event.commit();
+        }
+
+        return previous;
+    }
+
+    static void trap(Trap trap, String function) {
+        final var event = new TrapEvent();
+
+        if (event.shouldCommit()) {
+            event.function = function;
+            event.message = trap.getMessage();
+            event.commit();
+        }
+    }
+
+    private static HostCallEvent beginHostCall() {
+        final var event = new HostCallEvent();
+
+        event.begin();
+
+        return event;
+    }
+
+    private static void endHostCall(HostCallEvent event, String module, String name) {
+        event.end();
+
+        if (event.shouldCommit()) {
+            event.module = module;
+            event.name = name;
+            event.commit();
+        }
+    }
+
+    @Name("jasm.HostCall")
+    @Label("Host Call")
+    @Category("WebAssembly")
+    @Description("Call of a wasm module to an imported host function")
+    static final class HostCallEvent extends Event {
+        @Label("Module")
+        String module;
+
+        @Label("Name")
+        String name;
+    }
+
+    @Name("jasm.MemoryGrow")
+    @Label("Memory Grow")
+    @Category("WebAssembly")
+    static final class MemoryGrowEvent extends Event {
+        @Label("Delta")
+        @Description("Pages requested")
+        long delta;
+
+        @Label("Previous Pages")
+        @Description("Size before growing, -1 when the memory could not grow")
+        int previousPages;
+    }
+
+    @Name("jasm.Trap")
+    @Label("Trap")
+    @Category("WebAssembly")
+    static final class TrapEvent extends Event {
+        @Label("Function")
+        @Description("Innermost instrumented function the trap went through")
+        String function;
+
+        @Label("Message")
+        String message;
+    }
+}
@@ -0,0 +1,56 @@
+package io.github.ffortier.jasm.runtime;
+
+/**
+ * A budget of wasm instructions, consumed by the instances it is given to. Running out of fuel traps, so a guest cannot
+ * hold its thread longer than its budget allows.
+ * <p>
+ * Compiled code consumes the instructions of a basic block when it enters the block, and only checks the budget on
+ * function entry and at the start of loops; the interpreter consumes each instruction as it executes it. {@code block},
+ * {@code else} and {@code end} are free. An instance may thus go slightly past its budget before trapping, by at most
+ * the blocks it runs between two checks.
+ * <p>
+ * Fuel is not synchronized: instances running on several threads may share it, at the cost of losing some of the
+ * fuel they consume concurrently.
+ */
+public final class Fuel {
+    private final long budget;
+    private long remaining;
+
+    public Fuel(long budget) {
+        this.budget = budget;
+        this.remaining = budget;
+    }
+
+    /**
+     * Fuel left, negative once exhausted
+     */
+    public long remaining() {
+        return remaining;
+    }
+
+    public void refuel(long amount) {
+        remaining += amount;
+    }
+
+    /**
+     * Brings the fuel back to the budget it was created with
+     */
+    public void refill() {
+        remaining = budget;
+    }
+
+    public static void consume(long amount, Fuel fuel) {
+        fuel.remaining -= amount;
+    }
+
+    /**
+     * Consumes the amount, then traps when the fuel is exhausted
+     */
+    public static void check(long amount, Fuel fuel) {
+        fuel.remaining -= amount;
+
+        if (fuel.remaining < 0) {
+            throw new Trap("out of fuel");
+        }
+    }
+}
@@ -1,4 +1,52 @@
 package io.github.ffortier.jasm.runtime;
 
-public record GlobalInstance() {
+import io.github.ffortier.jasm.binary.GlobalType;
+import io.github.ffortier.jasm.binary.ValType;
+
+/**
+ * A global reached through a reference: a global the host shares with the instances importing it, or a global of a
+ * module running in the {@link Interpreter}. Compiled modules keep their own globals in fields of the instance, or as
+ * constants when they are immutable.
+ * <p>
+ * The value is kept as its raw bits, like in the interpreter.
+ */
+public final class GlobalInstance {
+    private final GlobalType type;
+    private long bits;
+
+    /**
+     * @param value the boxed initial value, of the java type given by {@link Values#javaType}
+     */
+    public GlobalInstance(GlobalType type, Object value) {
+        if (!(type.valType() instanceof ValType.NumType)) {
+            throw new UnsupportedOperationException("Global type not supported yet %s".formatted(type));
+        }
+
+        this.type = type;
+        this.bits = Values.unbox(value);
+    }
+
+    public GlobalType type() {
+        return type;
+    }
+
+    public Object get() {
+        return Values.box(type.valType(), bits);
+    }
+
+    public void set(Object value) {
+        if (!type.mut()) {
+            throw new IllegalStateException("Global is immutable");
+        }
+
+        bits = Values.unbox(value);
+    }
+
+    public static long get(GlobalInstance global) {
+        return global.bits;
+    }
+
+    public static void set(long bits, GlobalInstance global) {
+        global.bits = bits;
+    }
 }
@@ -0,0 +1,105 @@
+package io.github.ffortier.jasm.runtime;
+
+import io.github.ffortier.jasm.binary.FuncType;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.MutableCallSite;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Call site of a {@code call_indirect}, taking the arguments of the function followed by the element index and the
+ * table. The site caches the functions it calls: the code of each one is tested by a reference comparison with the code
+ * of the element and called directly with the instance of the element, so the jit inlines hot indirect calls. The code
+ * of a function is shared by the instances of its module, so a site shared by instances, pooled or running the same
+ * code, caches a function once for all of them. Past {@link #MAX_DEPTH} functions, the site is megamorphic and looks
+ * every element up.
+ */
+final class IndirectCallSite extends MutableCallSite {
+    private static final int MAX_DEPTH = 4;
+    private static final MethodHandle IS;
+    private static final MethodHandle INSTANCE;
+    private static final MethodHandle FUNCTION;
+    private static final MethodHandle MISS;
+
+    static {
+        try {
+            final var lookup = MethodHandles.lookup();
+
+            IS = lookup.findStatic(TableInstance.class, "is", MethodType.methodType(boolean.class, int.class, TableInstance.class, MethodHandle.class));
+            INSTANCE = lookup.findStatic(TableInstance.class, "instance", MethodType.methodType(Object.class, int.class, TableInstance.class));
+            FUNCTION = lookup.findStatic(TableInstance.class, "function", MethodType.methodType(MethodHandle.class, int.class, FuncType.class, TableInstance.class));
+            MISS = lookup.findVirtual(IndirectCallSite.class, "miss", MethodType.methodType(Object.class, Object[].class));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final MethodType functionType;
+    private final FuncType funcType;
+    private final MethodHandle miss;
+    /**
+     * Code of the functions cached, in the order they were
+     */
+    private final List<MethodHandle> cached = new ArrayList<>();
+    private int depth;
+
+    IndirectCallSite(MethodType type) {
+        super(type);
+
+        final var argCount = type.parameterCount() - 2;
+
+        functionType = type.dropParameterTypes(argCount, argCount + 2);
+        funcType = Values.canonical(Values.funcType(functionType));
+        miss = MISS.bindTo(this).asCollector(Object[].class, type.parameterCount()).asType(type);
+        setTarget(miss);
+    }
+
+    /**
+     * Looks the element up, caches it and calls it.
+     */
+    private Object miss(Object[] args) throws Throwable {
+        final var argCount = functionType.parameterCount();
+        final var idx = (int) args[argCount];
+        final var table = (TableInstance) args[argCount + 1];
+        final var function = TableInstance.function(idx, funcType, table);
+
+        relink(TableInstance.code(idx, table));
+
+        return function.invokeWithArguments(Arrays.copyOf(args, argCount));
+    }
+
+    /**
+     * Whether the site looks every element up, for tests
+     */
+    synchronized boolean isMegamorphic() {
+        return depth > MAX_DEPTH;
+    }
+
+    private synchronized void relink(MethodHandle code) {
+        final var argCount = functionType.parameterCount();
+
+        if (cached.contains(code)) {
+            // Another thread missed on the same function
+            return;
+        }
+
+        if (depth < MAX_DEPTH) {
+            final var test = MethodHandles.dropArguments(MethodHandles.insertArguments(IS, 2, code), 0, functionType.parameterList());
+            final var call = MethodHandles.collectArguments(code, argCount, INSTANCE);
+
+            setTarget(MethodHandles.guardWithTest(test, call, getTarget()));
+            cached.add(code);
+        } else if (depth == MAX_DEPTH) {
+            final var lookup = MethodHandles.dropArguments(MethodHandles.insertArguments(FUNCTION, 1, funcType), 0, functionType.parameterList());
+            final var invoker = MethodHandles.dropArguments(MethodHandles.exactInvoker(functionType), argCount + 1, int.class, TableInstance.class);
+
+            setTarget(MethodHandles.foldArguments(invoker, lookup));
+        }
+
+        depth++;
+    }
+}
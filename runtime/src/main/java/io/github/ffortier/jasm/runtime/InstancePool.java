@@ -0,0 +1,105 @@
+package io.github.ffortier.jasm.runtime;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Supplier;
+
+/**
+ * Instances of a module ready to run, for callers using one instance per task. Instances are snapshotted right after
+ * their instantiation and reset to that snapshot when released, which only copies back what the task wrote instead of
+ * instantiating the module again.
+ * <p>
+ * Every instance must have a memory of its own, as resetting an instance rolls its memory back while the other leases
+ * may be using it: a module importing its memory must be given a new one for each instance.
+ *
+ * @param <T> the module interface
+ */
+public final class InstancePool<T> {
+    private final Supplier<Pooled<T>> instantiate;
+    private final ConcurrentLinkedQueue<Pooled<T>> idle = new ConcurrentLinkedQueue<>();
+    private final Set<MemInstance> memories = ConcurrentHashMap.newKeySet();
+
+    /**
+     * @param size        number of instances instantiated upfront. More are instantiated when all of them are in use,
+     *                    and kept for later
+     * @param instantiate instantiates the module
+     */
+    public InstancePool(int size, Supplier<Pooled<T>> instantiate) {
+        this.instantiate = instantiate;
+
+        for (int i = 0; i < size; i++) {
+            idle.add(newInstance());
+        }
+    }
+
+    /**
+     * Takes an instance, the lease gives it back when closed.
+     */
+    public Lease<T> acquire() {
+        final var pooled = idle.poll();
+
+        return new Lease<>(this, pooled == null ? newInstance() : pooled);
+    }
+
+    private Pooled<T> newInstance() {
+        final var pooled = instantiate.get();
+        final var memory = pooled.instance().memory();
+
+        if (memory != null && !memories.add(memory)) {
+            throw new IllegalStateException("Pooled instances must not share their memory");
+        }
+
+        pooled.instance().snapshot();
+
+        return pooled;
+    }
+
+    private void release(Pooled<T> pooled) {
+        pooled.instance().reset();
+        idle.add(pooled);
+    }
+
+    /**
+     * An instance with its exports
+     */
+    public record Pooled<T>(T exports, ModuleInstance instance) {
+    }
+
+    public static final class Lease<T> implements AutoCloseable {
+        private final InstancePool<T> pool;
+        private Pooled<T> pooled;
+
+        private Lease(InstancePool<T> pool, Pooled<T> pooled) {
+            this.pool = pool;
+            this.pooled = pooled;
+        }
+
+        public T get() {
+            if (pooled == null) {
+                throw new IllegalStateException("Instance already released");
+            }
+
+            return pooled.exports();
+        }
+
+        public ModuleInstance instance() {
+            if (pooled == null) {
+                throw new IllegalStateException("Instance already released");
+            }
+
+            return pooled.instance();
+        }
+
+        /**
+         * Resets the instance and returns it to the pool
+         */
+        @Override
+        public void close() {
+            if (pooled != null) {
+                pool.release(pooled);
+                pooled = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,754 @@
+package io.github.ffortier.jasm.runtime;
+
+import io.github.ffortier.jasm.binary.FuncType;
+import io.github.ffortier.jasm.binary.ImportDesc;
+import io.github.ffortier.jasm.binary.Instruction;
+import io.github.ffortier.jasm.binary.Module;
+import io.github.ffortier.jasm.binary.PackedExpr;
+import io.github.ffortier.jasm.binary.Validator;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.MutableCallSite;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * Executes wasm functions without compiling them, so modules start fast. Every function is reached through a mutable
+ * call site whose target is the interpreter; once a function has been called or has looped often enough, it is
+ * compiled in the background and its call site switched to the compiled code. Frames already running in the
+ * interpreter finish there.
+ * <p>
+ * Values are kept as their raw bits in longs, i32 sign extended and f32 as the bits of the float. v128 values do not
+ * fit, functions handling them are compiled before their first call.
+ */
+public final class Interpreter {
+    private static final MethodHandle INVOKE;
+
+    static {
+        try {
+            INVOKE = MethodHandles.lookup().findVirtual(Interpreter.class, "invoke", MethodType.methodType(Object.class, int.class, Object[].class));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final Module module;
+    private final Validator validator;
+    private final MemInstance memory;
+    private final TableInstance[] tables;
+    private final GlobalInstance[] globals;
+    private final Fuel fuel;
+    private final Metrics metrics;
+    private final List<FuncType> funcTypes = new ArrayList<>();
+    private final int importCount;
+    private final MutableCallSite[] functions;
+    private final MethodHandle[] entries;
+    private final Body[] bodies;
+    private final int[] counters;
+    private final TierUp tierUp;
+    private final Executor executor;
+    private final int threshold;
+
+    /**
+     * @param imports   imported functions, typed like {@link Values#methodType(FuncType)}
+     * @param memory    memory of the instance, null when the module has none
+     * @param tables    tables of the instance, filled with the functions of {@link #function(int)}
+     * @param globals   globals of the instance, imported or not, null for the v128 constants only compiled code reads
+     * @param fuel      fuel consumed by the instance, null when it is not metered
+     * @param metrics   metrics of the instance, null when it is not instrumented
+     * @param tierUp    compiles hot functions, null to interpret everything
+     * @param executor  runs the compilations
+     * @param threshold number of calls and loop iterations after which a function is hot
+     */
+    public Interpreter(Module module, MethodHandle[] imports, MemInstance memory, TableInstance[] tables, GlobalInstance[] globals, Fuel fuel, Metrics metrics, TierUp tierUp, Executor executor, int threshold) {
+        this.module = module;
+        this.validator = new Validator(module);
+        this.memory = memory;
+        this.tables = tables;
+        this.globals = globals;
+        this.fuel = fuel;
+        this.metrics = metrics;
+        this.tierUp = tierUp;
+        this.executor = executor;
+        this.threshold = threshold;
+
+        if (module.imports() != null) {
+            for (final var imp : module.imports()) {
+                if (imp.desc() instanceof ImportDesc.Func func) {
+                    funcTypes.add(module.types().get(func.idx().value()));
+                }
+            }
+        }
+
+        importCount = funcTypes.size();
+
+        if (module.funcs() != null) {
+            for (final var func : module.funcs()) {
+                funcTypes.add(module.types().get(func.type().value()));
+            }
+        }
+
+        functions = new MutableCallSite[funcTypes.size()];
+        entries = new MethodHandle[funcTypes.size()];
+        bodies = new Body[funcTypes.size()];
+        counters = new int[funcTypes.size()];
+
+        for (int i = 0; i < functions.length; i++) {
+            final var type = Values.methodType(funcTypes.get(i));
+
+            if (i < importCount) {
+                functions[i] = new MutableCallSite(imports[i]);
+            } else {
+                entries[i] = MethodHandles.insertArguments(INVOKE, 0, this, i)
+                        .asCollector(Object[].class, type.parameterCount())
+                        .asType(type);
+                functions[i] = new MutableCallSite(entries[i]);
+            }
+        }
+    }
+
+    public Module module() {
+        return module;
+    }
+
+    public MemInstance memory() {
+        return memory;
+    }
+
+    public TableInstance[] tables() {
+        return tables;
+    }
+
+    public GlobalInstance[] globals() {
+        return globals;
+    }
+
+    /**
+     * Fuel consumed by the instance, null when it is not metered
+     */
+    public Fuel fuel() {
+        return fuel;
+    }
+
+    /**
+     * Metrics of the instance, null when it is not instrumented
+     */
+    public Metrics metrics() {
+        return metrics;
+    }
+
+    /**
+     * Call site of the function, of the type given by {@link Values#methodType(FuncType)}
+     */
+    public MutableCallSite function(int funcIdx) {
+        return functions[funcIdx];
+    }
+
+    /**
+     * Whether the function still runs in the interpreter
+     */
+    public boolean isInterpreted(int funcIdx) {
+        return entries[funcIdx] != null && functions[funcIdx].getTarget() == entries[funcIdx];
+    }
+
+    /**
+     * Calls a function with boxed arguments, returns the boxed result or null.
+     */
+    public Object invoke(int funcIdx, Object... args) {
+        final var funcType = funcTypes.get(funcIdx);
+
+        if (!interprets(funcIdx)) {
+            final var result = invokeTarget(funcIdx, args);
+
+            return funcType.rets().isEmpty() ? null : result;
+        }
+
+        final var values = new long[args.length];
+
+        for (int i = 0; i < args.length; i++) {
+            values[i] = Values.unbox(args[i]);
+        }
+
+        final var result = execute(funcIdx, values);
+
+        return funcType.rets().isEmpty() ? null : Values.box(funcType.rets().get(0), result);
+    }
+
+    /**
+     * Whether the call runs in the interpreter. A function handling v128 values is compiled instead, synchronously.
+     */
+    private boolean interprets(int funcIdx) {
+        if (!isInterpreted(funcIdx)) {
+            return false;
+        }
+
+        if (!body(funcIdx).validation.vector()) {
+            return true;
+        }
+
+        if (tierUp == null) {
+            throw new UnsupportedOperationException("Function %d handles v128 values, which are not interpreted".formatted(funcIdx));
+        }
+
+        final var compiled = tierUp.compile(this, funcIdx);
+
+        if (compiled == null) {
+            throw new UnsupportedOperationException("Function %d handles v128 values and cannot be compiled".formatted(funcIdx));
+        }
+
+        functions[funcIdx].setTarget(compiled);
+
+        return false;
+    }
+
+    private Object invokeTarget(int funcIdx, Object[] args) {
+        return invokeHandle(functions[funcIdx].getTarget(), args);
+    }
+
+    private static Object invokeHandle(MethodHandle function, Object[] args) {
+        try {
+            final var result = function.invokeWithArguments(args);
+
+            return result == null ? 0L : result;
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException("Call to %s failed".formatted(function), e);
+        }
+    }
+
+    private Body body(int funcIdx) {
+        var body = bodies[funcIdx];
+
+        if (body == null) {
+            body = Body.of(this, funcIdx);
+            bodies[funcIdx] = body;
+        }
+
+        return body;
+    }
+
+    /**
+     * Counts a call or a loop iteration, compiles the function when it gets hot.
+     */
+    private void count(int funcIdx) {
+        if (++counters[funcIdx] == threshold && tierUp != null) {
+            executor.execute(() -> {
+                final var compiled = tierUp.compile(this, funcIdx);
+
+                if (compiled != null) {
+                    functions[funcIdx].setTarget(compiled);
+                }
+            });
+        }
+    }
+
+    private long execute(int funcIdx, long[] args) {
+        if (metrics == null) {
+            return run(funcIdx, args);
+        }
+
+        final var start = Metrics.enter(funcIdx, metrics);
+
+        try {
+            final var result = run(funcIdx, args);
+
+            Metrics.exit(start, funcIdx, metrics);
+
+            return result;
+        } catch (RuntimeException e) {
+            throw Metrics.thrown(e, start, funcIdx, metrics);
+        }
+    }
+
+    private long run(int funcIdx, long[] args) {
+        final var body = body(funcIdx);
+        final var locals = new long[body.localCount];
+        final var validation = body.validation;
+        final var stack = new long[validation.maxHeight()];
+        // Branch targets: the instruction to continue from, the stack height and the number of values kept
+        final var labelTarget = new int[validation.maxDepth()];
+        final var labelHeight = new int[validation.maxDepth()];
+        final var labelArity = new int[validation.maxDepth()];
+        final var labelLoop = new boolean[validation.maxDepth()];
+        final var c = body.code.cursor();
+        var sp = 0;
+        var depth = 1;
+
+        System.arraycopy(args, 0, locals, 0, args.length);
+        labelArity[0] = funcTypes.get(funcIdx).rets().size();
+        count(funcIdx);
+
+        if (fuel != null) {
+            Fuel.check(0, fuel);
+        }
+
+        while (c.next()) {
+            if (fuel != null && c.opcode() != Instruction.Block.OPCODE && c.opcode() != Instruction.Else.OPCODE && c.opcode() != Instruction.End.OPCODE) {
+                Fuel.consume(1, fuel);
+            }
+
+            switch (c.opcode()) {
+                case Instruction.Unreachable.OPCODE -> throw new Trap("unreachable");
+                case Instruction.Nop.OPCODE -> {
+                }
+                case Instruction.Block.OPCODE, Instruction.Loop.OPCODE, Instruction.If.OPCODE -> {
+                    final var start = c.index();
+                    final var loop = c.opcode() == Instruction.Loop.OPCODE;
+                    final var skip = c.opcode() == Instruction.If.OPCODE && stack[--sp] == 0;
+
+                    final var type = validation.blockTypes()[start];
+
+                    labelTarget[depth] = loop ? start : validation.ends()[start];
+                    labelHeight[depth] = sp - type.args().size();
+                    labelArity[depth] = loop ? type.args().size() : type.rets().size();
+                    labelLoop[depth] = loop;
+                    depth++;
+
+                    if (skip) {
+                        c.seek(validation.elses()[start] >= 0 ? validation.elses()[start] : validation.ends()[start] - 1);
+                    }
+                }
+                case Instruction.Else.OPCODE -> c.seek(validation.ends()[c.index()] - 1);
+                case Instruction.End.OPCODE -> depth--;
+                case Instruction.Br.OPCODE, Instruction.BrIf.OPCODE, Instruction.BrTable.OPCODE, Instruction.Return.OPCODE -> {
+                    final int label;
+
+                    switch (c.opcode()) {
+                        case Instruction.Br.OPCODE -> label = c.intImmediate(0);
+                        case Instruction.BrIf.OPCODE -> {
+                            if (stack[--sp] == 0) {
+                                continue;
+                            }
+
+                            label = c.intImmediate(0);
+                        }
+                        case Instruction.BrTable.OPCODE -> {
+                            final var count = c.intImmediate(0);
+                            final var i = (int) stack[--sp];
+
+                            label = c.intImmediate(Integer.compareUnsigned(i, count) < 0 ? i + 1 : count + 1);
+                        }
+                        default -> label = depth - 1;
+                    }
+
+                    final var target = depth - 1 - label;
+                    final var arity = labelArity[target];
+
+                    if (target == 0) {
+                        return arity == 0 ? 0 : stack[sp - 1];
+                    }
+
+                    System.arraycopy(stack, sp - arity, stack, labelHeight[target], arity);
+                    sp = labelHeight[target] + arity;
+
+                    if (labelLoop[target]) {
+                        depth = target + 1;
+                        count(funcIdx);
+
+                        if (fuel != null) {
+                            Fuel.check(0, fuel);
+                        }
+                    } else {
+                        depth = target;
+                    }
+
+                    c.seek(labelTarget[target]);
+                }
+                case Instruction.CallFunction.OPCODE -> sp = call(c.intImmediate(0), stack, sp);
+                case Instruction.CallIndirect.OPCODE -> sp = callIndirect(c.intImmediate(0), c.intImmediate(1), stack, sp);
+                case Instruction.Drop.OPCODE -> sp--;
+                case Instruction.Select.OPCODE, Instruction.SelectWithType.OPCODE -> {
+                    sp -= 2;
+
+                    if (stack[sp + 1] == 0) {
+                        stack[sp - 1] = stack[sp];
+                    }
+                }
+                case Instruction.LocalGet.OPCODE -> stack[sp++] = locals[c.intImmediate(0)];
+                case Instruction.LocalSet.OPCODE -> locals[c.intImmediate(0)] = stack[--sp];
+                case Instruction.LocalTee.OPCODE -> locals[c.intImmediate(0)] = stack[sp - 1];
+                case Instruction.GlobalGet.OPCODE -> stack[sp++] = GlobalInstance.get(globals[c.intImmediate(0)]);
+                case Instruction.GlobalSet.OPCODE -> GlobalInstance.set(stack[--sp], globals[c.intImmediate(0)]);
+
+                case Instruction.I32LoadMem.OPCODE -> stack[sp - 1] = MemInstance.i32Load((int) stack[sp - 1], c.intImmediate(1), memory);
+                case Instruction.I32LoadMem8S.OPCODE -> stack[sp - 1] = MemInstance.i32Load8S((int) stack[sp - 1], c.intImmediate(1), memory);
+                case Instruction.I32LoadMem8U.OPCODE -> stack[sp - 1] = MemInstance.i32Load8U((int) stack[sp - 1], c.intImmediate(1), memory);
+                case Instruction.I32LoadMem16S.OPCODE -> stack[sp - 1] = MemInstance.i32Load16S((int) stack[sp - 1], c.intImmediate(1), memory);
+                case Instruction.I32LoadMem16U.OPCODE -> stack[sp - 1] = MemInstance.i32Load16U((int) stack[sp - 1], c.intImmediate(1), memory);
+                case Instruction.I64LoadMem.OPCODE -> stack[sp - 1] = MemInstance.i64Load((int) stack[sp - 1], c.intImmediate(1), memory);
+                case Instruction.I64LoadMem8S.OPCODE -> stack[sp - 1] = MemInstance.i64Load8S((int) stack[sp - 1], c.intImmediate(1), memory);
+                case Instruction.I64LoadMem8U.OPCODE -> stack[sp - 1] = MemInstance.i64Load8U((int) stack[sp - 1], c.intImmediate(1), memory);
+                case Instruction.I64LoadMem16S.OPCODE -> stack[sp - 1] = MemInstance.i64Load16S((int) stack[sp - 1], c.intImmediate(1), memory);
+                case Instruction.I64LoadMem16U.OPCODE -> stack[sp - 1] = MemInstance.i64Load16U((int) stack[sp - 1], c.intImmediate(1), memory);
+                case Instruction.I64LoadMem32S.OPCODE -> stack[sp - 1] = MemInstance.i64Load32S((int) stack[sp - 1], c.intImmediate(1), memory);
+                case Instruction.I64LoadMem32U.OPCODE -> stack[sp - 1] = MemInstance.i64Load32U((int) stack[sp - 1], c.intImmediate(1), memory);
+                case Instruction.F32LoadMem.OPCODE -> stack[sp - 1] = MemInstance.i32Load((int) stack[sp - 1], c.intImmediate(1), memory);
+                case Instruction.F64LoadMem.OPCODE -> stack[sp - 1] = MemInstance.i64Load((int) stack[sp - 1], c.intImmediate(1), memory);
+                case Instruction.I32StoreMem.OPCODE, Instruction.F32StoreMem.OPCODE -> {
+                    sp -= 2;
+                    MemInstance.i32Store((int) stack[sp], (int) stack[sp + 1], c.intImmediate(1), memory);
+                }
+                case Instruction.I32StoreMem8.OPCODE, Instruction.I64StoreMem8.OPCODE -> {
+                    sp -= 2;
+                    MemInstance.i32Store8((int) stack[sp], (int) stack[sp + 1], c.intImmediate(1), memory);
+                }
+                case Instruction.I32StoreMem16.OPCODE, Instruction.I64StoreMem16.OPCODE -> {
+                    sp -= 2;
+                    MemInstance.i32Store16((int) stack[sp], (int) stack[sp + 1], c.intImmediate(1), memory);
+                }
+                case Instruction.I64StoreMem.OPCODE, Instruction.F64StoreMem.OPCODE -> {
+                    sp -= 2;
+                    MemInstance.i64Store((int) stack[sp], stack[sp + 1], c.intImmediate(1), memory);
+                }
+                case Instruction.I64StoreMem32.OPCODE -> {
+                    sp -= 2;
+                    MemInstance.i32Store((int) stack[sp], (int) stack[sp + 1], c.intImmediate(1), memory);
+                }
+                case Instruction.MemorySize.OPCODE -> stack[sp++] = memory.size();
+                case Instruction.MemoryGrow.OPCODE -> stack[sp - 1] = metrics == null ? memory.grow((int) stack[sp - 1]) : Events.memoryGrow((int) stack[sp - 1], memory);
+                case Instruction.AtomicNotify.OPCODE -> {
+                    sp--;
+                    stack[sp - 1] = MemInstance.memoryAtomicNotify((int) stack[sp - 1], (int) stack[sp], c.intImmediate(1), memory);
+                }
+                case Instruction.I32AtomicWait.OPCODE -> {
+                    sp -= 2;
+                    stack[sp - 1] = MemInstance.memoryAtomicWait32((int) stack[sp - 1], (int) stack[sp], stack[sp + 1], c.intImmediate(1), memory);
+                }
+                case Instruction.I64AtomicWait.OPCODE -> {
+                    sp -= 2;
+                    stack[sp - 1] = MemInstance.memoryAtomicWait64((int) stack[sp - 1], stack[sp], stack[sp + 1], c.intImmediate(1), memory);
+                }
+                case Instruction.AtomicFence.OPCODE -> MemInstance.atomicFence();
+
+                case Instruction.I32Const.OPCODE -> stack[sp++] = c.intImmediate(0);
+                case Instruction.I64Const.OPCODE, Instruction.F64Const.OPCODE -> stack[sp++] = c.immediate(0);
+                case Instruction.F32Const.OPCODE -> stack[sp++] = c.intImmediate(0);
+
+                default -> {
+                    if (c.opcode() >= Instruction.I32AtomicLoad.OPCODE && c.opcode() <= Instruction.I64AtomicCompareExchange32U.OPCODE) {
+                        sp = atomic(c, stack, sp);
+                    } else if (isBinary(c.opcode())) {
+                        sp--;
+                        stack[sp - 1] = binary(c.opcode(), stack[sp - 1], stack[sp]);
+                    } else {
+                        stack[sp - 1] = unary(c.opcode(), stack[sp - 1]);
+                    }
+                }
+            }
+        }
+
+        return sp == 0 ? 0 : stack[sp - 1];
+    }
+
+    /**
+     * Executes an atomic load, store or read-modify-write, returns the new stack pointer. They come in groups of 7
+     * opcodes, one per access: i32, i64, 8 and 16 bits of an i32, then 8, 16 and 32 bits of an i64.
+     */
+    private int atomic(PackedExpr.Cursor c, long[] stack, int sp) {
+        final var index = c.opcode() - Instruction.I32AtomicLoad.OPCODE;
+        final var access = index % 7;
+        final var offset = c.intImmediate(1);
+
+        switch (index / 7) {
+            case 0 -> {
+                final var address = (int) stack[sp - 1];
+
+                stack[sp - 1] = switch (access) {
+                    case 0 -> MemInstance.i32AtomicLoad(address, offset, memory);
+                    case 1 -> MemInstance.i64AtomicLoad(address, offset, memory);
+                    case 2, 4 -> MemInstance.i32AtomicLoad8U(address, offset, memory);
+                    case 3, 5 -> MemInstance.i32AtomicLoad16U(address, offset, memory);
+                    default -> MemInstance.i64AtomicLoad32U(address, offset, memory);
+                };
+            }
+            case 1 -> {
+                sp -= 2;
+
+                final var address = (int) stack[sp];
+
+                switch (access) {
+                    case 0, 6 -> MemInstance.i32AtomicStore(address, (int) stack[sp + 1], offset, memory);
+                    case 1 -> MemInstance.i64AtomicStore(address, stack[sp + 1], offset, memory);
+                    case 2, 4 -> MemInstance.i32AtomicStore8(address, (int) stack[sp + 1], offset, memory);
+                    default -> MemInstance.i32AtomicStore16(address, (int) stack[sp + 1], offset, memory);
+                }
+            }
+            case 8 -> {
+                sp -= 2;
+
+                final var address = (int) stack[sp - 1];
+
+                stack[sp - 1] = switch (access) {
+                    case 0 -> MemInstance.i32AtomicCmpxchg(address, (int) stack[sp], (int) stack[sp + 1], offset, memory);
+                    case 1 -> MemInstance.i64AtomicCmpxchg(address, stack[sp], stack[sp + 1], offset, memory);
+                    case 2, 4 -> MemInstance.i32AtomicCmpxchg8U(address, (int) stack[sp], (int) stack[sp + 1], offset, memory);
+                    case 3, 5 -> MemInstance.i32AtomicCmpxchg16U(address, (int) stack[sp], (int) stack[sp + 1], offset, memory);
+                    default -> MemInstance.i64AtomicCmpxchg32U(address, stack[sp], stack[sp + 1], offset, memory);
+                };
+            }
+            default -> {
+                sp--;
+
+                final var address = (int) stack[sp - 1];
+                final var op = index / 7 - 2;
+
+                stack[sp - 1] = switch (access) {
+                    case 0 -> MemInstance.i32AtomicRmw(address, (int) stack[sp], offset, op, memory);
+                    case 1 -> MemInstance.i64AtomicRmw(address, stack[sp], offset, op, memory);
+                    case 2, 4 -> MemInstance.i32AtomicRmw8U(address, (int) stack[sp], offset, op, memory);
+                    case 3, 5 -> MemInstance.i32AtomicRmw16U(address, (int) stack[sp], offset, op, memory);
+                    default -> MemInstance.i64AtomicRmw32U(address, stack[sp], offset, op, memory);
+                };
+            }
+        }
+
+        return sp;
+    }
+
+    /**
+     * Pops the arguments, calls the function and pushes the result, returns the new stack pointer.
+     */
+    private int call(int funcIdx, long[] stack, int sp) {
+        final var funcType = funcTypes.get(funcIdx);
+        final var argCount = funcType.args().size();
+
+        sp -= argCount;
+
+        final long result;
+
+        if (interprets(funcIdx)) {
+            final var args = new long[argCount];
+
+            System.arraycopy(stack, sp, args, 0, argCount);
+            result = execute(funcIdx, args);
+        } else {
+            result = Values.unbox(invokeTarget(funcIdx, box(funcType, stack, sp)));
+        }
+
+        if (!funcType.rets().isEmpty()) {
+            stack[sp++] = result;
+        }
+
+        return sp;
+    }
+
+    /**
+     * Pops the element index and the arguments, calls the element of the table and pushes the result, returns the new
+     * stack pointer.
+     */
+    private int callIndirect(int typeIdx, int tableIdx, long[] stack, int sp) {
+        // Types read from the module are interned
+        final var funcType = module.types().get(typeIdx);
+        final var function = TableInstance.function((int) stack[--sp], funcType, tables[tableIdx]);
+
+        sp -= funcType.args().size();
+
+        final var result = Values.unbox(invokeHandle(function, box(funcType, stack, sp)));
+
+        if (!funcType.rets().isEmpty()) {
+            stack[sp++] = result;
+        }
+
+        return sp;
+    }
+
+    private static Object[] box(FuncType funcType, long[] stack, int sp) {
+        final var args = new Object[funcType.args().size()];
+
+        for (int i = 0; i < args.length; i++) {
+            args[i] = Values.box(funcType.args().get(i), stack[sp + i]);
+        }
+
+        return args;
+    }
+
+    /**
+     * Numeric instructions popping two values, the others pop one. Opcodes are grouped by arity in the binary format.
+     */
+    private static boolean isBinary(int opcode) {
+        return opcode >= Instruction.I32Eq.OPCODE && opcode <= Instruction.I32GeU.OPCODE
+                || opcode >= Instruction.I64Eq.OPCODE && opcode <= Instruction.F64Ge.OPCODE
+                || opcode >= Instruction.I32Add.OPCODE && opcode <= Instruction.I32Ror.OPCODE
+                || opcode >= Instruction.I64Add.OPCODE && opcode <= Instruction.I64Ror.OPCODE
+                || opcode >= Instruction.F32Add.OPCODE && opcode <= Instruction.F32CopySign.OPCODE
+                || opcode >= Instruction.F64Add.OPCODE && opcode <= Instruction.F64CopySign.OPCODE;
+    }
+
+    private static float f32(long bits) {
+        return Float.intBitsToFloat((int) bits);
+    }
+
+    private static double f64(long bits) {
+        return Double.longBitsToDouble(bits);
+    }
+
+    private static long bits(float value) {
+        return Float.floatToRawIntBits(value);
+    }
+
+    private static long bits(double value) {
+        return Double.doubleToRawLongBits(value);
+    }
+
+    private static long bool(boolean value) {
+        return value ? 1 : 0;
+    }
+
+    private static long unary(int opcode, long a) {
+        return switch (opcode) {
+            case Instruction.I32Eqz.OPCODE -> bool((int) a == 0);
+            case Instruction.I64Eqz.OPCODE -> bool(a == 0);
+            case Instruction.I32Clz.OPCODE -> Integer.numberOfLeadingZeros((int) a);
+            case Instruction.I32Ctz.OPCODE -> Integer.numberOfTrailingZeros((int) a);
+            case Instruction.I32Popcnt.OPCODE -> Integer.bitCount((int) a);
+            case Instruction.I64Clz.OPCODE -> Long.numberOfLeadingZeros(a);
+            case Instruction.I64Ctz.OPCODE -> Long.numberOfTrailingZeros(a);
+            case Instruction.I64Popcnt.OPCODE -> Long.bitCount(a);
+            case Instruction.F32Abs.OPCODE -> bits(Math.abs(f32(a)));
+            case Instruction.F32Neg.OPCODE -> bits(-f32(a));
+            case Instruction.F32Ceil.OPCODE -> bits((float) Math.ceil(f32(a)));
+            case Instruction.F32Floor.OPCODE -> bits((float) Math.floor(f32(a)));
+            case Instruction.F32Trunc.OPCODE -> bits(Numerics.f32Trunc(f32(a)));
+            case Instruction.F32NearestInt.OPCODE -> bits((float) Math.rint(f32(a)));
+            case Instruction.F32Sqrt.OPCODE -> bits((float) Math.sqrt(f32(a)));
+            case Instruction.F64Abs.OPCODE -> bits(Math.abs(f64(a)));
+            case Instruction.F64Neg.OPCODE -> bits(-f64(a));
+            case Instruction.F64Ceil.OPCODE -> bits(Math.ceil(f64(a)));
+            case Instruction.F64Floor.OPCODE -> bits(Math.floor(f64(a)));
+            case Instruction.F64Trunc.OPCODE -> bits(Numerics.f64Trunc(f64(a)));
+            case Instruction.F64NearestInt.OPCODE -> bits(Math.rint(f64(a)));
+            case Instruction.F64Sqrt.OPCODE -> bits(Math.sqrt(f64(a)));
+            case Instruction.I32ConvertI64.OPCODE -> (int) a;
+            case Instruction.I32SConvertF32.OPCODE -> Numerics.i32TruncS(f32(a));
+            case Instruction.I32UConvertF32.OPCODE -> Numerics.i32TruncU(f32(a));
+            case Instruction.I32SConvertF64.OPCODE -> Numerics.i32TruncS(f64(a));
+            case Instruction.I32UConvertF64.OPCODE -> Numerics.i32TruncU(f64(a));
+            case Instruction.I64SConvertI32.OPCODE -> (int) a;
+            case Instruction.I64UConvertI32.OPCODE -> Integer.toUnsignedLong((int) a);
+            case Instruction.I64SConvertF32.OPCODE -> Numerics.i64TruncS(f32(a));
+            case Instruction.I64UConvertF32.OPCODE -> Numerics.i64TruncU(f32(a));
+            case Instruction.I64SConvertF64.OPCODE -> Numerics.i64TruncS(f64(a));
+            case Instruction.I64UConvertF64.OPCODE -> Numerics.i64TruncU(f64(a));
+            case Instruction.F32SConvertI32.OPCODE -> bits((float) (int) a);
+            case Instruction.F32UConvertI32.OPCODE -> bits(Numerics.f32ConvertI32U((int) a));
+            case Instruction.F32SConvertI64.OPCODE -> bits((float) a);
+            case Instruction.F32UConvertI64.OPCODE -> bits(Numerics.f32ConvertI64U(a));
+            case Instruction.F32ConvertF64.OPCODE -> bits((float) f64(a));
+            case Instruction.F64SConvertI32.OPCODE -> bits((double) (int) a);
+            case Instruction.F64UConvertI32.OPCODE -> bits(Numerics.f64ConvertI32U((int) a));
+            case Instruction.F64SConvertI64.OPCODE -> bits((double) a);
+            case Instruction.F64UConvertI64.OPCODE -> bits(Numerics.f64ConvertI64U(a));
+            case Instruction.F64ConvertF32.OPCODE -> bits((double) f32(a));
+            // Values are already kept as raw bits
+            case Instruction.I32ReinterpretF32.OPCODE, Instruction.I64ReinterpretF64.OPCODE,
+                 Instruction.F32ReinterpretI32.OPCODE, Instruction.F64ReinterpretI64.OPCODE -> a;
+            case Instruction.I32SExtendI8.OPCODE, Instruction.I64SExtendI8.OPCODE -> (byte) a;
+            case Instruction.I32SExtendI16.OPCODE, Instruction.I64SExtendI16.OPCODE -> (short) a;
+            case Instruction.I64SExtendI32.OPCODE -> (int) a;
+            default -> throw new UnsupportedOperationException("Opcode not supported yet %04x".formatted(opcode));
+        };
+    }
+
+    private static long binary(int opcode, long a, long b) {
+        return switch (opcode) {
+            case Instruction.I32Eq.OPCODE -> bool((int) a == (int) b);
+            case Instruction.I32Ne.OPCODE -> bool((int) a != (int) b);
+            case Instruction.I32LtS.OPCODE -> bool((int) a < (int) b);
+            case Instruction.I32LtU.OPCODE -> bool(Integer.compareUnsigned((int) a, (int) b) < 0);
+            case Instruction.I32GtS.OPCODE -> bool((int) a > (int) b);
+            case Instruction.I32GtU.OPCODE -> bool(Integer.compareUnsigned((int) a, (int) b) > 0);
+            case Instruction.I32LeS.OPCODE -> bool((int) a <= (int) b);
+            case Instruction.I32LeU.OPCODE -> bool(Integer.compareUnsigned((int) a, (int) b) <= 0);
+            case Instruction.I32GeS.OPCODE -> bool((int) a >= (int) b);
+            case Instruction.I32GeU.OPCODE -> bool(Integer.compareUnsigned((int) a, (int) b) >= 0);
+            case Instruction.I64Eq.OPCODE -> bool(a == b);
+            case Instruction.I64Ne.OPCODE -> bool(a != b);
+            case Instruction.I64LtS.OPCODE -> bool(a < b);
+            case Instruction.I64LtU.OPCODE -> bool(Long.compareUnsigned(a, b) < 0);
+            case Instruction.I64GtS.OPCODE -> bool(a > b);
+            case Instruction.I64GtU.OPCODE -> bool(Long.compareUnsigned(a, b) > 0);
+            case Instruction.I64LeS.OPCODE -> bool(a <= b);
+            case Instruction.I64LeU.OPCODE -> bool(Long.compareUnsigned(a, b) <= 0);
+            case Instruction.I64GeS.OPCODE -> bool(a >= b);
+            case Instruction.I64GeU.OPCODE -> bool(Long.compareUnsigned(a, b) >= 0);
+            case Instruction.F32Eq.OPCODE -> bool(f32(a) == f32(b));
+            case Instruction.F32Ne.OPCODE -> bool(f32(a) != f32(b));
+            case Instruction.F32Lt.OPCODE -> bool(f32(a) < f32(b));
+            case Instruction.F32Gt.OPCODE -> bool(f32(a) > f32(b));
+            case Instruction.F32Le.OPCODE -> bool(f32(a) <= f32(b));
+            case Instruction.F32Ge.OPCODE -> bool(f32(a) >= f32(b));
+            case Instruction.F64Eq.OPCODE -> bool(f64(a) == f64(b));
+            case Instruction.F64Ne.OPCODE -> bool(f64(a) != f64(b));
+            case Instruction.F64Lt.OPCODE -> bool(f64(a) < f64(b));
+            case Instruction.F64Gt.OPCODE -> bool(f64(a) > f64(b));
+            case Instruction.F64Le.OPCODE -> bool(f64(a) <= f64(b));
+            case Instruction.F64Ge.OPCODE -> bool(f64(a) >= f64(b));
+            case Instruction.I32Add.OPCODE -> (int) a + (int) b;
+            case Instruction.I32Sub.OPCODE -> (int) a - (int) b;
+            case Instruction.I32Mul.OPCODE -> (int) a * (int) b;
+            case Instruction.I32DivS.OPCODE -> Numerics.i32DivS((int) a, (int) b);
+            case Instruction.I32DivU.OPCODE -> Numerics.i32DivU((int) a, (int) b);
+            case Instruction.I32RemS.OPCODE -> Numerics.i32RemS((int) a, (int) b);
+            case Instruction.I32RemU.OPCODE -> Numerics.i32RemU((int) a, (int) b);
+            case Instruction.I32And.OPCODE -> (int) (a & b);
+            case Instruction.I32Ior.OPCODE -> (int) (a | b);
+            case Instruction.I32Xor.OPCODE -> (int) (a ^ b);
+            case Instruction.I32Shl.OPCODE -> (int) a << (int) b;
+            case Instruction.I32ShrS.OPCODE -> (int) a >> (int) b;
+            case Instruction.I32ShrU.OPCODE -> (int) a >>> (int) b;
+            case Instruction.I32Rol.OPCODE -> Integer.rotateLeft((int) a, (int) b);
+            case Instruction.I32Ror.OPCODE -> Integer.rotateRight((int) a, (int) b);
+            case Instruction.I64Add.OPCODE -> a + b;
+            case Instruction.I64Sub.OPCODE -> a - b;
+            case Instruction.I64Mul.OPCODE -> a * b;
+            case Instruction.I64DivS.OPCODE -> Numerics.i64DivS(a, b);
+            case Instruction.I64DivU.OPCODE -> Numerics.i64DivU(a, b);
+            case Instruction.I64RemS.OPCODE -> Numerics.i64RemS(a, b);
+            case Instruction.I64RemU.OPCODE -> Numerics.i64RemU(a, b);
+            case Instruction.I64And.OPCODE -> a & b;
+            case Instruction.I64Ior.OPCODE -> a | b;
+            case Instruction.I64Xor.OPCODE -> a ^ b;
+            case Instruction.I64Shl.OPCODE -> a << b;
+            case Instruction.I64ShrS.OPCODE -> a >> b;
+            case Instruction.I64ShrU.OPCODE -> a >>> b;
+            case Instruction.I64Rol.OPCODE -> Long.rotateLeft(a, (int) b);
+            case Instruction.I64Ror.OPCODE -> Long.rotateRight(a, (int) b);
+            case Instruction.F32Add.OPCODE -> bits(f32(a) + f32(b));
+            case Instruction.F32Sub.OPCODE -> bits(f32(a) - f32(b));
+            case Instruction.F32Mul.OPCODE -> bits(f32(a) * f32(b));
+            case Instruction.F32Div.OPCODE -> bits(f32(a) / f32(b));
+            case Instruction.F32Min.OPCODE -> bits(Math.min(f32(a), f32(b)));
+            case Instruction.F32Max.OPCODE -> bits(Math.max(f32(a), f32(b)));
+            case Instruction.F32CopySign.OPCODE -> bits(Math.copySign(f32(a), f32(b)));
+            case Instruction.F64Add.OPCODE -> bits(f64(a) + f64(b));
+            case Instruction.F64Sub.OPCODE -> bits(f64(a) - f64(b));
+            case Instruction.F64Mul.OPCODE -> bits(f64(a) * f64(b));
+            case Instruction.F64Div.OPCODE -> bits(f64(a) / f64(b));
+            case Instruction.F64Min.OPCODE -> bits(Math.min(f64(a), f64(b)));
+            case Instruction.F64Max.OPCODE -> bits(Math.max(f64(a), f64(b)));
+            case Instruction.F64CopySign.OPCODE -> bits(Math.copySign(f64(a), f64(b)));
+            default -> throw new UnsupportedOperationException("Opcode not supported yet %04x".formatted(opcode));
+        };
+    }
+
+    /**
+     * A validated function body, validation tells the matching end of blocks and elses, the else of ifs, the type of
+     * blocks and the size of the stacks.
+     */
+    private record Body(PackedExpr code, Validator.Validation validation, int localCount) {
+        static Body of(Interpreter interpreter, int funcIdx) {
+            final var func = interpreter.module.funcs().get(funcIdx - interpreter.importCount);
+            var localCount = interpreter.funcTypes.get(funcIdx).args().size();
+
+            for (final var locals : func.locals()) {
+                localCount += locals.n();
+            }
+
+            return new Body(func.body().packed(), interpreter.validator.validate(func), localCount);
+        }
+    }
+}
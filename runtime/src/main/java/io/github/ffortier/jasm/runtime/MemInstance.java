@@ -1,4 +1,841 @@
 package io.github.ffortier.jasm.runtime;
 
-public record MemInstance() {
+import java.lang.foreign.Arena;
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.Linker;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The linear memory of a module instance, backed by an off-heap segment so memories of several gigabytes neither
+ * weigh on the garbage collector nor hit the 2 GB limit of java arrays.
+ * <p>
+ * Compiled code calls the static accessors, passing the memory last like the instance of compiled functions. Addresses
+ * and offsets are unsigned 32-bit values and an access outside the memory traps.
+ * <p>
+ * The memory is reserved at its maximum size up front and grows by widening its segment, so growing neither copies nor
+ * moves the memory. The reservation comes from {@code calloc}, whose pages the system only commits once they are
+ * written, so a memory only takes the pages it uses. It is freed once the instance and the segments taken from it are
+ * unreachable, so instances of a module are dropped like any java object.
+ * <p>
+ * Once a {@link #snapshot()} is taken, stores mark the blocks they write to, atomically for shared memories, so
+ * {@link #restore()} only copies back the blocks written since.
+ * <p>
+ * A shared memory is accessed by the instances of several threads, which import it. Plain accesses keep the segment their thread last saw and only look for a wider one when they fall
+ * outside of it, atomic accesses read it with acquire semantics. Atomic accesses use the atomic access modes of var
+ * handles; 8 and 16 bits accesses go through the 32 bits word containing them.
+ */
+public final class MemInstance {
+    public static final int PAGE_SIZE = 0x10000;
+    public static final int MAX_PAGES = 0x10000;
+
+    private static final int BLOCK_SHIFT = 12;
+
+    private static final ValueLayout.OfShort I16 = ValueLayout.JAVA_SHORT_UNALIGNED.withOrder(ByteOrder.LITTLE_ENDIAN);
+    private static final ValueLayout.OfInt I32 = ValueLayout.JAVA_INT_UNALIGNED.withOrder(ByteOrder.LITTLE_ENDIAN);
+    private static final ValueLayout.OfLong I64 = ValueLayout.JAVA_LONG_UNALIGNED.withOrder(ByteOrder.LITTLE_ENDIAN);
+    private static final ValueLayout.OfFloat F32 = ValueLayout.JAVA_FLOAT_UNALIGNED.withOrder(ByteOrder.LITTLE_ENDIAN);
+    private static final ValueLayout.OfDouble F64 = ValueLayout.JAVA_DOUBLE_UNALIGNED.withOrder(ByteOrder.LITTLE_ENDIAN);
+
+    private static final VarHandle ATOMIC_I32 = ValueLayout.JAVA_INT.withOrder(ByteOrder.LITTLE_ENDIAN).varHandle();
+    private static final VarHandle ATOMIC_I64 = ValueLayout.JAVA_LONG.withOrder(ByteOrder.LITTLE_ENDIAN).varHandle();
+    private static final VarHandle SEGMENT;
+    private static final VarHandle DIRTY = MethodHandles.arrayElementVarHandle(long[].class);
+
+    static {
+        try {
+            SEGMENT = MethodHandles.lookup().findVarHandle(MemInstance.class, "segment", MemorySegment.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    /**
+     * Operations of the atomic read-modify-write accessors, in the order of their opcodes
+     */
+    public static final int RMW_ADD = 0;
+    public static final int RMW_SUB = 1;
+    public static final int RMW_AND = 2;
+    public static final int RMW_OR = 3;
+    public static final int RMW_XOR = 4;
+    public static final int RMW_XCHG = 5;
+
+    private final int max;
+    private final boolean shared;
+    /**
+     * The whole allocation of the memory, the segment being its first pages
+     */
+    private final MemorySegment reserved;
+    /**
+     * Plain so the jit hoists it out of loops. A shared memory publishes its wider segment with release semantics, and
+     * an access falling outside the segment a thread sees reads it again with acquire semantics before trapping.
+     */
+    private MemorySegment segment;
+    private MemorySegment snapshot;
+    private long[] dirty;
+
+    private final ReentrantLock waitLock = new ReentrantLock();
+    /**
+     * Threads waiting in {@code memory.atomic.wait} by address, in the order they started waiting
+     */
+    private final Map<Long, ArrayDeque<Condition>> waiters = new HashMap<>();
+
+    /**
+     * @param min initial number of pages
+     * @param max maximum number of pages, -1 when unbounded
+     */
+    public MemInstance(int min, int max) {
+        this(min, max, false);
+    }
+
+    /**
+     * @param min    initial number of pages
+     * @param max    maximum number of pages, -1 when unbounded
+     * @param shared whether the memory is shared between threads, it must then have a maximum
+     */
+    public MemInstance(int min, int max, boolean shared) {
+        if (Integer.compareUnsigned(min, MAX_PAGES) > 0 || (max != -1 && Integer.compareUnsigned(min, max) > 0)) {
+            throw new IllegalArgumentException("Invalid memory limits %d..%d".formatted(min, max));
+        }
+
+        if (shared && max == -1) {
+            throw new IllegalArgumentException("Shared memory must have a maximum");
+        }
+
+        this.max = max == -1 ? MAX_PAGES : Math.min(max, MAX_PAGES);
+        this.shared = shared;
+        this.reserved = Reservation.reserve((long) this.max * PAGE_SIZE);
+        this.segment = reserved.asSlice(0, (long) min * PAGE_SIZE);
+    }
+
+    public boolean isShared() {
+        return shared;
+    }
+
+    /**
+     * The current memory. The segment is replaced when the memory grows, so it must not be kept across calls to wasm
+     * code. Writes to the segment must be reported with {@link #markDirty(long, long)} to be restored.
+     */
+    public MemorySegment segment() {
+        return acquireSegment();
+    }
+
+    /**
+     * Size in pages
+     */
+    public int size() {
+        return (int) (acquireSegment().byteSize() / PAGE_SIZE);
+    }
+
+    /**
+     * The segment as last seen by this thread, which may be narrower than the current one of a shared memory
+     */
+    MemorySegment plainSegment() {
+        return segment;
+    }
+
+    /**
+     * The segment to access once an access fell outside the one this thread last saw, a shared memory may have grown
+     * since. Traps when the access is outside the current segment as well.
+     */
+    MemorySegment grown(long effectiveAddress, long size) {
+        final var segment = acquireSegment();
+
+        if (effectiveAddress + size > segment.byteSize()) {
+            throw outOfBounds();
+        }
+
+        return segment;
+    }
+
+    private MemorySegment acquireSegment() {
+        return shared ? (MemorySegment) SEGMENT.getAcquire(this) : segment;
+    }
+
+    /**
+     * Grows the memory by the given number of pages.
+     *
+     * @return the previous size in pages, or -1 when the memory cannot grow
+     */
+    public int grow(int delta) {
+        if (shared) {
+            synchronized (this) {
+                return widen(delta);
+            }
+        }
+
+        return widen(delta);
+    }
+
+    private int widen(int delta) {
+        final var size = size();
+
+        if (Integer.compareUnsigned(delta, max - size) > 0) {
+            return -1;
+        }
+
+        SEGMENT.setRelease(this, reserved.asSlice(0, (long) (size + delta) * PAGE_SIZE));
+
+        return size;
+    }
+
+    /**
+     * Copies the bytes at the given address, used to initialize the memory with data segments.
+     */
+    public void write(int address, ByteBuffer bytes) {
+        try {
+            MemorySegment.copy(MemorySegment.ofBuffer(bytes), 0, acquireSegment(), Integer.toUnsignedLong(address), bytes.remaining());
+        } catch (IndexOutOfBoundsException e) {
+            throw outOfBounds();
+        }
+
+        markDirty(Integer.toUnsignedLong(address), bytes.remaining());
+    }
+
+    /**
+     * Copies the memory, {@link #restore()} then brings the memory back to its current content.
+     */
+    public void snapshot() {
+        snapshot = Arena.ofAuto().allocate(segment.byteSize(), PAGE_SIZE).copyFrom(segment);
+        dirty = new long[(int) ((segment.byteSize() >>> BLOCK_SHIFT) + 63 >>> 6)];
+    }
+
+    /**
+     * Brings the memory back to the content and size of the snapshot, copying only the blocks written since.
+     */
+    public void restore() {
+        if (snapshot == null) {
+            throw new IllegalStateException("No snapshot to restore");
+        }
+
+        if (segment.byteSize() != snapshot.byteSize()) {
+            // Pages past the snapshot must read as zeros when the memory grows again, the ones past the current size
+            // have not been written since the snapshot
+            reserved.asSlice(snapshot.byteSize(), segment.byteSize() - snapshot.byteSize()).fill((byte) 0);
+            SEGMENT.setRelease(this, reserved.asSlice(0, snapshot.byteSize()));
+        }
+
+        for (int i = 0; i < dirty.length; i++) {
+            for (var bits = dirty[i]; bits != 0; bits &= bits - 1) {
+                final var offset = ((long) i << 6 | Long.numberOfTrailingZeros(bits)) << BLOCK_SHIFT;
+
+                MemorySegment.copy(snapshot, offset, segment, offset, Math.min(1L << BLOCK_SHIFT, segment.byteSize() - offset));
+            }
+
+            dirty[i] = 0;
+        }
+    }
+
+    /**
+     * Reports a write to the memory, for {@link #restore()}. Stores of compiled code are reported already.
+     */
+    public void markDirty(long offset, long length) {
+        final var dirty = this.dirty;
+
+        if (dirty == null || length <= 0) {
+            return;
+        }
+
+        // Blocks past the snapshot only exist once the memory grew, restoring zeroes them all
+        final var last = Math.min((offset + length - 1) >>> BLOCK_SHIFT, ((long) dirty.length << 6) - 1);
+
+        for (var block = offset >>> BLOCK_SHIFT; block <= last; block++) {
+            final var i = (int) (block >>> 6);
+            final var bit = 1L << block;
+
+            if (!shared) {
+                dirty[i] |= bit;
+            } else if ((dirty[i] & bit) == 0) {
+                // Other threads mark the blocks sharing the word
+                DIRTY.getAndBitwiseOr(dirty, i, bit);
+            }
+        }
+    }
+
+    public static int i32Load(int address, int offset, MemInstance memory) {
+        final var effectiveAddress = effectiveAddress(address, offset);
+
+        try {
+            return memory.segment.get(I32, effectiveAddress);
+        } catch (IndexOutOfBoundsException e) {
+            return memory.grown(effectiveAddress, 4).get(I32, effectiveAddress);
+        }
+    }
+
+    public static int i32Load8S(int address, int offset, MemInstance memory) {
+        final var effectiveAddress = effectiveAddress(address, offset);
+
+        try {
+            return memory.segment.get(ValueLayout.JAVA_BYTE, effectiveAddress);
+        } catch (IndexOutOfBoundsException e) {
+            return memory.grown(effectiveAddress, 1).get(ValueLayout.JAVA_BYTE, effectiveAddress);
+        }
+    }
+
+    public static int i32Load8U(int address, int offset, MemInstance memory) {
+        return i32Load8S(address, offset, memory) & 0xff;
+    }
+
+    public static int i32Load16S(int address, int offset, MemInstance memory) {
+        final var effectiveAddress = effectiveAddress(address, offset);
+
+        try {
+            return memory.segment.get(I16, effectiveAddress);
+        } catch (IndexOutOfBoundsException e) {
+            return memory.grown(effectiveAddress, 2).get(I16, effectiveAddress);
+        }
+    }
+
+    public static int i32Load16U(int address, int offset, MemInstance memory) {
+        return i32Load16S(address, offset, memory) & 0xffff;
+    }
+
+    public static long i64Load(int address, int offset, MemInstance memory) {
+        final var effectiveAddress = effectiveAddress(address, offset);
+
+        try {
+            return memory.segment.get(I64, effectiveAddress);
+        } catch (IndexOutOfBoundsException e) {
+            return memory.grown(effectiveAddress, 8).get(I64, effectiveAddress);
+        }
+    }
+
+    public static long i64Load8S(int address, int offset, MemInstance memory) {
+        return i32Load8S(address, offset, memory);
+    }
+
+    public static long i64Load8U(int address, int offset, MemInstance memory) {
+        return i32Load8U(address, offset, memory);
+    }
+
+    public static long i64Load16S(int address, int offset, MemInstance memory) {
+        return i32Load16S(address, offset, memory);
+    }
+
+    public static long i64Load16U(int address, int offset, MemInstance memory) {
+        return i32Load16U(address, offset, memory);
+    }
+
+    public static long i64Load32S(int address, int offset, MemInstance memory) {
+        return i32Load(address, offset, memory);
+    }
+
+    public static long i64Load32U(int address, int offset, MemInstance memory) {
+        return Integer.toUnsignedLong(i32Load(address, offset, memory));
+    }
+
+    public static float f32Load(int address, int offset, MemInstance memory) {
+        final var effectiveAddress = effectiveAddress(address, offset);
+
+        try {
+            return memory.segment.get(F32, effectiveAddress);
+        } catch (IndexOutOfBoundsException e) {
+            return memory.grown(effectiveAddress, 4).get(F32, effectiveAddress);
+        }
+    }
+
+    public static double f64Load(int address, int offset, MemInstance memory) {
+        final var effectiveAddress = effectiveAddress(address, offset);
+
+        try {
+            return memory.segment.get(F64, effectiveAddress);
+        } catch (IndexOutOfBoundsException e) {
+            return memory.grown(effectiveAddress, 8).get(F64, effectiveAddress);
+        }
+    }
+
+    public static void i32Store(int address, int value, int offset, MemInstance memory) {
+        final var effectiveAddress = effectiveAddress(address, offset);
+
+        try {
+            memory.segment.set(I32, effectiveAddress, value);
+        } catch (IndexOutOfBoundsException e) {
+            memory.grown(effectiveAddress, 4).set(I32, effectiveAddress, value);
+        }
+
+        memory.markDirty(effectiveAddress, 4);
+    }
+
+    public static void i32Store8(int address, int value, int offset, MemInstance memory) {
+        final var effectiveAddress = effectiveAddress(address, offset);
+
+        try {
+            memory.segment.set(ValueLayout.JAVA_BYTE, effectiveAddress, (byte) value);
+        } catch (IndexOutOfBoundsException e) {
+            memory.grown(effectiveAddress, 1).set(ValueLayout.JAVA_BYTE, effectiveAddress, (byte) value);
+        }
+
+        memory.markDirty(effectiveAddress, 1);
+    }
+
+    public static void i32Store16(int address, int value, int offset, MemInstance memory) {
+        final var effectiveAddress = effectiveAddress(address, offset);
+
+        try {
+            memory.segment.set(I16, effectiveAddress, (short) value);
+        } catch (IndexOutOfBoundsException e) {
+            memory.grown(effectiveAddress, 2).set(I16, effectiveAddress, (short) value);
+        }
+
+        memory.markDirty(effectiveAddress, 2);
+    }
+
+    public static void i64Store(int address, long value, int offset, MemInstance memory) {
+        final var effectiveAddress = effectiveAddress(address, offset);
+
+        try {
+            memory.segment.set(I64, effectiveAddress, value);
+        } catch (IndexOutOfBoundsException e) {
+            memory.grown(effectiveAddress, 8).set(I64, effectiveAddress, value);
+        }
+
+        memory.markDirty(effectiveAddress, 8);
+    }
+
+    public static void i64Store8(int address, long value, int offset, MemInstance memory) {
+        i32Store8(address, (int) value, offset, memory);
+    }
+
+    public static void i64Store16(int address, long value, int offset, MemInstance memory) {
+        i32Store16(address, (int) value, offset, memory);
+    }
+
+    public static void i64Store32(int address, long value, int offset, MemInstance memory) {
+        i32Store(address, (int) value, offset, memory);
+    }
+
+    public static void f32Store(int address, float value, int offset, MemInstance memory) {
+        final var effectiveAddress = effectiveAddress(address, offset);
+
+        try {
+            memory.segment.set(F32, effectiveAddress, value);
+        } catch (IndexOutOfBoundsException e) {
+            memory.grown(effectiveAddress, 4).set(F32, effectiveAddress, value);
+        }
+
+        memory.markDirty(effectiveAddress, 4);
+    }
+
+    public static void f64Store(int address, double value, int offset, MemInstance memory) {
+        final var effectiveAddress = effectiveAddress(address, offset);
+
+        try {
+            memory.segment.set(F64, effectiveAddress, value);
+        } catch (IndexOutOfBoundsException e) {
+            memory.grown(effectiveAddress, 8).set(F64, effectiveAddress, value);
+        }
+
+        memory.markDirty(effectiveAddress, 8);
+    }
+
+    public static int i32AtomicLoad(int address, int offset, MemInstance memory) {
+        final var effectiveAddress = atomicAddress(address, offset, 4, memory);
+
+        return (int) ATOMIC_I32.getVolatile(memory.acquireSegment(), effectiveAddress);
+    }
+
+    public static long i64AtomicLoad(int address, int offset, MemInstance memory) {
+        final var effectiveAddress = atomicAddress(address, offset, 8, memory);
+
+        return (long) ATOMIC_I64.getVolatile(memory.acquireSegment(), effectiveAddress);
+    }
+
+    public static int i32AtomicLoad8U(int address, int offset, MemInstance memory) {
+        return loadNarrow(atomicAddress(address, offset, 1, memory), 0xff, memory);
+    }
+
+    public static int i32AtomicLoad16U(int address, int offset, MemInstance memory) {
+        return loadNarrow(atomicAddress(address, offset, 2, memory), 0xffff, memory);
+    }
+
+    public static long i64AtomicLoad8U(int address, int offset, MemInstance memory) {
+        return i32AtomicLoad8U(address, offset, memory);
+    }
+
+    public static long i64AtomicLoad16U(int address, int offset, MemInstance memory) {
+        return i32AtomicLoad16U(address, offset, memory);
+    }
+
+    public static long i64AtomicLoad32U(int address, int offset, MemInstance memory) {
+        return Integer.toUnsignedLong(i32AtomicLoad(address, offset, memory));
+    }
+
+    public static void i32AtomicStore(int address, int value, int offset, MemInstance memory) {
+        final var effectiveAddress = atomicAddress(address, offset, 4, memory);
+
+        ATOMIC_I32.setVolatile(memory.acquireSegment(), effectiveAddress, value);
+        memory.markDirty(effectiveAddress, 4);
+    }
+
+    public static void i64AtomicStore(int address, long value, int offset, MemInstance memory) {
+        final var effectiveAddress = atomicAddress(address, offset, 8, memory);
+
+        ATOMIC_I64.setVolatile(memory.acquireSegment(), effectiveAddress, value);
+        memory.markDirty(effectiveAddress, 8);
+    }
+
+    public static void i32AtomicStore8(int address, int value, int offset, MemInstance memory) {
+        i32AtomicRmw8U(address, value, offset, RMW_XCHG, memory);
+    }
+
+    public static void i32AtomicStore16(int address, int value, int offset, MemInstance memory) {
+        i32AtomicRmw16U(address, value, offset, RMW_XCHG, memory);
+    }
+
+    public static void i64AtomicStore8(int address, long value, int offset, MemInstance memory) {
+        i32AtomicStore8(address, (int) value, offset, memory);
+    }
+
+    public static void i64AtomicStore16(int address, long value, int offset, MemInstance memory) {
+        i32AtomicStore16(address, (int) value, offset, memory);
+    }
+
+    public static void i64AtomicStore32(int address, long value, int offset, MemInstance memory) {
+        i32AtomicStore(address, (int) value, offset, memory);
+    }
+
+    /**
+     * Applies the operation, one of the {@code RMW_} constants, returning the previous value
+     */
+    public static int i32AtomicRmw(int address, int value, int offset, int op, MemInstance memory) {
+        final var effectiveAddress = atomicAddress(address, offset, 4, memory);
+        final var segment = memory.acquireSegment();
+
+        memory.markDirty(effectiveAddress, 4);
+
+        return switch (op) {
+            case RMW_ADD -> (int) ATOMIC_I32.getAndAdd(segment, effectiveAddress, value);
+            case RMW_SUB -> (int) ATOMIC_I32.getAndAdd(segment, effectiveAddress, -value);
+            case RMW_AND -> (int) ATOMIC_I32.getAndBitwiseAnd(segment, effectiveAddress, value);
+            case RMW_OR -> (int) ATOMIC_I32.getAndBitwiseOr(segment, effectiveAddress, value);
+            case RMW_XOR -> (int) ATOMIC_I32.getAndBitwiseXor(segment, effectiveAddress, value);
+            case RMW_XCHG -> (int) ATOMIC_I32.getAndSet(segment, effectiveAddress, value);
+            default -> throw new IllegalArgumentException("Unknown atomic operation %d".formatted(op));
+        };
+    }
+
+    public static long i64AtomicRmw(int address, long value, int offset, int op, MemInstance memory) {
+        final var effectiveAddress = atomicAddress(address, offset, 8, memory);
+        final var segment = memory.acquireSegment();
+
+        memory.markDirty(effectiveAddress, 8);
+
+        return switch (op) {
+            case RMW_ADD -> (long) ATOMIC_I64.getAndAdd(segment, effectiveAddress, value);
+            case RMW_SUB -> (long) ATOMIC_I64.getAndAdd(segment, effectiveAddress, -value);
+            case RMW_AND -> (long) ATOMIC_I64.getAndBitwiseAnd(segment, effectiveAddress, value);
+            case RMW_OR -> (long) ATOMIC_I64.getAndBitwiseOr(segment, effectiveAddress, value);
+            case RMW_XOR -> (long) ATOMIC_I64.getAndBitwiseXor(segment, effectiveAddress, value);
+            case RMW_XCHG -> (long) ATOMIC_I64.getAndSet(segment, effectiveAddress, value);
+            default -> throw new IllegalArgumentException("Unknown atomic operation %d".formatted(op));
+        };
+    }
+
+    public static int i32AtomicRmw8U(int address, int value, int offset, int op, MemInstance memory) {
+        return rmwNarrow(atomicAddress(address, offset, 1, memory), 0xff, value, op, memory);
+    }
+
+    public static int i32AtomicRmw16U(int address, int value, int offset, int op, MemInstance memory) {
+        return rmwNarrow(atomicAddress(address, offset, 2, memory), 0xffff, value, op, memory);
+    }
+
+    public static long i64AtomicRmw8U(int address, long value, int offset, int op, MemInstance memory) {
+        return i32AtomicRmw8U(address, (int) value, offset, op, memory);
+    }
+
+    public static long i64AtomicRmw16U(int address, long value, int offset, int op, MemInstance memory) {
+        return i32AtomicRmw16U(address, (int) value, offset, op, memory);
+    }
+
+    public static long i64AtomicRmw32U(int address, long value, int offset, int op, MemInstance memory) {
+        return Integer.toUnsignedLong(i32AtomicRmw(address, (int) value, offset, op, memory));
+    }
+
+    /**
+     * Replaces the value when it equals the expected one, returning the previous value
+     */
+    public static int i32AtomicCmpxchg(int address, int expected, int replacement, int offset, MemInstance memory) {
+        final var effectiveAddress = atomicAddress(address, offset, 4, memory);
+
+        memory.markDirty(effectiveAddress, 4);
+
+        return (int) ATOMIC_I32.compareAndExchange(memory.acquireSegment(), effectiveAddress, expected, replacement);
+    }
+
+    public static long i64AtomicCmpxchg(int address, long expected, long replacement, int offset, MemInstance memory) {
+        final var effectiveAddress = atomicAddress(address, offset, 8, memory);
+
+        memory.markDirty(effectiveAddress, 8);
+
+        return (long) ATOMIC_I64.compareAndExchange(memory.acquireSegment(), effectiveAddress, expected, replacement);
+    }
+
+    public static int i32AtomicCmpxchg8U(int address, int expected, int replacement, int offset, MemInstance memory) {
+        return cmpxchgNarrow(atomicAddress(address, offset, 1, memory), 0xff, expected, replacement, memory);
+    }
+
+    public static int i32AtomicCmpxchg16U(int address, int expected, int replacement, int offset, MemInstance memory) {
+        return cmpxchgNarrow(atomicAddress(address, offset, 2, memory), 0xffff, expected, replacement, memory);
+    }
+
+    public static long i64AtomicCmpxchg8U(int address, long expected, long replacement, int offset, MemInstance memory) {
+        return i32AtomicCmpxchg8U(address, (int) expected, (int) replacement, offset, memory);
+    }
+
+    public static long i64AtomicCmpxchg16U(int address, long expected, long replacement, int offset, MemInstance memory) {
+        return i32AtomicCmpxchg16U(address, (int) expected, (int) replacement, offset, memory);
+    }
+
+    public static long i64AtomicCmpxchg32U(int address, long expected, long replacement, int offset, MemInstance memory) {
+        return Integer.toUnsignedLong(i32AtomicCmpxchg(address, (int) expected, (int) replacement, offset, memory));
+    }
+
+    /**
+     * Waits for a {@link #memoryAtomicNotify(int, int, int, MemInstance)} at the address if it holds the expected
+     * value.
+     *
+     * @param timeout in nanoseconds, negative to wait forever
+     * @return 0 when notified, 1 when the value differs, 2 on timeout
+     */
+    public static int memoryAtomicWait32(int address, int expected, long timeout, int offset, MemInstance memory) {
+        final var effectiveAddress = waitAddress(address, offset, 4, memory);
+
+        memory.waitLock.lock();
+
+        try {
+            return (int) ATOMIC_I32.getVolatile(memory.acquireSegment(), effectiveAddress) == expected ? memory.await(effectiveAddress, timeout) : 1;
+        } finally {
+            memory.waitLock.unlock();
+        }
+    }
+
+    public static int memoryAtomicWait64(int address, long expected, long timeout, int offset, MemInstance memory) {
+        final var effectiveAddress = waitAddress(address, offset, 8, memory);
+
+        memory.waitLock.lock();
+
+        try {
+            return (long) ATOMIC_I64.getVolatile(memory.acquireSegment(), effectiveAddress) == expected ? memory.await(effectiveAddress, timeout) : 1;
+        } finally {
+            memory.waitLock.unlock();
+        }
+    }
+
+    /**
+     * Wakes up to {@code count} threads waiting at the address, the ones waiting for the longest first.
+     *
+     * @param count unsigned
+     * @return the number of threads woken up
+     */
+    public static int memoryAtomicNotify(int address, int count, int offset, MemInstance memory) {
+        final var effectiveAddress = atomicAddress(address, offset, 4, memory);
+
+        memory.waitLock.lock();
+
+        try {
+            final var queue = memory.waiters.get(effectiveAddress);
+            var woken = 0;
+
+            while (queue != null && !queue.isEmpty() && Integer.compareUnsigned(woken, count) < 0) {
+                queue.poll().signal();
+                woken++;
+            }
+
+            if (queue != null && queue.isEmpty()) {
+                memory.waiters.remove(effectiveAddress);
+            }
+
+            return woken;
+        } finally {
+            memory.waitLock.unlock();
+        }
+    }
+
+    public static void atomicFence() {
+        VarHandle.fullFence();
+    }
+
+    /**
+     * Waits with the wait lock held, a waiter no longer in the queue has been notified
+     */
+    private int await(long effectiveAddress, long timeout) {
+        final var condition = waitLock.newCondition();
+        final var queue = waiters.computeIfAbsent(effectiveAddress, address -> new ArrayDeque<>());
+
+        queue.add(condition);
+
+        try {
+            var remaining = timeout;
+
+            while (queue.contains(condition)) {
+                if (timeout < 0) {
+                    condition.await();
+                } else if (remaining > 0) {
+                    remaining = condition.awaitNanos(remaining);
+                } else {
+                    return 2;
+                }
+            }
+
+            return 0;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new Trap("wait interrupted");
+        } finally {
+            if (queue.remove(condition) && queue.isEmpty()) {
+                waiters.remove(effectiveAddress);
+            }
+        }
+    }
+
+    private static int loadNarrow(long effectiveAddress, int mask, MemInstance memory) {
+        final var shift = (int) (effectiveAddress & 3) * 8;
+
+        return (int) ATOMIC_I32.getVolatile(memory.acquireSegment(), effectiveAddress & ~3L) >>> shift & mask;
+    }
+
+    /**
+     * Read-modify-write of the 8 or 16 bits at the address, by compare and set of the little-endian word holding them
+     */
+    private static int rmwNarrow(long effectiveAddress, int mask, int value, int op, MemInstance memory) {
+        final var segment = memory.acquireSegment();
+        final var word = effectiveAddress & ~3L;
+        final var shift = (int) (effectiveAddress & 3) * 8;
+        int previous;
+        int updated;
+
+        memory.markDirty(word, 4);
+
+        do {
+            previous = (int) ATOMIC_I32.getVolatile(segment, word);
+
+            final var current = previous >>> shift & mask;
+            final var result = switch (op) {
+                case RMW_ADD -> current + value;
+                case RMW_SUB -> current - value;
+                case RMW_AND -> current & value;
+                case RMW_OR -> current | value;
+                case RMW_XOR -> current ^ value;
+                case RMW_XCHG -> value;
+                default -> throw new IllegalArgumentException("Unknown atomic operation %d".formatted(op));
+            };
+
+            updated = previous & ~(mask << shift) | (result & mask) << shift;
+        } while (!ATOMIC_I32.compareAndSet(segment, word, previous, updated));
+
+        return previous >>> shift & mask;
+    }
+
+    private static int cmpxchgNarrow(long effectiveAddress, int mask, int expected, int replacement, MemInstance memory) {
+        final var segment = memory.acquireSegment();
+        final var word = effectiveAddress & ~3L;
+        final var shift = (int) (effectiveAddress & 3) * 8;
+        int previous;
+
+        memory.markDirty(word, 4);
+
+        do {
+            previous = (int) ATOMIC_I32.getVolatile(segment, word);
+
+            // The expected value is wrapped to the size of the access
+            if ((previous >>> shift & mask) != (expected & mask)) {
+                break;
+            }
+        } while (!ATOMIC_I32.compareAndSet(segment, word, previous, previous & ~(mask << shift) | (replacement & mask) << shift));
+
+        return previous >>> shift & mask;
+    }
+
+    /**
+     * Address of an atomic access of the given size, which must be aligned
+     */
+    private static long atomicAddress(int address, int offset, int size, MemInstance memory) {
+        final var effectiveAddress = effectiveAddress(address, offset);
+
+        if (effectiveAddress + size > memory.acquireSegment().byteSize()) {
+            throw outOfBounds();
+        }
+
+        if ((effectiveAddress & size - 1) != 0) {
+            throw new Trap("unaligned atomic");
+        }
+
+        return effectiveAddress;
+    }
+
+    private static long waitAddress(int address, int offset, int size, MemInstance memory) {
+        final var effectiveAddress = atomicAddress(address, offset, size, memory);
+
+        if (!memory.shared) {
+            throw new Trap("expected shared memory");
+        }
+
+        return effectiveAddress;
+    }
+
+    /**
+     * Reserves memories. The system commits the pages of large {@code calloc} allocations once they are written, where
+     * allocating from an arena would zero the whole reservation.
+     */
+    private static final class Reservation {
+        private static final MethodHandle CALLOC;
+        private static final MethodHandle FREE;
+
+        static {
+            final var linker = Linker.nativeLinker();
+            final var libc = linker.defaultLookup();
+
+            CALLOC = linker.downcallHandle(libc.find("calloc").orElseThrow(), FunctionDescriptor.of(ValueLayout.ADDRESS, ValueLayout.JAVA_LONG, ValueLayout.JAVA_LONG));
+            FREE = linker.downcallHandle(libc.find("free").orElseThrow(), FunctionDescriptor.ofVoid(ValueLayout.ADDRESS));
+        }
+
+        /**
+         * Zeroed memory of the given size, freed once unreachable
+         */
+        static MemorySegment reserve(long byteSize) {
+            final MemorySegment address;
+
+            try {
+                address = (MemorySegment) CALLOC.invokeExact(1L, Math.max(byteSize, 1L));
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new IllegalStateException("Cannot reserve memory", e);
+            }
+
+            if (address.equals(MemorySegment.NULL)) {
+                throw new OutOfMemoryError("Cannot reserve %d bytes of memory".formatted(byteSize));
+            }
+
+            return address.reinterpret(byteSize, Arena.ofAuto(), Reservation::free);
+        }
+
+        private static void free(MemorySegment address) {
+            try {
+                FREE.invokeExact(address);
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new IllegalStateException("Cannot free memory", e);
+            }
+        }
+    }
+
+    static long effectiveAddress(int address, int offset) {
+        return Integer.toUnsignedLong(address) + Integer.toUnsignedLong(offset);
+    }
+
+    static Trap outOfBounds() {
+        return new Trap("out of bounds memory access");
+    }
 }
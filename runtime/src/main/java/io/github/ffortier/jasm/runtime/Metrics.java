@@ -0,0 +1,79 @@
+package io.github.ffortier.jasm.runtime;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Calls and time spent in the functions of an instrumented instance. Compiled functions call {@link #enter} on entry,
+ * then {@link #exit} or {@link #thrown} on their way out.
+ * <p>
+ * Time is wall-clock time including the callees, a recursive function counts its nested calls again. Counters are not
+ * synchronized, they belong to an instance which runs on one thread at a time.
+ */
+public final class Metrics {
+    private final String[] names;
+    private final long[] calls;
+    private final long[] nanos;
+
+    /**
+     * @param names names of the functions by index
+     */
+    public Metrics(String[] names) {
+        this.names = names;
+        this.calls = new long[names.length];
+        this.nanos = new long[names.length];
+    }
+
+    /**
+     * @param nanos cumulative time spent in the function
+     */
+    public record Function(int funcIdx, String name, long calls, long nanos) {
+    }
+
+    /**
+     * The functions called at least once, by index
+     */
+    public List<Function> functions() {
+        final var functions = new ArrayList<Function>();
+
+        for (int i = 0; i < names.length; i++) {
+            if (calls[i] != 0) {
+                functions.add(new Function(i, names[i], calls[i], nanos[i]));
+            }
+        }
+
+        return functions;
+    }
+
+    public String name(int funcIdx) {
+        return names[funcIdx];
+    }
+
+    /**
+     * Counts a call, returns the time it started
+     */
+    public static long enter(int funcIdx, Metrics metrics) {
+        metrics.calls[funcIdx]++;
+
+        return System.nanoTime();
+    }
+
+    public static void exit(long start, int funcIdx, Metrics metrics) {
+        metrics.nanos[funcIdx] += System.nanoTime() - start;
+    }
+
+    /**
+     * Exits a function left by an exception, records a trap event the first time a trap goes through an instrumented
+     * function. Returns the exception to rethrow.
+     */
+    public static <T extends Throwable> T thrown(T e, long start, int funcIdx, Metrics metrics) {
+        exit(start, funcIdx, metrics);
+
+        if (e instanceof Trap trap && !trap.recorded) {
+            trap.recorded = true;
+            Events.trap(trap, metrics.names[funcIdx]);
+        }
+
+        return e;
+    }
+}
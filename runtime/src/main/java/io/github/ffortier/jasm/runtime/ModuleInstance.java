@@ -1,4 +1,38 @@
 package io.github.ffortier.jasm.runtime;
 
-public record ModuleInstance() {
+/**
+ * The state of an instantiated module that changes while it runs.
+ *
+ * @param memory       the memory of the instance, null when the module has none
+ * @param fuel         the fuel of a metered instance, null otherwise. It is refilled when the instance is reset, along
+ *                     with the other instances it is shared with.
+ * @param metrics      the calls and time of the functions of an instrumented instance, null otherwise. They are kept
+ *                     when the instance is reset.
+ * @param resetGlobals sets the mutable globals defined by the module back to their initial value, null when it has
+ *                     none
+ */
+public record ModuleInstance(MemInstance memory, Fuel fuel, Metrics metrics, Runnable resetGlobals) {
+    /**
+     * Records the current state, {@link #reset()} then brings the instance back to it. Globals are brought back to
+     * their initial value, so the snapshot is meant to be taken right after instantiation.
+     */
+    public void snapshot() {
+        if (memory != null) {
+            memory.snapshot();
+        }
+    }
+
+    public void reset() {
+        if (memory != null) {
+            memory.restore();
+        }
+
+        if (resetGlobals != null) {
+            resetGlobals.run();
+        }
+
+        if (fuel != null) {
+            fuel.refill();
+        }
+    }
 }
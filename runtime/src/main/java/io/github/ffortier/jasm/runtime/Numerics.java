@@ -0,0 +1,184 @@
+package io.github.ffortier.jasm.runtime;
+
+/**
+ * Numeric instructions whose wasm semantics differ from the closest jvm instruction, called from generated code and
+ * the interpreter.
+ */
+public final class Numerics {
+    private static final double TWO_POW_63 = 0x1p63;
+
+    private Numerics() {
+    }
+
+    private static Trap divideByZero() {
+        return new Trap("integer divide by zero");
+    }
+
+    private static Trap integerOverflow() {
+        return new Trap("integer overflow");
+    }
+
+    private static Trap invalidConversion() {
+        return new Trap("invalid conversion to integer");
+    }
+
+    public static int i32DivS(int a, int b) {
+        if (b == 0) {
+            throw divideByZero();
+        }
+
+        if (a == Integer.MIN_VALUE && b == -1) {
+            throw integerOverflow();
+        }
+
+        return a / b;
+    }
+
+    public static int i32DivU(int a, int b) {
+        if (b == 0) {
+            throw divideByZero();
+        }
+
+        return Integer.divideUnsigned(a, b);
+    }
+
+    public static int i32RemS(int a, int b) {
+        if (b == 0) {
+            throw divideByZero();
+        }
+
+        return a % b;
+    }
+
+    public static int i32RemU(int a, int b) {
+        if (b == 0) {
+            throw divideByZero();
+        }
+
+        return Integer.remainderUnsigned(a, b);
+    }
+
+    public static long i64DivS(long a, long b) {
+        if (b == 0) {
+            throw divideByZero();
+        }
+
+        if (a == Long.MIN_VALUE && b == -1) {
+            throw integerOverflow();
+        }
+
+        return a / b;
+    }
+
+    public static long i64DivU(long a, long b) {
+        if (b == 0) {
+            throw divideByZero();
+        }
+
+        return Long.divideUnsigned(a, b);
+    }
+
+    public static long i64RemS(long a, long b) {
+        if (b == 0) {
+            throw divideByZero();
+        }
+
+        return a % b;
+    }
+
+    public static long i64RemU(long a, long b) {
+        if (b == 0) {
+            throw divideByZero();
+        }
+
+        return Long.remainderUnsigned(a, b);
+    }
+
+    /**
+     * f32 operands are widened to double first, which is exact.
+     */
+    public static int i32TruncS(double d) {
+        if (Double.isNaN(d)) {
+            throw invalidConversion();
+        }
+
+        if (d <= -2147483649.0 || d >= 2147483648.0) {
+            throw integerOverflow();
+        }
+
+        return (int) d;
+    }
+
+    public static int i32TruncU(double d) {
+        if (Double.isNaN(d)) {
+            throw invalidConversion();
+        }
+
+        if (d <= -1.0 || d >= 4294967296.0) {
+            throw integerOverflow();
+        }
+
+        return (int) (long) d;
+    }
+
+    public static long i64TruncS(double d) {
+        if (Double.isNaN(d)) {
+            throw invalidConversion();
+        }
+
+        if (d < -TWO_POW_63 || d >= TWO_POW_63) {
+            throw integerOverflow();
+        }
+
+        return (long) d;
+    }
+
+    public static long i64TruncU(double d) {
+        if (Double.isNaN(d)) {
+            throw invalidConversion();
+        }
+
+        if (d <= -1.0 || d >= 2 * TWO_POW_63) {
+            throw integerOverflow();
+        }
+
+        if (d < TWO_POW_63) {
+            return (long) d;
+        }
+
+        return (long) (d - TWO_POW_63) + Long.MIN_VALUE;
+    }
+
+    public static float f32Trunc(float f) {
+        return (float) (f < 0 ? Math.ceil(f) : Math.floor(f));
+    }
+
+    public static double f64Trunc(double d) {
+        return d < 0 ? Math.ceil(d) : Math.floor(d);
+    }
+
+    public static float f32ConvertI32U(int i) {
+        return (float) Integer.toUnsignedLong(i);
+    }
+
+    public static double f64ConvertI32U(int i) {
+        return (double) Integer.toUnsignedLong(i);
+    }
+
+    public static float f32ConvertI64U(long l) {
+        if (l >= 0) {
+            return (float) l;
+        }
+
+        // Keep the lowest bit so the halved value rounds like the original one
+        return (float) ((l >>> 1) | (l & 1)) * 2f;
+    }
+
+    public static double f64ConvertI64U(long l) {
+        if (l >= 0) {
+            return (double) l;
+        }
+
+        return (double) ((l >>> 1) | (l & 1)) * 2d;
+    }
+}
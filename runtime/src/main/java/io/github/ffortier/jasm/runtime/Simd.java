@@ -0,0 +1,1212 @@
+package io.github.ffortier.jasm.runtime;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.ShortVector;
+import jdk.incubator.vector.Vector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShuffle;
+import jdk.incubator.vector.VectorSpecies;
+
+import java.lang.invoke.MethodHandles;
+import java.nio.ByteOrder;
+
+import static jdk.incubator.vector.VectorOperators.*;
+
+/**
+ * The v128 instructions of the simd proposal, lowered to the vector api and called from generated code. A v128 is a
+ * {@link ByteVector} of 128 bits, reinterpreted as the lanes each instruction works on; vectors that do not escape the
+ * compiled method are kept in the registers of the host's simd unit.
+ * <p>
+ * Instructions widening their lanes first, like the saturating q15 multiplication or unsigned conversions, work on
+ * 256 bits so all lanes are computed at once. The interpreter keeps values in longs and never runs v128 code.
+ */
+public final class Simd {
+    /**
+     * Class of v128 values. The vector api is an incubator module, which code outside this class never names, so
+     * modules without v128 values run without {@code --add-modules jdk.incubator.vector}.
+     */
+    public static final Class<ByteVector> V128 = ByteVector.class;
+    /**
+     * Binary name of {@link #V128}, a constant so comparing a class to it does not initialize this class
+     */
+    public static final String V128_NAME = "jdk.incubator.vector.ByteVector";
+
+    private static final VectorSpecies<Byte> I8 = ByteVector.SPECIES_128;
+    private static final VectorSpecies<Short> I16 = ShortVector.SPECIES_128;
+    private static final VectorSpecies<Integer> I32 = IntVector.SPECIES_128;
+    private static final VectorSpecies<Long> I64 = LongVector.SPECIES_128;
+    private static final VectorSpecies<Float> F32 = FloatVector.SPECIES_128;
+    private static final VectorSpecies<Double> F64 = DoubleVector.SPECIES_128;
+    private static final VectorSpecies<Integer> WIDE_I32 = IntVector.SPECIES_256;
+    private static final VectorSpecies<Long> WIDE_I64 = LongVector.SPECIES_256;
+
+    private Simd() {
+    }
+
+    /**
+     * The v128 of the given bits, lane 0 being the least significant byte of low
+     */
+    public static ByteVector v128(long low, long high) {
+        return LongVector.zero(I64).withLane(0, low).withLane(1, high).reinterpretAsBytes();
+    }
+
+    /**
+     * Bootstrap of the constant of a {@code v128.const}
+     */
+    public static ByteVector v128(MethodHandles.Lookup lookup, String name, Class<?> type, long low, long high) {
+        return v128(low, high);
+    }
+
+    public static long low(ByteVector v) {
+        return v.reinterpretAsLongs().lane(0);
+    }
+
+    public static long high(ByteVector v) {
+        return v.reinterpretAsLongs().lane(1);
+    }
+
+    /**
+     * Shuffle of the lanes of two vectors, lanes 16 to 31 taken from the second one
+     */
+    public static VectorShuffle<Byte> shuffle(long low, long high) {
+        final var lanes = new int[16];
+
+        for (int i = 0; i < 8; i++) {
+            lanes[i] = (int) (low >>> 8 * i) & 0xff;
+            lanes[i + 8] = (int) (high >>> 8 * i) & 0xff;
+        }
+
+        return VectorShuffle.fromArray(I8, lanes, 0);
+    }
+
+    /**
+     * Bootstrap of the constant lanes of an {@code i8x16.shuffle}
+     */
+    public static VectorShuffle<Byte> shuffle(MethodHandles.Lookup lookup, String name, Class<?> type, long low, long high) {
+        return shuffle(low, high);
+    }
+
+    private static ShortVector i16(ByteVector v) {
+        return v.reinterpretAsShorts();
+    }
+
+    private static IntVector i32(ByteVector v) {
+        return v.reinterpretAsInts();
+    }
+
+    private static LongVector i64(ByteVector v) {
+        return v.reinterpretAsLongs();
+    }
+
+    private static FloatVector f32(ByteVector v) {
+        return v.reinterpretAsFloats();
+    }
+
+    private static DoubleVector f64(ByteVector v) {
+        return v.reinterpretAsDoubles();
+    }
+
+    /**
+     * Lanes of the mask as all ones or all zeros
+     */
+    private static ByteVector bits(VectorMask<?> mask) {
+        return switch (mask.vectorSpecies().elementSize()) {
+            case 8 -> ((ByteVector) mask.cast(I8).toVector());
+            case 16 -> ((ShortVector) mask.cast(I16).toVector()).reinterpretAsBytes();
+            case 32 -> ((IntVector) mask.cast(I32).toVector()).reinterpretAsBytes();
+            default -> ((LongVector) mask.cast(I64).toVector()).reinterpretAsBytes();
+        };
+    }
+
+    // Memory
+
+    public static ByteVector v128Load(int address, int offset, MemInstance memory) {
+        final var effectiveAddress = MemInstance.effectiveAddress(address, offset);
+
+        try {
+            return ByteVector.fromMemorySegment(I8, memory.plainSegment(), effectiveAddress, ByteOrder.LITTLE_ENDIAN);
+        } catch (IndexOutOfBoundsException e) {
+            return ByteVector.fromMemorySegment(I8, memory.grown(effectiveAddress, 16), effectiveAddress, ByteOrder.LITTLE_ENDIAN);
+        }
+    }
+
+    public static void v128Store(int address, ByteVector value, int offset, MemInstance memory) {
+        final var effectiveAddress = MemInstance.effectiveAddress(address, offset);
+
+        try {
+            value.intoMemorySegment(memory.plainSegment(), effectiveAddress, ByteOrder.LITTLE_ENDIAN);
+        } catch (IndexOutOfBoundsException e) {
+            value.intoMemorySegment(memory.grown(effectiveAddress, 16), effectiveAddress, ByteOrder.LITTLE_ENDIAN);
+        }
+
+        memory.markDirty(effectiveAddress, 16);
+    }
+
+    private static ByteVector load64(int address, int offset, MemInstance memory) {
+        return LongVector.zero(I64).withLane(0, MemInstance.i64Load(address, offset, memory)).reinterpretAsBytes();
+    }
+
+    public static ByteVector v128Load8x8S(int address, int offset, MemInstance memory) {
+        return extend(load64(address, offset, memory), B2S, 0);
+    }
+
+    public static ByteVector v128Load8x8U(int address, int offset, MemInstance memory) {
+        return extend(load64(address, offset, memory), ZERO_EXTEND_B2S, 0);
+    }
+
+    public static ByteVector v128Load16x4S(int address, int offset, MemInstance memory) {
+        return extend(i16(load64(address, offset, memory)), S2I, 0);
+    }
+
+    public static ByteVector v128Load16x4U(int address, int offset, MemInstance memory) {
+        return extend(i16(load64(address, offset, memory)), ZERO_EXTEND_S2I, 0);
+    }
+
+    public static ByteVector v128Load32x2S(int address, int offset, MemInstance memory) {
+        return extend(i32(load64(address, offset, memory)), I2L, 0);
+    }
+
+    public static ByteVector v128Load32x2U(int address, int offset, MemInstance memory) {
+        return extend(i32(load64(address, offset, memory)), ZERO_EXTEND_I2L, 0);
+    }
+
+    public static ByteVector v128Load8Splat(int address, int offset, MemInstance memory) {
+        return i8x16Splat(MemInstance.i32Load8S(address, offset, memory));
+    }
+
+    public static ByteVector v128Load16Splat(int address, int offset, MemInstance memory) {
+        return i16x8Splat(MemInstance.i32Load16S(address, offset, memory));
+    }
+
+    public static ByteVector v128Load32Splat(int address, int offset, MemInstance memory) {
+        return i32x4Splat(MemInstance.i32Load(address, offset, memory));
+    }
+
+    public static ByteVector v128Load64Splat(int address, int offset, MemInstance memory) {
+        return i64x2Splat(MemInstance.i64Load(address, offset, memory));
+    }
+
+    public static ByteVector v128Load32Zero(int address, int offset, MemInstance memory) {
+        return IntVector.zero(I32).withLane(0, MemInstance.i32Load(address, offset, memory)).reinterpretAsBytes();
+    }
+
+    public static ByteVector v128Load64Zero(int address, int offset, MemInstance memory) {
+        return load64(address, offset, memory);
+    }
+
+    public static ByteVector v128Load8Lane(int address, ByteVector v, int lane, int offset, MemInstance memory) {
+        return i8x16ReplaceLane(v, MemInstance.i32Load8S(address, offset, memory), lane);
+    }
+
+    public static ByteVector v128Load16Lane(int address, ByteVector v, int lane, int offset, MemInstance memory) {
+        return i16x8ReplaceLane(v, MemInstance.i32Load16S(address, offset, memory), lane);
+    }
+
+    public static ByteVector v128Load32Lane(int address, ByteVector v, int lane, int offset, MemInstance memory) {
+        return i32x4ReplaceLane(v, MemInstance.i32Load(address, offset, memory), lane);
+    }
+
+    public static ByteVector v128Load64Lane(int address, ByteVector v, int lane, int offset, MemInstance memory) {
+        return i64x2ReplaceLane(v, MemInstance.i64Load(address, offset, memory), lane);
+    }
+
+    public static void v128Store8Lane(int address, ByteVector v, int lane, int offset, MemInstance memory) {
+        MemInstance.i32Store8(address, v.lane(lane), offset, memory);
+    }
+
+    public static void v128Store16Lane(int address, ByteVector v, int lane, int offset, MemInstance memory) {
+        MemInstance.i32Store16(address, i16(v).lane(lane), offset, memory);
+    }
+
+    public static void v128Store32Lane(int address, ByteVector v, int lane, int offset, MemInstance memory) {
+        MemInstance.i32Store(address, i32(v).lane(lane), offset, memory);
+    }
+
+    public static void v128Store64Lane(int address, ByteVector v, int lane, int offset, MemInstance memory) {
+        MemInstance.i64Store(address, i64(v).lane(lane), offset, memory);
+    }
+
+    // Lanes
+
+    public static ByteVector i8x16Shuffle(ByteVector a, ByteVector b, VectorShuffle<Byte> shuffle) {
+        return a.rearrange(shuffle, b);
+    }
+
+    public static ByteVector i8x16Swizzle(ByteVector a, ByteVector s) {
+        final var inRange = s.compare(UNSIGNED_LT, 16);
+
+        return ByteVector.zero(I8).blend(a.rearrange(s.and((byte) 15).toShuffle()), inRange);
+    }
+
+    public static ByteVector i8x16Splat(int x) {
+        return ByteVector.broadcast(I8, (byte) x);
+    }
+
+    public static ByteVector i16x8Splat(int x) {
+        return ShortVector.broadcast(I16, (short) x).reinterpretAsBytes();
+    }
+
+    public static ByteVector i32x4Splat(int x) {
+        return IntVector.broadcast(I32, x).reinterpretAsBytes();
+    }
+
+    public static ByteVector i64x2Splat(long x) {
+        return LongVector.broadcast(I64, x).reinterpretAsBytes();
+    }
+
+    public static ByteVector f32x4Splat(float x) {
+        return FloatVector.broadcast(F32, x).reinterpretAsBytes();
+    }
+
+    public static ByteVector f64x2Splat(double x) {
+        return DoubleVector.broadcast(F64, x).reinterpretAsBytes();
+    }
+
+    public static int i8x16ExtractLaneS(ByteVector v, int lane) {
+        return v.lane(lane);
+    }
+
+    public static int i8x16ExtractLaneU(ByteVector v, int lane) {
+        return v.lane(lane) & 0xff;
+    }
+
+    public static int i16x8ExtractLaneS(ByteVector v, int lane) {
+        return i16(v).lane(lane);
+    }
+
+    public static int i16x8ExtractLaneU(ByteVector v, int lane) {
+        return i16(v).lane(lane) & 0xffff;
+    }
+
+    public static int i32x4ExtractLane(ByteVector v, int lane) {
+        return i32(v).lane(lane);
+    }
+
+    public static long i64x2ExtractLane(ByteVector v, int lane) {
+        return i64(v).lane(lane);
+    }
+
+    public static float f32x4ExtractLane(ByteVector v, int lane) {
+        return f32(v).lane(lane);
+    }
+
+    public static double f64x2ExtractLane(ByteVector v, int lane) {
+        return f64(v).lane(lane);
+    }
+
+    public static ByteVector i8x16ReplaceLane(ByteVector v, int x, int lane) {
+        return v.withLane(lane, (byte) x);
+    }
+
+    public static ByteVector i16x8ReplaceLane(ByteVector v, int x, int lane) {
+        return i16(v).withLane(lane, (short) x).reinterpretAsBytes();
+    }
+
+    public static ByteVector i32x4ReplaceLane(ByteVector v, int x, int lane) {
+        return i32(v).withLane(lane, x).reinterpretAsBytes();
+    }
+
+    public static ByteVector i64x2ReplaceLane(ByteVector v, long x, int lane) {
+        return i64(v).withLane(lane, x).reinterpretAsBytes();
+    }
+
+    public static ByteVector f32x4ReplaceLane(ByteVector v, float x, int lane) {
+        return f32(v).withLane(lane, x).reinterpretAsBytes();
+    }
+
+    public static ByteVector f64x2ReplaceLane(ByteVector v, double x, int lane) {
+        return f64(v).withLane(lane, x).reinterpretAsBytes();
+    }
+
+    // Comparisons
+
+    public static ByteVector i8x16Eq(ByteVector a, ByteVector b) {
+        return bits(a.compare(EQ, b));
+    }
+
+    public static ByteVector i8x16Ne(ByteVector a, ByteVector b) {
+        return bits(a.compare(NE, b));
+    }
+
+    public static ByteVector i8x16LtS(ByteVector a, ByteVector b) {
+        return bits(a.compare(LT, b));
+    }
+
+    public static ByteVector i8x16LtU(ByteVector a, ByteVector b) {
+        return bits(a.compare(UNSIGNED_LT, b));
+    }
+
+    public static ByteVector i8x16GtS(ByteVector a, ByteVector b) {
+        return bits(a.compare(GT, b));
+    }
+
+    public static ByteVector i8x16GtU(ByteVector a, ByteVector b) {
+        return bits(a.compare(UNSIGNED_GT, b));
+    }
+
+    public static ByteVector i8x16LeS(ByteVector a, ByteVector b) {
+        return bits(a.compare(LE, b));
+    }
+
+    public static ByteVector i8x16LeU(ByteVector a, ByteVector b) {
+        return bits(a.compare(UNSIGNED_LE, b));
+    }
+
+    public static ByteVector i8x16GeS(ByteVector a, ByteVector b) {
+        return bits(a.compare(GE, b));
+    }
+
+    public static ByteVector i8x16GeU(ByteVector a, ByteVector b) {
+        return bits(a.compare(UNSIGNED_GE, b));
+    }
+
+    public static ByteVector i16x8Eq(ByteVector a, ByteVector b) {
+        return bits(i16(a).compare(EQ, i16(b)));
+    }
+
+    public static ByteVector i16x8Ne(ByteVector a, ByteVector b) {
+        return bits(i16(a).compare(NE, i16(b)));
+    }
+
+    public static ByteVector i16x8LtS(ByteVector a, ByteVector b) {
+        return bits(i16(a).compare(LT, i16(b)));
+    }
+
+    public static ByteVector i16x8LtU(ByteVector a, ByteVector b) {
+        return bits(i16(a).compare(UNSIGNED_LT, i16(b)));
+    }
+
+    public static ByteVector i16x8GtS(ByteVector a, ByteVector b) {
+        return bits(i16(a).compare(GT, i16(b)));
+    }
+
+    public static ByteVector i16x8GtU(ByteVector a, ByteVector b) {
+        return bits(i16(a).compare(UNSIGNED_GT, i16(b)));
+    }
+
+    public static ByteVector i16x8LeS(ByteVector a, ByteVector b) {
+        return bits(i16(a).compare(LE, i16(b)));
+    }
+
+    public static ByteVector i16x8LeU(ByteVector a, ByteVector b) {
+        return bits(i16(a).compare(UNSIGNED_LE, i16(b)));
+    }
+
+    public static ByteVector i16x8GeS(ByteVector a, ByteVector b) {
+        return bits(i16(a).compare(GE, i16(b)));
+    }
+
+    public static ByteVector i16x8GeU(ByteVector a, ByteVector b) {
+        return bits(i16(a).compare(UNSIGNED_GE, i16(b)));
+    }
+
+    public static ByteVector i32x4Eq(ByteVector a, ByteVector b) {
+        return bits(i32(a).compare(EQ, i32(b)));
+    }
+
+    public static ByteVector i32x4Ne(ByteVector a, ByteVector b) {
+        return bits(i32(a).compare(NE, i32(b)));
+    }
+
+    public static ByteVector i32x4LtS(ByteVector a, ByteVector b) {
+        return bits(i32(a).compare(LT, i32(b)));
+    }
+
+    public static ByteVector i32x4LtU(ByteVector a, ByteVector b) {
+        return bits(i32(a).compare(UNSIGNED_LT, i32(b)));
+    }
+
+    public static ByteVector i32x4GtS(ByteVector a, ByteVector b) {
+        return bits(i32(a).compare(GT, i32(b)));
+    }
+
+    public static ByteVector i32x4GtU(ByteVector a, ByteVector b) {
+        return bits(i32(a).compare(UNSIGNED_GT, i32(b)));
+    }
+
+    public static ByteVector i32x4LeS(ByteVector a, ByteVector b) {
+        return bits(i32(a).compare(LE, i32(b)));
+    }
+
+    public static ByteVector i32x4LeU(ByteVector a, ByteVector b) {
+        return bits(i32(a).compare(UNSIGNED_LE, i32(b)));
+    }
+
+    public static ByteVector i32x4GeS(ByteVector a, ByteVector b) {
+        return bits(i32(a).compare(GE, i32(b)));
+    }
+
+    public static ByteVector i32x4GeU(ByteVector a, ByteVector b) {
+        return bits(i32(a).compare(UNSIGNED_GE, i32(b)));
+    }
+
+    public static ByteVector i64x2Eq(ByteVector a, ByteVector b) {
+        return bits(i64(a).compare(EQ, i64(b)));
+    }
+
+    public static ByteVector i64x2Ne(ByteVector a, ByteVector b) {
+        return bits(i64(a).compare(NE, i64(b)));
+    }
+
+    public static ByteVector i64x2LtS(ByteVector a, ByteVector b) {
+        return bits(i64(a).compare(LT, i64(b)));
+    }
+
+    public static ByteVector i64x2GtS(ByteVector a, ByteVector b) {
+        return bits(i64(a).compare(GT, i64(b)));
+    }
+
+    public static ByteVector i64x2LeS(ByteVector a, ByteVector b) {
+        return bits(i64(a).compare(LE, i64(b)));
+    }
+
+    public static ByteVector i64x2GeS(ByteVector a, ByteVector b) {
+        return bits(i64(a).compare(GE, i64(b)));
+    }
+
+    public static ByteVector f32x4Eq(ByteVector a, ByteVector b) {
+        return bits(f32(a).compare(EQ, f32(b)));
+    }
+
+    public static ByteVector f32x4Ne(ByteVector a, ByteVector b) {
+        return bits(f32(a).compare(NE, f32(b)));
+    }
+
+    public static ByteVector f32x4Lt(ByteVector a, ByteVector b) {
+        return bits(f32(a).compare(LT, f32(b)));
+    }
+
+    public static ByteVector f32x4Gt(ByteVector a, ByteVector b) {
+        return bits(f32(a).compare(GT, f32(b)));
+    }
+
+    public static ByteVector f32x4Le(ByteVector a, ByteVector b) {
+        return bits(f32(a).compare(LE, f32(b)));
+    }
+
+    public static ByteVector f32x4Ge(ByteVector a, ByteVector b) {
+        return bits(f32(a).compare(GE, f32(b)));
+    }
+
+    public static ByteVector f64x2Eq(ByteVector a, ByteVector b) {
+        return bits(f64(a).compare(EQ, f64(b)));
+    }
+
+    public static ByteVector f64x2Ne(ByteVector a, ByteVector b) {
+        return bits(f64(a).compare(NE, f64(b)));
+    }
+
+    public static ByteVector f64x2Lt(ByteVector a, ByteVector b) {
+        return bits(f64(a).compare(LT, f64(b)));
+    }
+
+    public static ByteVector f64x2Gt(ByteVector a, ByteVector b) {
+        return bits(f64(a).compare(GT, f64(b)));
+    }
+
+    public static ByteVector f64x2Le(ByteVector a, ByteVector b) {
+        return bits(f64(a).compare(LE, f64(b)));
+    }
+
+    public static ByteVector f64x2Ge(ByteVector a, ByteVector b) {
+        return bits(f64(a).compare(GE, f64(b)));
+    }
+
+    // Bitwise
+
+    public static ByteVector v128Not(ByteVector a) {
+        return a.not();
+    }
+
+    public static ByteVector v128And(ByteVector a, ByteVector b) {
+        return a.and(b);
+    }
+
+    public static ByteVector v128Andnot(ByteVector a, ByteVector b) {
+        return a.lanewise(AND_NOT, b);
+    }
+
+    public static ByteVector v128Or(ByteVector a, ByteVector b) {
+        return a.or(b);
+    }
+
+    public static ByteVector v128Xor(ByteVector a, ByteVector b) {
+        return a.lanewise(XOR, b);
+    }
+
+    /**
+     * Bits of a where the mask is set, of b elsewhere
+     */
+    public static ByteVector v128Bitselect(ByteVector a, ByteVector b, ByteVector mask) {
+        return b.lanewise(BITWISE_BLEND, a, mask);
+    }
+
+    public static int v128AnyTrue(ByteVector a) {
+        return a.compare(NE, 0).anyTrue() ? 1 : 0;
+    }
+
+    public static int i8x16AllTrue(ByteVector a) {
+        return a.compare(NE, 0).allTrue() ? 1 : 0;
+    }
+
+    public static int i16x8AllTrue(ByteVector a) {
+        return i16(a).compare(NE, 0).allTrue() ? 1 : 0;
+    }
+
+    public static int i32x4AllTrue(ByteVector a) {
+        return i32(a).compare(NE, 0).allTrue() ? 1 : 0;
+    }
+
+    public static int i64x2AllTrue(ByteVector a) {
+        return i64(a).compare(NE, 0).allTrue() ? 1 : 0;
+    }
+
+    public static int i8x16Bitmask(ByteVector a) {
+        return (int) a.compare(LT, 0).toLong();
+    }
+
+    public static int i16x8Bitmask(ByteVector a) {
+        return (int) i16(a).compare(LT, 0).toLong();
+    }
+
+    public static int i32x4Bitmask(ByteVector a) {
+        return (int) i32(a).compare(LT, 0).toLong();
+    }
+
+    public static int i64x2Bitmask(ByteVector a) {
+        return (int) i64(a).compare(LT, 0).toLong();
+    }
+
+    // Integer arithmetic
+
+    public static ByteVector i8x16Abs(ByteVector a) {
+        return a.abs();
+    }
+
+    public static ByteVector i8x16Neg(ByteVector a) {
+        return a.neg();
+    }
+
+    public static ByteVector i8x16Popcnt(ByteVector a) {
+        return a.lanewise(BIT_COUNT);
+    }
+
+    public static ByteVector i8x16Shl(ByteVector a, int n) {
+        return a.lanewise(LSHL, n);
+    }
+
+    public static ByteVector i8x16ShrS(ByteVector a, int n) {
+        return a.lanewise(ASHR, n);
+    }
+
+    public static ByteVector i8x16ShrU(ByteVector a, int n) {
+        return a.lanewise(LSHR, n);
+    }
+
+    public static ByteVector i8x16Add(ByteVector a, ByteVector b) {
+        return a.add(b);
+    }
+
+    public static ByteVector i8x16AddSatS(ByteVector a, ByteVector b) {
+        return addSatS(a, b, Byte.MIN_VALUE, Byte.MAX_VALUE).reinterpretAsBytes();
+    }
+
+    public static ByteVector i8x16AddSatU(ByteVector a, ByteVector b) {
+        return addSatU(a, b).reinterpretAsBytes();
+    }
+
+    public static ByteVector i8x16Sub(ByteVector a, ByteVector b) {
+        return a.sub(b);
+    }
+
+    public static ByteVector i8x16SubSatS(ByteVector a, ByteVector b) {
+        return subSatS(a, b, Byte.MIN_VALUE, Byte.MAX_VALUE).reinterpretAsBytes();
+    }
+
+    public static ByteVector i8x16SubSatU(ByteVector a, ByteVector b) {
+        return subSatU(a, b).reinterpretAsBytes();
+    }
+
+    public static ByteVector i8x16MinS(ByteVector a, ByteVector b) {
+        return a.min(b);
+    }
+
+    public static ByteVector i8x16MinU(ByteVector a, ByteVector b) {
+        return a.blend(b, a.compare(UNSIGNED_GT, b));
+    }
+
+    public static ByteVector i8x16MaxS(ByteVector a, ByteVector b) {
+        return a.max(b);
+    }
+
+    public static ByteVector i8x16MaxU(ByteVector a, ByteVector b) {
+        return a.blend(b, a.compare(UNSIGNED_LT, b));
+    }
+
+    public static ByteVector i8x16AvgrU(ByteVector a, ByteVector b) {
+        return avgrU(a, b).reinterpretAsBytes();
+    }
+
+    public static ByteVector i8x16NarrowI16x8S(ByteVector a, ByteVector b) {
+        return narrow(i16(a).max((short) Byte.MIN_VALUE).min((short) Byte.MAX_VALUE), i16(b).max((short) Byte.MIN_VALUE).min((short) Byte.MAX_VALUE), S2B);
+    }
+
+    public static ByteVector i8x16NarrowI16x8U(ByteVector a, ByteVector b) {
+        return narrow(i16(a).max((short) 0).min((short) 0xff), i16(b).max((short) 0).min((short) 0xff), S2B);
+    }
+
+    public static ByteVector i16x8Abs(ByteVector a) {
+        return i16(a).abs().reinterpretAsBytes();
+    }
+
+    public static ByteVector i16x8Neg(ByteVector a) {
+        return i16(a).neg().reinterpretAsBytes();
+    }
+
+    public static ByteVector i16x8Shl(ByteVector a, int n) {
+        return i16(a).lanewise(LSHL, n).reinterpretAsBytes();
+    }
+
+    public static ByteVector i16x8ShrS(ByteVector a, int n) {
+        return i16(a).lanewise(ASHR, n).reinterpretAsBytes();
+    }
+
+    public static ByteVector i16x8ShrU(ByteVector a, int n) {
+        return i16(a).lanewise(LSHR, n).reinterpretAsBytes();
+    }
+
+    public static ByteVector i16x8Add(ByteVector a, ByteVector b) {
+        return i16(a).add(i16(b)).reinterpretAsBytes();
+    }
+
+    public static ByteVector i16x8AddSatS(ByteVector a, ByteVector b) {
+        return addSatS(i16(a), i16(b), Short.MIN_VALUE, Short.MAX_VALUE).reinterpretAsBytes();
+    }
+
+    public static ByteVector i16x8AddSatU(ByteVector a, ByteVector b) {
+        return addSatU(i16(a), i16(b)).reinterpretAsBytes();
+    }
+
+    public static ByteVector i16x8Sub(ByteVector a, ByteVector b) {
+        return i16(a).sub(i16(b)).reinterpretAsBytes();
+    }
+
+    public static ByteVector i16x8SubSatS(ByteVector a, ByteVector b) {
+        return subSatS(i16(a), i16(b), Short.MIN_VALUE, Short.MAX_VALUE).reinterpretAsBytes();
+    }
+
+    public static ByteVector i16x8SubSatU(ByteVector a, ByteVector b) {
+        return subSatU(i16(a), i16(b)).reinterpretAsBytes();
+    }
+
+    public static ByteVector i16x8Mul(ByteVector a, ByteVector b) {
+        return i16(a).mul(i16(b)).reinterpretAsBytes();
+    }
+
+    public static ByteVector i16x8MinS(ByteVector a, ByteVector b) {
+        return i16(a).min(i16(b)).reinterpretAsBytes();
+    }
+
+    public static ByteVector i16x8MinU(ByteVector a, ByteVector b) {
+        return i16(a).blend(i16(b), i16(a).compare(UNSIGNED_GT, i16(b))).reinterpretAsBytes();
+    }
+
+    public static ByteVector i16x8MaxS(ByteVector a, ByteVector b) {
+        return i16(a).max(i16(b)).reinterpretAsBytes();
+    }
+
+    public static ByteVector i16x8MaxU(ByteVector a, ByteVector b) {
+        return i16(a).blend(i16(b), i16(a).compare(UNSIGNED_LT, i16(b))).reinterpretAsBytes();
+    }
+
+    public static ByteVector i16x8AvgrU(ByteVector a, ByteVector b) {
+        return avgrU(i16(a), i16(b)).reinterpretAsBytes();
+    }
+
+    /**
+     * Rounding, saturating q15 multiplication, the product of all lanes computed as ints
+     */
+    public static ByteVector i16x8Q15mulrSatS(ByteVector a, ByteVector b) {
+        final var product = (IntVector) i16(a).convertShape(S2I, WIDE_I32, 0).mul(i16(b).convertShape(S2I, WIDE_I32, 0));
+        final var rounded = product.add(0x4000).lanewise(ASHR, 15).min(Short.MAX_VALUE);
+
+        return rounded.convertShape(I2S, I16, 0).reinterpretAsBytes();
+    }
+
+    public static ByteVector i16x8NarrowI32x4S(ByteVector a, ByteVector b) {
+        return narrow(i32(a).max(Short.MIN_VALUE).min(Short.MAX_VALUE), i32(b).max(Short.MIN_VALUE).min(Short.MAX_VALUE), I2S);
+    }
+
+    public static ByteVector i16x8NarrowI32x4U(ByteVector a, ByteVector b) {
+        return narrow(i32(a).max(0).min(0xffff), i32(b).max(0).min(0xffff), I2S);
+    }
+
+    public static ByteVector i16x8ExtendLowI8x16S(ByteVector a) {
+        return extend(a, B2S, 0);
+    }
+
+    public static ByteVector i16x8ExtendHighI8x16S(ByteVector a) {
+        return extend(a, B2S, 1);
+    }
+
+    public static ByteVector i16x8ExtendLowI8x16U(ByteVector a) {
+        return extend(a, ZERO_EXTEND_B2S, 0);
+    }
+
+    public static ByteVector i16x8ExtendHighI8x16U(ByteVector a) {
+        return extend(a, ZERO_EXTEND_B2S, 1);
+    }
+
+    public static ByteVector i16x8ExtaddPairwiseI8x16S(ByteVector a) {
+        final var pairs = i16(a);
+
+        return pairs.lanewise(LSHL, 8).lanewise(ASHR, 8).add(pairs.lanewise(ASHR, 8)).reinterpretAsBytes();
+    }
+
+    public static ByteVector i16x8ExtaddPairwiseI8x16U(ByteVector a) {
+        final var pairs = i16(a);
+
+        return pairs.and((short) 0xff).add(pairs.lanewise(LSHR, 8)).reinterpretAsBytes();
+    }
+
+    public static ByteVector i16x8ExtmulLowI8x16S(ByteVector a, ByteVector b) {
+        return i16x8Mul(extend(a, B2S, 0), extend(b, B2S, 0));
+    }
+
+    public static ByteVector i16x8ExtmulHighI8x16S(ByteVector a, ByteVector b) {
+        return i16x8Mul(extend(a, B2S, 1), extend(b, B2S, 1));
+    }
+
+    public static ByteVector i16x8ExtmulLowI8x16U(ByteVector a, ByteVector b) {
+        return i16x8Mul(extend(a, ZERO_EXTEND_B2S, 0), extend(b, ZERO_EXTEND_B2S, 0));
+    }
+
+    public static ByteVector i16x8ExtmulHighI8x16U(ByteVector a, ByteVector b) {
+        return i16x8Mul(extend(a, ZERO_EXTEND_B2S, 1), extend(b, ZERO_EXTEND_B2S, 1));
+    }
+
+    public static ByteVector i32x4Abs(ByteVector a) {
+        return i32(a).abs().reinterpretAsBytes();
+    }
+
+    public static ByteVector i32x4Neg(ByteVector a) {
+        return i32(a).neg().reinterpretAsBytes();
+    }
+
+    public static ByteVector i32x4Shl(ByteVector a, int n) {
+        return i32(a).lanewise(LSHL, n).reinterpretAsBytes();
+    }
+
+    public static ByteVector i32x4ShrS(ByteVector a, int n) {
+        return i32(a).lanewise(ASHR, n).reinterpretAsBytes();
+    }
+
+    public static ByteVector i32x4ShrU(ByteVector a, int n) {
+        return i32(a).lanewise(LSHR, n).reinterpretAsBytes();
+    }
+
+    public static ByteVector i32x4Add(ByteVector a, ByteVector b) {
+        return i32(a).add(i32(b)).reinterpretAsBytes();
+    }
+
+    public static ByteVector i32x4Sub(ByteVector a, ByteVector b) {
+        return i32(a).sub(i32(b)).reinterpretAsBytes();
+    }
+
+    public static ByteVector i32x4Mul(ByteVector a, ByteVector b) {
+        return i32(a).mul(i32(b)).reinterpretAsBytes();
+    }
+
+    public static ByteVector i32x4MinS(ByteVector a, ByteVector b) {
+        return i32(a).min(i32(b)).reinterpretAsBytes();
+    }
+
+    public static ByteVector i32x4MinU(ByteVector a, ByteVector b) {
+        return i32(a).blend(i32(b), i32(a).compare(UNSIGNED_GT, i32(b))).reinterpretAsBytes();
+    }
+
+    public static ByteVector i32x4MaxS(ByteVector a, ByteVector b) {
+        return i32(a).max(i32(b)).reinterpretAsBytes();
+    }
+
+    public static ByteVector i32x4MaxU(ByteVector a, ByteVector b) {
+        return i32(a).blend(i32(b), i32(a).compare(UNSIGNED_LT, i32(b))).reinterpretAsBytes();
+    }
+
+    /**
+     * Sums of the products of the even and odd i16 lanes
+     */
+    public static ByteVector i32x4DotI16x8S(ByteVector a, ByteVector b) {
+        final var pairsA = i32(a);
+        final var pairsB = i32(b);
+        final var even = pairsA.lanewise(LSHL, 16).lanewise(ASHR, 16).mul(pairsB.lanewise(LSHL, 16).lanewise(ASHR, 16));
+        final var odd = pairsA.lanewise(ASHR, 16).mul(pairsB.lanewise(ASHR, 16));
+
+        return even.add(odd).reinterpretAsBytes();
+    }
+
+    public static ByteVector i32x4ExtendLowI16x8S(ByteVector a) {
+        return extend(i16(a), S2I, 0);
+    }
+
+    public static ByteVector i32x4ExtendHighI16x8S(ByteVector a) {
+        return extend(i16(a), S2I, 1);
+    }
+
+    public static ByteVector i32x4ExtendLowI16x8U(ByteVector a) {
+        return extend(i16(a), ZERO_EXTEND_S2I, 0);
+    }
+
+    public static ByteVector i32x4ExtendHighI16x8U(ByteVector a) {
+        return extend(i16(a), ZERO_EXTEND_S2I, 1);
+    }
+
+    public static ByteVector i32x4ExtaddPairwiseI16x8S(ByteVector a) {
+        final var pairs = i32(a);
+
+        return pairs.lanewise(LSHL, 16).lanewise(ASHR, 16).add(pairs.lanewise(ASHR, 16)).reinterpretAsBytes();
+    }
+
+    public static ByteVector i32x4ExtaddPairwiseI16x8U(ByteVector a) {
+        final var pairs = i32(a);
+
+        return pairs.and(0xffff).add(pairs.lanewise(LSHR, 16)).reinterpretAsBytes();
+    }
+
+    public static ByteVector i32x4ExtmulLowI16x8S(ByteVector a, ByteVector b) {
+        return i32x4Mul(extend(i16(a), S2I, 0), extend(i16(b), S2I, 0));
+    }
+
+    public static ByteVector i32x4ExtmulHighI16x8S(ByteVector a, ByteVector b) {
+        return i32x4Mul(extend(i16(a), S2I, 1), extend(i16(b), S2I, 1));
+    }
+
+    public static ByteVector i32x4ExtmulLowI16x8U(ByteVector a, ByteVector b) {
+        return i32x4Mul(extend(i16(a), ZERO_EXTEND_S2I, 0), extend(i16(b), ZERO_EXTEND_S2I, 0));
+    }
+
+    public static ByteVector i32x4ExtmulHighI16x8U(ByteVector a, ByteVector b) {
+        return i32x4Mul(extend(i16(a), ZERO_EXTEND_S2I, 1), extend(i16(b), ZERO_EXTEND_S2I, 1));
+    }
+
+    public static ByteVector i64x2Abs(ByteVector a) {
+        return i64(a).abs().reinterpretAsBytes();
+    }
+
+    public static ByteVector i64x2Neg(ByteVector a) {
+        return i64(a).neg().reinterpretAsBytes();
+    }
+
+    public static ByteVector i64x2Shl(ByteVector a, int n) {
+        return i64(a).lanewise(LSHL, n).reinterpretAsBytes();
+    }
+
+    public static ByteVector i64x2ShrS(ByteVector a, int n) {
+        return i64(a).lanewise(ASHR, n).reinterpretAsBytes();
+    }
+
+    public static ByteVector i64x2ShrU(ByteVector a, int n) {
+        return i64(a).lanewise(LSHR, n).reinterpretAsBytes();
+    }
+
+    public static ByteVector i64x2Add(ByteVector a, ByteVector b) {
+        return i64(a).add(i64(b)).reinterpretAsBytes();
+    }
+
+    public static ByteVector i64x2Sub(ByteVector a, ByteVector b) {
+        return i64(a).sub(i64(b)).reinterpretAsBytes();
+    }
+
+    public static ByteVector i64x2Mul(ByteVector a, ByteVector b) {
+        return i64(a).mul(i64(b)).reinterpretAsBytes();
+    }
+
+    public static ByteVector i64x2ExtendLowI32x4S(ByteVector a) {
+        return extend(i32(a), I2L, 0);
+    }
+
+    public static ByteVector i64x2ExtendHighI32x4S(ByteVector a) {
+        return extend(i32(a), I2L, 1);
+    }
+
+    public static ByteVector i64x2ExtendLowI32x4U(ByteVector a) {
+        return extend(i32(a), ZERO_EXTEND_I2L, 0);
+    }
+
+    public static ByteVector i64x2ExtendHighI32x4U(ByteVector a) {
+        return extend(i32(a), ZERO_EXTEND_I2L, 1);
+    }
+
+    public static ByteVector i64x2ExtmulLowI32x4S(ByteVector a, ByteVector b) {
+        return i64x2Mul(extend(i32(a), I2L, 0), extend(i32(b), I2L, 0));
+    }
+
+    public static ByteVector i64x2ExtmulHighI32x4S(ByteVector a, ByteVector b) {
+        return i64x2Mul(extend(i32(a), I2L, 1), extend(i32(b), I2L, 1));
+    }
+
+    public static ByteVector i64x2ExtmulLowI32x4U(ByteVector a, ByteVector b) {
+        return i64x2Mul(extend(i32(a), ZERO_EXTEND_I2L, 0), extend(i32(b), ZERO_EXTEND_I2L, 0));
+    }
+
+    public static ByteVector i64x2ExtmulHighI32x4U(ByteVector a, ByteVector b) {
+        return i64x2Mul(extend(i32(a), ZERO_EXTEND_I2L, 1), extend(i32(b), ZERO_EXTEND_I2L, 1));
+    }
+
+    // Floating point arithmetic, min and max propagate nans and order -0 before 0 like Math.min and Math.max
+
+    public static ByteVector f32x4Abs(ByteVector a) {
+        return i32(a).and(Integer.MAX_VALUE).reinterpretAsBytes();
+    }
+
+    public static ByteVector f32x4Neg(ByteVector a) {
+        return i32(a).lanewise(XOR, Integer.MIN_VALUE).reinterpretAsBytes();
+    }
+
+    public static ByteVector f32x4Sqrt(ByteVector a) {
+        return f32(a).sqrt().reinterpretAsBytes();
+    }
+
+    public static ByteVector f32x4Ceil(ByteVector a) {
+        final var lanes = f32(a).toArray();
+
+        for (int i = 0; i < lanes.length; i++) {
+            lanes[i] = (float) Math.ceil(lanes[i]);
+        }
+
+        return FloatVector.fromArray(F32, lanes, 0).reinterpretAsBytes();
+    }
+
+    public static ByteVector f32x4Floor(ByteVector a) {
+        final var lanes = f32(a).toArray();
+
+        for (int i = 0; i < lanes.length; i++) {
+            lanes[i] = (float) Math.floor(lanes[i]);
+        }
+
+        return FloatVector.fromArray(F32, lanes, 0).reinterpretAsBytes();
+    }
+
+    public static ByteVector f32x4Trunc(ByteVector a) {
+        final var lanes = f32(a).toArray();
+
+        for (int i = 0; i < lanes.length; i++) {
+            lanes[i] = Numerics.f32Trunc(lanes[i]);
+        }
+
+        return FloatVector.fromArray(F32, lanes, 0).reinterpretAsBytes();
+    }
+
+    public static ByteVector f32x4Nearest(ByteVector a) {
+        final var lanes = f32(a).toArray();
+
+        for (int i = 0; i < lanes.length; i++) {
+            lanes[i] = (float) Math.rint(lanes[i]);
+        }
+
+        return FloatVector.fromArray(F32, lanes, 0).reinterpretAsBytes();
+    }
+
+    public static ByteVector f32x4Add(ByteVector a, ByteVector b) {
+        return f32(a).add(f32(b)).reinterpretAsBytes();
+    }
+
+    public static ByteVector f32x4Sub(ByteVector a, ByteVector b) {
+        return f32(a).sub(f32(b)).reinterpretAsBytes();
+    }
+
+    public static ByteVector f32x4Mul(ByteVector a, ByteVector b) {
+        return f32(a).mul(f32(b)).reinterpretAsBytes();
+    }
+
+    public static ByteVector f32x4Div(ByteVector a, ByteVector b) {
+        return f32(a).div(f32(b)).reinterpretAsBytes();
+    }
+
+    public static ByteVector f32x4Min(ByteVector a, ByteVector b) {
+        return f32(a).min(f32(b)).reinterpretAsBytes();
+    }
+
+    public static ByteVector f32x4Max(ByteVector a, ByteVector b) {
+        return f32(a).max(f32(b)).reinterpretAsBytes();
+    }
+
+    public static ByteVector f32x4Pmin(ByteVector a, ByteVector b) {
+        return f32(a).blend(f32(b), f32(b).compare(LT, f32(a))).reinterpretAsBytes();
+    }
+
+    public static ByteVector f32x4Pmax(ByteVector a, ByteVector b) {
+        return f32(a).blend(f32(b), f32(a).compare(LT, f32(b))).reinterpretAsBytes();
+    }
+
+    public static ByteVector f64x2Abs(ByteVector a) {
+        return i64(a).and(Long.MAX_VALUE).reinterpretAsBytes();
+    }
+
+    public static ByteVector f64x2Neg(ByteVector a) {
+        return i64(a).lanewise(XOR, Long.MIN_VALUE).reinterpretAsBytes();
+    }
+
+    public static ByteVector f64x2Sqrt(ByteVector a) {
+        return f64(a).sqrt().reinterpretAsBytes();
+    }
+
+    public static ByteVector f64x2Ceil(ByteVector a) {
+        final var lanes = f64(a);
+
+        return DoubleVector.fromArray(F64, new double[]{Math.ceil(lanes.lane(0)), Math.ceil(lanes.lane(1))}, 0).reinterpretAsBytes();
+    }
+
+    public static ByteVector f64x2Floor(ByteVector a) {
+        final var lanes = f64(a);
+
+        return DoubleVector.fromArray(F64, new double[]{Math.floor(lanes.lane(0)), Math.floor(lanes.lane(1))}, 0).reinterpretAsBytes();
+    }
+
+    public static ByteVector f64x2Trunc(ByteVector a) {
+        final var lanes = f64(a);
+
+        return DoubleVector.fromArray(F64, new double[]{Numerics.f64Trunc(lanes.lane(0)), Numerics.f64Trunc(lanes.lane(1))}, 0).reinterpretAsBytes();
+    }
+
+    public static ByteVector f64x2Nearest(ByteVector a) {
+        final var lanes = f64(a);
+
+        return DoubleVector.fromArray(F64, new double[]{Math.rint(lanes.lane(0)), Math.rint(lanes.lane(1))}, 0).reinterpretAsBytes();
+    }
+
+    public static ByteVector f64x2Add(ByteVector a, ByteVector b) {
+        return f64(a).add(f64(b)).reinterpretAsBytes();
+    }
+
+    public static ByteVector f64x2Sub(ByteVector a, ByteVector b) {
+        return f64(a).sub(f64(b)).reinterpretAsBytes();
+    }
+
+    public static ByteVector f64x2Mul(ByteVector a, ByteVector b) {
+        return f64(a).mul(f64(b)).reinterpretAsBytes();
+    }
+
+    public static ByteVector f64x2Div(ByteVector a, ByteVector b) {
+        return f64(a).div(f64(b)).reinterpretAsBytes();
+    }
+
+    public static ByteVector f64x2Min(ByteVector a, ByteVector b) {
+        return f64(a).min(f64(b)).reinterpretAsBytes();
+    }
+
+    public static ByteVector f64x2Max(ByteVector a, ByteVector b) {
+        return f64(a).max(f64(b)).reinterpretAsBytes();
+    }
+
+    public static ByteVector f64x2Pmin(ByteVector a, ByteVector b) {
+        return f64(a).blend(f64(b), f64(b).compare(LT, f64(a))).reinterpretAsBytes();
+    }
+
+    public static ByteVector f64x2Pmax(ByteVector a, ByteVector b) {
+        return f64(a).blend(f64(b), f64(a).compare(LT, f64(b))).reinterpretAsBytes();
+    }
+
+    // Conversions, float to int conversions saturate and turn nans into 0 like java casts
+
+    public static ByteVector i32x4TruncSatF32x4S(ByteVector a) {
+        return f32(a).convertShape(F2I, I32, 0).reinterpretAsBytes();
+    }
+
+    public static ByteVector i32x4TruncSatF32x4U(ByteVector a) {
+        return truncSatU((LongVector) f32(a).convertShape(F2L, WIDE_I64, 0));
+    }
+
+    public static ByteVector f32x4ConvertI32x4S(ByteVector a) {
+        return i32(a).convertShape(I2F, F32, 0).reinterpretAsBytes();
+    }
+
+    public static ByteVector f32x4ConvertI32x4U(ByteVector a) {
+        return i32(a).convertShape(ZERO_EXTEND_I2L, WIDE_I64, 0).convertShape(L2F, F32, 0).reinterpretAsBytes();
+    }
+
+    public static ByteVector i32x4TruncSatF64x2SZero(ByteVector a) {
+        return f64(a).convertShape(D2I, I32, 0).reinterpretAsBytes();
+    }
+
+    public static ByteVector i32x4TruncSatF64x2UZero(ByteVector a) {
+        return truncSatU((LongVector) f64(a).convertShape(D2L, I64, 0));
+    }
+
+    public static ByteVector f64x2ConvertLowI32x4S(ByteVector a) {
+        return i32(a).convertShape(I2D, F64, 0).reinterpretAsBytes();
+    }
+
+    public static ByteVector f64x2ConvertLowI32x4U(ByteVector a) {
+        return i32(a).convertShape(ZERO_EXTEND_I2L, I64, 0).convertShape(L2D, F64, 0).reinterpretAsBytes();
+    }
+
+    public static ByteVector f32x4DemoteF64x2Zero(ByteVector a) {
+        return f64(a).convertShape(D2F, F32, 0).reinterpretAsBytes();
+    }
+
+    public static ByteVector f64x2PromoteLowF32x4(ByteVector a) {
+        return f32(a).convertShape(F2D, F64, 0).reinterpretAsBytes();
+    }
+
+    // Helpers shared by the lane sizes
+
+    /**
+     * Half of the lanes, selected by the part, extended to twice their size
+     */
+    private static <E, F> ByteVector extend(Vector<E> v, VectorOperators.Conversion<E, F> conversion, int part) {
+        return v.convertShape(conversion, v.species().withLanes(conversion.rangeType()), part).reinterpretAsBytes();
+    }
+
+    /**
+     * The lanes of a followed by the lanes of b, narrowed to half their size. Lanes must be in range already.
+     */
+    private static <E, F> ByteVector narrow(Vector<E> a, Vector<E> b, VectorOperators.Conversion<E, F> conversion) {
+        final var species = a.species().withLanes(conversion.rangeType());
+
+        return a.convertShape(conversion, species, 0).reinterpretAsBytes().or(b.convertShape(conversion, species, -1).reinterpretAsBytes());
+    }
+
+    /**
+     * Long lanes clamped to the range of unsigned ints and narrowed to the low lanes of a v128
+     */
+    private static ByteVector truncSatU(LongVector v) {
+        return v.max(0L).min(0xffffffffL).convertShape(L2I, I32, 0).reinterpretAsBytes();
+    }
+
+    private static <E> Vector<E> addSatS(Vector<E> a, Vector<E> b, long min, long max) {
+        final var sum = a.add(b);
+        final var overflow = a.lanewise(XOR, sum).lanewise(AND, b.lanewise(XOR, sum)).compare(LT, 0);
+
+        return sum.blend(a.broadcast(max).blend(a.broadcast(min), a.compare(LT, 0)), overflow);
+    }
+
+    private static <E> Vector<E> addSatU(Vector<E> a, Vector<E> b) {
+        final var sum = a.add(b);
+
+        return sum.blend(a.broadcast(-1), sum.compare(UNSIGNED_LT, a));
+    }
+
+    private static <E> Vector<E> subSatS(Vector<E> a, Vector<E> b, long min, long max) {
+        final var difference = a.sub(b);
+        final var overflow = a.lanewise(XOR, b).lanewise(AND, a.lanewise(XOR, difference)).compare(LT, 0);
+
+        return difference.blend(a.broadcast(max).blend(a.broadcast(min), a.compare(LT, 0)), overflow);
+    }
+
+    private static <E> Vector<E> subSatU(Vector<E> a, Vector<E> b) {
+        return a.sub(b).blend(a.broadcast(0), a.compare(UNSIGNED_LT, b));
+    }
+
+    /**
+     * Unsigned average rounding up, without the carry overflowing the lanes
+     */
+    private static <E> Vector<E> avgrU(Vector<E> a, Vector<E> b) {
+        return a.lanewise(OR, b).sub(a.lanewise(XOR, b).lanewise(LSHR, 1));
+    }
+}
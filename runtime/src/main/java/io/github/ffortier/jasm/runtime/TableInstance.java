@@ -1,4 +1,113 @@
 package io.github.ffortier.jasm.runtime;
 
-public record TableInstance() {
+import io.github.ffortier.jasm.binary.FuncType;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+
+/**
+ * A table of function references. Every element is a method handle typed like {@link Values#methodType(FuncType)},
+ * stored with the {@link Values#canonical(FuncType) canonical} type of the function, so {@code call_indirect} checks
+ * the signature with a reference comparison and invokes the handle exactly.
+ * <p>
+ * Elements also keep the code of their function, shared by the instances of its module, and the instance it runs on.
+ * Two elements holding the same code hold the same function of the same module, so call sites cache the code they
+ * saw and stay monomorphic across the instances of a module.
+ */
+public final class TableInstance {
+    private final FuncType[] types;
+    private final MethodHandle[] elements;
+    private final MethodHandle[] codes;
+    private final Object[] instances;
+
+    /**
+     * @param min initial number of elements, all null
+     * @param max maximum number of elements, -1 when unbounded
+     */
+    public TableInstance(int min, int max) {
+        if (min < 0 || (max != -1 && Integer.compareUnsigned(min, max) > 0)) {
+            throw new IllegalArgumentException("Invalid table limits %d..%d".formatted(min, max));
+        }
+
+        this.types = new FuncType[min];
+        this.elements = new MethodHandle[min];
+        this.codes = new MethodHandle[min];
+        this.instances = new Object[min];
+    }
+
+    public int size() {
+        return elements.length;
+    }
+
+    /**
+     * The element at the index, null when uninitialized
+     */
+    public MethodHandle get(int idx) {
+        return elements[checkIndex(idx)];
+    }
+
+    /**
+     * @param code     the function, typed like {@link Values#methodType(FuncType)} followed by its instance as an
+     *                 {@link Object}, and shared by the instances of its module. Null to clear the element.
+     * @param instance the instance the function runs on, passed last to the code
+     */
+    public void set(int idx, FuncType type, MethodHandle code, Object instance) {
+        checkIndex(idx);
+
+        types[idx] = code == null ? null : Values.canonical(type);
+        elements[idx] = code == null ? null : MethodHandles.insertArguments(code, code.type().parameterCount() - 1, instance);
+        codes[idx] = code;
+        instances[idx] = instance;
+    }
+
+    /**
+     * The function called by {@code call_indirect}, trapping when the element is out of the table, uninitialized or of
+     * another type.
+     *
+     * @param type canonical type expected by the call
+     */
+    public static MethodHandle function(int idx, FuncType type, TableInstance table) {
+        final var function = table.get(idx);
+
+        if (function == null) {
+            throw new Trap("uninitialized element %d".formatted(idx));
+        }
+
+        if (table.types[idx] != type) {
+            throw new Trap("indirect call type mismatch");
+        }
+
+        return function;
+    }
+
+    /**
+     * The code of an element returned by {@link #function(int, FuncType, TableInstance)}
+     */
+    static MethodHandle code(int idx, TableInstance table) {
+        return table.codes[idx];
+    }
+
+    /**
+     * Whether the element holds the given code, the guard of inline caches
+     */
+    static boolean is(int idx, TableInstance table, MethodHandle code) {
+        final var codes = table.codes;
+
+        return Integer.compareUnsigned(idx, codes.length) < 0 && codes[idx] == code;
+    }
+
+    /**
+     * The instance of an element whose code passed {@link #is(int, TableInstance, MethodHandle)}
+     */
+    static Object instance(int idx, TableInstance table) {
+        return table.instances[idx];
+    }
+
+    private int checkIndex(int idx) {
+        if (Integer.compareUnsigned(idx, elements.length) >= 0) {
+            throw new Trap("undefined element %d".formatted(Integer.toUnsignedLong(idx)));
+        }
+
+        return idx;
+    }
 }
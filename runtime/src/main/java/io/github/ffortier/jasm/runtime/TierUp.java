@@ -0,0 +1,15 @@
+package io.github.ffortier.jasm.runtime;
+
+import java.lang.invoke.MethodHandle;
+
+/**
+ * Compiles the functions the {@link Interpreter} finds hot.
+ */
+@FunctionalInterface
+public interface TierUp {
+    /**
+     * Compiled code of a function, of the type of its call site in the interpreter. Null when the function cannot be
+     * compiled, it is then left in the interpreter.
+     */
+    MethodHandle compile(Interpreter interpreter, int funcIdx);
+}
@@ -0,0 +1,16 @@
+package io.github.ffortier.jasm.runtime;
+
+/**
+ * Thrown when the execution of a wasm function traps, e.g. on an unreachable instruction or an integer division by
+ * zero.
+ */
+public class Trap extends RuntimeException {
+    /**
+     * Whether the trap event of an instrumented instance was recorded
+     */
+    boolean recorded;
+
+    public Trap(String message) {
+        super(message);
+    }
+}
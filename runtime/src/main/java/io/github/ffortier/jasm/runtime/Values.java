@@ -0,0 +1,93 @@
+package io.github.ffortier.jasm.runtime;
+
+import io.github.ffortier.jasm.binary.FuncType;
+import io.github.ffortier.jasm.binary.ValType;
+
+import java.lang.invoke.MethodType;
+import java.util.List;
+
+/**
+ * Mapping of wasm values to java values: i32, i64, f32 and f64 are int, long, float and double, v128 is a
+ * {@link Simd#V128 ByteVector} of 128 bits. The interpreter keeps every value but v128 as the raw bits in a long.
+ */
+public final class Values {
+    private Values() {
+    }
+
+    public static Class<?> javaType(ValType valType) {
+        return switch (valType) {
+            case ValType.NumType.I32 -> int.class;
+            case ValType.NumType.I64 -> long.class;
+            case ValType.NumType.F32 -> float.class;
+            case ValType.NumType.F64 -> double.class;
+            case ValType.VecType.V128 -> Simd.V128;
+            default -> throw new UnsupportedOperationException("Value type not supported yet %s".formatted(valType));
+        };
+    }
+
+    public static ValType valType(Class<?> javaType) {
+        if (javaType == int.class) {
+            return ValType.NumType.I32;
+        } else if (javaType == long.class) {
+            return ValType.NumType.I64;
+        } else if (javaType == float.class) {
+            return ValType.NumType.F32;
+        } else if (javaType == double.class) {
+            return ValType.NumType.F64;
+        } else if (javaType.getName().equals(Simd.V128_NAME)) {
+            return ValType.VecType.V128;
+        }
+
+        throw new IllegalArgumentException("Not a wasm value type %s".formatted(javaType));
+    }
+
+    /**
+     * Type of the java method implementing or calling a wasm function
+     */
+    public static MethodType methodType(FuncType funcType) {
+        final var ret = funcType.rets().isEmpty() ? void.class : javaType(funcType.rets().get(0));
+
+        if (funcType.rets().size() > 1) {
+            throw new UnsupportedOperationException("Multiple return values not supported yet %s".formatted(funcType));
+        }
+
+        return MethodType.methodType(ret, funcType.args().stream().map(Values::javaType).toArray(Class<?>[]::new));
+    }
+
+    /**
+     * Wasm type of a java method, the inverse of {@link #methodType(FuncType)}
+     */
+    public static FuncType funcType(MethodType methodType) {
+        final var rets = methodType.returnType() == void.class ? List.<ValType>of() : List.of(valType(methodType.returnType()));
+
+        return new FuncType(methodType.parameterList().stream().map(Values::valType).toList(), rets);
+    }
+
+    /**
+     * The canonical instance of an equal function type, so signatures are checked with a reference comparison. Types
+     * read from modules are canonical already.
+     */
+    public static FuncType canonical(FuncType funcType) {
+        return FuncType.intern(funcType);
+    }
+
+    public static Object box(ValType valType, long bits) {
+        return switch (valType) {
+            case ValType.NumType.I32 -> (int) bits;
+            case ValType.NumType.I64 -> bits;
+            case ValType.NumType.F32 -> Float.intBitsToFloat((int) bits);
+            case ValType.NumType.F64 -> Double.longBitsToDouble(bits);
+            default -> throw new UnsupportedOperationException("Value type not supported yet %s".formatted(valType));
+        };
+    }
+
+    public static long unbox(Object value) {
+        return switch (value) {
+            case Integer i -> i;
+            case Long l -> l;
+            case Float f -> Float.floatToRawIntBits(f);
+            case Double d -> Double.doubleToRawLongBits(d);
+            default -> throw new IllegalArgumentException("Not a wasm value %s".formatted(value));
+        };
+    }
+}
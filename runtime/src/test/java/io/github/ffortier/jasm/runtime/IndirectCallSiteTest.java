@@ -0,0 +1,64 @@
+package io.github.ffortier.jasm.runtime;
+
+import io.github.ffortier.jasm.binary.FuncType;
+import io.github.ffortier.jasm.binary.ValType;
+import org.assertj.core.api.WithAssertions;
+import org.junit.jupiter.api.Test;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.List;
+
+public class IndirectCallSiteTest implements WithAssertions {
+    private static final FuncType BINOP = new FuncType(List.of(ValType.NumType.I32, ValType.NumType.I32), List.of(ValType.NumType.I32));
+
+    @Test
+    public void shareCodeAcrossInstances() throws Throwable {
+        final var type = MethodType.methodType(int.class, int.class, int.class, int.class, TableInstance.class);
+        final var site = new IndirectCallSite(type);
+        final var invoker = site.dynamicInvoker();
+        final var lookup = MethodHandles.lookup();
+        final var add = lookup.findStatic(IndirectCallSiteTest.class, "add", MethodType.methodType(int.class, int.class, int.class, Object.class));
+        final var sub = lookup.findStatic(IndirectCallSiteTest.class, "sub", MethodType.methodType(int.class, int.class, int.class, Object.class));
+
+        // Like instances of one module, the tables hold the same code bound to other instances
+        for (int i = 0; i < 100; i++) {
+            final var table = new TableInstance(2, 2);
+
+            table.set(0, BINOP, add, new Object());
+            table.set(1, BINOP, sub, new Object());
+
+            assertThat((int) invoker.invokeExact(5, 3, 0, table)).isEqualTo(8);
+            assertThat((int) invoker.invokeExact(5, 3, 1, table)).isEqualTo(2);
+        }
+
+        assertThat(site.isMegamorphic()).isFalse();
+    }
+
+    @Test
+    public void passInstance() throws Throwable {
+        final var type = MethodType.methodType(int.class, int.class, TableInstance.class);
+        final var invoker = new IndirectCallSite(type).dynamicInvoker();
+        final var id = MethodHandles.lookup().findStatic(IndirectCallSiteTest.class, "id", MethodType.methodType(int.class, Object.class));
+
+        for (int i = 0; i < 10; i++) {
+            final var table = new TableInstance(1, 1);
+
+            table.set(0, new FuncType(List.of(), List.of(ValType.NumType.I32)), id, i);
+
+            assertThat((int) invoker.invokeExact(0, table)).isEqualTo(i);
+        }
+    }
+
+    private static int add(int a, int b, Object instance) {
+        return a + b;
+    }
+
+    private static int sub(int a, int b, Object instance) {
+        return a - b;
+    }
+
+    private static int id(Object instance) {
+        return (Integer) instance;
+    }
+}
@@ -0,0 +1,52 @@
+package io.github.ffortier.jasm.runtime;
+
+import org.assertj.core.api.WithAssertions;
+import org.junit.jupiter.api.Test;
+
+public class InstancePoolTest implements WithAssertions {
+
+    @Test
+    public void resetMemory() {
+        final var pool = new InstancePool<>(1, () -> {
+            final var memory = new MemInstance(1, 1);
+
+            return new InstancePool.Pooled<>(memory, new ModuleInstance(memory, null, null, null));
+        });
+
+        try (final var lease = pool.acquire()) {
+            MemInstance.i32Store(0, 42, 0, lease.get());
+        }
+
+        try (final var lease = pool.acquire()) {
+            assertThat(MemInstance.i32Load(0, 0, lease.get())).isZero();
+        }
+    }
+
+    @Test
+    public void refillFuel() {
+        final var pool = new InstancePool<>(1, () -> {
+            final var fuel = new Fuel(10);
+
+            return new InstancePool.Pooled<>(fuel, new ModuleInstance(null, fuel, null, null));
+        });
+
+        for (int i = 0; i < 3; i++) {
+            try (final var lease = pool.acquire()) {
+                Fuel.check(10, lease.get());
+
+                assertThatThrownBy(() -> Fuel.check(1, lease.get())).isInstanceOf(Trap.class).hasMessage("out of fuel");
+            }
+        }
+    }
+
+    @Test
+    public void rejectSharedMemory() {
+        final var memory = new MemInstance(1, 1);
+        final var pool = new InstancePool<>(1, () -> new InstancePool.Pooled<>(memory, new ModuleInstance(memory, null, null, null)));
+
+        try (final var lease = pool.acquire()) {
+            // A second instance would be reset over the memory of the lease
+            assertThatThrownBy(pool::acquire).isInstanceOf(IllegalStateException.class);
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package io.github.ffortier.jasm.runtime;
+
+import org.assertj.core.api.WithAssertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+public class MemInstanceTest implements WithAssertions {
+
+    @Test
+    public void grow() {
+        for (final var shared : new boolean[]{false, true}) {
+            final var memory = new MemInstance(1, 2, shared);
+
+            MemInstance.i64Store(MemInstance.PAGE_SIZE - 8, 0x0102030405060708L, 0, memory);
+
+            assertThatThrownBy(() -> MemInstance.i32Load(MemInstance.PAGE_SIZE, 0, memory)).isInstanceOf(Trap.class).hasMessage("out of bounds memory access");
+            assertThat(memory.grow(1)).isEqualTo(1);
+            assertThat(memory.grow(1)).isEqualTo(-1);
+            assertThat(memory.size()).isEqualTo(2);
+            assertThat(MemInstance.i64Load(MemInstance.PAGE_SIZE - 8, 0, memory)).isEqualTo(0x0102030405060708L);
+            assertThat(MemInstance.i64Load(MemInstance.PAGE_SIZE, 0, memory)).isZero();
+        }
+    }
+
+    @Test
+    public void growInPlace() {
+        final var memory = new MemInstance(0, -1);
+        final var address = memory.segment().address();
+
+        // Growing page by page, like sbrk, neither copies nor moves the memory
+        for (int i = 0; i < 1024; i++) {
+            assertThat(memory.grow(1)).isEqualTo(i);
+            MemInstance.i32Store(i * MemInstance.PAGE_SIZE, i, 0, memory);
+        }
+
+        assertThat(memory.segment().address()).isEqualTo(address);
+        assertThat(MemInstance.i32Load(1023 * MemInstance.PAGE_SIZE, 0, memory)).isEqualTo(1023);
+    }
+
+    @Test
+    public void restoreAfterGrow() {
+        for (final var shared : new boolean[]{false, true}) {
+            final var memory = new MemInstance(1, 2, shared);
+
+            MemInstance.i32Store(0, 1, 0, memory);
+            memory.snapshot();
+            MemInstance.i32Store(0, 2, 0, memory);
+            memory.grow(1);
+            MemInstance.i32Store(MemInstance.PAGE_SIZE, 3, 0, memory);
+            memory.restore();
+
+            assertThat(memory.size()).isEqualTo(1);
+            assertThat(MemInstance.i32Load(0, 0, memory)).isEqualTo(1);
+
+            // Pages grown again read as zeros
+            memory.grow(1);
+
+            assertThat(MemInstance.i32Load(MemInstance.PAGE_SIZE, 0, memory)).isZero();
+        }
+    }
+
+    @Test
+    public void growSharedFromAnotherThread() throws InterruptedException {
+        final var memory = new MemInstance(1, 2, true);
+
+        // This thread sees the single page segment before the memory grows
+        assertThat(MemInstance.i32Load(0, 0, memory)).isZero();
+
+        final var grower = new Thread(() -> {
+            memory.grow(1);
+            MemInstance.i32Store(MemInstance.PAGE_SIZE, 42, 0, memory);
+        });
+
+        grower.start();
+        grower.join();
+
+        assertThat(MemInstance.i32Load(MemInstance.PAGE_SIZE, 0, memory)).isEqualTo(42);
+        assertThat(MemInstance.i32AtomicLoad(MemInstance.PAGE_SIZE, 0, memory)).isEqualTo(42);
+        assertThatThrownBy(() -> MemInstance.i32Load(2 * MemInstance.PAGE_SIZE, 0, memory)).isInstanceOf(Trap.class).hasMessage("out of bounds memory access");
+    }
+
+    @Test
+    public void restoreSharedWrittenByThreads() throws InterruptedException {
+        final var memory = new MemInstance(1, 1, true);
+        final var threads = new Thread[8];
+
+        memory.snapshot();
+
+        // Every thread writes its own blocks, whose dirty bits share words with the others
+        for (int t = 0; t < threads.length; t++) {
+            final var first = t;
+
+            threads[t] = new Thread(() -> {
+                for (int block = first; block < MemInstance.PAGE_SIZE >>> 12; block += threads.length) {
+                    MemInstance.i32AtomicStore(block << 12, -1, 0, memory);
+                }
+            });
+            threads[t].start();
+        }
+
+        for (final var thread : threads) {
+            thread.join();
+        }
+
+        memory.restore();
+
+        for (int block = 0; block < MemInstance.PAGE_SIZE >>> 12; block++) {
+            assertThat(MemInstance.i32Load(block << 12, 0, memory)).as("block %d", block).isZero();
+        }
+    }
+
+    @Test
+    public void atomicRmw() {
+        final var memory = new MemInstance(1, 1, true);
+
+        MemInstance.i32AtomicStore(8, 10, 0, memory);
+
+        assertThat(MemInstance.i32AtomicRmw(0, 5, 8, MemInstance.RMW_ADD, memory)).isEqualTo(10);
+        assertThat(MemInstance.i32AtomicRmw(0, 3, 8, MemInstance.RMW_SUB, memory)).isEqualTo(15);
+        assertThat(MemInstance.i32AtomicRmw(0, 0b1010, 8, MemInstance.RMW_AND, memory)).isEqualTo(12);
+        assertThat(MemInstance.i32AtomicRmw(0, 1, 8, MemInstance.RMW_OR, memory)).isEqualTo(8);
+        assertThat(MemInstance.i32AtomicRmw(0, 0xf, 8, MemInstance.RMW_XOR, memory)).isEqualTo(9);
+        assertThat(MemInstance.i32AtomicRmw(0, 42, 8, MemInstance.RMW_XCHG, memory)).isEqualTo(6);
+        assertThat(MemInstance.i32AtomicLoad(8, 0, memory)).isEqualTo(42);
+
+        MemInstance.i64AtomicStore(16, -1L, 0, memory);
+
+        assertThat(MemInstance.i64AtomicRmw(16, 1, 0, MemInstance.RMW_ADD, memory)).isEqualTo(-1L);
+        assertThat(MemInstance.i64AtomicLoad(16, 0, memory)).isZero();
+    }
+
+    @Test
+    public void atomicRmwNarrow() {
+        final var memory = new MemInstance(1, 1, true);
+
+        MemInstance.i32Store(4, 0x11_ff_22_33, 0, memory);
+
+        // The byte wraps around without carrying into its neighbours
+        assertThat(MemInstance.i32AtomicRmw8U(6, 1, 0, MemInstance.RMW_ADD, memory)).isEqualTo(0xff);
+        assertThat(MemInstance.i32Load(4, 0, memory)).isEqualTo(0x11_00_22_33);
+        assertThat(MemInstance.i32AtomicRmw16U(4, 0x1234, 0, MemInstance.RMW_XCHG, memory)).isEqualTo(0x2233);
+        assertThat(MemInstance.i32Load(4, 0, memory)).isEqualTo(0x11_00_12_34);
+        assertThat(MemInstance.i64AtomicRmw32U(4, 1, 0, MemInstance.RMW_SUB, memory)).isEqualTo(0x11_00_12_34L);
+        assertThat(MemInstance.i32AtomicLoad8U(7, 0, memory)).isEqualTo(0x11);
+    }
+
+    @Test
+    public void atomicCmpxchg() {
+        final var memory = new MemInstance(1, 1, true);
+
+        MemInstance.i32AtomicStore(0, 42, 0, memory);
+
+        assertThat(MemInstance.i32AtomicCmpxchg(0, 42, 7, 0, memory)).isEqualTo(42);
+        assertThat(MemInstance.i32AtomicCmpxchg(0, 42, 9, 0, memory)).isEqualTo(7);
+        assertThat(MemInstance.i32AtomicLoad(0, 0, memory)).isEqualTo(7);
+
+        // The expected value is wrapped to the size of the access
+        assertThat(MemInstance.i64AtomicCmpxchg32U(0, 1L << 32 | 7, 8, 0, memory)).isEqualTo(7L);
+        assertThat(MemInstance.i32AtomicCmpxchg8U(0, 0x108, 0xab, 0, memory)).isEqualTo(8);
+        assertThat(MemInstance.i32AtomicLoad(0, 0, memory)).isEqualTo(0xab);
+        assertThat(MemInstance.i64AtomicCmpxchg(8, 1, 2, 0, memory)).isZero();
+        assertThat(MemInstance.i64AtomicLoad(8, 0, memory)).isZero();
+    }
+
+    @Test
+    public void waitTimeout() {
+        final var memory = new MemInstance(1, 1, true);
+
+        assertThat(MemInstance.memoryAtomicWait32(0, 1, 0, 0, memory)).isEqualTo(1);
+        assertThat(MemInstance.memoryAtomicWait32(0, 0, TimeUnit.MILLISECONDS.toNanos(10), 0, memory)).isEqualTo(2);
+        assertThat(MemInstance.memoryAtomicWait64(8, 0, 0, 0, memory)).isEqualTo(2);
+        assertThat(MemInstance.memoryAtomicNotify(0, 1, 0, memory)).isZero();
+    }
+
+    @Test
+    public void notifyWaiter() throws Exception {
+        final var memory = new MemInstance(1, 1, true);
+        final var waiter = new FutureTask<>(() -> MemInstance.memoryAtomicWait32(0, 0, -1, 0, memory));
+
+        new Thread(waiter).start();
+
+        // The waiter may not be queued yet
+        while (MemInstance.memoryAtomicNotify(0, 1, 0, memory) == 0) {
+            Thread.sleep(1);
+        }
+
+        assertThat(waiter.get(10, TimeUnit.SECONDS)).isZero();
+    }
+
+    @Test
+    public void atomicTraps() {
+        final var memory = new MemInstance(1, 1, true);
+
+        assertThatThrownBy(() -> MemInstance.i32AtomicRmw(2, 1, 0, MemInstance.RMW_ADD, memory)).isInstanceOf(Trap.class).hasMessage("unaligned atomic");
+        assertThatThrownBy(() -> MemInstance.i64AtomicLoad(4, 0, memory)).isInstanceOf(Trap.class).hasMessage("unaligned atomic");
+        assertThatThrownBy(() -> MemInstance.i32AtomicCmpxchg16U(0, 0, 0, 1, memory)).isInstanceOf(Trap.class).hasMessage("unaligned atomic");
+        assertThatThrownBy(() -> MemInstance.memoryAtomicWait32(2, 0, 0, 0, memory)).isInstanceOf(Trap.class).hasMessage("unaligned atomic");
+        assertThatThrownBy(() -> MemInstance.i32AtomicLoad(MemInstance.PAGE_SIZE, 0, memory)).isInstanceOf(Trap.class).hasMessage("out of bounds memory access");
+        assertThatThrownBy(() -> MemInstance.i32AtomicStore(-4, 0, 0, memory)).isInstanceOf(Trap.class).hasMessage("out of bounds memory access");
+
+        final var unshared = new MemInstance(1, 1);
+
+        assertThatThrownBy(() -> MemInstance.memoryAtomicWait32(0, 0, 0, 0, unshared)).isInstanceOf(Trap.class).hasMessage("expected shared memory");
+        assertThatThrownBy(() -> MemInstance.memoryAtomicWait64(0, 0, 0, 0, unshared)).isInstanceOf(Trap.class).hasMessage("expected shared memory");
+        assertThat(MemInstance.memoryAtomicNotify(0, 1, 0, unshared)).isZero();
+    }
+}
@@ -0,0 +1,117 @@
+package io.github.ffortier.jasm.runtime;
+
+import jdk.incubator.vector.ByteVector;
+import org.assertj.core.api.WithAssertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.function.ToIntBiFunction;
+
+public class SimdTest implements WithAssertions {
+    /**
+     * The bytes 0 to 15, each in the lane of its value
+     */
+    private static final ByteVector IOTA = Simd.v128(0x07060504_03020100L, 0x0f0e0d0c_0b0a0908L);
+
+    @Test
+    public void lanes() {
+        assertThat(Simd.i8x16ExtractLaneU(IOTA, 9)).isEqualTo(9);
+        assertThat(Simd.i16x8ExtractLaneS(IOTA, 1)).isEqualTo(0x0302);
+        assertThat(Simd.i32x4ExtractLane(IOTA, 3)).isEqualTo(0x0f0e0d0c);
+        assertThat(Simd.i64x2ExtractLane(IOTA, 1)).isEqualTo(0x0f0e0d0c_0b0a0908L);
+
+        final var replaced = Simd.i8x16ReplaceLane(IOTA, 0x80, 4);
+
+        assertThat(Simd.i8x16ExtractLaneS(replaced, 4)).isEqualTo(-128);
+        assertThat(Simd.i8x16ExtractLaneU(replaced, 4)).isEqualTo(128);
+        assertThat(Simd.i16x8ExtractLaneU(Simd.i16x8Splat(-1), 7)).isEqualTo(0xffff);
+
+        final var wide = Simd.i32x4ReplaceLane(IOTA, -1, 2);
+
+        assertThat(Simd.low(wide)).isEqualTo(Simd.low(IOTA));
+        assertThat(Simd.high(wide)).isEqualTo(0x0f0e0d0c_ffffffffL);
+    }
+
+    @Test
+    public void saturate() {
+        assertThat(Simd.i8x16ExtractLaneS(Simd.i8x16AddSatS(Simd.i8x16Splat(100), Simd.i8x16Splat(100)), 0)).isEqualTo(127);
+        assertThat(Simd.i8x16ExtractLaneS(Simd.i8x16AddSatS(Simd.i8x16Splat(-100), Simd.i8x16Splat(-100)), 0)).isEqualTo(-128);
+        assertThat(Simd.i8x16ExtractLaneS(Simd.i8x16AddSatS(Simd.i8x16Splat(100), Simd.i8x16Splat(-27)), 0)).isEqualTo(73);
+        assertThat(Simd.i8x16ExtractLaneU(Simd.i8x16AddSatU(Simd.i8x16Splat(200), Simd.i8x16Splat(100)), 0)).isEqualTo(255);
+        assertThat(Simd.i8x16ExtractLaneS(Simd.i8x16SubSatS(Simd.i8x16Splat(-100), Simd.i8x16Splat(100)), 0)).isEqualTo(-128);
+        assertThat(Simd.i8x16ExtractLaneU(Simd.i8x16SubSatU(Simd.i8x16Splat(10), Simd.i8x16Splat(20)), 0)).isEqualTo(0);
+        assertThat(Simd.i16x8ExtractLaneS(Simd.i16x8AddSatS(Simd.i16x8Splat(30_000), Simd.i16x8Splat(30_000)), 0)).isEqualTo(32_767);
+        assertThat(Simd.i16x8ExtractLaneS(Simd.i16x8SubSatS(Simd.i16x8Splat(-30_000), Simd.i16x8Splat(30_000)), 0)).isEqualTo(-32_768);
+        assertThat(Simd.i16x8ExtractLaneU(Simd.i16x8AddSatU(Simd.i16x8Splat(0xffff), Simd.i16x8Splat(1)), 0)).isEqualTo(0xffff);
+        assertThat(Simd.i16x8ExtractLaneU(Simd.i16x8SubSatU(Simd.i16x8Splat(1), Simd.i16x8Splat(2)), 0)).isEqualTo(0);
+    }
+
+    @Test
+    public void shuffle() {
+        // Lane i takes lane 31 - 2i of the 32 lanes of both vectors, the bytes 16 to 31 in the second one
+        final var second = Simd.i8x16Add(IOTA, Simd.i8x16Splat(16));
+        final var lanes = new long[2];
+
+        for (int i = 0; i < 16; i++) {
+            lanes[i / 8] |= (long) (31 - 2 * i) << 8 * (i % 8);
+        }
+
+        final var shuffled = Simd.i8x16Shuffle(IOTA, second, Simd.shuffle(lanes[0], lanes[1]));
+
+        for (int i = 0; i < 16; i++) {
+            assertThat(Simd.i8x16ExtractLaneU(shuffled, i)).as("lane %d", i).isEqualTo(31 - 2 * i);
+        }
+    }
+
+    @Test
+    public void swizzle() {
+        // Reversed lanes, except lanes 0 and 1 out of range, which are zeroed
+        var indices = Simd.i8x16Sub(Simd.i8x16Splat(15), IOTA);
+
+        indices = Simd.i8x16ReplaceLane(indices, 16, 0);
+        indices = Simd.i8x16ReplaceLane(indices, 0x80, 1);
+
+        final var swizzled = Simd.i8x16Swizzle(Simd.i8x16Add(IOTA, Simd.i8x16Splat(0x10)), indices);
+
+        assertThat(Simd.i8x16ExtractLaneU(swizzled, 0)).isEqualTo(0);
+        assertThat(Simd.i8x16ExtractLaneU(swizzled, 1)).isEqualTo(0);
+
+        for (int i = 2; i < 16; i++) {
+            assertThat(Simd.i8x16ExtractLaneU(swizzled, i)).as("lane %d", i).isEqualTo(0x10 + 15 - i);
+        }
+    }
+
+    @Test
+    public void narrow() {
+        final var shorts = i16x8(-200, -128, -1, 0, 1, 127, 128, 300);
+        final var signed = Simd.i8x16NarrowI16x8S(shorts, Simd.i16x8Splat(1_000));
+        final var unsigned = Simd.i8x16NarrowI16x8U(shorts, Simd.i16x8Splat(-1_000));
+
+        assertThat(bytes(signed, Simd::i8x16ExtractLaneS)).containsExactly(-128, -128, -1, 0, 1, 127, 127, 127, 127, 127, 127, 127, 127, 127, 127, 127);
+        assertThat(bytes(unsigned, Simd::i8x16ExtractLaneU)).containsExactly(0, 0, 0, 0, 1, 127, 128, 255, 0, 0, 0, 0, 0, 0, 0, 0);
+
+        final var ints = Simd.i32x4ReplaceLane(Simd.i32x4ReplaceLane(Simd.i32x4ReplaceLane(Simd.i32x4Splat(-40_000), -5, 1), 5, 2), 70_000, 3);
+
+        assertThat(Simd.low(Simd.i16x8NarrowI32x4S(ints, ints))).isEqualTo(0x7fff_0005_fffb_8000L);
+        assertThat(Simd.low(Simd.i16x8NarrowI32x4U(ints, ints))).isEqualTo(0xffff_0005_0000_0000L);
+    }
+
+    private static ByteVector i16x8(int... lanes) {
+        var v = Simd.i16x8Splat(0);
+
+        for (int i = 0; i < lanes.length; i++) {
+            v = Simd.i16x8ReplaceLane(v, lanes[i], i);
+        }
+
+        return v;
+    }
+
+    private static int[] bytes(ByteVector v, ToIntBiFunction<ByteVector, Integer> lane) {
+        final var bytes = new int[16];
+
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = lane.applyAsInt(v, i);
+        }
+
+        return bytes;
+    }
+}